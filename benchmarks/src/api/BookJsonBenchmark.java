@@ -0,0 +1,89 @@
+package api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import bench.BookFixtures;
+import model.Book;
+
+/**
+ * Serializing a book list to response bytes: both BookJsonWriter styles,
+ * the Gson path LibraryApiServer used before, and SimpleApiServer's old
+ * String.format-based convertBooksToJson as a fixed baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BookJsonBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    private List<Book> books;
+    private final Gson gson = new Gson();
+
+    @Setup
+    public void setUp() {
+        books = BookFixtures.books(size);
+    }
+
+    @Benchmark
+    public int simpleWriter() throws Exception {
+        return BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeBooks(books).size();
+    }
+
+    @Benchmark
+    public int gsonStyleWriter() throws Exception {
+        return BookJsonWriter.forThread(BookJsonWriter.Style.GSON).writeBooks(books).size();
+    }
+
+    @Benchmark
+    public byte[] gsonToJson() {
+        return gson.toJson(books).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] legacyStringFormat() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < books.size(); i++) {
+            if (i > 0) {
+                json.append(",");
+            }
+            Book book = books.get(i);
+            json.append(String.format("{\"id\":%d,\"name\":\"%s\",\"author\":\"%s\"}",
+                    book.getId(), legacyEscape(book.getName()), legacyEscape(book.getAuthor())));
+        }
+        json.append("]");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // escapeJson as it was before the single-pass rewrite
+    static String legacyEscape(String input) {
+        if (input == null) {
+            return "";
+        }
+        return input.replace("\\", "\\\\")
+                    .replace("\"", "\\\"")
+                    .replace("\n", "\\n")
+                    .replace("\r", "\\r")
+                    .replace("\t", "\\t");
+    }
+}
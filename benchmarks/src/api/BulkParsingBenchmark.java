@@ -0,0 +1,65 @@
+package api;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.BookFixtures;
+import dao.BookSource;
+import model.Book;
+
+/**
+ * Parsing a bulk upload without touching the database: NDJSON and CSV
+ * bodies of 10 to 1M books read through BulkImport's parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BulkParsingBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    private byte[] ndjson;
+    private byte[] csv;
+
+    @Setup
+    public void setUp() {
+        ndjson = BookFixtures.ndjson(BookFixtures.books(size)).getBytes(StandardCharsets.UTF_8);
+        csv = BookFixtures.csv(BookFixtures.books(size)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int ndjson() throws Exception {
+        return drain(BulkImport.openSource(new ByteArrayInputStream(ndjson), "application/x-ndjson", null));
+    }
+
+    @Benchmark
+    public int csv() throws Exception {
+        return drain(BulkImport.openSource(new ByteArrayInputStream(csv), "text/csv", null));
+    }
+
+    private static int drain(BookSource source) throws Exception {
+        int count = 0;
+        Book book;
+        while ((book = source.next()) != null) {
+            count += book.getName().length();
+        }
+        return count;
+    }
+}
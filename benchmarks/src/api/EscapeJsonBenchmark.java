@@ -0,0 +1,62 @@
+package api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Escaping a single field: the common case with nothing to escape, a field
+ * full of quotes and backslashes, and non-ASCII text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeJsonBenchmark {
+
+    @Param({ "plain", "quotes", "unicode" })
+    public String kind;
+
+    private String value;
+
+    @Setup
+    public void setUp() {
+        switch (kind) {
+            case "quotes":
+                value = "The \"Collected\" Letters\\Notes of\tC:\\Users\\\"Someone\"\n";
+                break;
+            case "unicode":
+                value = "Cien años de soledad — Gabriel García Márquez, Zoë Émile";
+                break;
+            default:
+                value = "The Catcher in the Rye by J.D. Salinger, first edition";
+        }
+    }
+
+    @Benchmark
+    public String escapeJson() {
+        return SimpleApiServer.escapeJson(value);
+    }
+
+    @Benchmark
+    public String legacyEscapeJson() {
+        return BookJsonBenchmark.legacyEscape(value);
+    }
+
+    @Benchmark
+    public int bookJsonWriterString() throws Exception {
+        return BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeString(value).size();
+    }
+}
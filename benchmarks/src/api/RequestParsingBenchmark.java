@@ -0,0 +1,94 @@
+package api;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import model.Book;
+
+/**
+ * Parsing a POST/PUT body: the streaming JsonBodyReader, Gson as used by
+ * LibraryApiServer, and the old indexOf-based parseJson as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+    // small: a typical form post; escaped: quotes and \\u escapes; large: near the default body limit
+    @Param({ "small", "escaped", "large" })
+    public String body;
+
+    private byte[] bytes;
+    private String text;
+    private final Gson gson = new Gson();
+
+    @Setup
+    public void setUp() {
+        switch (body) {
+            case "escaped":
+                text = "{\"name\": \"The \\\"Annotated\\\" Alice\\n\\u00e9dition\", \"author\": \"Lewis \\\\ Carroll\"}";
+                break;
+            case "large":
+                StringBuilder name = new StringBuilder();
+                while (name.length() < 60_000) {
+                    name.append("A very long title ");
+                }
+                text = "{\"name\": \"" + name + "\", \"author\": \"Someone\"}";
+                break;
+            default:
+                text = "{\"name\": \"The Great Gatsby\", \"author\": \"F. Scott Fitzgerald\"}";
+        }
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, String> jsonBodyReader() throws Exception {
+        return JsonBodyReader.readObject(new ByteArrayInputStream(bytes), JsonBodyReader.DEFAULT_MAX_BODY_BYTES);
+    }
+
+    @Benchmark
+    public Book gsonFromJson() {
+        return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8), Book.class);
+    }
+
+    @Benchmark
+    public Map<String, String> legacyIndexOf() {
+        // The request body was first decoded to a String, then scanned once per field
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        Map<String, String> result = new HashMap<>();
+        int nameStart = json.indexOf("\"name\"");
+        if (nameStart >= 0) {
+            nameStart = json.indexOf(":", nameStart) + 1;
+            nameStart = json.indexOf("\"", nameStart) + 1;
+            result.put("name", json.substring(nameStart, json.indexOf("\"", nameStart)));
+        }
+        int authorStart = json.indexOf("\"author\"");
+        if (authorStart >= 0) {
+            authorStart = json.indexOf(":", authorStart) + 1;
+            authorStart = json.indexOf("\"", authorStart) + 1;
+            result.put("author", json.substring(authorStart, json.indexOf("\"", authorStart)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import model.Book;
+
+/**
+ * Deterministic book data for the benchmarks. The same seed gives the same
+ * catalog on every run, so results from different releases stay comparable.
+ */
+public final class BookFixtures {
+
+    private static final String[] WORDS = {
+        "Shadow", "River", "Winter", "Garden", "Empire", "Silent", "Glass", "Storm", "Harbor", "Letters",
+        "Night", "Iron", "Paper", "Memory", "Orchard", "Distant", "Golden", "Broken", "Northern", "House"
+    };
+    private static final String[] FIRST_NAMES = {
+        "Jane", "George", "Harper", "Toni", "Gabriel", "Chimamanda", "Haruki", "Virginia", "Émile", "Zoë"
+    };
+    private static final String[] LAST_NAMES = {
+        "Austen", "Orwell", "Lee", "Morrison", "García Márquez", "Adichie", "Murakami", "Woolf", "Zola", "O'Brien"
+    };
+
+    private BookFixtures() {
+    }
+
+    public static List<Book> books(int count) {
+        Random random = new Random(42);
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            books.add(new Book(i, title(random), author(random)));
+        }
+        return books;
+    }
+
+    public static String title(Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            title.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        // A few titles need escaping, as real catalogs do
+        if (random.nextInt(50) == 0) {
+            title.append(" \"Annotated\"");
+        }
+        return title.toString();
+    }
+
+    public static String author(Random random) {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    // One {"name":...,"author":...} object per line
+    public static String ndjson(List<Book> books) {
+        StringBuilder out = new StringBuilder(books.size() * 64);
+        for (Book book : books) {
+            out.append("{\"name\":\"").append(book.getName().replace("\"", "\\\""))
+               .append("\",\"author\":\"").append(book.getAuthor()).append("\"}\n");
+        }
+        return out.toString();
+    }
+
+    public static String csv(List<Book> books) {
+        StringBuilder out = new StringBuilder(books.size() * 48);
+        out.append("name,author\n");
+        for (Book book : books) {
+            out.append('"').append(book.getName().replace("\"", "\"\"")).append("\",")
+               .append(book.getAuthor()).append('\n');
+        }
+        return out.toString();
+    }
+}
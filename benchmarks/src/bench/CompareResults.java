@@ -0,0 +1,102 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Side-by-side comparison of two JMH result files written with -rf json,
+ * e.g. the committed results of the last release and a local run:
+ *
+ *   java -cp target/benchmarks.jar bench.CompareResults benchmarks/results/1.0.json new.json
+ *
+ * Prints score and allocation per operation (from -prof gc) for every
+ * benchmark and parameter combination, with the relative change.
+ */
+public final class CompareResults {
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <baseline.json> <candidate.json>");
+            System.exit(2);
+        }
+        Map<String, double[]> baseline = load(args[0]);
+        Map<String, double[]> candidate = load(args[1]);
+
+        System.out.printf("%-90s %14s %14s %8s %12s %12s %8s%n",
+                "Benchmark", "Base score", "New score", "Change", "Base B/op", "New B/op", "Change");
+        TreeSet<String> keys = new TreeSet<>(baseline.keySet());
+        keys.addAll(candidate.keySet());
+        for (String key : keys) {
+            double[] before = baseline.get(key);
+            double[] after = candidate.get(key);
+            System.out.printf("%-90s %14s %14s %8s %12s %12s %8s%n", key,
+                    format(before, 0), format(after, 0), change(before, after, 0),
+                    format(before, 1), format(after, 1), change(before, after, 1));
+        }
+    }
+
+    // "benchmark [param=value, ...] (unit)" -> { score, bytes per op }
+    private static Map<String, double[]> load(String file) throws IOException {
+        Map<String, double[]> results = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                if (run.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                        params.put(param.getKey(), param.getValue().getAsString());
+                    }
+                    key.append(' ').append(params);
+                }
+                JsonObject primary = run.getAsJsonObject("primaryMetric");
+                key.append(" (").append(primary.get("scoreUnit").getAsString()).append(')');
+
+                double alloc = Double.NaN;
+                JsonObject secondary = run.getAsJsonObject("secondaryMetrics");
+                if (secondary != null) {
+                    for (Map.Entry<String, JsonElement> metric : secondary.entrySet()) {
+                        // Older JMH versions prefix profiler metrics with a middle dot
+                        if (metric.getKey().endsWith(ALLOC_NORM)) {
+                            alloc = metric.getValue().getAsJsonObject().get("score").getAsDouble();
+                        }
+                    }
+                }
+                results.put(key.toString(), new double[] { primary.get("score").getAsDouble(), alloc });
+            }
+        }
+        return results;
+    }
+
+    private static String format(double[] values, int column) {
+        if (values == null || Double.isNaN(values[column])) {
+            return "-";
+        }
+        return String.format("%.3f", values[column]);
+    }
+
+    private static String change(double[] before, double[] after, int column) {
+        if (before == null || after == null || Double.isNaN(before[column]) || Double.isNaN(after[column])
+                || before[column] == 0) {
+            return "-";
+        }
+        return String.format("%+.1f%%", (after[column] - before[column]) / before[column] * 100);
+    }
+}
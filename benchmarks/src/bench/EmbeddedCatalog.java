@@ -0,0 +1,57 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/**
+ * In-memory H2 database in MySQL mode standing in for library_db, so the DAO
+ * benchmarks run without a MySQL server.
+ *
+ * Must be called before BookDAO or DBConnection is first used in the JVM,
+ * because DBConnection reads its URL once. JMH runs every parameter
+ * combination in a fresh fork, so each trial gets its own catalog.
+ */
+public final class EmbeddedCatalog {
+
+    public static final String URL = "jdbc:h2:mem:library_bench;MODE=MySQL;IGNORECASE=TRUE;DB_CLOSE_DELAY=-1";
+
+    private EmbeddedCatalog() {
+    }
+
+    // Point DBConnection at the embedded database and fill it with count books
+    public static void install(int count) throws SQLException {
+        System.setProperty("library.db.url", URL);
+        System.setProperty("library.db.user", "sa");
+        System.setProperty("library.db.password", "");
+        // H2 rejects MySQL's MIN_VALUE streaming hint
+        System.setProperty("library.db.streamFetchSize", "1000");
+
+        try (Connection con = DriverManager.getConnection(URL, "sa", "")) {
+            try (Statement stmt = con.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS books");
+                stmt.execute("CREATE TABLE books ("
+                        + "id INT AUTO_INCREMENT PRIMARY KEY, "
+                        + "name VARCHAR(255) NOT NULL, "
+                        + "author VARCHAR(255) NOT NULL)");
+            }
+            con.setAutoCommit(false);
+            Random random = new Random(42);
+            try (PreparedStatement insert = con.prepareStatement("INSERT INTO books (name, author) VALUES (?, ?)")) {
+                for (int i = 1; i <= count; i++) {
+                    insert.setString(1, BookFixtures.title(random));
+                    insert.setString(2, BookFixtures.author(random));
+                    insert.addBatch();
+                    if (i % 10_000 == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            con.commit();
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Open-loop HTTP load generator for SimpleApiServer and LibraryApiServer.
+ *
+ * Requests are started on a fixed schedule (rate per second), whether or not
+ * earlier ones have completed, and each latency is measured from the time the
+ * request was scheduled to start rather than when it was actually sent. A
+ * server that stalls therefore shows up in the percentiles instead of quietly
+ * slowing the generator down (coordinated omission).
+ *
+ * Needs only the JDK, so it also runs straight from source:
+ *
+ *   java benchmarks/src/bench/LoadGenerator.java --rate 500 --duration 60
+ *   java benchmarks/src/bench/LoadGenerator.java --server spark --mix get=80,search=20
+ *
+ * Writes only touch books the generator created itself (named after the run
+ * tag), and those are deleted again at the end unless --keep is given.
+ */
+public final class LoadGenerator {
+
+    private static final String[] ROUTES = { "list", "page", "search", "get", "add", "update", "delete" };
+    private static final String DEFAULT_MIX = "list=5,page=15,search=20,get=40,add=5,update=10,delete=5";
+    private static final Pattern ID_PATTERN = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+    private static final Pattern NAME_PATTERN = Pattern.compile("\"name\"\\s*:\\s*\"([^\"\\\\]*)\"");
+    private static final double[] PERCENTILES = { 50, 75, 90, 95, 99, 99.9, 99.99, 100 };
+
+    // Command line settings
+    private String baseUrl = "http://localhost:8080/api";
+    private String server = "simple";
+    private double rate = 200;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int threads = 16;
+    private int timeoutSeconds = 30;
+    private int maxOutstanding = 10_000;
+    private long seed = 42;
+    private boolean keep;
+    private final int[] weights = new int[ROUTES.length];
+
+    private HttpClient client;
+    private final String tag = "loadgen-" + Long.toString(System.currentTimeMillis(), 36);
+    private final List<Integer> catalogIds = new ArrayList<>();
+    private final List<String> searchTerms = new ArrayList<>();
+    private final List<Integer> updateIds = new ArrayList<>();
+    private final ConcurrentLinkedDeque<Integer> deleteIds = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger addCounter = new AtomicInteger();
+    private final Map<String, RouteStats> stats = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        generator.run();
+    }
+
+    private static void printUsage() {
+        System.err.println("Options:");
+        System.err.println("  --url <base>          API base URL on localhost (default http://localhost:8080/api)");
+        System.err.println("  --server simple|spark which server's search route to use (default simple)");
+        System.err.println("  --rate <n>            requests started per second, across all routes (default 200)");
+        System.err.println("  --duration <s>        measured run length in seconds (default 30)");
+        System.err.println("  --warmup <s>          unrecorded warm-up before the run (default 5)");
+        System.err.println("  --mix <route=w,...>   route weights (default " + DEFAULT_MIX + ")");
+        System.err.println("                        routes: list, page, search, get, add, update, delete");
+        System.err.println("  --threads <n>         client threads handling responses (default 16)");
+        System.err.println("  --timeout <s>         per-request timeout (default 30)");
+        System.err.println("  --max-outstanding <n> requests in flight before new ones are counted as dropped (default 10000)");
+        System.err.println("  --seed <n>            random seed for the route and id sequence (default 42)");
+        System.err.println("  --keep                leave the books created by the run in the catalog");
+    }
+
+    private void parseArgs(String[] args) {
+        parseMix(DEFAULT_MIX);
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--keep")) {
+                keep = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--url":
+                    baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                    break;
+                case "--server":
+                    if (!value.equals("simple") && !value.equals("spark")) {
+                        throw new IllegalArgumentException("--server must be simple or spark");
+                    }
+                    server = value;
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "--mix":
+                    parseMix(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--timeout":
+                    timeoutSeconds = Integer.parseInt(value);
+                    break;
+                case "--max-outstanding":
+                    maxOutstanding = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+        if (rate <= 0 || durationSeconds <= 0 || warmupSeconds < 0 || threads <= 0) {
+            throw new IllegalArgumentException("rate, duration and threads must be positive");
+        }
+        if (Arrays.stream(weights).sum() <= 0) {
+            throw new IllegalArgumentException("--mix needs at least one route with a positive weight");
+        }
+    }
+
+    private void parseMix(String mix) {
+        Arrays.fill(weights, 0);
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            int route = routeIndex(pair[0].trim());
+            if (route < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Bad --mix entry: " + part);
+            }
+            weights[route] = Integer.parseInt(pair[1].trim());
+        }
+    }
+
+    private static int routeIndex(String name) {
+        for (int i = 0; i < ROUTES.length; i++) {
+            if (ROUTES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void run() throws Exception {
+        URI base = URI.create(baseUrl);
+        if (!InetAddress.getByName(base.getHost()).isLoopbackAddress()) {
+            System.err.println("Refusing to generate load against " + base.getHost() + ": only localhost is supported");
+            System.exit(2);
+        }
+
+        ExecutorService responseThreads = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "loadgen-client");
+            t.setDaemon(true);
+            return t;
+        });
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(timeoutSeconds))
+                .executor(responseThreads)
+                .build();
+        for (String route : ROUTES) {
+            stats.put(route, new RouteStats());
+        }
+
+        prepare();
+
+        long totalRequests = (long) (rate * (warmupSeconds + durationSeconds));
+        long warmupRequests = (long) (rate * warmupSeconds);
+        double intervalNanos = 1_000_000_000.0 / rate;
+        Random random = new Random(seed);
+        int totalWeight = 0;
+        for (int w : weights) {
+            totalWeight += w;
+        }
+
+        System.out.printf("Running %s: %.0f req/s for %ds after %ds warm-up against %s (%s server)%n",
+                tag, rate, durationSeconds, warmupSeconds, baseUrl, server);
+        long start = System.nanoTime() + 10_000_000L;
+        long measuredStart = start + (long) (warmupRequests * intervalNanos);
+        for (long i = 0; i < totalRequests; i++) {
+            long intended = start + (long) (i * intervalNanos);
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int route = pickRoute(random, totalWeight);
+            boolean record = i >= warmupRequests;
+            fire(route, intended, record, random);
+        }
+        long scheduleEnd = System.nanoTime();
+
+        // Let the stragglers finish before reporting
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        report((scheduleEnd - measuredStart) / 1e9);
+
+        if (!keep) {
+            cleanUp();
+        }
+        responseThreads.shutdownNow();
+    }
+
+    // Learn existing ids and search words, and create the books that updates and deletes will use
+    private void prepare() throws IOException, InterruptedException {
+        String catalog = sendSync("GET", "/books?limit=1000", null).body();
+        Matcher ids = ID_PATTERN.matcher(catalog);
+        while (ids.find()) {
+            catalogIds.add(Integer.parseInt(ids.group(1)));
+        }
+        Matcher names = NAME_PATTERN.matcher(catalog);
+        while (names.find() && searchTerms.size() < 500) {
+            for (String word : names.group(1).split("\\s+")) {
+                if (word.length() >= 3) {
+                    searchTerms.add(word);
+                }
+            }
+        }
+        if (searchTerms.isEmpty()) {
+            searchTerms.add("the");
+        }
+
+        double seconds = warmupSeconds + durationSeconds;
+        int totalWeight = 0;
+        for (int w : weights) {
+            totalWeight += w;
+        }
+        int deletes = weights[routeIndex("delete")] == 0 ? 0
+                : (int) (rate * seconds * weights[routeIndex("delete")] / totalWeight * 1.2) + 10;
+        int updates = weights[routeIndex("update")] == 0 ? 0 : 100;
+        if (deletes + updates > 0) {
+            StringBuilder ndjson = new StringBuilder();
+            for (int i = 0; i < deletes + updates; i++) {
+                ndjson.append("{\"name\":\"").append(tag).append(" seed ").append(i)
+                      .append("\",\"author\":\"Load Generator\"}\n");
+            }
+            HttpResponse<String> bulk = sendSync("POST", "/books/bulk?format=ndjson", ndjson.toString());
+            if (bulk.statusCode() / 100 != 2) {
+                throw new IOException("Seeding failed with HTTP " + bulk.statusCode() + ": " + bulk.body());
+            }
+            List<Integer> seeded = findTagged();
+            for (int i = 0; i < seeded.size(); i++) {
+                if (i < updates) {
+                    updateIds.add(seeded.get(i));
+                } else {
+                    deleteIds.add(seeded.get(i));
+                }
+            }
+        }
+        catalogIds.addAll(updateIds);
+        if (catalogIds.isEmpty()) {
+            catalogIds.add(1);
+        }
+        System.out.printf("Catalog sample: %d ids, %d search terms; seeded %d books for updates and %d for deletes%n",
+                catalogIds.size(), searchTerms.size(), updateIds.size(), deleteIds.size());
+    }
+
+    private int pickRoute(Random random, int totalWeight) {
+        int r = random.nextInt(totalWeight);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private void fire(int route, long intended, boolean record, Random random) {
+        RouteStats routeStats = stats.get(ROUTES[route]);
+        HttpRequest request = buildRequest(ROUTES[route], random);
+        if (request == null || outstanding.get() >= maxOutstanding) {
+            // Nothing left to delete, or the server is so far behind that we would only pile on
+            if (record) {
+                routeStats.dropped.increment();
+            }
+            return;
+        }
+        outstanding.incrementAndGet();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            long latencyMicros = (System.nanoTime() - intended) / 1_000;
+            outstanding.decrementAndGet();
+            if (!record) {
+                return;
+            }
+            if (error != null) {
+                routeStats.errors.increment();
+            } else {
+                routeStats.status(response.statusCode());
+            }
+            routeStats.latency.record(latencyMicros);
+        });
+    }
+
+    private HttpRequest buildRequest(String route, Random random) {
+        switch (route) {
+            case "list":
+                return request("GET", "/books", null);
+            case "page":
+                return request("GET", "/books?limit=100&after=" + (randomId(random) - 1), null);
+            case "search": {
+                String term = encode(searchTerms.get(random.nextInt(searchTerms.size())));
+                return request("GET", server.equals("spark") ? "/books/search?query=" + term : "/books?query=" + term, null);
+            }
+            case "get":
+                return request("GET", "/books/" + randomId(random), null);
+            case "add":
+                return request("POST", "/books", bookJson(tag + " added " + addCounter.incrementAndGet()));
+            case "update": {
+                if (updateIds.isEmpty()) {
+                    return null;
+                }
+                int id = updateIds.get(random.nextInt(updateIds.size()));
+                return request("PUT", "/books/" + id, bookJson(tag + " updated " + random.nextInt(1_000_000)));
+            }
+            case "delete": {
+                Integer id = deleteIds.pollFirst();
+                return id == null ? null : request("DELETE", "/books/" + id, null);
+            }
+            default:
+                throw new IllegalStateException(route);
+        }
+    }
+
+    private int randomId(Random random) {
+        return catalogIds.get(random.nextInt(catalogIds.size()));
+    }
+
+    private String bookJson(String name) {
+        return "{\"name\":\"" + name + "\",\"author\":\"Load Generator\"}";
+    }
+
+    private HttpRequest request(String method, String path, String body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(timeoutSeconds));
+        if (body != null) {
+            builder.header("Content-Type", "application/json");
+            builder.method(method, HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        return builder.build();
+    }
+
+    private HttpResponse<String> sendSync(String method, String path, String body) throws IOException, InterruptedException {
+        return client.send(request(method, path, body), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    }
+
+    // Ids of every book whose name carries this run's tag
+    private List<Integer> findTagged() throws IOException, InterruptedException {
+        String query = encode(tag);
+        String path = server.equals("spark") ? "/books/search?query=" + query : "/books?query=" + query;
+        Matcher matcher = ID_PATTERN.matcher(sendSync("GET", path, null).body());
+        List<Integer> ids = new ArrayList<>();
+        while (matcher.find()) {
+            ids.add(Integer.parseInt(matcher.group(1)));
+        }
+        return ids;
+    }
+
+    private void cleanUp() throws IOException, InterruptedException {
+        List<Integer> ids = findTagged();
+        for (int id : ids) {
+            sendSync("DELETE", "/books/" + id, null);
+        }
+        System.out.println("Removed " + ids.size() + " books created by " + tag);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private void report(double seconds) {
+        System.out.println();
+        System.out.printf("%-8s %9s %9s %7s %7s %7s %7s %9s %9s %9s %9s%n",
+                "route", "requests", "req/s", "2xx", "4xx", "5xx", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<String, RouteStats> entry : stats.entrySet()) {
+            RouteStats s = entry.getValue();
+            long count = s.latency.count();
+            if (count == 0 && s.dropped.sum() == 0) {
+                continue;
+            }
+            total += count;
+            System.out.printf("%-8s %9d %9.1f %7d %7d %7d %7d %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey(), count, count / seconds, s.ok.sum(), s.clientErrors.sum(), s.serverErrors.sum(),
+                    s.errors.sum() + s.dropped.sum(),
+                    s.latency.percentile(50) / 1000.0, s.latency.percentile(99) / 1000.0,
+                    s.latency.percentile(99.9) / 1000.0, s.latency.percentile(100) / 1000.0);
+        }
+        System.out.printf("%-8s %9d %9.1f%n", "total", total, total / seconds);
+
+        // Full percentile spectrum per route, the shape of each latency histogram
+        System.out.println();
+        System.out.printf("%-8s", "route");
+        for (double p : PERCENTILES) {
+            System.out.printf(" %9s", p == 100 ? "max" : "p" + (p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p)));
+        }
+        System.out.println("   (ms)");
+        for (Map.Entry<String, RouteStats> entry : stats.entrySet()) {
+            Histogram latency = entry.getValue().latency;
+            if (latency.count() == 0) {
+                continue;
+            }
+            System.out.printf("%-8s", entry.getKey());
+            for (double p : PERCENTILES) {
+                System.out.printf(" %9.2f", latency.percentile(p) / 1000.0);
+            }
+            System.out.println();
+        }
+        System.out.println();
+        System.out.println("errors counts connection failures, timeouts and requests dropped at --max-outstanding");
+    }
+
+    private static final class RouteStats {
+        final Histogram latency = new Histogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder clientErrors = new LongAdder();
+        final LongAdder serverErrors = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+
+        void status(int code) {
+            if (code >= 500) {
+                serverErrors.increment();
+            } else if (code >= 400) {
+                clientErrors.increment();
+            } else {
+                ok.increment();
+            }
+        }
+    }
+
+    /**
+     * Log-linear latency histogram in microseconds: exact below 256us, then
+     * 128 buckets per power of two, so every reported value is within 1% of
+     * the recorded one. Recording is lock-free.
+     */
+    static final class Histogram {
+        private static final int LINEAR = 256;
+        private static final int SUB_BUCKETS = 128;
+        // Enough powers of two for over an hour of latency
+        private static final int BUCKETS = LINEAR + 32 * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+
+        void record(long micros) {
+            counts.incrementAndGet(index(Math.max(0, micros)));
+            total.increment();
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        // Highest value in the bucket holding the p-th percentile
+        long percentile(double p) {
+            long n = total.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+            long seen = 0;
+            int last = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = counts.get(i);
+                if (c == 0) {
+                    continue;
+                }
+                seen += c;
+                last = i;
+                if (seen >= target) {
+                    return highestValue(i);
+                }
+            }
+            return highestValue(last);
+        }
+
+        static int index(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int shift = 64 - Long.numberOfLeadingZeros(value) - 8;
+            int index = LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+            return Math.min(index, BUCKETS - 1);
+        }
+
+        static long highestValue(int index) {
+            if (index < LINEAR) {
+                return index;
+            }
+            int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+            long mantissa = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+}
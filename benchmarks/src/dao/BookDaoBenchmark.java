@@ -0,0 +1,130 @@
+package dao;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.BookFixtures;
+import bench.EmbeddedCatalog;
+import db.DBConnection;
+import model.Book;
+
+/**
+ * BookDAO read paths against the embedded catalog and the log store: full
+ * list, keyset pages, streamed export and getBookById with the cache on and off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BookDaoBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    // library.cache.books.maxSize; 0 sends every getBookById to the database
+    @Param({ "0", "10000" })
+    public int cacheSize;
+
+    // library.storage; both hold the same books
+    @Param({ "jdbc", "log" })
+    public String storage;
+
+    private BookDAO bookDAO;
+    private Path logDir;
+    private int[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("library.cache.books.maxSize", String.valueOf(cacheSize));
+        if ("log".equals(storage)) {
+            logDir = Files.createTempDirectory("book-log-bench");
+            bookDAO = new BookDAO(seededLog(logDir, size));
+        } else {
+            EmbeddedCatalog.install(size);
+            bookDAO = new BookDAO();
+        }
+
+        // Fixed id sequence so every run asks for the same books
+        Random random = new Random(7);
+        ids = new int[4096];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + random.nextInt(size);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        bookDAO.close();
+        DBConnection.shutdown();
+        if (logDir != null) {
+            try (Stream<Path> files = Files.walk(logDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // Same seed and fixtures as EmbeddedCatalog; no fsync, only the reads are measured
+    private static LogBookStore seededLog(Path dir, int count) throws Exception {
+        LogBookStore store = new LogBookStore(dir, false, 0.5, Long.MAX_VALUE, 0);
+        Random random = new Random(42);
+        List<Book> chunk = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            chunk.add(new Book(0, BookFixtures.title(random), BookFixtures.author(random)));
+            if (i % 10_000 == 0 || i == count) {
+                store.insertAll(chunk);
+                chunk.clear();
+            }
+        }
+        return store;
+    }
+
+    private int nextId() {
+        next = (next + 1) & (ids.length - 1);
+        return ids[next];
+    }
+
+    @Benchmark
+    public List<Book> viewAllBooks() {
+        return bookDAO.viewAllBooks();
+    }
+
+    @Benchmark
+    public List<Book> viewBooksPage() {
+        return bookDAO.viewBooksPage(nextId() - 1, 100);
+    }
+
+    @Benchmark
+    public int exportBooks() throws Exception {
+        int[] checksum = { 0 };
+        bookDAO.exportBooks((id, name, author) -> checksum[0] += id + name.length());
+        return checksum[0];
+    }
+
+    @Benchmark
+    public Book getBookById() {
+        return bookDAO.getBookById(nextId());
+    }
+}
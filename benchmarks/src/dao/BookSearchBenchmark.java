@@ -0,0 +1,63 @@
+package dao;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.EmbeddedCatalog;
+import db.DBConnection;
+import model.Book;
+
+/**
+ * searchBook against the embedded catalog, through SQL LIKE and through the
+ * trigram index, for a frequent author, a rare title phrase and a miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BookSearchBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean trigramIndex;
+
+    @Param({ "orwell", "harbor letters", "zzyzx" })
+    public String query;
+
+    private BookDAO bookDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        EmbeddedCatalog.install(size);
+        System.setProperty("library.search.trigramIndex", String.valueOf(trigramIndex));
+        bookDAO = new BookDAO();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DBConnection.shutdown();
+    }
+
+    @Benchmark
+    public List<Book> searchBook() {
+        return bookDAO.searchBook(query);
+    }
+}
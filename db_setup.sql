@@ -18,5 +18,15 @@ INSERT INTO books (name, author) VALUES
 ('The Great Gatsby', 'F. Scott Fitzgerald'),
 ('The Catcher in the Rye', 'J.D. Salinger');
 
+-- Next free book id, used only with -Dlibrary.storage=sharded. Create this
+-- table in the first shard; every shard gets the books table above. When
+-- sharding an existing catalog, start next_id above its largest id.
+CREATE TABLE IF NOT EXISTS book_id_sequence (
+  next_id INT NOT NULL
+);
+INSERT INTO book_id_sequence (next_id)
+SELECT COALESCE(MAX(id), 0) + 1 FROM books
+WHERE NOT EXISTS (SELECT 1 FROM book_id_sequence);
+
 -- Show the inserted data
 SELECT * FROM books;
\ No newline at end of file
@@ -39,6 +39,9 @@ document.addEventListener('DOMContentLoaded', function() {
     const booksLoading = document.getElementById('books-loading');
     const searchLoading = document.getElementById('search-loading');
 
+    // Server-Sent Events connection that keeps the list current
+    let changeFeed = null;
+
     // Initialize the application
     init();
 
@@ -48,6 +51,9 @@ document.addEventListener('DOMContentLoaded', function() {
         
         // Load all books by default
         loadAllBooks();
+        
+        // Apply changes as the server pushes them instead of reloading the list
+        subscribeToChanges();
     }
 
     function setupEventListeners() {
@@ -119,6 +125,14 @@ document.addEventListener('DOMContentLoaded', function() {
             }
         });
 
+        // Typeahead: ask for completions once typing pauses
+        let suggestTimer = null;
+        document.getElementById('search-input').addEventListener('input', function() {
+            clearTimeout(suggestTimer);
+            const prefix = this.value.trim();
+            suggestTimer = setTimeout(() => suggestCompletions(prefix), 150);
+        });
+
         // Close modal buttons
         closeBtn.addEventListener('click', () => closeModal(editModal));
         cancelEditBtn.addEventListener('click', () => closeModal(editModal));
@@ -144,6 +158,44 @@ document.addEventListener('DOMContentLoaded', function() {
         });
     }
 
+    // True while the change feed will deliver our own writes back to us
+    function changeFeedOpen() {
+        return changeFeed !== null && changeFeed.readyState === EventSource.OPEN;
+    }
+
+    function subscribeToChanges() {
+        if (!window.EventSource) {
+            return;
+        }
+        // The browser reconnects on its own and sends Last-Event-ID, so missed changes are replayed
+        changeFeed = new EventSource(`${API_BASE_URL}/books/events`);
+        changeFeed.addEventListener('created', e => applyChange(JSON.parse(e.data)));
+        changeFeed.addEventListener('updated', e => applyChange(JSON.parse(e.data)));
+        changeFeed.addEventListener('deleted', e => applyChange(JSON.parse(e.data)));
+        // Too many changes were missed to replay them; start over from the full list
+        changeFeed.addEventListener('reset', () => loadAllBooks());
+    }
+
+    function applyChange(change) {
+        const book = change.book;
+        const existing = booksListContainer.querySelector(`tr[data-id="${book.id}"]`);
+        if (change.type === 'deleted') {
+            if (existing) {
+                existing.remove();
+            }
+        } else if (existing) {
+            existing.replaceWith(createBookRow(book));
+        } else if (change.type === 'created') {
+            booksListContainer.appendChild(createBookRow(book));
+        }
+        
+        if (booksListContainer.children.length === 0) {
+            emptyCollection.classList.remove('hidden');
+        } else {
+            emptyCollection.classList.add('hidden');
+        }
+    }
+
     // API Functions
     function loadAllBooks() {
         setLoading(booksLoading, true);
@@ -170,6 +222,29 @@ document.addEventListener('DOMContentLoaded', function() {
             });
     }
 
+    function suggestCompletions(prefix) {
+        const list = document.getElementById('search-suggestions');
+        if (prefix.length === 0) {
+            list.innerHTML = '';
+            return;
+        }
+
+        fetch(`${API_BASE_URL}/books/suggest?prefix=${encodeURIComponent(prefix)}&k=8`)
+            .then(response => response.ok ? response.json() : [])
+            .then(suggestions => {
+                list.innerHTML = '';
+                suggestions.forEach(suggestion => {
+                    const option = document.createElement('option');
+                    option.value = suggestion.text;
+                    option.label = suggestion.field === 'author' ? 'Author' : 'Title';
+                    list.appendChild(option);
+                });
+            })
+            .catch(() => {
+                // Suggestions are optional; the search itself still works
+            });
+    }
+
     function searchBooks() {
         const query = document.getElementById('search-input').value.trim();
         if (!query) {
@@ -235,8 +310,8 @@ document.addEventListener('DOMContentLoaded', function() {
             submitBtn.disabled = false;
             submitBtn.innerHTML = originalText;
             
-            // Refresh books list (if we were on that tab)
-            if (document.getElementById('books-section').classList.contains('active-section')) {
+            // Refresh books list (if we were on that tab) unless the change feed brings the new book
+            if (!changeFeedOpen() && document.getElementById('books-section').classList.contains('active-section')) {
                 loadAllBooks();
             }
             
@@ -316,8 +391,10 @@ document.addEventListener('DOMContentLoaded', function() {
             submitBtn.disabled = false;
             submitBtn.innerHTML = originalText;
             
-            // Refresh books list
-            loadAllBooks();
+            // Refresh books list unless the change feed brings the update
+            if (!changeFeedOpen()) {
+                loadAllBooks();
+            }
             
             // Close modal after a short delay
             setTimeout(() => {
@@ -372,8 +449,10 @@ document.addEventListener('DOMContentLoaded', function() {
                 setTimeout(() => document.body.removeChild(toast), 300);
             }, 3000);
             
-            // Refresh books list
-            loadAllBooks();
+            // Refresh books list unless the change feed brings the deletion
+            if (!changeFeedOpen()) {
+                loadAllBooks();
+            }
             
             // Also refresh search results if applicable
             if (document.getElementById('search-section').classList.contains('active-section')) {
@@ -417,27 +496,7 @@ document.addEventListener('DOMContentLoaded', function() {
         }
         
         books.forEach(book => {
-            const row = document.createElement('tr');
-            row.innerHTML = `
-                <td>#${book.id}</td>
-                <td>${book.name}</td>
-                <td>${book.author}</td>
-                <td class="action-buttons">
-                    <button class="btn edit-btn" title="Edit book details">
-                        <i class="fas fa-edit"></i> Edit
-                    </button>
-                    <button class="btn delete-btn" title="Remove from collection">
-                        <i class="fas fa-trash"></i> Delete
-                    </button>
-                </td>
-            `;
-            
-            // Add event listeners to buttons
-            const editBtn = row.querySelector('.edit-btn');
-            const deleteBtn = row.querySelector('.delete-btn');
-            
-            editBtn.addEventListener('click', () => openEditModal(book));
-            deleteBtn.addEventListener('click', () => openDeleteModal(book));
+            const row = createBookRow(book);
             
             // Add hover effect and animation
             row.style.opacity = '0';
@@ -453,6 +512,33 @@ document.addEventListener('DOMContentLoaded', function() {
         });
     }
 
+    function createBookRow(book) {
+        const row = document.createElement('tr');
+        row.setAttribute('data-id', book.id);
+        row.innerHTML = `
+            <td>#${book.id}</td>
+            <td>${book.name}</td>
+            <td>${book.author}</td>
+            <td class="action-buttons">
+                <button class="btn edit-btn" title="Edit book details">
+                    <i class="fas fa-edit"></i> Edit
+                </button>
+                <button class="btn delete-btn" title="Remove from collection">
+                    <i class="fas fa-trash"></i> Delete
+                </button>
+            </td>
+        `;
+        
+        // Add event listeners to buttons
+        const editBtn = row.querySelector('.edit-btn');
+        const deleteBtn = row.querySelector('.delete-btn');
+        
+        editBtn.addEventListener('click', () => openEditModal(book));
+        deleteBtn.addEventListener('click', () => openDeleteModal(book));
+        
+        return row;
+    }
+
     function closeModal(modal) {
         modal.classList.remove('active');
     }
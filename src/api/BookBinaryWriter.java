@@ -0,0 +1,237 @@
+package api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import dao.VersionStamp;
+import model.Book;
+
+/**
+ * Writes books in the compact binary format served as
+ * application/x-athenaeum-bin to clients that ask for it with Accept, for
+ * internal consumers that would rather not parse JSON.
+ *
+ * A body is a sequence of frames, one per book and nothing else; an empty
+ * list is an empty body. A frame is its length as a varint, then the id as
+ * a varint and the name and author each as a varint of their UTF-8 length
+ * plus one followed by the bytes (0 stands for null). Varints are unsigned
+ * LEB128, as in protobuf. Readers must skip bytes left in a frame after the
+ * fields they know, so fields can be added later. client.BookBinaryReader
+ * decodes it.
+ *
+ * Like BookJsonWriter, it encodes into a reusable per-thread buffer or
+ * straight into a response stream.
+ */
+public final class BookBinaryWriter {
+
+    public static final String CONTENT_TYPE = "application/x-athenaeum-bin";
+
+    private static final int DEFAULT_CAPACITY = 8 * 1024;
+    // Larger buffers are dropped after use so one huge response does not pin memory per thread
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    // Largest frame header: frame length, id and two string lengths, five bytes each
+    private static final int MAX_VARINTS = 20;
+
+    private static final ThreadLocal<BookBinaryWriter> PER_THREAD = new ThreadLocal<>();
+
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+
+    private BookBinaryWriter(OutputStream out, int capacity) {
+        this.out = out;
+        this.buf = new byte[capacity];
+    }
+
+    // The calling thread's buffering writer, emptied and ready for a new response
+    public static BookBinaryWriter forThread() {
+        BookBinaryWriter writer = PER_THREAD.get();
+        if (writer == null || writer.buf.length > MAX_RETAINED_CAPACITY) {
+            writer = new BookBinaryWriter(null, DEFAULT_CAPACITY);
+            PER_THREAD.set(writer);
+        }
+        writer.pos = 0;
+        return writer;
+    }
+
+    // A writer that pushes its buffer to out whenever it fills up; call flush() at the end
+    public static BookBinaryWriter streaming(OutputStream out) {
+        return new BookBinaryWriter(out, DEFAULT_CAPACITY);
+    }
+
+    // True when the Accept header asks for the binary format at least as strongly as for JSON
+    public static boolean accepts(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        double binary = 0;
+        double json = -1;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (type.equals(CONTENT_TYPE)) {
+                binary = Math.max(binary, q);
+            } else if (type.equals("application/json")) {
+                json = Math.max(json, q);
+            }
+        }
+        return binary > 0 && binary >= json;
+    }
+
+    // The binary representation's version: same change, different bytes, so a different ETag
+    public static VersionStamp tag(VersionStamp stamp) {
+        String etag = stamp.getETag();
+        return new VersionStamp(stamp.getVersion(), stamp.getLastModifiedMillis(),
+                etag.substring(0, etag.length() - 1) + "-bin\"");
+    }
+
+    public BookBinaryWriter writeBooks(List<Book> books) throws IOException {
+        for (Book book : books) {
+            writeBook(book);
+        }
+        return this;
+    }
+
+    public BookBinaryWriter writeBook(Book book) throws IOException {
+        return writeBook(book.getId(), book.getName(), book.getAuthor());
+    }
+
+    public BookBinaryWriter writeBook(int id, String name, String author) throws IOException {
+        int nameBytes = utf8Length(name);
+        int authorBytes = utf8Length(author);
+        int frame = varintSize(id) + varintSize(nameBytes + 1) + Math.max(0, nameBytes)
+                + varintSize(authorBytes + 1) + Math.max(0, authorBytes);
+        ensure(MAX_VARINTS);
+        writeVarint(frame);
+        writeVarint(id);
+        writeString(name, nameBytes);
+        writeString(author, authorBytes);
+        return this;
+    }
+
+    // Number of buffered bytes not yet written out
+    public int size() {
+        return pos;
+    }
+
+    public void writeTo(OutputStream target) throws IOException {
+        target.write(buf, 0, pos);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    // Push buffered bytes to the underlying stream of a streaming writer
+    public void flush() throws IOException {
+        if (out != null) {
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.flush();
+        }
+    }
+
+    // Length prefix (UTF-8 length + 1, 0 for null) and the bytes
+    private void writeString(String value, int utf8Bytes) throws IOException {
+        ensure(5);
+        writeVarint(utf8Bytes + 1);
+        if (value == null) {
+            return;
+        }
+        for (int i = 0, n = value.length(); i < n; i++) {
+            ensure(4);
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    // Same replacement String.getBytes(UTF_8) uses for an unpaired surrogate
+                    buf[pos++] = '?';
+                }
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    // Caller has ensured room for five bytes
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    // Bytes writeString produces for the characters, -1 for null
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return -1;
+        }
+        int length = 0;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    i++;
+                    length += 4;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (pos + bytes <= buf.length) {
+            return;
+        }
+        if (out != null) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        } else {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import dao.Suggestion;
+import model.Book;
+
+/**
+ * Writes Book and List&lt;Book&gt; JSON as UTF-8 bytes in a single pass, either
+ * into a reusable per-thread buffer or straight into a response stream.
+ *
+ * Two output styles keep each server byte-for-byte compatible with what it
+ * produced before:
+ *   SIMPLE - SimpleApiServer's format: every field present, null strings
+ *            written as "", only \ " \n \r \t escaped
+ *   GSON   - what new Gson().toJson(book) writes: null fields omitted,
+ *            control characters, U+2028, U+2029 and the HTML characters
+ *            &lt; &gt; &amp; = ' escaped as \\uXXXX
+ */
+public final class BookJsonWriter {
+
+    public enum Style { SIMPLE, GSON }
+
+    private static final int DEFAULT_CAPACITY = 8 * 1024;
+    // Larger buffers are dropped after use so one huge response does not pin memory per thread
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+    private static final byte[][] SIMPLE_ESCAPES = new byte[128][];
+    private static final byte[][] GSON_ESCAPES = new byte[128][];
+    private static final byte[] LINE_SEPARATOR_ESCAPE = unicodeEscape(0x2028);
+    private static final byte[] PARAGRAPH_SEPARATOR_ESCAPE = unicodeEscape(0x2029);
+
+    static {
+        SIMPLE_ESCAPES['\\'] = ascii("\\\\");
+        SIMPLE_ESCAPES['"'] = ascii("\\\"");
+        SIMPLE_ESCAPES['\n'] = ascii("\\n");
+        SIMPLE_ESCAPES['\r'] = ascii("\\r");
+        SIMPLE_ESCAPES['\t'] = ascii("\\t");
+
+        for (int c = 0; c < 0x20; c++) {
+            GSON_ESCAPES[c] = unicodeEscape(c);
+        }
+        GSON_ESCAPES['\\'] = ascii("\\\\");
+        GSON_ESCAPES['"'] = ascii("\\\"");
+        GSON_ESCAPES['\n'] = ascii("\\n");
+        GSON_ESCAPES['\r'] = ascii("\\r");
+        GSON_ESCAPES['\t'] = ascii("\\t");
+        GSON_ESCAPES['\b'] = ascii("\\b");
+        GSON_ESCAPES['\f'] = ascii("\\f");
+        for (char c : new char[] { '<', '>', '&', '=', '\'' }) {
+            GSON_ESCAPES[c] = unicodeEscape(c);
+        }
+    }
+
+    private static final ThreadLocal<BookJsonWriter[]> PER_THREAD =
+            ThreadLocal.withInitial(() -> new BookJsonWriter[Style.values().length]);
+
+    private final Style style;
+    private final byte[][] escapes;
+    private final OutputStream out;
+    private byte[] buf;
+    private int pos;
+
+    private BookJsonWriter(Style style, OutputStream out, int capacity) {
+        this.style = style;
+        this.escapes = style == Style.GSON ? GSON_ESCAPES : SIMPLE_ESCAPES;
+        this.out = out;
+        this.buf = new byte[capacity];
+    }
+
+    // The calling thread's buffering writer, emptied and ready for a new response
+    public static BookJsonWriter forThread(Style style) {
+        BookJsonWriter[] writers = PER_THREAD.get();
+        BookJsonWriter writer = writers[style.ordinal()];
+        if (writer == null || writer.buf.length > MAX_RETAINED_CAPACITY) {
+            writer = new BookJsonWriter(style, null, DEFAULT_CAPACITY);
+            writers[style.ordinal()] = writer;
+        }
+        writer.pos = 0;
+        return writer;
+    }
+
+    // A writer that pushes its buffer to out whenever it fills up; call flush() at the end
+    public static BookJsonWriter streaming(Style style, OutputStream out) {
+        return new BookJsonWriter(style, out, DEFAULT_CAPACITY);
+    }
+
+    public BookJsonWriter writeBooks(List<Book> books) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < books.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeBook(books.get(i));
+        }
+        writeByte(']');
+        return this;
+    }
+
+    public BookJsonWriter writeBook(Book book) throws IOException {
+        return writeBook(book.getId(), book.getName(), book.getAuthor());
+    }
+
+    public BookJsonWriter writeBook(int id, String name, String author) throws IOException {
+        writeAscii("{\"id\":");
+        writeInt(id);
+        if (style == Style.SIMPLE) {
+            writeAscii(",\"name\":");
+            writeString(name == null ? "" : name);
+            writeAscii(",\"author\":");
+            writeString(author == null ? "" : author);
+        } else {
+            if (name != null) {
+                writeAscii(",\"name\":");
+                writeString(name);
+            }
+            if (author != null) {
+                writeAscii(",\"author\":");
+                writeString(author);
+            }
+        }
+        writeByte('}');
+        return this;
+    }
+
+    // [{"text":..,"field":"name"|"author","books":n}, ...]
+    public BookJsonWriter writeSuggestions(List<Suggestion> suggestions) throws IOException {
+        writeByte('[');
+        for (int i = 0; i < suggestions.size(); i++) {
+            Suggestion suggestion = suggestions.get(i);
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeAscii("{\"text\":");
+            writeString(suggestion.getText());
+            writeAscii(",\"field\":");
+            writeString(suggestion.getField());
+            writeAscii(",\"books\":");
+            writeInt(suggestion.getBooks());
+            writeByte('}');
+        }
+        writeByte(']');
+        return this;
+    }
+
+    // Quoted, escaped JSON string
+    public BookJsonWriter writeString(String value) throws IOException {
+        writeByte('"');
+        for (int i = 0, n = value.length(); i < n; i++) {
+            ensure(6);
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = escapes[c];
+                if (escape == null) {
+                    buf[pos++] = (byte) c;
+                } else {
+                    System.arraycopy(escape, 0, buf, pos, escape.length);
+                    pos += escape.length;
+                }
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    // Same replacement String.getBytes(UTF_8) uses for an unpaired surrogate
+                    buf[pos++] = '?';
+                }
+            } else if (style == Style.GSON && (c == '\u2028' || c == '\u2029')) {
+                byte[] escape = c == '\u2028' ? LINE_SEPARATOR_ESCAPE : PARAGRAPH_SEPARATOR_ESCAPE;
+                System.arraycopy(escape, 0, buf, pos, escape.length);
+                pos += escape.length;
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        writeByte('"');
+        return this;
+    }
+
+    // Raw ASCII such as punctuation or field names; the caller guarantees no escaping is needed
+    public BookJsonWriter writeAscii(String text) throws IOException {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            writeByte(text.charAt(i));
+        }
+        return this;
+    }
+
+    public BookJsonWriter writeByte(char c) throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) c;
+        return this;
+    }
+
+    public BookJsonWriter writeInt(int value) throws IOException {
+        ensure(11);
+        long v = value;
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // Digits came out least significant first
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+        return this;
+    }
+
+    // Number of buffered bytes not yet written out
+    public int size() {
+        return pos;
+    }
+
+    public void writeTo(OutputStream target) throws IOException {
+        target.write(buf, 0, pos);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    // Push buffered bytes to the underlying stream of a streaming writer
+    public void flush() throws IOException {
+        if (out != null) {
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.flush();
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (pos + bytes <= buf.length) {
+            return;
+        }
+        if (out != null) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        } else {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static byte[] unicodeEscape(int c) {
+        return new byte[] { '\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF], HEX[c & 0xF] };
+    }
+}
@@ -0,0 +1,71 @@
+package api;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import dao.BookSource;
+import dao.ImportChunkResult;
+import dao.ImportReport;
+
+/**
+ * Shared plumbing for POST /api/books/bulk in both servers: picks a parser
+ * for the upload and renders the import report.
+ */
+final class BulkImport {
+
+    static final int DEFAULT_CHUNK_SIZE = Integer.getInteger("library.bulk.chunkSize", 1000);
+    static final int MAX_CHUNK_SIZE = 10_000;
+    // Smaller chunks only add transactions; it also bounds how many chunks one upload can make
+    static final int MIN_CHUNK_SIZE = 100;
+
+    private BulkImport() {
+    }
+
+    // Parser for the upload, chosen by ?format= or the Content-Type; null if neither is supported
+    static BookSource openSource(InputStream body, String contentType, String format) {
+        String kind = format != null ? format.toLowerCase() : (contentType != null ? contentType.toLowerCase() : "");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 64 * 1024);
+        if (kind.contains("csv")) {
+            return new CsvBookSource(reader);
+        }
+        if (kind.isEmpty() || kind.contains("ndjson") || kind.contains("jsonl") || kind.contains("json")) {
+            return new NdjsonBookSource(reader);
+        }
+        return null;
+    }
+
+    static int chunkSize(String requested) {
+        if (requested == null) {
+            return DEFAULT_CHUNK_SIZE;
+        }
+        return Math.max(MIN_CHUNK_SIZE, Math.min(Integer.parseInt(requested), MAX_CHUNK_SIZE));
+    }
+
+    static String toJson(ImportReport report) {
+        StringBuilder chunks = new StringBuilder("[");
+        for (ImportChunkResult r : report.getProblemChunks()) {
+            if (chunks.length() > 1) {
+                chunks.append(',');
+            }
+            chunks.append("{\"chunk\":").append(r.getChunk())
+                  .append(",\"firstRecord\":").append(r.getFirstRecord())
+                  .append(",\"lastRecord\":").append(r.getLastRecord())
+                  .append(",\"inserted\":").append(r.getInserted())
+                  .append(",\"rejected\":").append(r.getRejected())
+                  .append(",\"committed\":").append(r.isCommitted())
+                  .append(",\"error\":")
+                  .append(r.getError() == null ? "null" : "\"" + SimpleApiServer.escapeJson(r.getError()) + "\"")
+                  .append('}');
+        }
+        chunks.append(']');
+
+        String status = report.getFailedChunks() == 0 && report.getRejected() == 0
+                ? "success" : (report.getInserted() > 0 ? "partial" : "error");
+        return "{\"status\":\"" + status + "\",\"records\":" + report.getRecords()
+                + ",\"inserted\":" + report.getInserted() + ",\"rejected\":" + report.getRejected()
+                + ",\"chunks\":" + report.getChunks() + ",\"failedChunks\":" + report.getFailedChunks()
+                + ",\"problemChunks\":" + chunks + ",\"unlistedProblemChunks\":" + report.getUnlistedProblemChunks() + "}";
+    }
+}
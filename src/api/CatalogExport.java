@@ -0,0 +1,86 @@
+package api;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import dao.BookDAO;
+
+/**
+ * Shared writer for GET /api/books/export in both servers. Rows go from the
+ * streaming ResultSet through a fixed-size buffer to the response, so the
+ * heap footprint does not depend on the size of the catalog.
+ */
+final class CatalogExport {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CatalogExport() {
+    }
+
+    static boolean isSupported(String format) {
+        return "csv".equals(format) || "ndjson".equals(format);
+    }
+
+    static String contentType(String format) {
+        return "csv".equals(format) ? "text/csv; charset=utf-8" : "application/x-ndjson";
+    }
+
+    static String fileName(String format) {
+        return "books." + format;
+    }
+
+    // Write the whole catalog in id order and close the body; returns the number of rows written.
+    // If reading fails the exception propagates and the body is left open: closing it would write
+    // the final chunk (and the gzip trailer), and the client would take the truncated file for
+    // a complete one. The caller drops the connection instead.
+    static int write(BookDAO bookDAO, String format, OutputStream body) throws IOException {
+        if (!"csv".equals(format)) {
+            BookJsonWriter json = BookJsonWriter.streaming(BookJsonWriter.Style.SIMPLE, body);
+            int count = bookDAO.exportBooks((id, name, author) -> json.writeBook(id, name, author).writeByte('\n'));
+            json.flush();
+            body.close();
+            return count;
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), BUFFER_SIZE);
+        out.write("id,name,author\n");
+        int count = bookDAO.exportBooks((id, name, author) -> {
+            out.write(Integer.toString(id));
+            out.write(',');
+            writeCsvField(out, name);
+            out.write(',');
+            writeCsvField(out, author);
+            out.write('\n');
+        });
+        out.close();
+        return count;
+    }
+
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,95 @@
+package api;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import dao.VersionStamp;
+import spark.Request;
+import spark.Response;
+
+/**
+ * ETag / Last-Modified handling shared by both servers.
+ *
+ * Validators are only attached to 200 responses, so a client can never hold
+ * a tag for a 404 that would still match once the book exists. Only
+ * If-None-Match is honoured for 304s: Last-Modified has one-second
+ * resolution and could hide a second change within the same second.
+ */
+final class ConditionalGet {
+
+    // IMF-fixdate; RFC_1123_DATE_TIME would drop the leading zero of the day
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private ConditionalGet() {
+    }
+
+    // True when one of the tags in an If-None-Match header is the current one
+    static boolean matches(String ifNoneMatch, VersionStamp stamp) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String etag = stamp.getETag();
+        int start = 0;
+        while (start < ifNoneMatch.length()) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0) {
+                end = ifNoneMatch.length();
+            }
+            String candidate = ifNoneMatch.substring(start, end).trim();
+            if (candidate.startsWith("W/")) {
+                // Weak comparison is what If-None-Match calls for
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    static String httpDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    static void addValidators(Headers headers, VersionStamp stamp) {
+        headers.set("ETag", stamp.getETag());
+        headers.set("Last-Modified", httpDate(stamp.getLastModifiedMillis()));
+        // Cache, but revalidate every time: browsers then send If-None-Match on their own
+        headers.set("Cache-Control", "no-cache");
+    }
+
+    // SimpleApiServer: answer 304 when the client's copy is current; returns true if it did
+    static boolean notModified(HttpExchange exchange, VersionStamp stamp) throws IOException {
+        if (!matches(exchange.getRequestHeaders().getFirst("If-None-Match"), stamp)) {
+            return false;
+        }
+        addValidators(exchange.getResponseHeaders(), stamp);
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+
+    static void addValidators(Response res, VersionStamp stamp) {
+        res.header("ETag", stamp.getETag());
+        res.header("Last-Modified", httpDate(stamp.getLastModifiedMillis()));
+        res.header("Cache-Control", "no-cache");
+    }
+
+    // LibraryApiServer: set 304 when the client's copy is current; returns true if it did
+    static boolean notModified(Request req, Response res, VersionStamp stamp) {
+        if (!matches(req.headers("If-None-Match"), stamp)) {
+            return false;
+        }
+        addValidators(res, stamp);
+        res.status(304);
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import dao.BookSource;
+import model.Book;
+
+/**
+ * Reads books from CSV one record at a time (RFC 4180 quoting).
+ *
+ * A first row naming "name" and "author" columns is treated as a header and
+ * picks the columns, so files written by the CSV export can be re-imported.
+ * Without a header the columns are name, author.
+ */
+class CsvBookSource implements BookSource {
+
+    private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    private final Reader in;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private boolean headerChecked;
+    private int nameColumn = 0;
+    private int authorColumn = 1;
+    private int pushback = -2;
+
+    CsvBookSource(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public Book next() throws IOException {
+        while (readRecord()) {
+            if (!headerChecked) {
+                headerChecked = true;
+                if (detectHeader()) {
+                    continue;
+                }
+            }
+            if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                continue; // blank line
+            }
+            if (fields.size() <= Math.max(nameColumn, authorColumn)) {
+                throw new IllegalArgumentException("expected at least " + (Math.max(nameColumn, authorColumn) + 1)
+                        + " columns but found " + fields.size());
+            }
+            return new Book(0, fields.get(nameColumn), fields.get(authorColumn));
+        }
+        return null;
+    }
+
+    private boolean detectHeader() {
+        int name = -1;
+        int author = -1;
+        for (int i = 0; i < fields.size(); i++) {
+            String column = fields.get(i).trim();
+            if (column.equalsIgnoreCase("name")) {
+                name = i;
+            } else if (column.equalsIgnoreCase("author")) {
+                author = i;
+            }
+        }
+        if (name >= 0 && author >= 0) {
+            nameColumn = name;
+            authorColumn = author;
+            return true;
+        }
+        return false;
+    }
+
+    // Fill fields with the next record; false at end of input
+    private boolean readRecord() throws IOException {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean inQuotes = false;
+        boolean tooLong = false;
+        boolean sawAnything = false;
+
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (!sawAnything) {
+                    return false;
+                }
+                break;
+            }
+            sawAnything = true;
+
+            if (inQuotes) {
+                if (c == '"') {
+                    int following = read();
+                    if (following == '"') {
+                        tooLong |= append('"');
+                    } else {
+                        inQuotes = false;
+                        unread(following);
+                    }
+                } else {
+                    tooLong |= append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                quoted = true;
+                inQuotes = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                quoted = false;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    int following = read();
+                    if (following != '\n') {
+                        unread(following);
+                    }
+                }
+                break;
+            } else {
+                tooLong |= append((char) c);
+            }
+        }
+        fields.add(field.toString());
+        if (tooLong) {
+            throw new IllegalArgumentException("field longer than " + MAX_FIELD_LENGTH + " characters");
+        }
+        return true;
+    }
+
+    private boolean append(char c) {
+        if (field.length() >= MAX_FIELD_LENGTH) {
+            return true;
+        }
+        field.append(c);
+        return false;
+    }
+
+    private int read() throws IOException {
+        if (pushback != -2) {
+            int c = pushback;
+            pushback = -2;
+            return c;
+        }
+        return in.read();
+    }
+
+    private void unread(int c) {
+        pushback = c;
+    }
+}
@@ -0,0 +1,345 @@
+package api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dao.BookDAO;
+import dao.BookEvent;
+import metrics.Metrics;
+
+/**
+ * The Server-Sent Events change feed behind GET /api/books/events, shared
+ * by both servers.
+ *
+ * A subscriber is an open response body and a cursor: the sequence number
+ * of the last event it was sent. No thread waits on a subscriber. After
+ * each committed change the BookDAO listener schedules every subscriber on
+ * a small pool of writer threads, and each write sends whatever the event
+ * log holds past that subscriber's cursor, so a burst of changes costs one
+ * write per subscriber rather than one per change. A subscriber is never
+ * scheduled twice at once, and one that is idle gets a comment line every
+ * heartbeatSeconds, which also finds clients that went away.
+ *
+ * Writes block, so a client that stops reading would hold a writer thread
+ * and stall everyone behind it. A write still running after
+ * writeTimeoutMillis drops its subscriber: the connection is aborted where
+ * the server allows it, which fails the write, and otherwise another writer
+ * thread takes over until the blocked one returns.
+ *
+ * Event ids are "epoch-sequence". A client that reconnects with a
+ * Last-Event-ID still in the log's ring is sent what it missed; otherwise
+ * (too far behind, or an id from before a restart) it gets a reset event
+ * and should fetch the full list again.
+ */
+final class EventStream {
+
+    private static final int WRITER_THREADS = Integer.getInteger("library.events.writerThreads", 2);
+    private static final long HEARTBEAT_SECONDS = Long.getLong("library.events.heartbeatSeconds", 15L);
+    private static final int MAX_SUBSCRIBERS = Integer.getInteger("library.events.maxSubscribers", 10_000);
+    private static final long WRITE_TIMEOUT_MILLIS = Long.getLong("library.events.writeTimeoutMillis", 10_000L);
+    // Writer threads replaced at once while blocked on dropped clients; past this the others wait
+    private static final int MAX_BLOCKED_WRITERS = 64;
+    // Events encoded per write; a subscriber further behind gets several writes in a row
+    private static final int EVENTS_PER_WRITE = 256;
+    private static final long RETRY_MILLIS = 3000;
+
+    private final BookDAO bookDAO;
+    private final BookJsonWriter.Style style;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger timedOut = new AtomicInteger();
+    private final ThreadPoolExecutor writers;
+    // Writer threads added in place of ones blocked on a timed-out write
+    private int replacements;
+    private final ScheduledExecutorService heartbeat;
+
+    private EventStream(BookDAO bookDAO, BookJsonWriter.Style style) {
+        this.bookDAO = bookDAO;
+        this.style = style;
+        AtomicInteger threadNumber = new AtomicInteger();
+        int threads = Math.max(1, WRITER_THREADS);
+        writers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "book-events-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "book-events-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static EventStream start(BookDAO bookDAO, BookJsonWriter.Style style) {
+        EventStream stream = new EventStream(bookDAO, style);
+        bookDAO.addChangeListener(stream::wakeAll);
+        stream.heartbeat.scheduleWithFixedDelay(stream::beat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        long check = Math.max(100, WRITE_TIMEOUT_MILLIS / 4);
+        stream.heartbeat.scheduleWithFixedDelay(stream::checkWrites, check, check, TimeUnit.MILLISECONDS);
+        Metrics.gauge("library_events_subscribers", "Open change feed connections", stream.count::get);
+        Metrics.counter("library_events_write_timeouts_total", "Change feed subscribers dropped for not reading",
+                stream.timedOut::get);
+        return stream;
+    }
+
+    // False when the server already has maxSubscribers; the caller should answer 503
+    boolean hasRoom() {
+        return count.get() < MAX_SUBSCRIBERS;
+    }
+
+    // Take over a response whose SSE headers have been sent: write the preamble and any
+    // replay, then keep it until the client goes away or the server shuts down; close ends the
+    // response, and abort, null when the server has no way to, drops the connection from another thread
+    void subscribe(OutputStream body, Runnable close, Runnable abort, String lastEventId) {
+        Subscriber subscriber = new Subscriber(body, close, abort);
+        long latest = bookDAO.getLatestEventSequence();
+        subscriber.cursor = resumeFrom(lastEventId, latest);
+        if (subscriber.cursor < 0) {
+            subscriber.resetNeeded = true;
+            subscriber.cursor = latest;
+        }
+        subscriber.greetingNeeded = true;
+        subscribers.add(subscriber);
+        count.incrementAndGet();
+        schedule(subscriber);
+    }
+
+    int getSubscriberCount() {
+        return count.get();
+    }
+
+    void close() {
+        heartbeat.shutdownNow();
+        writers.shutdown();
+        for (Subscriber subscriber : subscribers) {
+            drop(subscriber);
+        }
+    }
+
+    // The sequence number to resume after, the latest for a fresh client, or -1 when the id is not ours
+    private long resumeFrom(String lastEventId, long latest) {
+        if (lastEventId == null || lastEventId.isEmpty()) {
+            return latest;
+        }
+        String prefix = bookDAO.getEventEpoch() + "-";
+        if (!lastEventId.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            long sequence = Long.parseLong(lastEventId.substring(prefix.length()));
+            return sequence >= 0 && sequence <= latest ? sequence : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void wakeAll() {
+        for (Subscriber subscriber : subscribers) {
+            schedule(subscriber);
+        }
+    }
+
+    private void beat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeatNeeded = true;
+            schedule(subscriber);
+        }
+    }
+
+    // Drop subscribers whose write has been blocked for longer than the write timeout
+    private void checkWrites() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            synchronized (subscriber) {
+                long started = subscriber.writeStarted;
+                if (started == 0 || subscriber.timedOut
+                        || now - started < TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MILLIS)) {
+                    continue;
+                }
+                subscriber.timedOut = true;
+                subscriber.replaced = addWriter();
+            }
+            timedOut.incrementAndGet();
+            // close would block behind the write; send closes the response once the write returns
+            remove(subscriber);
+            if (subscriber.abort != null) {
+                try {
+                    subscriber.abort.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private synchronized boolean addWriter() {
+        if (replacements == MAX_BLOCKED_WRITERS || writers.isShutdown()) {
+            return false;
+        }
+        replacements++;
+        writers.setMaximumPoolSize(writers.getMaximumPoolSize() + 1);
+        writers.setCorePoolSize(writers.getCorePoolSize() + 1);
+        return true;
+    }
+
+    private synchronized void removeWriter() {
+        replacements--;
+        writers.setCorePoolSize(writers.getCorePoolSize() - 1);
+        writers.setMaximumPoolSize(writers.getMaximumPoolSize() - 1);
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.closed || !subscriber.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writers.execute(() -> send(subscriber));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            subscriber.scheduled.set(false);
+        }
+    }
+
+    private void send(Subscriber subscriber) {
+        subscriber.writeStarted = System.nanoTime();
+        try {
+            boolean wrote = false;
+            if (subscriber.greetingNeeded) {
+                subscriber.greetingNeeded = false;
+                subscriber.body.write(("retry: " + RETRY_MILLIS + "\n: connected\n\n").getBytes("UTF-8"));
+                wrote = true;
+            }
+            while (!subscriber.closed) {
+                List<BookEvent> events = subscriber.resetNeeded
+                        ? null : bookDAO.getEventsSince(subscriber.cursor, EVENTS_PER_WRITE);
+                BookJsonWriter json = BookJsonWriter.forThread(style);
+                if (events == null) {
+                    // Fell out of the ring: tell the client to reload and carry on from the newest event
+                    subscriber.resetNeeded = false;
+                    subscriber.cursor = bookDAO.getLatestEventSequence();
+                    writeReset(json, subscriber.cursor);
+                } else if (events.isEmpty()) {
+                    break;
+                } else {
+                    for (BookEvent event : events) {
+                        writeEvent(json, event);
+                    }
+                    subscriber.cursor = events.get(events.size() - 1).getSequence();
+                }
+                json.writeTo(subscriber.body);
+                wrote = true;
+            }
+            if (!wrote && subscriber.heartbeatNeeded) {
+                subscriber.body.write(": keepalive\n\n".getBytes("UTF-8"));
+                wrote = true;
+            }
+            subscriber.heartbeatNeeded = false;
+            if (wrote) {
+                subscriber.body.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client went away
+            drop(subscriber);
+            return;
+        } finally {
+            boolean replaced;
+            boolean late;
+            synchronized (subscriber) {
+                subscriber.writeStarted = 0;
+                replaced = subscriber.replaced;
+                subscriber.replaced = false;
+                late = subscriber.timedOut;
+            }
+            if (replaced) {
+                removeWriter();
+            }
+            if (late) {
+                closeResponse(subscriber);
+            }
+            subscriber.scheduled.set(false);
+        }
+        // A change committed after the last read but before the flag was cleared found it set and moved on
+        if (bookDAO.getLatestEventSequence() > subscriber.cursor) {
+            schedule(subscriber);
+        }
+    }
+
+    // id: epoch-seq / event: created|updated|deleted / data: {"seq":n,"type":..,"book":{..}}
+    private void writeEvent(BookJsonWriter json, BookEvent event) throws IOException {
+        String type = event.getType().name().toLowerCase();
+        json.writeAscii("id: " + bookDAO.getEventEpoch() + "-" + event.getSequence() + "\nevent: " + type
+                + "\ndata: {\"seq\":" + event.getSequence() + ",\"type\":\"" + type + "\",\"book\":");
+        if (event.getType() == BookEvent.Type.DELETED) {
+            json.writeAscii("{\"id\":").writeInt(event.getBookId()).writeByte('}');
+        } else {
+            json.writeBook(event.getBookId(), event.getName(), event.getAuthor());
+        }
+        json.writeAscii("}\n\n");
+    }
+
+    private void writeReset(BookJsonWriter json, long sequence) throws IOException {
+        json.writeAscii("id: " + bookDAO.getEventEpoch() + "-" + sequence
+                + "\nevent: reset\ndata: {\"seq\":" + sequence + "}\n\n");
+    }
+
+    private void drop(Subscriber subscriber) {
+        if (remove(subscriber)) {
+            closeResponse(subscriber);
+        }
+    }
+
+    // False when the subscriber was already removed
+    private boolean remove(Subscriber subscriber) {
+        if (subscriber.closed) {
+            return false;
+        }
+        subscriber.closed = true;
+        if (subscribers.remove(subscriber)) {
+            count.decrementAndGet();
+        }
+        return true;
+    }
+
+    private static void closeResponse(Subscriber subscriber) {
+        try {
+            subscriber.close.run();
+        } catch (RuntimeException e) {
+            // Already closed by the client
+        }
+    }
+
+    private static final class Subscriber {
+        final OutputStream body;
+        final Runnable close;
+        final Runnable abort;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Only read and written by the writer that holds scheduled
+        long cursor;
+        boolean resetNeeded;
+        volatile boolean greetingNeeded;
+        volatile boolean heartbeatNeeded;
+        volatile boolean closed;
+        // System.nanoTime() when the running send began, 0 between sends
+        volatile long writeStarted;
+        // Guarded by the subscriber's monitor
+        boolean timedOut;
+        boolean replaced;
+
+        Subscriber(OutputStream body, Runnable close, Runnable abort) {
+            this.body = body;
+            this.close = close;
+            this.abort = abort;
+        }
+    }
+}
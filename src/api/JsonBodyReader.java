@@ -0,0 +1,348 @@
+package api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single-pass JSON tokenizer for small request bodies such as
+ * {"name": "...", "author": "..."}.
+ *
+ * Characters are pulled from the stream as they are parsed, so the raw body
+ * is never buffered as a whole. String members of the top-level object are
+ * returned with their escapes decoded; numbers, booleans, null and nested
+ * values are validated and skipped. Malformed input throws
+ * IllegalArgumentException, a body over the byte limit throws
+ * BodyTooLargeException.
+ */
+final class JsonBodyReader {
+
+    static final int DEFAULT_MAX_BODY_BYTES = Integer.getInteger("library.server.maxBodyBytes", 64 * 1024);
+
+    private static final int MAX_DEPTH = 32;
+
+    static final class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException(long limit) {
+            super("Request body is larger than " + limit + " bytes");
+        }
+    }
+
+    private final Reader in;
+    private final char[] buf = new char[4096];
+    private int pos;
+    private int limit;
+    private final StringBuilder text = new StringBuilder();
+
+    private JsonBodyReader(Reader in) {
+        this.in = in;
+    }
+
+    // Parse a UTF-8 request body whose Content-Length header (null when absent) is contentLength.
+    // A body declared larger than maxBytes is refused without reading any of it.
+    static Map<String, String> readObject(InputStream body, String contentLength, long maxBytes) throws IOException {
+        if (contentLength != null) {
+            long declared;
+            try {
+                declared = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                declared = -1;
+            }
+            if (declared < 0) {
+                throw new IllegalArgumentException("Content-Length of the request body is not a valid length");
+            }
+            if (declared > maxBytes) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+        }
+        return readObject(body, maxBytes);
+    }
+
+    // Parse a UTF-8 request body, reading at most maxBytes bytes from it
+    static Map<String, String> readObject(InputStream body, long maxBytes) throws IOException {
+        Reader reader = new InputStreamReader(new LimitedInputStream(body, maxBytes),
+                StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT));
+        try {
+            return new JsonBodyReader(reader).parseDocument();
+        } catch (CharacterCodingException e) {
+            throw new IllegalArgumentException("invalid UTF-8 in request body");
+        }
+    }
+
+    // Parse one JSON object held in a reader, e.g. a line of NDJSON
+    static Map<String, String> readObject(Reader json) throws IOException {
+        return new JsonBodyReader(json).parseDocument();
+    }
+
+    private Map<String, String> parseDocument() throws IOException {
+        int c = skipWhitespace();
+        if (c != '{') {
+            throw malformed("expected an object");
+        }
+        Map<String, String> result = new HashMap<>();
+        c = skipWhitespace();
+        if (c != '}') {
+            while (true) {
+                if (c != '"') {
+                    throw malformed("expected a member name");
+                }
+                String key = readString();
+                if (skipWhitespace() != ':') {
+                    throw malformed("expected ':'");
+                }
+                c = skipWhitespace();
+                if (c == '"') {
+                    result.put(key, readString());
+                } else {
+                    skipValue(c, 1);
+                    // A later non-string value replaces an earlier string for the same key
+                    result.remove(key);
+                }
+                c = skipWhitespace();
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw malformed("expected ',' or '}'");
+                }
+                c = skipWhitespace();
+            }
+        }
+        if (skipWhitespace() != -1) {
+            throw malformed("unexpected data after the object");
+        }
+        return result;
+    }
+
+    // Skip the value starting with the already consumed character c
+    private void skipValue(int c, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw malformed("nested too deeply");
+        }
+        switch (c) {
+            case '"':
+                readString();
+                return;
+            case '{':
+                c = skipWhitespace();
+                if (c == '}') {
+                    return;
+                }
+                while (true) {
+                    if (c != '"') {
+                        throw malformed("expected a member name");
+                    }
+                    readString();
+                    if (skipWhitespace() != ':') {
+                        throw malformed("expected ':'");
+                    }
+                    skipValue(skipWhitespace(), depth + 1);
+                    c = skipWhitespace();
+                    if (c == '}') {
+                        return;
+                    }
+                    if (c != ',') {
+                        throw malformed("expected ',' or '}'");
+                    }
+                    c = skipWhitespace();
+                }
+            case '[':
+                c = skipWhitespace();
+                if (c == ']') {
+                    return;
+                }
+                while (true) {
+                    skipValue(c, depth + 1);
+                    c = skipWhitespace();
+                    if (c == ']') {
+                        return;
+                    }
+                    if (c != ',') {
+                        throw malformed("expected ',' or ']'");
+                    }
+                    c = skipWhitespace();
+                }
+            case 't':
+                expectLiteral("rue");
+                return;
+            case 'f':
+                expectLiteral("alse");
+                return;
+            case 'n':
+                expectLiteral("ull");
+                return;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    skipNumber(c);
+                    return;
+                }
+                throw malformed("unexpected character");
+        }
+    }
+
+    // Read the rest of a string whose opening quote was consumed
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) c);
+                        break;
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        text.append(readHexChar());
+                        break;
+                    default:
+                        throw malformed("invalid escape");
+                }
+            } else if (c == -1) {
+                throw malformed("unterminated string");
+            } else if (c < 0x20) {
+                throw malformed("control character in string");
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private char readHexChar() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw malformed("invalid \\u escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    // Numbers are validated loosely and discarded; c is the first character
+    private void skipNumber(int c) throws IOException {
+        boolean digits = c != '-';
+        while (true) {
+            c = peek();
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                digits |= c >= '0' && c <= '9';
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
+            throw malformed("invalid number");
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw malformed("invalid literal");
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private static IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("malformed JSON: " + reason);
+    }
+
+    // Fails as soon as more than maxBytes have been read, instead of after buffering them
+    private static final class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private final long maxBytes;
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            this.in = in;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, (int) Math.min(len, maxBytes - count + 1));
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws BodyTooLargeException {
+            count += n;
+            if (count > maxBytes) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+        }
+    }
+}
@@ -2,39 +2,185 @@ package api;
 
 import static spark.Spark.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+
 import com.google.gson.Gson;
 
+import spark.Request;
+import spark.Response;
+
 import dao.BookDAO;
+import dao.BookSource;
+import dao.Suggestion;
+import dao.VersionStamp;
+import db.DBConnection;
+import metrics.Metrics;
 import model.Book;
 
 public class LibraryApiServer {
     
     private static final int PORT = 8080;
     private static final String API_CONTEXT = "/api";
+    private static final int DEFAULT_PAGE_SIZE = 100;
     private static final Gson gson = new Gson();
+    private static final String REQUEST_START_ATTRIBUTE = "library.requestStart";
     
     public static void main(String[] args) {
         // Initialize BookDAO
         BookDAO bookDAO = new BookDAO();
+        start(bookDAO, PORT);
+        
+        System.out.println("Server started on port " + PORT);
+        System.out.println("API endpoints available at http://localhost:" + PORT + API_CONTEXT);
+    }
+    
+    // Register the filters and routes on Spark's server and start it on the port; the tests use a free port
+    static void start(BookDAO bookDAO, int port) {
+        // Ready-encoded bytes of the full list, rebuilt in the background after writes
+        ListSnapshot listSnapshot = ListSnapshot.start(bookDAO, BookJsonWriter.Style.GSON);
+        // Pushes committed changes to open GET /api/books/events connections
+        EventStream eventStream = EventStream.start(bookDAO, BookJsonWriter.Style.GSON);
         
         // Configure Spark
-        port(PORT);
+        port(port);
+        
+        // Time every request, registered first so the other filters are included
+        before((req, res) -> req.attribute(REQUEST_START_ATTRIBUTE, System.nanoTime()));
+        afterAfter((req, res) -> {
+            Long start = req.attribute(REQUEST_START_ATTRIBUTE);
+            if (start != null) {
+                Metrics.recordRequest(RequestMetrics.routeOf(req.pathInfo()), req.requestMethod(),
+                        res.status(), System.nanoTime() - start);
+            }
+        });
+        RequestMetrics.registerGauges(bookDAO, null);
+
+        // Per-client token buckets, enabled with -Dlibrary.rateLimit=true; halting here skips
+        // the route and the later filters but still runs afterAfter, so 429s are timed too
+        RateLimiter rateLimiter = RateLimiter.fromSystemProperties();
+        if (rateLimiter != null) {
+            before((req, res) -> {
+                int cost = rateLimiter.cost(req.requestMethod(), req.pathInfo(), req.queryString());
+                long wait = rateLimiter.acquire(req.ip(), cost);
+                if (wait > 0) {
+                    res.header("Access-Control-Allow-Origin", "*");
+                    res.header("Retry-After", RateLimiter.retryAfterSeconds(wait));
+                    res.type("application/json");
+                    halt(429, RateLimiter.tooManyRequestsBody());
+                }
+            });
+        }
+
+        // Tell DBConnection which client the thread serves, so reads after its writes see them
+        before((req, res) -> DBConnection.beginRequest(req.ip()));
+        afterAfter((req, res) -> DBConnection.endRequest(
+                !req.requestMethod().equals("GET") && !req.requestMethod().equals("HEAD")));
         
         // Enable CORS for frontend development
         enableCORS();
         
         // Define API endpoints
         path(API_CONTEXT, () -> {
+            // Prometheus metrics
+            get("/metrics", (req, res) -> {
+                res.type(Metrics.CONTENT_TYPE);
+                return Metrics.scrape();
+            });
+            
             // Get all books
             get("/books", (req, res) -> {
                 try {
                     res.type("application/json");
+                    boolean binary = BookBinaryWriter.accepts(req.headers("Accept"));
+                    res.raw().addHeader("Vary", "Accept");
+                    VersionStamp version = bookDAO.getCatalogVersion();
+                    if (binary) {
+                        version = BookBinaryWriter.tag(version);
+                    }
+                    if (ConditionalGet.notModified(req, res, version)) {
+                        return "";
+                    }
+                    String limitParam = req.queryParams("limit");
+                    String afterParam = req.queryParams("after");
+                    boolean stream = "true".equals(req.queryParams("stream"));
+                    
+                    // Multi-get (?ids=1,2,3): one query for the whole list
+                    String idsParam = req.queryParams("ids");
+                    if (idsParam != null) {
+                        int[] ids = parseIds(idsParam);
+                        if (ids == null) {
+                            res.status(400);
+                            return gson.toJson(createErrorResponse("ids must be a comma-separated list of at most "
+                                    + BookDAO.MAX_IDS + " book ids"));
+                        }
+                        List<Book> books = bookDAO.getBooksByIds(ids);
+                        ConditionalGet.addValidators(res, version);
+                        if (binary) {
+                            return sendBinary(req, res, BookBinaryWriter.forThread().writeBooks(books));
+                        }
+                        return sendJson(req, res, BookJsonWriter.forThread(BookJsonWriter.Style.GSON).writeBooks(books));
+                    }
+                    
+                    // Keyset pagination (?limit=&after=) and/or chunked streaming (?stream=true)
+                    if (stream || limitParam != null || afterParam != null) {
+                        int after = afterParam != null ? Integer.parseInt(afterParam) : 0;
+                        int limit = limitParam != null ? Integer.parseInt(limitParam) : (stream ? 0 : DEFAULT_PAGE_SIZE);
+                        if (after < 0 || (limitParam != null && limit < 1)) {
+                            throw new NumberFormatException();
+                        }
+                        if (stream) {
+                            ConditionalGet.addValidators(res, version);
+                            if (binary) {
+                                streamBooksBinary(req, res, bookDAO, after, limit);
+                            } else {
+                                streamBooksJson(req, res, bookDAO, after, limit);
+                            }
+                            return "";
+                        }
+                        limit = Math.min(limit, BookDAO.MAX_PAGE_SIZE);
+                        List<Book> books = bookDAO.viewBooksPage(after, limit);
+                        ConditionalGet.addValidators(res, version);
+                        if (binary) {
+                            // No envelope: the next cursor is the last id when the page is full
+                            return sendBinary(req, res, BookBinaryWriter.forThread().writeBooks(books));
+                        }
+                        BookJsonWriter json = BookJsonWriter.forThread(BookJsonWriter.Style.GSON);
+                        json.writeAscii("{\"books\":").writeBooks(books).writeAscii(",\"next\":");
+                        if (books.size() == limit) {
+                            json.writeInt(books.get(books.size() - 1).getId());
+                        } else {
+                            json.writeAscii("null");
+                        }
+                        return sendJson(req, res, json.writeByte('}'));
+                    }
+                    
+                    if (binary) {
+                        // Encoded while the books are read rather than collected first
+                        BookBinaryWriter writer = BookBinaryWriter.forThread();
+                        bookDAO.streamBooks(0, 0, writer::writeBook);
+                        ConditionalGet.addValidators(res, version);
+                        return sendBinary(req, res, writer);
+                    }
+                    ListSnapshot.Entry snapshot = listSnapshot != null ? listSnapshot.current(version) : null;
+                    if (snapshot != null) {
+                        ConditionalGet.addValidators(res, version);
+                        return sendSnapshot(req, res, snapshot);
+                    }
                     List<Book> books = bookDAO.viewAllBooks();
-                    return gson.toJson(books);
+                    ConditionalGet.addValidators(res, version);
+                    return sendJson(req, res, BookJsonWriter.forThread(BookJsonWriter.Style.GSON).writeBooks(books));
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Invalid limit or after parameter"));
+                } catch (ResponseAbortedException e) {
+                    return ""; // the connection is already reset, nothing more can be sent
                 } catch (Exception e) {
                     e.printStackTrace();
                     res.status(500);
@@ -42,30 +188,72 @@ public class LibraryApiServer {
                 }
             });
             
-            // Get a specific book by ID
-            get("/books/:id", (req, res) -> {
-                try {
+            // Stream the whole catalog as CSV or NDJSON; registered before /books/:id so it matches first
+            get("/books/export", (req, res) -> {
+                String format = req.queryParams("format") != null ? req.queryParams("format") : "csv";
+                if (!CatalogExport.isSupported(format)) {
                     res.type("application/json");
-                    int id = Integer.parseInt(req.params(":id"));
-                    Book book = bookDAO.getBookById(id);
-                    
-                    if (book != null) {
-                        return gson.toJson(book);
-                    } else {
-                        res.status(404);
-                        return gson.toJson(createErrorResponse("Book not found with ID: " + id));
-                    }
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Format must be csv or ndjson"));
+                }
+                
+                HttpServletResponse raw = res.raw();
+                raw.setStatus(200);
+                raw.setContentType(CatalogExport.contentType(format));
+                raw.setHeader("Content-Disposition", "attachment; filename=\"" + CatalogExport.fileName(format) + "\"");
+                OutputStream body = raw.getOutputStream();
+                try {
+                    CatalogExport.write(bookDAO, format,
+                            ResponseCompression.negotiate(req, res, -1) ? ResponseCompression.gzipStream(body) : body);
+                } catch (IOException e) {
+                    // Reset the connection so the client never mistakes a truncated export for a complete one
+                    ResponseAbortedException.abort(raw, e);
+                }
+                return "";
+            });
+            
+            // Typeahead completions for the search box; registered before /books/:id so it matches first
+            get("/books/suggest", (req, res) -> {
+                res.type("application/json");
+                String prefix = req.queryParams("prefix");
+                if (prefix == null || prefix.trim().isEmpty()) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Prefix is required"));
+                }
+                int k;
+                try {
+                    k = req.queryParams("k") != null ? Integer.parseInt(req.queryParams("k")) : 10;
                 } catch (NumberFormatException e) {
                     res.status(400);
-                    return gson.toJson(createErrorResponse("Invalid book ID format"));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    res.status(500);
-                    return gson.toJson(createErrorResponse("Failed to retrieve book: " + e.getMessage()));
+                    return gson.toJson(createErrorResponse("k must be a number"));
                 }
+                List<Suggestion> suggestions = bookDAO.suggest(prefix, k);
+                return sendJson(req, res, BookJsonWriter.forThread(BookJsonWriter.Style.GSON).writeSuggestions(suggestions));
             });
             
-            // Search for books
+            // Server-Sent Events change feed; the request goes async so no Jetty thread waits on it
+            get("/books/events", (req, res) -> {
+                if (!eventStream.hasRoom()) {
+                    res.type("application/json");
+                    res.header("Retry-After", "30");
+                    res.status(503);
+                    return gson.toJson(createErrorResponse("Too many event subscribers"));
+                }
+                HttpServletResponse raw = res.raw();
+                raw.setStatus(200);
+                raw.setContentType("text/event-stream; charset=utf-8");
+                raw.setHeader("Cache-Control", "no-cache");
+                AsyncContext async = req.raw().startAsync();
+                async.setTimeout(0);
+                // Committing the headers here also makes Spark skip writing the returned empty body
+                raw.flushBuffer();
+                eventStream.subscribe(raw.getOutputStream(), async::complete,
+                        () -> ResponseAbortedException.abort(raw, new IOException("Event subscriber stopped reading")),
+                        req.headers("Last-Event-ID"));
+                return "";
+            });
+            
+            // Search for books; registered before /books/:id so it matches first
             get("/books/search", (req, res) -> {
                 try {
                     res.type("application/json");
@@ -76,8 +264,21 @@ public class LibraryApiServer {
                         return gson.toJson(createErrorResponse("Search query is required"));
                     }
                     
+                    boolean binary = BookBinaryWriter.accepts(req.headers("Accept"));
+                    res.raw().addHeader("Vary", "Accept");
+                    VersionStamp version = bookDAO.getCatalogVersion();
+                    if (binary) {
+                        version = BookBinaryWriter.tag(version);
+                    }
+                    if (ConditionalGet.notModified(req, res, version)) {
+                        return "";
+                    }
                     List<Book> books = bookDAO.searchBook(query);
-                    return gson.toJson(books);
+                    ConditionalGet.addValidators(res, version);
+                    if (binary) {
+                        return sendBinary(req, res, BookBinaryWriter.forThread().writeBooks(books));
+                    }
+                    return sendJson(req, res, BookJsonWriter.forThread(BookJsonWriter.Style.GSON).writeBooks(books));
                 } catch (Exception e) {
                     e.printStackTrace();
                     res.status(500);
@@ -85,6 +286,42 @@ public class LibraryApiServer {
                 }
             });
             
+            // Get a specific book by ID
+            get("/books/:id", (req, res) -> {
+                try {
+                    res.type("application/json");
+                    int id = Integer.parseInt(req.params(":id"));
+                    boolean binary = BookBinaryWriter.accepts(req.headers("Accept"));
+                    res.raw().addHeader("Vary", "Accept");
+                    VersionStamp version = bookDAO.getBookVersion(id);
+                    if (binary) {
+                        version = BookBinaryWriter.tag(version);
+                    }
+                    if (ConditionalGet.notModified(req, res, version)) {
+                        return "";
+                    }
+                    Book book = bookDAO.getBookById(id);
+                    
+                    if (book != null && binary) {
+                        ConditionalGet.addValidators(res, version);
+                        return sendBinary(req, res, BookBinaryWriter.forThread().writeBook(book));
+                    } else if (book != null) {
+                        ConditionalGet.addValidators(res, version);
+                        return sendJson(req, res, BookJsonWriter.forThread(BookJsonWriter.Style.GSON).writeBook(book));
+                    } else {
+                        res.status(404);
+                        return gson.toJson(createErrorResponse("Book not found with ID: " + id));
+                    }
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Invalid book ID format"));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    res.status(500);
+                    return gson.toJson(createErrorResponse("Failed to retrieve book: " + e.getMessage()));
+                }
+            });
+            
             // Add a new book
             post("/books", (req, res) -> {
                 try {
@@ -112,6 +349,28 @@ public class LibraryApiServer {
                 }
             });
             
+            // Bulk import from an NDJSON or CSV body, one transaction per chunk
+            post("/books/bulk", (req, res) -> {
+                try {
+                    res.type("application/json");
+                    int chunkSize = BulkImport.chunkSize(req.queryParams("chunkSize"));
+                    BookSource source = BulkImport.openSource(req.raw().getInputStream(),
+                            req.contentType(), req.queryParams("format"));
+                    if (source == null) {
+                        res.status(415);
+                        return gson.toJson(createErrorResponse("Expected NDJSON or CSV"));
+                    }
+                    return BulkImport.toJson(bookDAO.importBooks(source, chunkSize));
+                } catch (NumberFormatException e) {
+                    res.status(400);
+                    return gson.toJson(createErrorResponse("Invalid chunkSize parameter"));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    res.status(500);
+                    return gson.toJson(createErrorResponse("Failed to import books: " + e.getMessage()));
+                }
+            });
+            
             // Update a book
             put("/books/:id", (req, res) -> {
                 try {
@@ -180,8 +439,122 @@ public class LibraryApiServer {
             });
         });
         
-        System.out.println("Server started on port " + PORT);
-        System.out.println("API endpoints available at http://localhost:" + PORT + API_CONTEXT);
+        // Release the book store and pooled database connections on shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            eventStream.close();
+            if (rateLimiter != null) {
+                rateLimiter.shutdown();
+            }
+            if (listSnapshot != null) {
+                listSnapshot.shutdown();
+            }
+            bookDAO.close();
+            DBConnection.shutdown();
+        }));
+    }
+    
+    // Write books straight to the servlet response while the rows are read from the database.
+    // The response is flushed and committed here, so Spark leaves it alone afterwards.
+    private static void streamBooksJson(Request req, Response res, BookDAO bookDAO, int after, int limit) throws IOException {
+        HttpServletResponse raw = res.raw();
+        raw.setStatus(200);
+        raw.setContentType("application/json");
+        boolean gzip = ResponseCompression.negotiate(req, res, -1);
+        
+        OutputStream body = raw.getOutputStream();
+        OutputStream os = gzip ? ResponseCompression.gzipStream(body) : body;
+        BookJsonWriter json = BookJsonWriter.streaming(BookJsonWriter.Style.GSON, os);
+        json.writeAscii(limit > 0 ? "{\"books\":[" : "[");
+        int[] lastId = {0};
+        int count;
+        try {
+            count = bookDAO.streamBooks(after, limit, (id, name, author) -> {
+                if (lastId[0] != 0) {
+                    json.writeByte(',');
+                }
+                json.writeBook(id, name, author);
+                lastId[0] = id;
+            });
+        } catch (IOException e) {
+            // No closing bracket or next cursor: reset the connection instead of finishing the body
+            ResponseAbortedException.abort(raw, e);
+            throw new ResponseAbortedException(e);
+        }
+        json.writeByte(']');
+        if (limit > 0) {
+            json.writeAscii(",\"next\":");
+            if (count == limit) {
+                json.writeInt(lastId[0]);
+            } else {
+                json.writeAscii("null");
+            }
+            json.writeByte('}');
+        }
+        json.flush();
+        os.close();
+    }
+    
+    // Binary counterpart of streamBooksJson; no page envelope, so with a limit the client
+    // takes the last id as the next cursor when the page is full
+    private static void streamBooksBinary(Request req, Response res, BookDAO bookDAO, int after, int limit) throws IOException {
+        HttpServletResponse raw = res.raw();
+        raw.setStatus(200);
+        raw.setContentType(BookBinaryWriter.CONTENT_TYPE);
+        boolean gzip = ResponseCompression.negotiate(req, res, -1);
+        
+        OutputStream body = raw.getOutputStream();
+        OutputStream os = gzip ? ResponseCompression.gzipStream(body) : body;
+        BookBinaryWriter binary = BookBinaryWriter.streaming(os);
+        try {
+            bookDAO.streamBooks(after, limit, binary::writeBook);
+        } catch (IOException e) {
+            ResponseAbortedException.abort(raw, e);
+            throw new ResponseAbortedException(e);
+        }
+        binary.flush();
+        os.close();
+    }
+    
+    // Send book JSON straight from the writer's buffer, gzipped if negotiated. The response is
+    // committed here, so Spark skips its own serialization of the empty string returned to it.
+    private static String sendJson(Request req, Response res, BookJsonWriter json) throws IOException {
+        HttpServletResponse raw = res.raw();
+        if (ResponseCompression.negotiate(req, res, json.size())) {
+            return sendBytes(raw, ResponseCompression.gzip(json, ResponseCompression.LEVEL));
+        }
+        raw.setContentLength(json.size());
+        OutputStream os = raw.getOutputStream();
+        json.writeTo(os);
+        os.flush();
+        return "";
+    }
+    
+    // Same as sendJson for a body in the binary format
+    private static String sendBinary(Request req, Response res, BookBinaryWriter binary) throws IOException {
+        HttpServletResponse raw = res.raw();
+        raw.setContentType(BookBinaryWriter.CONTENT_TYPE);
+        if (ResponseCompression.negotiate(req, res, binary.size())) {
+            return sendBytes(raw, ResponseCompression.gzip(binary.toByteArray(), ResponseCompression.LEVEL));
+        }
+        raw.setContentLength(binary.size());
+        OutputStream os = raw.getOutputStream();
+        binary.writeTo(os);
+        os.flush();
+        return "";
+    }
+    
+    // Send the full list from the snapshot's bytes; nothing is encoded or compressed per request
+    private static String sendSnapshot(Request req, Response res, ListSnapshot.Entry snapshot) throws IOException {
+        boolean gzip = ResponseCompression.negotiate(req, res, snapshot.json.length) && snapshot.gzip != null;
+        return sendBytes(res.raw(), gzip ? snapshot.gzip : snapshot.json);
+    }
+    
+    private static String sendBytes(HttpServletResponse raw, byte[] body) throws IOException {
+        raw.setContentLength(body.length);
+        OutputStream os = raw.getOutputStream();
+        os.write(body);
+        os.flush();
+        return "";
     }
     
     // Enable CORS for development
@@ -203,11 +576,28 @@ public class LibraryApiServer {
         before((request, response) -> {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "GET, POST, PUT, DELETE, OPTIONS");
-            response.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Requested-With");
+            response.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Requested-With, Last-Event-ID");
             // Note: this may need to be extended based on your specific requirements
         });
     }
     
+    // Helper method to parse a comma-separated ids parameter; null when malformed or too long
+    private static int[] parseIds(String value) {
+        String[] parts = value.split(",", -1);
+        if (parts.length > BookDAO.MAX_IDS) {
+            return null;
+        }
+        int[] ids = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return ids;
+    }
+    
     // Helper method to create error response
     private static Map<String, String> createErrorResponse(String message) {
         Map<String, String> response = new HashMap<>();
@@ -0,0 +1,124 @@
+package api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+import dao.BookDAO;
+import dao.VersionStamp;
+import model.Book;
+
+/**
+ * The unfiltered book list, encoded once and kept as ready-to-send bytes:
+ * plain JSON plus a gzip copy compressed at the highest level.
+ *
+ * A background thread rebuilds it after writes made through the BookDAO,
+ * waiting rebuildDelayMillis first so a burst of writes costs one rebuild.
+ * Requests only use it while its catalog version is the current one and
+ * otherwise encode the list themselves, so a stale snapshot is never sent.
+ * Lists over maxBytes are not kept.
+ */
+final class ListSnapshot {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.server.listSnapshot", "true"));
+    private static final long REBUILD_DELAY_MS = Long.getLong("library.server.listSnapshot.rebuildDelayMillis", 50L);
+    private static final int MAX_BYTES = Integer.getInteger("library.server.listSnapshot.maxBytes", 64 << 20);
+
+    static final class Entry {
+        final VersionStamp version;
+        final byte[] json; // null when the list was over maxBytes
+        final byte[] gzip; // null when the list is under the compression threshold
+
+        Entry(VersionStamp version, byte[] json, byte[] gzip) {
+            this.version = version;
+            this.json = json;
+            this.gzip = gzip;
+        }
+    }
+
+    private final BookDAO bookDAO;
+    private final BookJsonWriter.Style style;
+    private final ScheduledExecutorService rebuilder;
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private volatile Entry current;
+
+    private ListSnapshot(BookDAO bookDAO, BookJsonWriter.Style style) {
+        this.bookDAO = bookDAO;
+        this.style = style;
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "list-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Start keeping a snapshot for bookDAO, or return null when disabled
+    static ListSnapshot start(BookDAO bookDAO, BookJsonWriter.Style style) {
+        if (!ENABLED) {
+            return null;
+        }
+        ListSnapshot snapshot = new ListSnapshot(bookDAO, style);
+        bookDAO.addChangeListener(snapshot::scheduleRebuild);
+        snapshot.scheduleRebuild();
+        return snapshot;
+    }
+
+    // The snapshot if it was built from exactly this catalog version, otherwise null
+    Entry current(VersionStamp version) {
+        Entry entry = current;
+        if (entry != null && entry.version.getETag().equals(version.getETag())) {
+            return entry.json != null ? entry : null;
+        }
+        // Also covers versions bumped by failed reads, which do not notify listeners
+        scheduleRebuild();
+        return null;
+    }
+
+    void shutdown() {
+        rebuilder.shutdownNow();
+    }
+
+    private void scheduleRebuild() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            try {
+                rebuilder.schedule(this::rebuild, REBUILD_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shut down; writes must not fail because of it
+            }
+        }
+    }
+
+    private void rebuild() {
+        // Cleared first: a write landing during the rebuild schedules the next one
+        rebuildPending.set(false);
+        VersionStamp version = bookDAO.getCatalogVersion();
+        Entry entry = current;
+        if (entry != null && entry.version.getETag().equals(version.getETag())) {
+            return;
+        }
+        try {
+            List<Book> books = bookDAO.viewAllBooks();
+            // Not the per-thread buffer, which would keep a second copy of the list alive
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BookJsonWriter.streaming(style, bytes).writeBooks(books).flush();
+            if (bytes.size() > MAX_BYTES) {
+                // Remembered per version so requests do not keep asking for a rebuild
+                current = new Entry(version, null, null);
+                return;
+            }
+            byte[] json = bytes.toByteArray();
+            byte[] gzip = ResponseCompression.ENABLED && json.length >= ResponseCompression.MIN_BYTES
+                    ? ResponseCompression.gzip(json, Deflater.BEST_COMPRESSION)
+                    : null;
+            current = new Entry(version, json, gzip);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
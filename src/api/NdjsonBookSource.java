@@ -0,0 +1,60 @@
+package api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+import dao.BookSource;
+import model.Book;
+
+/**
+ * Reads books from newline-delimited JSON, one object per line.
+ */
+class NdjsonBookSource implements BookSource {
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final Reader in;
+    private final StringBuilder line = new StringBuilder();
+    private boolean endOfInput;
+
+    NdjsonBookSource(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public Book next() throws IOException {
+        while (!endOfInput) {
+            boolean tooLong = readLine();
+            if (tooLong) {
+                throw new IllegalArgumentException("line longer than " + MAX_LINE_LENGTH + " characters");
+            }
+            String json = line.toString().trim();
+            if (json.isEmpty()) {
+                continue;
+            }
+            Map<String, String> bookData = JsonBodyReader.readObject(new StringReader(json));
+            return new Book(0, bookData.get("name"), bookData.get("author"));
+        }
+        return null;
+    }
+
+    // Read up to the next newline into line, dropping anything past the length limit
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        boolean tooLong = false;
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (line.length() < MAX_LINE_LENGTH) {
+                line.append((char) c);
+            } else {
+                tooLong = true;
+            }
+        }
+        if (c == -1) {
+            endOfInput = true;
+        }
+        return tooLong;
+    }
+}
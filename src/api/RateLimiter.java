@@ -0,0 +1,224 @@
+package api;
+
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sun.net.httpserver.HttpHandler;
+
+import metrics.Metrics;
+
+/**
+ * Per-client token buckets for both servers, keyed by the client's IP.
+ *
+ * Each bucket is one AtomicLong holding the generic cell rate algorithm's
+ * theoretical arrival time: the moment the bucket will be full again. A
+ * request costing c tokens pushes it c emission intervals into the future
+ * and is refused if that would put it more than burst tokens ahead of now.
+ * Taking tokens is a single compare-and-set, with no lock and no refill
+ * thread. Costs depend on the route: a search or a full list costs more
+ * than fetching one book.
+ *
+ * A bucket whose arrival time has passed is full, exactly like a missing
+ * one, so a sweeper drops those every sweepSeconds and memory tracks the
+ * clients active in the last few seconds, not every client ever seen. If
+ * maxClients buckets are live at once, further new clients share a single
+ * overflow bucket until the sweeper frees room.
+ */
+final class RateLimiter {
+
+    static final boolean ENABLED = Boolean.getBoolean("library.rateLimit");
+    private static final String OVERFLOW = "overflow";
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int maxClients;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private final LongAdder rejected = new LongAdder();
+    private final ScheduledExecutorService sweeper;
+
+    // Costs in tokens; 0 exempts the route
+    private final int searchCost = Integer.getInteger("library.rateLimit.cost.search", 5);
+    private final int listCost = Integer.getInteger("library.rateLimit.cost.list", 5);
+    private final int pageCost = Integer.getInteger("library.rateLimit.cost.page", 2);
+    private final int byIdCost = Integer.getInteger("library.rateLimit.cost.byId", 1);
+    private final int suggestCost = Integer.getInteger("library.rateLimit.cost.suggest", 1);
+    private final int writeCost = Integer.getInteger("library.rateLimit.cost.write", 2);
+    private final int bulkCost = Integer.getInteger("library.rateLimit.cost.bulk", 20);
+    private final int exportCost = Integer.getInteger("library.rateLimit.cost.export", 20);
+
+    private RateLimiter(double tokensPerSecond, int burst, int maxClients, long sweepSeconds) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        this.toleranceNanos = intervalNanos * Math.max(1, burst);
+        this.maxClients = Math.max(1, maxClients);
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limit-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    // Null when -Dlibrary.rateLimit is not set
+    static RateLimiter fromSystemProperties() {
+        if (!ENABLED) {
+            return null;
+        }
+        double tokensPerSecond = Double.parseDouble(System.getProperty("library.rateLimit.tokensPerSecond", "20"));
+        int burst = Integer.getInteger("library.rateLimit.burst", 40);
+        int maxClients = Integer.getInteger("library.rateLimit.maxClients", 1_000_000);
+        long sweepSeconds = Math.max(1, Long.getLong("library.rateLimit.sweepSeconds", 10L));
+        RateLimiter limiter = new RateLimiter(tokensPerSecond, burst, maxClients, sweepSeconds);
+        Metrics.gauge("library_ratelimit_clients", "Clients with a partly used token bucket", limiter::getClientCount);
+        Metrics.counter("library_ratelimit_rejected_total", "Requests refused with 429 by the rate limiter",
+                limiter::getRejected);
+        return limiter;
+    }
+
+    // Tokens a request costs, from its method, path and raw query string
+    int cost(String method, String path, String query) {
+        if (method.equals("OPTIONS") || !path.startsWith("/api/books")) {
+            return 0; // preflights, the status endpoint and metrics scrapes are free
+        }
+        switch (RequestMetrics.routeOf(path)) {
+            case "/api/books":
+                if (!method.equals("GET")) {
+                    return writeCost;
+                }
+                if (hasParam(query, "query")) {
+                    return searchCost;
+                }
+                if (hasParam(query, "stream")) {
+                    return listCost;
+                }
+                return hasParam(query, "limit") || hasParam(query, "after") || hasParam(query, "ids")
+                        ? pageCost : listCost;
+            case "/api/books/search":
+                return searchCost;
+            case "/api/books/suggest":
+                return suggestCost;
+            case "/api/books/bulk":
+                return bulkCost;
+            case "/api/books/export":
+                return exportCost;
+            case "/api/books/{id}":
+                return method.equals("GET") ? byIdCost : writeCost;
+            default:
+                return byIdCost;
+        }
+    }
+
+    // 0 when the request may go ahead, otherwise how many nanoseconds until it would be allowed
+    long acquire(String client, int cost) {
+        if (cost <= 0) {
+            return 0;
+        }
+        AtomicLong bucket = bucket(client);
+        // A cost above the burst could never be paid; charge a full bucket instead
+        long increment = Math.min(intervalNanos * cost, toleranceNanos);
+        while (true) {
+            long now = System.nanoTime();
+            long stored = bucket.get();
+            // A bucket that has been full for a while is worth no more than a full one
+            long arrival = stored - now < 0 ? now : stored;
+            long next = arrival + increment;
+            long wait = next - toleranceNanos - now;
+            if (wait > 0) {
+                rejected.increment();
+                return wait;
+            }
+            if (bucket.compareAndSet(stored, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // Wrap a SimpleApiServer handler so over-limit requests get 429 without running it
+    HttpHandler limit(HttpHandler handler) {
+        return exchange -> {
+            int cost = cost(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                    exchange.getRequestURI().getRawQuery());
+            long wait = acquire(exchange.getRemoteAddress().getAddress().getHostAddress(), cost);
+            if (wait == 0) {
+                handler.handle(exchange);
+                return;
+            }
+            byte[] responseBytes = tooManyRequestsBody().getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Retry-After", retryAfterSeconds(wait));
+            exchange.sendResponseHeaders(429, responseBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(responseBytes);
+            os.close();
+        };
+    }
+
+    int getClientCount() {
+        return buckets.size();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    static String tooManyRequestsBody() {
+        return "{\"status\": \"error\", \"message\": \"Too many requests, please retry later\"}";
+    }
+
+    // Whole seconds for the Retry-After header, rounded up
+    static String retryAfterSeconds(long waitNanos) {
+        return String.valueOf(Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L));
+    }
+
+    private AtomicLong bucket(String client) {
+        AtomicLong bucket = buckets.get(client);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxClients) {
+            // Try to make room once; if every bucket is in use, the newcomer shares the overflow bucket
+            if (sweepLock.tryLock()) {
+                try {
+                    sweep();
+                } finally {
+                    sweepLock.unlock();
+                }
+            }
+            if (buckets.size() >= maxClients) {
+                return buckets.computeIfAbsent(OVERFLOW, key -> new AtomicLong(System.nanoTime()));
+            }
+        }
+        return buckets.computeIfAbsent(client, key -> new AtomicLong(System.nanoTime()));
+    }
+
+    // Drop buckets that have refilled completely. A request racing with the removal of its
+    // bucket may go uncharged, which is at most one request per client per sweep.
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    // True when the raw query string has the parameter, with or without a value
+    private static boolean hasParam(String query, String name) {
+        if (query == null) {
+            return false;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.equals(name) || pair.startsWith(name + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
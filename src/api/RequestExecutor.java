@@ -0,0 +1,234 @@
+package api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Executor for SimpleApiServer's HttpServer.
+ *
+ * Modes (-Dlibrary.server.executor):
+ *   pool       - fixed pool of platform threads (default)
+ *   virtual    - one virtual thread per request, on JDK 21 and newer
+ *   dispatcher - run handlers on HttpServer's own dispatcher thread
+ *
+ * Once maxInFlight requests are queued or executing, execute() sheds new
+ * ones as they arrive instead of queueing them: they run on a separate
+ * shedding thread, where handlers wrapped with admit() answer 503 with
+ * Retry-After at once. Handlers not wrapped with admit(), such as metrics,
+ * still run normally there. A shed request never waits behind the backlog.
+ * Time spent waiting for a thread is recorded for every admitted request.
+ */
+class RequestExecutor implements Executor {
+
+    private final String mode;
+    private final Executor delegate;
+    private final int maxInFlight;
+    private final int retryAfterSeconds;
+
+    // Set on the shedding thread while it runs a request that execute() turned away
+    private static final ThreadLocal<Boolean> SHEDDING = new ThreadLocal<>();
+
+    private final Executor shedder;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalQueueNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    private RequestExecutor(String mode, Executor delegate, int maxInFlight, int retryAfterSeconds) {
+        this.mode = mode;
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.retryAfterSeconds = retryAfterSeconds;
+        // One thread is enough to write 503s; when even its queue is full the dispatcher writes them itself
+        this.shedder = maxInFlight > 0
+                ? new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxInFlight),
+                        daemonThreads("http-shed"), new ThreadPoolExecutor.CallerRunsPolicy())
+                : null;
+    }
+
+    static RequestExecutor fromSystemProperties() {
+        String mode = System.getProperty("library.server.executor", "pool");
+        int threads = Integer.getInteger("library.server.threads",
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        int maxInFlight = Integer.getInteger("library.server.maxInFlight", 256);
+        int retryAfter = Integer.getInteger("library.server.retryAfterSeconds", 1);
+
+        Executor delegate;
+        switch (mode) {
+            case "dispatcher":
+                delegate = Runnable::run;
+                break;
+            case "virtual":
+                delegate = newVirtualThreadExecutor();
+                if (delegate == null) {
+                    System.out.println("Virtual threads need JDK 21 or newer, using a pool of " + threads + " threads");
+                    mode = "pool";
+                    delegate = newPlatformPool(threads, maxInFlight);
+                }
+                break;
+            case "pool":
+                delegate = newPlatformPool(threads, maxInFlight);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown library.server.executor mode: " + mode);
+        }
+        return new RequestExecutor(mode, delegate, maxInFlight, retryAfter);
+    }
+
+    // Called by HttpServer's dispatcher thread for each request, so the check below is not racing other callers
+    @Override
+    public void execute(Runnable task) {
+        if (maxInFlight > 0 && inFlight.get() >= maxInFlight) {
+            shed(task);
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        inFlight.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                long waited = System.nanoTime() - queuedAt;
+                totalQueueNanos.add(waited);
+                maxQueueNanos.accumulateAndGet(waited, Math::max);
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pool is shutting down
+            inFlight.decrementAndGet();
+            if (shedder == null) {
+                throw e;
+            }
+            shed(task);
+        }
+    }
+
+    // Wrap a handler so requests shed by execute() are answered with 503 instead of running it
+    HttpHandler admit(HttpHandler handler) {
+        if (maxInFlight <= 0) {
+            return handler;
+        }
+        return exchange -> {
+            if (SHEDDING.get() != null) {
+                rejected.increment();
+                reject(exchange);
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    void shutdown() {
+        if (delegate instanceof ExecutorService) {
+            ((ExecutorService) delegate).shutdown();
+        }
+        if (shedder instanceof ExecutorService) {
+            ((ExecutorService) shedder).shutdown();
+        }
+    }
+
+    String getMode() {
+        return mode;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    long getCompleted() {
+        return completed.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getTotalQueueNanos() {
+        return totalQueueNanos.sum();
+    }
+
+    long getMaxQueueNanos() {
+        return maxQueueNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long done = completed.sum();
+        return "RequestExecutor [mode=" + mode + ", inFlight=" + inFlight.get() + ", maxInFlight=" + maxInFlight
+                + ", completed=" + done + ", rejected=" + rejected.sum()
+                + ", avgQueueMs=" + String.format("%.3f", done == 0 ? 0.0 : totalQueueNanos.sum() / (double) done / 1_000_000.0)
+                + ", maxQueueMs=" + String.format("%.3f", maxQueueNanos.get() / 1_000_000.0) + "]";
+    }
+
+    // Run the request on the shedding thread, where admit() answers it with 503
+    private void shed(Runnable task) {
+        shedder.execute(() -> {
+            SHEDDING.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                SHEDDING.remove();
+            }
+        });
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        byte[] responseBytes = "{\"status\": \"error\", \"message\": \"Server is overloaded, please retry\"}".getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+        exchange.sendResponseHeaders(503, responseBytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(responseBytes);
+        os.close();
+    }
+
+    // The queue holds at most maxInFlight requests, since execute() sheds the rest before they get here
+    private static Executor newPlatformPool(int threads, int maxInFlight) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                maxInFlight > 0 ? new LinkedBlockingQueue<>(maxInFlight) : new LinkedBlockingQueue<>(),
+                daemonThreads("http-worker"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() through reflection so the code still builds for Java 11
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import dao.BookDAO;
+import dao.CatalogStats;
+import db.DBConnection;
+import metrics.Metrics;
+
+/**
+ * Glue between the servers and the metrics registry: route templates,
+ * request timing for HttpServer handlers, the /api/metrics handler and the
+ * gauges both servers export.
+ */
+final class RequestMetrics {
+
+    private RequestMetrics() {
+    }
+
+    // Collapse a request path into its route so ids do not create a series each
+    static String routeOf(String path) {
+        if (path == null) {
+            return "other";
+        }
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        switch (path) {
+            case "/api":
+            case "/api/books":
+            case "/api/books/bulk":
+            case "/api/books/events":
+            case "/api/books/export":
+            case "/api/books/search":
+            case "/api/books/suggest":
+            case "/api/metrics":
+                return path;
+            default:
+                return path.startsWith("/api/books/") && path.indexOf('/', "/api/books/".length()) < 0
+                        ? "/api/books/{id}"
+                        : "other";
+        }
+    }
+
+    // Time a handler, including requests it sheds or fails with an exception
+    static HttpHandler instrument(HttpHandler handler) {
+        return exchange -> {
+            long start = System.nanoTime();
+            try {
+                handler.handle(exchange);
+            } finally {
+                int status = exchange.getResponseCode();
+                Metrics.recordRequest(routeOf(exchange.getRequestURI().getPath()), exchange.getRequestMethod(),
+                        status > 0 ? status : 500, System.nanoTime() - start);
+            }
+        };
+    }
+
+    // GET /api/metrics for SimpleApiServer
+    static HttpHandler scrapeHandler() {
+        return exchange -> {
+            byte[] body;
+            int statusCode;
+            if (exchange.getRequestMethod().equals("GET")) {
+                body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                statusCode = 200;
+                exchange.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE);
+            } else {
+                body = "{\"status\": \"error\", \"message\": \"Method not supported\"}".getBytes(StandardCharsets.UTF_8);
+                statusCode = 405;
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+            }
+            exchange.sendResponseHeaders(statusCode, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        };
+    }
+
+    // Pool and cache gauges; executor is null for LibraryApiServer, whose threads Jetty manages
+    static void registerGauges(BookDAO bookDAO, RequestExecutor executor) {
+        Metrics.gauge("library_db_pool_active_connections", "Connections currently borrowed",
+                () -> DBConnection.getPoolStats().getActive());
+        Metrics.gauge("library_db_pool_idle_connections", "Open connections waiting in the pool",
+                () -> DBConnection.getPoolStats().getIdle());
+        Metrics.gauge("library_db_pool_waiters", "Threads waiting for a connection",
+                () -> DBConnection.getPoolStats().getWaiters());
+        Metrics.gauge("library_db_pool_max_connections", "Upper bound on open connections",
+                () -> DBConnection.getPoolStats().getMaxSize());
+        Metrics.gauge("library_db_replicas_healthy", "Read replicas passing their health checks",
+                DBConnection::getHealthyReplicas);
+
+        if (bookDAO.getCacheStats() != null) {
+            Metrics.gauge("library_cache_books_size", "Books held in the getBookById cache",
+                    () -> bookDAO.getCacheStats().getSize());
+            Metrics.counter("library_cache_books_hits_total", "getBookById calls served from the cache",
+                    () -> bookDAO.getCacheStats().getHits());
+            Metrics.counter("library_cache_books_misses_total", "getBookById calls that went to the database",
+                    () -> bookDAO.getCacheStats().getMisses());
+            Metrics.counter("library_cache_books_evictions_total", "Books evicted to stay within the size limit",
+                    () -> bookDAO.getCacheStats().getEvictions());
+        }
+
+        if (bookDAO.getResidentCatalogStats() != null) {
+            // The catalog is dropped if a book cannot be held, after which these read 0
+            Metrics.gauge("library_catalog_resident_books", "Books held in the resident catalog",
+                    () -> residentStat(bookDAO, false));
+            Metrics.gauge("library_catalog_resident_bytes", "Approximate heap used by the resident catalog",
+                    () -> residentStat(bookDAO, true));
+        }
+
+        if (executor != null) {
+            Metrics.gauge("library_server_requests_in_flight", "Requests queued or running on the executor",
+                    executor::getInFlight);
+            Metrics.counter("library_server_requests_rejected_total", "Requests shed with 503 by the in-flight limit",
+                    executor::getRejected);
+            Metrics.counter("library_server_queue_seconds_total", "Total time requests waited for a worker thread",
+                    () -> executor.getTotalQueueNanos() / 1e9);
+        }
+    }
+
+    private static double residentStat(BookDAO bookDAO, boolean bytes) {
+        CatalogStats stats = bookDAO.getResidentCatalogStats();
+        if (stats == null) {
+            return 0;
+        }
+        return bytes ? stats.getHeapBytes() : stats.getSize();
+    }
+}
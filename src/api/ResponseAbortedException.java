@@ -0,0 +1,31 @@
+package api;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Thrown by the streaming writers when reading the catalog fails after a 200
+ * has gone out. The status can no longer change, so dropping the connection
+ * is the only signal left: closing the body would write the final chunk (and
+ * the gzip trailer) and the client would take the truncated body as complete.
+ *
+ * SimpleApiServer lets it escape the handler without closing the body, and
+ * HttpServer then closes the connection. The Spark server calls abort(),
+ * which resets the connection through Jetty.
+ */
+final class ResponseAbortedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    ResponseAbortedException(Throwable cause) {
+        super("Response aborted: " + cause.getMessage(), cause);
+    }
+
+    // Close a Jetty response's connection without completing the response
+    static void abort(HttpServletResponse raw, Throwable cause) {
+        if (raw instanceof org.eclipse.jetty.server.Response) {
+            ((org.eclipse.jetty.server.Response) raw).getHttpChannel().abort(cause);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+import spark.Request;
+import spark.Response;
+
+/**
+ * Accept-Encoding negotiation shared by both servers.
+ *
+ * Only gzip is produced: the JDK has no Brotli encoder, so "br" in a
+ * request is ignored and such clients get gzip when they also accept it.
+ * Bodies smaller than minBytes go out uncompressed, since a gzip frame
+ * costs more than it saves on a few hundred bytes. When a body is
+ * compressed its ETag is made weak, as nginx does: the bytes differ from
+ * the identity encoding, but both still revalidate against the same tag.
+ */
+final class ResponseCompression {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("library.server.compression", "true"));
+    static final int MIN_BYTES = Integer.getInteger("library.server.compression.minBytes", 1024);
+    // Per-response compression favours speed; the list snapshot is compressed once at BEST_COMPRESSION
+    static final int LEVEL = Integer.getInteger("library.server.compression.level", 5);
+
+    private ResponseCompression() {
+    }
+
+    // True when the Accept-Encoding header allows gzip, honouring q=0 and "*"
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = Math.max(gzip, q);
+            } else if (name.equals("*")) {
+                any = q;
+            }
+        }
+        return gzip > 0 || (gzip < 0 && any > 0);
+    }
+
+    // Whether a body of the given size (-1 if unknown, e.g. streamed) should be gzipped for this client
+    static boolean shouldCompress(String acceptEncoding, int size) {
+        return ENABLED && (size < 0 || size >= MIN_BYTES) && acceptsGzip(acceptEncoding);
+    }
+
+    // SimpleApiServer: set Vary, and Content-Encoding when compressing; returns true if the body must be gzipped
+    static boolean negotiate(HttpExchange exchange, int size) {
+        if (!ENABLED) {
+            return false;
+        }
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Vary", "Accept-Encoding");
+        if (!shouldCompress(exchange.getRequestHeaders().getFirst("Accept-Encoding"), size)) {
+            return false;
+        }
+        headers.set("Content-Encoding", "gzip");
+        String etag = headers.getFirst("ETag");
+        if (etag != null) {
+            headers.set("ETag", weaken(etag));
+        }
+        return true;
+    }
+
+    // LibraryApiServer: same as above. The caller writes the gzip bytes to the raw response
+    // itself; Spark only gzips bodies it serializes, and skips committed responses.
+    static boolean negotiate(Request req, Response res, int size) {
+        if (!ENABLED) {
+            return false;
+        }
+        res.raw().addHeader("Vary", "Accept-Encoding");
+        if (!shouldCompress(req.headers("Accept-Encoding"), size)) {
+            return false;
+        }
+        res.header("Content-Encoding", "gzip");
+        String etag = res.raw().getHeader("ETag");
+        if (etag != null) {
+            res.header("ETag", weaken(etag));
+        }
+        return true;
+    }
+
+    static byte[] gzip(BookJsonWriter json, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, json.size() / 4));
+        try (OutputStream gz = gzipStream(bytes, level)) {
+            json.writeTo(gz);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] gzip(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream gz = gzipStream(bytes, level)) {
+            gz.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    static GZIPOutputStream gzipStream(OutputStream out, int level) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    static GZIPOutputStream gzipStream(OutputStream out) throws IOException {
+        return gzipStream(out, LEVEL);
+    }
+
+    private static String weaken(String etag) {
+        return etag.startsWith("W/") ? etag : "W/" + etag;
+    }
+}
@@ -5,6 +5,10 @@ import java.net.*;
 import java.util.*;
 import com.sun.net.httpserver.*;
 import dao.BookDAO;
+import dao.BookSource;
+import dao.Suggestion;
+import dao.VersionStamp;
+import db.DBConnection;
 import model.Book;
 
 /**
@@ -14,22 +18,41 @@ import model.Book;
 public class SimpleApiServer {
     
     private static final int PORT = 8080;
+    private static final int DEFAULT_PAGE_SIZE = 100;
     
     public static void main(String[] args) throws IOException {
+        // HttpServer writes headers and body separately; without TCP_NODELAY, Nagle plus the
+        // client's delayed ACK adds ~40 ms to every request after the first on a keep-alive connection
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        
         // Create an HttpServer instance
         HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
         
+        // Run requests on worker threads instead of the single dispatcher thread
+        RequestExecutor executor = RequestExecutor.fromSystemProperties();
+        server.setExecutor(executor);
+        
         // Initialize BookDAO
         BookDAO bookDAO = new BookDAO();
+        // Ready-encoded bytes of the full list, rebuilt in the background after writes
+        ListSnapshot listSnapshot = ListSnapshot.start(bookDAO, BookJsonWriter.Style.SIMPLE);
+        // Pushes committed changes to open GET /api/books/events connections
+        EventStream eventStream = EventStream.start(bookDAO, BookJsonWriter.Style.SIMPLE);
+        // Per-client token buckets, enabled with -Dlibrary.rateLimit=true
+        RateLimiter rateLimiter = RateLimiter.fromSystemProperties();
         
         // Create context for book endpoints
-        server.createContext("/api/books", new HttpHandler() {
+        server.createContext("/api/books", RequestMetrics.instrument(limit(rateLimiter, executor.admit(routeReads(new HttpHandler() {
             @Override
             public void handle(HttpExchange exchange) throws IOException {
                 String method = exchange.getRequestMethod();
                 String path = exchange.getRequestURI().getPath();
-                String query = exchange.getRequestURI().getQuery();
+                String query = exchange.getRequestURI().getRawQuery();
                 String response = "";
+                BookJsonWriter bookJson = null; // book payloads are encoded straight to bytes
+                BookBinaryWriter bookBinary = null; // or in the binary format, when the client accepts it
                 int statusCode = 200;
                 
                 // Set CORS headers for all responses
@@ -47,34 +70,86 @@ public class SimpleApiServer {
                 try {
                     // GET requests for books
                     if (method.equals("GET")) {
+                        boolean binary = BookBinaryWriter.accepts(exchange.getRequestHeaders().getFirst("Accept"));
+                        exchange.getResponseHeaders().add("Vary", "Accept");
+                        // Every list variant changes exactly when the catalog version does
+                        VersionStamp version = bookDAO.getCatalogVersion();
+                        if (binary) {
+                            version = BookBinaryWriter.tag(version);
+                        }
+                        if (ConditionalGet.notModified(exchange, version)) {
+                            return;
+                        }
+                        Map<String, String> params = parseQueryParams(query);
+                        boolean stream = "true".equals(params.get("stream"));
+                        
+                        // Multi-get (?ids=1,2,3): one query for the whole list
+                        if (params.containsKey("ids")) {
+                            List<Book> books = bookDAO.getBooksByIds(parseIds(params.get("ids")));
+                            if (binary) {
+                                bookBinary = BookBinaryWriter.forThread().writeBooks(books);
+                            } else {
+                                bookJson = BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeBooks(books);
+                            }
+                        }
                         // Handle search query - fixed to match frontend
-                        if (query != null && query.startsWith("query=")) {
-                            String searchTerm = query.substring(6); // Remove "query=" prefix
-                            searchTerm = URLDecoder.decode(searchTerm, "UTF-8");
-                            List<Book> books = bookDAO.searchBook(searchTerm);
-                            response = convertBooksToJson(books);
-                        } 
+                        else if (params.containsKey("query")) {
+                            List<Book> books = bookDAO.searchBook(params.get("query"));
+                            if (binary) {
+                                bookBinary = BookBinaryWriter.forThread().writeBooks(books);
+                            } else {
+                                bookJson = BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeBooks(books);
+                            }
+                        }
+                        // Keyset pagination (?limit=&after=) and/or chunked streaming (?stream=true)
+                        else if (stream || params.containsKey("limit") || params.containsKey("after")) {
+                            int after = params.containsKey("after") ? Integer.parseInt(params.get("after")) : 0;
+                            int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit"))
+                                                                    : (stream ? 0 : DEFAULT_PAGE_SIZE);
+                            if (after < 0 || (params.containsKey("limit") && limit < 1)) {
+                                throw new NumberFormatException();
+                            }
+                            if (stream) {
+                                ConditionalGet.addValidators(exchange.getResponseHeaders(), version);
+                                if (binary) {
+                                    streamBooksBinary(exchange, bookDAO, after, limit);
+                                } else {
+                                    streamBooksJson(exchange, bookDAO, after, limit);
+                                }
+                                return;
+                            }
+                            limit = Math.min(limit, BookDAO.MAX_PAGE_SIZE);
+                            List<Book> books = bookDAO.viewBooksPage(after, limit);
+                            if (binary) {
+                                // No envelope: the next cursor is the last id when the page is full
+                                bookBinary = BookBinaryWriter.forThread().writeBooks(books);
+                            } else {
+                                bookJson = writePage(books, limit);
+                            }
+                        }
+                        // Get all books, encoded while they are read rather than collected first
+                        else if (binary) {
+                            BookBinaryWriter writer = BookBinaryWriter.forThread();
+                            bookDAO.streamBooks(0, 0, writer::writeBook);
+                            bookBinary = writer;
+                        }
                         // Get all books
                         else {
+                            ListSnapshot.Entry snapshot = listSnapshot != null ? listSnapshot.current(version) : null;
+                            if (snapshot != null) {
+                                ConditionalGet.addValidators(exchange.getResponseHeaders(), version);
+                                sendSnapshot(exchange, snapshot);
+                                return;
+                            }
                             List<Book> books = bookDAO.viewAllBooks();
-                            response = convertBooksToJson(books);
+                            bookJson = BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeBooks(books);
                         }
+                        ConditionalGet.addValidators(exchange.getResponseHeaders(), version);
                     }
                     // POST request to add a new book
                     else if (method.equals("POST")) {
-                        // Read request body
-                        BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(exchange.getRequestBody()));
-                        StringBuilder requestBody = new StringBuilder();
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            requestBody.append(line);
-                        }
-                        reader.close();
-                        
-                        // Parse JSON
-                        String json = requestBody.toString();
-                        Map<String, String> bookData = parseJson(json);
+                        // Parse the JSON body as it is read
+                        Map<String, String> bookData = readJsonBody(exchange);
                         
                         if (bookData.get("name") == null || bookData.get("author") == null) {
                             response = "{\"status\": \"error\", \"message\": \"Book name and author are required\"}";
@@ -93,7 +168,22 @@ public class SimpleApiServer {
                         response = "{\"status\": \"error\", \"message\": \"Method not supported\"}";
                         statusCode = 405; // Method Not Allowed
                     }
+                } catch (NumberFormatException e) {
+                    bookJson = null;
+                    bookBinary = null;
+                    response = "{\"status\": \"error\", \"message\": \"Invalid limit or after parameter\"}";
+                    statusCode = 400; // Bad Request
+                } catch (IllegalArgumentException e) {
+                    response = "{\"status\": \"error\", \"message\": \"" + escapeJson(e.getMessage()) + "\"}";
+                    statusCode = 400; // Bad Request
+                } catch (JsonBodyReader.BodyTooLargeException e) {
+                    response = "{\"status\": \"error\", \"message\": \"" + e.getMessage() + "\"}";
+                    statusCode = 413; // Payload Too Large
+                } catch (ResponseAbortedException e) {
+                    throw e; // the 200 is already sent; HttpServer drops the connection
                 } catch (Exception e) {
+                    bookJson = null;
+                    bookBinary = null;
                     response = "{\"status\": \"error\", \"message\": \"" + e.getMessage() + "\"}";
                     statusCode = 500; // Internal Server Error
                 }
@@ -102,26 +192,36 @@ public class SimpleApiServer {
                 exchange.getResponseHeaders().set("Content-Type", "application/json");
                 
                 // Send the response
+                if (bookJson != null) {
+                    sendJson(exchange, statusCode, bookJson);
+                    return;
+                }
+                if (bookBinary != null) {
+                    sendBinary(exchange, statusCode, bookBinary);
+                    return;
+                }
                 byte[] responseBytes = response.getBytes("UTF-8");
                 exchange.sendResponseHeaders(statusCode, responseBytes.length);
                 OutputStream os = exchange.getResponseBody();
                 os.write(responseBytes);
                 os.close();
             }
-        });
+        })))));
         
         // Create context for specific book operations (GET, PUT, DELETE by ID)
-        server.createContext("/api/books/", new HttpHandler() {
+        server.createContext("/api/books/", RequestMetrics.instrument(limit(rateLimiter, executor.admit(routeReads(new HttpHandler() {
             @Override
             public void handle(HttpExchange exchange) throws IOException {
                 String method = exchange.getRequestMethod();
                 String path = exchange.getRequestURI().getPath();
                 String response = "";
+                BookJsonWriter bookJson = null; // book payloads are encoded straight to bytes
+                BookBinaryWriter bookBinary = null; // or in the binary format, when the client accepts it
                 int statusCode = 200;
                 
                 // Set CORS headers
                 exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-                exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, PUT, DELETE, OPTIONS");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
                 exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type");
                 
                 // Handle OPTIONS request for CORS preflight
@@ -131,6 +231,24 @@ public class SimpleApiServer {
                     return;
                 }
                 
+                // Bulk import: POST /api/books/bulk with an NDJSON or CSV body
+                if (path.equals("/api/books/bulk")) {
+                    handleBulkImport(exchange, bookDAO);
+                    return;
+                }
+                
+                // Typeahead: GET /api/books/suggest?prefix=..&k=..
+                if (path.equals("/api/books/suggest") && method.equals("GET")) {
+                    handleSuggest(exchange, bookDAO);
+                    return;
+                }
+                
+                // Streaming export: GET /api/books/export?format=csv|ndjson
+                if (path.equals("/api/books/export") && method.equals("GET")) {
+                    handleExport(exchange, bookDAO);
+                    return;
+                }
+                
                 // Extract ID from path /api/books/{id}
                 String idStr = path.substring(path.lastIndexOf("/") + 1);
                 
@@ -139,9 +257,22 @@ public class SimpleApiServer {
                     
                     // GET request for a specific book
                     if (method.equals("GET")) {
+                        boolean binary = BookBinaryWriter.accepts(exchange.getRequestHeaders().getFirst("Accept"));
+                        exchange.getResponseHeaders().add("Vary", "Accept");
+                        VersionStamp version = bookDAO.getBookVersion(id);
+                        if (binary) {
+                            version = BookBinaryWriter.tag(version);
+                        }
+                        if (ConditionalGet.notModified(exchange, version)) {
+                            return;
+                        }
                         Book book = bookDAO.getBookById(id);
-                        if (book != null) {
-                            response = convertBookToJson(book);
+                        if (book != null && binary) {
+                            bookBinary = BookBinaryWriter.forThread().writeBook(book);
+                            ConditionalGet.addValidators(exchange.getResponseHeaders(), version);
+                        } else if (book != null) {
+                            bookJson = BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeBook(book);
+                            ConditionalGet.addValidators(exchange.getResponseHeaders(), version);
                         } else {
                             response = "{\"status\": \"error\", \"message\": \"Book not found\"}";
                             statusCode = 404; // Not Found
@@ -149,19 +280,8 @@ public class SimpleApiServer {
                     } 
                     // PUT request to update a book
                     else if (method.equals("PUT")) {
-                        // Read request body
-                        BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(exchange.getRequestBody()));
-                        StringBuilder requestBody = new StringBuilder();
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            requestBody.append(line);
-                        }
-                        reader.close();
-                        
-                        // Parse JSON
-                        String json = requestBody.toString();
-                        Map<String, String> bookData = parseJson(json);
+                        // Parse the JSON body as it is read
+                        Map<String, String> bookData = readJsonBody(exchange);
                         
                         // Validate input
                         if (bookData.get("name") == null || bookData.get("author") == null) {
@@ -199,9 +319,19 @@ public class SimpleApiServer {
                         statusCode = 405; // Method Not Allowed
                     }
                 } catch (NumberFormatException e) {
+                    bookJson = null;
+                    bookBinary = null;
                     response = "{\"status\": \"error\", \"message\": \"Invalid ID format\"}";
                     statusCode = 400; // Bad Request
+                } catch (IllegalArgumentException e) {
+                    response = "{\"status\": \"error\", \"message\": \"" + escapeJson(e.getMessage()) + "\"}";
+                    statusCode = 400; // Bad Request
+                } catch (JsonBodyReader.BodyTooLargeException e) {
+                    response = "{\"status\": \"error\", \"message\": \"" + e.getMessage() + "\"}";
+                    statusCode = 413; // Payload Too Large
                 } catch (Exception e) {
+                    bookJson = null;
+                    bookBinary = null;
                     response = "{\"status\": \"error\", \"message\": \"" + e.getMessage() + "\"}";
                     statusCode = 500; // Internal Server Error
                 }
@@ -210,16 +340,28 @@ public class SimpleApiServer {
                 exchange.getResponseHeaders().set("Content-Type", "application/json");
                 
                 // Send the response
+                if (bookJson != null) {
+                    sendJson(exchange, statusCode, bookJson);
+                    return;
+                }
+                if (bookBinary != null) {
+                    sendBinary(exchange, statusCode, bookBinary);
+                    return;
+                }
                 byte[] responseBytes = response.getBytes("UTF-8");
                 exchange.sendResponseHeaders(statusCode, responseBytes.length);
                 OutputStream os = exchange.getResponseBody();
                 os.write(responseBytes);
                 os.close();
             }
-        });
+        })))));
+        
+        // Server-Sent Events change feed; the handler returns at once and the response stays open
+        server.createContext("/api/books/events", RequestMetrics.instrument(limit(rateLimiter, executor.admit(
+                exchange -> handleEvents(exchange, eventStream)))));
         
         // Handle root API context
-        server.createContext("/api", new HttpHandler() {
+        server.createContext("/api", RequestMetrics.instrument(executor.admit(routeReads(new HttpHandler() {
             @Override
             public void handle(HttpExchange exchange) throws IOException {
                 // Set CORS headers
@@ -242,72 +384,358 @@ public class SimpleApiServer {
                 os.write(responseBytes);
                 os.close();
             }
-        });
+        }))));
+        
+        // Prometheus metrics; not behind admit() so scrapes still work while shedding load
+        server.createContext("/api/metrics", RequestMetrics.instrument(RequestMetrics.scrapeHandler()));
+        RequestMetrics.registerGauges(bookDAO, executor);
+        
+        // Release the book store and pooled database connections on shutdown
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            executor.shutdown();
+            eventStream.close();
+            if (rateLimiter != null) {
+                rateLimiter.shutdown();
+            }
+            if (listSnapshot != null) {
+                listSnapshot.shutdown();
+            }
+            bookDAO.close();
+            DBConnection.shutdown();
+        }));
         
         // Start the server
         server.start();
-        System.out.println("Server started on port " + PORT);
+        System.out.println("Server started on port " + PORT + " (" + executor.getMode() + " executor)");
         System.out.println("API endpoints available at http://localhost:" + PORT + "/api");
         System.out.println("Press Ctrl+C to stop the server");
     }
     
-    // Utility method to convert a list of books to JSON
-    private static String convertBooksToJson(List<Book> books) {
-        StringBuilder json = new StringBuilder("[");
-        for (int i = 0; i < books.size(); i++) {
-            if (i > 0) {
-                json.append(",");
+    // Answer 429 to clients over their rate limit, when one is configured
+    private static HttpHandler limit(RateLimiter rateLimiter, HttpHandler handler) {
+        return rateLimiter != null ? rateLimiter.limit(handler) : handler;
+    }
+
+    // Tell DBConnection which client the worker thread serves, so reads after its writes see them
+    private static HttpHandler routeReads(HttpHandler handler) {
+        return exchange -> {
+            DBConnection.beginRequest(exchange.getRemoteAddress().getAddress().getHostAddress());
+            boolean wrote = !exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD");
+            try {
+                handler.handle(exchange);
+            } finally {
+                DBConnection.endRequest(wrote);
             }
-            json.append(convertBookToJson(books.get(i)));
+        };
+    }
+
+    // Send a response whose body is already encoded in the writer's buffer, gzipped if negotiated
+    private static void sendJson(HttpExchange exchange, int statusCode, BookJsonWriter json) throws IOException {
+        if (ResponseCompression.negotiate(exchange, json.size())) {
+            byte[] gzip = ResponseCompression.gzip(json, ResponseCompression.LEVEL);
+            exchange.sendResponseHeaders(statusCode, gzip.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(gzip);
+            os.close();
+            return;
         }
-        json.append("]");
-        return json.toString();
+        exchange.sendResponseHeaders(statusCode, json.size());
+        OutputStream os = exchange.getResponseBody();
+        json.writeTo(os);
+        os.close();
     }
     
-    // Utility method to convert a single book to JSON
-    private static String convertBookToJson(Book book) {
-        return String.format(
-            "{\"id\":%d,\"name\":\"%s\",\"author\":\"%s\"}", 
-            book.getId(), 
-            escapeJson(book.getName()), 
-            escapeJson(book.getAuthor())
-        );
+    // Same as sendJson for a body in the binary format
+    private static void sendBinary(HttpExchange exchange, int statusCode, BookBinaryWriter binary) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", BookBinaryWriter.CONTENT_TYPE);
+        if (ResponseCompression.negotiate(exchange, binary.size())) {
+            byte[] gzip = ResponseCompression.gzip(binary.toByteArray(), ResponseCompression.LEVEL);
+            exchange.sendResponseHeaders(statusCode, gzip.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(gzip);
+            os.close();
+            return;
+        }
+        exchange.sendResponseHeaders(statusCode, binary.size());
+        OutputStream os = exchange.getResponseBody();
+        binary.writeTo(os);
+        os.close();
     }
     
-    // Utility method to escape JSON strings
-    private static String escapeJson(String input) {
-        if (input == null) {
-            return "";
+    // Send the full list from the snapshot's bytes; nothing is encoded or compressed per request
+    private static void sendSnapshot(HttpExchange exchange, ListSnapshot.Entry snapshot) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        byte[] body = ResponseCompression.negotiate(exchange, snapshot.json.length) && snapshot.gzip != null
+                ? snapshot.gzip : snapshot.json;
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+    
+    // Import books from the request body chunk by chunk and reply with the per-chunk report
+    private static void handleBulkImport(HttpExchange exchange, BookDAO bookDAO) throws IOException {
+        String response;
+        int statusCode = 200;
+        
+        try {
+            Map<String, String> params = parseQueryParams(exchange.getRequestURI().getRawQuery());
+            if (!exchange.getRequestMethod().equals("POST")) {
+                response = "{\"status\": \"error\", \"message\": \"Method not supported\"}";
+                statusCode = 405; // Method Not Allowed
+            } else {
+                int chunkSize = BulkImport.chunkSize(params.get("chunkSize"));
+                BookSource source = BulkImport.openSource(exchange.getRequestBody(),
+                        exchange.getRequestHeaders().getFirst("Content-Type"), params.get("format"));
+                if (source == null) {
+                    response = "{\"status\": \"error\", \"message\": \"Expected NDJSON or CSV\"}";
+                    statusCode = 415; // Unsupported Media Type
+                } else {
+                    response = BulkImport.toJson(bookDAO.importBooks(source, chunkSize));
+                }
+            }
+        } catch (NumberFormatException e) {
+            response = "{\"status\": \"error\", \"message\": \"Invalid chunkSize parameter\"}";
+            statusCode = 400; // Bad Request
+        }
+        
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        byte[] responseBytes = response.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statusCode, responseBytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(responseBytes);
+        os.close();
+    }
+    
+    // Hand the connection to the event stream, which keeps writing to it after this returns
+    private static void handleEvents(HttpExchange exchange, EventStream eventStream) throws IOException {
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "GET, OPTIONS");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Headers", "Content-Type, Last-Event-ID");
+        
+        String method = exchange.getRequestMethod();
+        if (method.equals("OPTIONS")) {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            return;
         }
-        return input.replace("\\", "\\\\")
-                    .replace("\"", "\\\"")
-                    .replace("\n", "\\n")
-                    .replace("\r", "\\r")
-                    .replace("\t", "\\t");
+        if (!method.equals("GET") || !eventStream.hasRoom()) {
+            int statusCode = method.equals("GET") ? 503 : 405;
+            String response = statusCode == 503
+                    ? "{\"status\": \"error\", \"message\": \"Too many event subscribers\"}"
+                    : "{\"status\": \"error\", \"message\": \"Method not supported\"}";
+            if (statusCode == 503) {
+                exchange.getResponseHeaders().set("Retry-After", "30");
+            }
+            byte[] responseBytes = response.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(statusCode, responseBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(responseBytes);
+            os.close();
+            return;
+        }
+        
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0); // 0 selects chunked transfer encoding
+        // HttpServer cannot drop a connection from another thread, so there is no abort
+        eventStream.subscribe(exchange.getResponseBody(), exchange::close, null,
+                exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+    }
+    
+    // Typeahead completions for the search box
+    private static void handleSuggest(HttpExchange exchange, BookDAO bookDAO) throws IOException {
+        Map<String, String> params = parseQueryParams(exchange.getRequestURI().getRawQuery());
+        String prefix = params.get("prefix");
+        String error = null;
+        int k = 10;
+        if (prefix == null || prefix.trim().isEmpty()) {
+            error = "Prefix is required";
+        } else if (params.get("k") != null) {
+            try {
+                k = Integer.parseInt(params.get("k"));
+            } catch (NumberFormatException e) {
+                error = "k must be a number";
+            }
+        }
+        if (error != null) {
+            byte[] responseBytes = ("{\"status\": \"error\", \"message\": \"" + error + "\"}").getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(400, responseBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(responseBytes);
+            os.close();
+            return;
+        }
+        
+        List<Suggestion> suggestions = bookDAO.suggest(prefix, k);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        sendJson(exchange, 200, BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE).writeSuggestions(suggestions));
     }
     
-    // Simple JSON parser for books
-    private static Map<String, String> parseJson(String json) {
-        Map<String, String> result = new HashMap<>();
+    // Stream the whole catalog as CSV or NDJSON with chunked encoding
+    private static void handleExport(HttpExchange exchange, BookDAO bookDAO) throws IOException {
+        String format = parseQueryParams(exchange.getRequestURI().getRawQuery()).getOrDefault("format", "csv");
+        if (!CatalogExport.isSupported(format)) {
+            byte[] responseBytes = "{\"status\": \"error\", \"message\": \"Format must be csv or ndjson\"}".getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(400, responseBytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(responseBytes);
+            os.close();
+            return;
+        }
         
-        // Extract name
-        int nameStart = json.indexOf("\"name\"");
-        if (nameStart >= 0) {
-            nameStart = json.indexOf(":", nameStart) + 1;
-            nameStart = json.indexOf("\"", nameStart) + 1;
-            int nameEnd = json.indexOf("\"", nameStart);
-            result.put("name", json.substring(nameStart, nameEnd));
+        exchange.getResponseHeaders().set("Content-Type", CatalogExport.contentType(format));
+        exchange.getResponseHeaders().set("Content-Disposition",
+                "attachment; filename=\"" + CatalogExport.fileName(format) + "\"");
+        boolean gzip = ResponseCompression.negotiate(exchange, -1);
+        exchange.sendResponseHeaders(200, 0); // 0 selects chunked transfer encoding
+        // A failure part way through leaves the body open and propagates out of the handler, and
+        // HttpServer drops the connection, so the client never mistakes a truncated export for a complete one
+        OutputStream body = exchange.getResponseBody();
+        CatalogExport.write(bookDAO, format, gzip ? ResponseCompression.gzipStream(body) : body);
+    }
+    
+    // Utility method to parse a comma-separated ids parameter for the multi-get
+    private static int[] parseIds(String value) {
+        String[] parts = value.split(",", -1);
+        if (parts.length > BookDAO.MAX_IDS) {
+            throw new IllegalArgumentException("At most " + BookDAO.MAX_IDS + " ids per request");
+        }
+        int[] ids = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                ids[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ids must be a comma-separated list of book ids");
         }
+        return ids;
+    }
+    
+    // Utility method to write one keyset page as JSON, with the cursor for the next page
+    private static BookJsonWriter writePage(List<Book> books, int limit) throws IOException {
+        BookJsonWriter json = BookJsonWriter.forThread(BookJsonWriter.Style.SIMPLE);
+        json.writeAscii("{\"books\":").writeBooks(books).writeAscii(",\"next\":");
+        if (books.size() == limit) {
+            json.writeInt(books.get(books.size() - 1).getId());
+        } else {
+            json.writeAscii("null");
+        }
+        return json.writeByte('}');
+    }
+    
+    // Write books to the response with chunked encoding while the rows are read from the database.
+    // With a limit the output is a page envelope with a next cursor, otherwise a plain array.
+    private static void streamBooksJson(HttpExchange exchange, BookDAO bookDAO, int after, int limit) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        boolean gzip = ResponseCompression.negotiate(exchange, -1);
+        exchange.sendResponseHeaders(200, 0); // 0 selects chunked transfer encoding
         
-        // Extract author
-        int authorStart = json.indexOf("\"author\"");
-        if (authorStart >= 0) {
-            authorStart = json.indexOf(":", authorStart) + 1;
-            authorStart = json.indexOf("\"", authorStart) + 1;
-            int authorEnd = json.indexOf("\"", authorStart);
-            result.put("author", json.substring(authorStart, authorEnd));
+        OutputStream body = exchange.getResponseBody();
+        OutputStream os = gzip ? ResponseCompression.gzipStream(body) : body;
+        BookJsonWriter json = BookJsonWriter.streaming(BookJsonWriter.Style.SIMPLE, os);
+        json.writeAscii(limit > 0 ? "{\"books\":[" : "[");
+        int[] lastId = {0};
+        int count;
+        try {
+            count = bookDAO.streamBooks(after, limit, (id, name, author) -> {
+                if (lastId[0] != 0) {
+                    json.writeByte(',');
+                }
+                json.writeBook(id, name, author);
+                lastId[0] = id;
+            });
+        } catch (IOException e) {
+            // No closing bracket or next cursor, and the body is left open so the connection is dropped
+            throw new ResponseAbortedException(e);
+        }
+        json.writeByte(']');
+        if (limit > 0) {
+            json.writeAscii(",\"next\":");
+            if (count == limit) {
+                json.writeInt(lastId[0]);
+            } else {
+                json.writeAscii("null");
+            }
+            json.writeByte('}');
         }
+        json.flush();
+        os.close();
+    }
+    
+    // Stream books in the binary format with chunked encoding while the rows are read; no page
+    // envelope, so with a limit the client takes the last id as the next cursor when the page is full
+    private static void streamBooksBinary(HttpExchange exchange, BookDAO bookDAO, int after, int limit) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", BookBinaryWriter.CONTENT_TYPE);
+        boolean gzip = ResponseCompression.negotiate(exchange, -1);
+        exchange.sendResponseHeaders(200, 0); // 0 selects chunked transfer encoding
         
-        return result;
+        OutputStream body = exchange.getResponseBody();
+        OutputStream os = gzip ? ResponseCompression.gzipStream(body) : body;
+        BookBinaryWriter binary = BookBinaryWriter.streaming(os);
+        try {
+            bookDAO.streamBooks(after, limit, binary::writeBook);
+        } catch (IOException e) {
+            throw new ResponseAbortedException(e);
+        }
+        binary.flush();
+        os.close();
+    }
+    
+    // Utility method to split a raw query string into decoded parameters
+    private static Map<String, String> parseQueryParams(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            params.putIfAbsent(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+    
+    // Utility method to escape JSON strings in a single pass
+    static String escapeJson(String input) {
+        if (input == null) {
+            return "";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            String replacement;
+            switch (c) {
+                case '\\': replacement = "\\\\"; break;
+                case '"':  replacement = "\\\""; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\t': replacement = "\\t"; break;
+                default:   replacement = null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(input.length() + 16).append(input, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? input : escaped.toString();
+    }
+    
+    // Parse a book JSON body, refusing bodies over library.server.maxBodyBytes
+    private static Map<String, String> readJsonBody(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            return JsonBodyReader.readObject(body, exchange.getRequestHeaders().getFirst("Content-Length"),
+                    JsonBodyReader.DEFAULT_MAX_BODY_BYTES);
+        }
     }
 }
\ No newline at end of file
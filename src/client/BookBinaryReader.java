@@ -0,0 +1,119 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Book;
+
+/**
+ * Client-side decoder for application/x-athenaeum-bin responses, the
+ * binary book format written by api.BookBinaryWriter. It needs nothing
+ * from the server but model.Book, so other services can copy it.
+ *
+ * Send "Accept: application/x-athenaeum-bin" to GET /api/books (list,
+ * page, ?ids=, ?stream=true, and ?query= on SimpleApiServer), to
+ * GET /api/books/search?query= on the Spark server, or to
+ * GET /api/books/{id}. A 200 body
+ * is a series of book frames; error responses stay JSON, so check the
+ * Content-Type first. Frames are read one at a time as they arrive.
+ */
+public final class BookBinaryReader {
+
+    // Frames larger than this are treated as corrupt rather than allocated
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    private final InputStream in;
+
+    public BookBinaryReader(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+    }
+
+    // Every book in the body, in the order sent
+    public static List<Book> readAll(InputStream in) throws IOException {
+        BookBinaryReader reader = new BookBinaryReader(in);
+        List<Book> books = new ArrayList<>();
+        for (Book book = reader.next(); book != null; book = reader.next()) {
+            books.add(book);
+        }
+        return books;
+    }
+
+    // The next book, or null at the end of the body; a body cut off mid-frame throws EOFException
+    public Book next() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int frameLength = readVarint(first);
+        if (frameLength < 0 || frameLength > MAX_FRAME_BYTES) {
+            throw new IOException("Bad frame length " + frameLength);
+        }
+        byte[] frame = new byte[frameLength];
+        int read = 0;
+        while (read < frameLength) {
+            int n = in.read(frame, read, frameLength - read);
+            if (n < 0) {
+                throw new EOFException("Body ends inside a frame");
+            }
+            read += n;
+        }
+
+        // Fields in frame order; anything after the author is from a newer server and skipped
+        int[] offset = {0};
+        int id = readVarint(frame, offset);
+        String name = readString(frame, offset);
+        String author = readString(frame, offset);
+        return new Book(id, name, author);
+    }
+
+    private int readVarint(int first) throws IOException {
+        int value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            if (shift > 28) {
+                throw new IOException("Varint longer than five bytes");
+            }
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Body ends inside a frame length");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    private static int readVarint(byte[] frame, int[] offset) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            if (offset[0] >= frame.length) {
+                throw new IOException("Frame too short");
+            }
+            int b = frame[offset[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint longer than five bytes");
+    }
+
+    private static String readString(byte[] frame, int[] offset) throws IOException {
+        int length = readVarint(frame, offset) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > frame.length - offset[0]) {
+            throw new IOException("String runs past its frame");
+        }
+        String value = new String(frame, offset[0], length, StandardCharsets.UTF_8);
+        offset[0] += length;
+        return value;
+    }
+}
@@ -0,0 +1,139 @@
+package dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns concurrent single requests into batches, for GroupCommitter (writes
+ * committed together) and BookLoader (lookups fetched together).
+ *
+ * Callers submit an item and get a future. One thread takes the first
+ * queued item, gathers whatever else arrives within the window (up to
+ * maxBatch items) and hands them to the handler, which completes every
+ * future in the batch. While a batch is being handled the next requests
+ * queue up behind it, so batches grow with the load even with a window of 0.
+ */
+final class BatchingQueue<I, O> {
+
+    // Handles one batch, in submission order; must complete every request's future
+    @FunctionalInterface
+    interface Handler<I, O> {
+        void handle(List<Request<I, O>> batch);
+    }
+
+    static final class Request<I, O> {
+        final I item;
+        final CompletableFuture<O> future = new CompletableFuture<>();
+
+        Request(I item) {
+            this.item = item;
+        }
+    }
+
+    private final int maxBatch;
+    private final long windowNanos;
+    private final String closedMessage;
+    private final Handler<I, O> handler;
+    // Queued by close() to stop the thread once the requests ahead of it are done
+    private final Request<I, O> shutdown = new Request<>(null);
+
+    private final LinkedBlockingQueue<Request<I, O>> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // closedMessage is the error of requests submitted after close()
+    BatchingQueue(String threadName, int maxBatch, long windowMicros, String closedMessage, Handler<I, O> handler) {
+        this.maxBatch = Math.max(1, maxBatch);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+        this.closedMessage = closedMessage;
+        this.handler = handler;
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    CompletableFuture<O> submit(I item) {
+        Request<I, O> request = new Request<>(item);
+        if (closed) {
+            request.future.completeExceptionally(new StorageException(closedMessage));
+            return request.future;
+        }
+        queue.add(request);
+        if (closed && queue.remove(request)) {
+            // Raced with close(): the thread may already have drained the queue for the last time
+            request.future.completeExceptionally(new StorageException(closedMessage));
+        }
+        return request.future;
+    }
+
+    // Handle what is already queued, then stop
+    void close() {
+        closed = true;
+        // Wake the thread with a marker rather than an interrupt, which would close a FileChannel mid-operation
+        queue.add(shutdown);
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Request<I, O>> batch = new ArrayList<>(maxBatch);
+        boolean stopping = false;
+        while (true) {
+            batch.clear();
+            try {
+                if (stopping) {
+                    queue.drainTo(batch, maxBatch);
+                } else {
+                    batch.add(queue.take());
+                    gather(batch);
+                }
+            } catch (InterruptedException e) {
+                // Nothing interrupts this thread on purpose; keep serving
+                continue;
+            }
+            if (batch.remove(shutdown)) {
+                stopping = true;
+            }
+            if (!batch.isEmpty()) {
+                handle(batch);
+            } else if (stopping) {
+                return;
+            }
+        }
+    }
+
+    // Add requests that arrive within the window, without waiting past it or beyond maxBatch
+    private void gather(List<Request<I, O>> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+            queue.drainTo(batch, maxBatch - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatch || remaining <= 0 || closed) {
+                return;
+            }
+            Request<I, O> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    // A handler bug must not leave callers waiting forever or stop the thread
+    private void handle(List<Request<I, O>> batch) {
+        try {
+            handler.handle(batch);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            for (Request<I, O> request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import model.Book;
+
+/**
+ * Bounded LRU read-through cache of books keyed by id, with an optional TTL.
+ *
+ * Concurrent misses for the same id share a single load. A load that
+ * overlaps an invalidation is returned to its callers but not stored, so a
+ * write is never followed by a stale cached row.
+ */
+public class BookCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<Integer, CachedBook> entries;
+    private final ConcurrentHashMap<Integer, CompletableFuture<Book>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // A ttlMillis of 0 or less keeps entries until they are evicted or invalidated
+    public BookCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : 0;
+        this.entries = new LinkedHashMap<Integer, CachedBook>(Math.min(maxSize, 1024) * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedBook> eldest) {
+                if (size() > BookCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Return the cached book, or load it once no matter how many threads ask at the same time
+    public Book get(int id, IntFunction<Book> loader) {
+        Book cached = lookup(id);
+        if (cached != null) {
+            hits.increment();
+            return copy(cached);
+        }
+        misses.increment();
+
+        CompletableFuture<Book> mine = new CompletableFuture<>();
+        CompletableFuture<Book> running = inFlight.putIfAbsent(id, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return copy(running.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        long generation = invalidations.get();
+        try {
+            Book loaded = loader.apply(id);
+            if (loaded != null) {
+                store(id, loaded, generation);
+            }
+            mine.complete(loaded);
+            return copy(loaded);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(id, mine);
+        }
+    }
+
+    public void invalidate(int id) {
+        invalidations.incrementAndGet();
+        inFlight.remove(id);
+        synchronized (entries) {
+            entries.remove(id);
+        }
+    }
+
+    public void clear() {
+        invalidations.incrementAndGet();
+        inFlight.clear();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public CacheStats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new CacheStats(size, maxSize, hits.sum(), misses.sum(), coalesced.sum(),
+                evictions.sum(), expirations.sum());
+    }
+
+    private Book lookup(int id) {
+        synchronized (entries) {
+            CachedBook entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (ttlNanos > 0 && System.nanoTime() - entry.loadedAt > ttlNanos) {
+                entries.remove(id);
+                expirations.increment();
+                return null;
+            }
+            return entry.book;
+        }
+    }
+
+    private void store(int id, Book book, long generation) {
+        synchronized (entries) {
+            // Skip the put if any invalidation happened while this load was running
+            if (invalidations.get() == generation) {
+                entries.put(id, new CachedBook(copy(book), System.nanoTime()));
+            }
+        }
+    }
+
+    // Book is mutable, so callers never get the cached instance itself
+    private static Book copy(Book book) {
+        return book == null ? null : new Book(book.getId(), book.getName(), book.getAuthor());
+    }
+
+    private static final class CachedBook {
+        final Book book;
+        final long loadedAt;
+
+        CachedBook(Book book, long loadedAt) {
+            this.book = book;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
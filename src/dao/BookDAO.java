@@ -1,119 +1,721 @@
 package dao;
-import java.sql.*;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import db.DBConnection;
+import metrics.Metrics;
 import model.Book;
 
 public class BookDAO {
 
+    // Upper bound for a single page, whatever the client asks for
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    // Upper bound for the number of typeahead suggestions
+    public static final int MAX_SUGGESTIONS = 50;
+
+    // Upper bound for the number of ids in one multi-get
+    public static final int MAX_IDS = 1000;
+
+    // MySQL or the embedded log, chosen with -Dlibrary.storage
+    private final BookStore store;
+
+    // Number of locks writes are spread over; a power of two
+    private static final int WRITE_LOCK_STRIPES = 256;
+
+    // Optional in-memory search index, enabled with -Dlibrary.search.trigramIndex=true
+    private volatile TrigramIndex searchIndex;
+
+    // The search index being rebuilt by buildSearchIndex(), null otherwise
+    private volatile IndexBuild indexBuild;
+
+    // Optional typeahead index, enabled with -Dlibrary.search.suggest=true
+    private volatile SuggestIndex suggestIndex;
+
+    // Optional compact copy of every book that serves the reads, enabled with -Dlibrary.catalog.resident=true
+    private volatile ResidentCatalog residentCatalog;
+
+    // Read-through cache for getBookById; a size of 0 turns it off
+    private final BookCache bookCache;
+
+    // Batches concurrent writes into one commit, enabled with -Dlibrary.writes.groupCommit=true
+    private final GroupCommitter groupCommitter;
+
+    // Merges concurrent getBookById misses into one query, enabled with -Dlibrary.reads.coalesce=true
+    private final BookLoader bookLoader;
+
+    // Catalog and per-book versions for ETags, bumped by every successful mutation
+    private final CatalogVersions versions = new CatalogVersions();
+
+    // Recent changes for the change feed, kept in a ring of -Dlibrary.events.bufferSize events
+    private final BookEventLog events = BookEventLog.fromSystemProperties();
+
+    // On-disk copy of the catalog that fills the indexes at startup, enabled with -Dlibrary.snapshot=true
+    private final CatalogSnapshot snapshot;
+
+    // A write to a book and its changes to the indexes, cache and change feed happen under the
+    // book's lock, so the in-memory copies see one book's writes in the order they committed
+    private final Object[] writeLocks = new Object[WRITE_LOCK_STRIPES];
+
+    public BookDAO() {
+        this(BookStore.fromSystemProperties());
+    }
+
+    public BookDAO(BookStore store) {
+        this.store = store;
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new Object();
+        }
+        int cacheSize = Integer.getInteger("library.cache.books.maxSize", 10_000);
+        long cacheTtlMillis = Long.getLong("library.cache.books.ttlMillis", 60_000L);
+        bookCache = cacheSize > 0 ? new BookCache(cacheSize, cacheTtlMillis) : null;
+        groupCommitter = Boolean.getBoolean("library.writes.groupCommit")
+                ? GroupCommitter.fromSystemProperties(store) : null;
+        bookLoader = Boolean.getBoolean("library.reads.coalesce")
+                ? BookLoader.fromSystemProperties(store) : null;
+
+        boolean trigramIndex = Boolean.getBoolean("library.search.trigramIndex");
+        boolean suggest = Boolean.getBoolean("library.search.suggest");
+        boolean resident = Boolean.getBoolean("library.catalog.resident");
+        // A snapshot only saves work when something is loaded from the whole catalog
+        snapshot = trigramIndex || suggest || resident ? CatalogSnapshot.fromSystemProperties() : null;
+        BookScan warm = snapshot != null ? snapshot.open(store) : null;
+        BookScan books = warm != null ? warm : this::scanStore;
+
+        if (trigramIndex) {
+            buildSearchIndex(books);
+        }
+        if (suggest) {
+            buildSuggestIndex(books);
+        }
+        if (resident) {
+            loadResidentCatalog(books);
+        }
+        if (snapshot != null) {
+            snapshot.start(this::scanForSnapshot, () -> versions.catalog().getVersion());
+        }
+    }
+
+    // Load every book into a fresh trigram index; searches use SQL until it is ready
+    public void buildSearchIndex() {
+        buildSearchIndex(this::scanStore);
+    }
+
+    // Writes made while the scan runs go to the new index as well and win over the rows the scan
+    // reads, which may be older; the index is published before writes stop going to both
+    private synchronized void buildSearchIndex(BookScan books) {
+        IndexBuild build = new IndexBuild();
+        indexBuild = build;
+        try {
+            long start = System.nanoTime();
+            int count = books.scan((id, name, author) -> {
+                synchronized (writeLock(id)) {
+                    if (!build.written.contains(id)) {
+                        build.index.add(id, name, author);
+                    }
+                }
+            });
+            searchIndex = build.index;
+            System.out.println("Search index built: " + count + " books in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (StorageException | IOException e) {
+            // Keep searching through SQL rather than serve from a partial index
+            e.printStackTrace();
+        } finally {
+            indexBuild = null;
+        }
+    }
+
+    // Load every book into a fresh typeahead index; suggestions come from a search until it is ready
+    public void buildSuggestIndex() {
+        buildSuggestIndex(this::scanStore);
+    }
+
+    private void buildSuggestIndex(BookScan books) {
+        try {
+            long start = System.nanoTime();
+            suggestIndex = SuggestIndex.load(books);
+            System.out.println("Suggest index built in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (StorageException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Load every book into a fresh resident catalog; reads use the store until it is ready
+    public void loadResidentCatalog() {
+        loadResidentCatalog(this::scanStore);
+    }
+
+    private void loadResidentCatalog(BookScan books) {
+        try {
+            long start = System.nanoTime();
+            ResidentCatalog catalog = ResidentCatalog.load(books);
+            residentCatalog = catalog;
+            System.out.println("Resident catalog loaded: " + catalog.size() + " books, about "
+                    + catalog.heapBytes() / (1024 * 1024) + " MB, in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (StorageException | IOException | RuntimeException e) {
+            // Keep reading from the store rather than serve from a partial catalog
+            e.printStackTrace();
+        }
+    }
+
     // Add a new book
     public void addBook(String name, String author) {
-        String query = "INSERT INTO books (name, author) VALUES (?, ?)";
+        long start = System.nanoTime();
         
-        try (Connection con = DBConnection.getConnection();
-             PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setString(1, name);
-            stmt.setString(2, author);
-            stmt.executeUpdate();
+        try {
+            int id = groupCommitter != null ? commit(BookWrite.insert(name, author)) : store.insert(name, author);
+            if (id > 0) {
+                journal(id);
+                inserted(id, name, author);
+            }
+            versions.catalogChanged();
+            Metrics.recordQuery("addBook", start, 1);
             System.out.println("Book added successfully!");
-        } catch (SQLException e) {
+        } catch (StorageException e) {
+            Metrics.recordQueryError("addBook", start);
             e.printStackTrace();
         }
     }
 
+    // Insert books from the source in chunks, one transaction per chunk. Only the current chunk
+    // is held in memory, and the report keeps totals plus the chunks that had a problem.
+    public ImportReport importBooks(BookSource source, int chunkSize) {
+        long start = System.nanoTime();
+        ImportReport report = new ImportReport();
+        List<Book> chunk = new ArrayList<>(chunkSize);
+        long recordNumber = 0;
+        boolean endOfInput = false;
+
+        while (!endOfInput) {
+            chunk.clear();
+            long firstRecord = recordNumber + 1;
+            int rejected = 0;
+            String error = null;
+
+            while (chunk.size() < chunkSize) {
+                Book book;
+                try {
+                    book = source.next();
+                } catch (IllegalArgumentException e) {
+                    recordNumber++;
+                    rejected++;
+                    error = error != null ? error : "Record " + recordNumber + ": " + e.getMessage();
+                    continue;
+                } catch (IOException e) {
+                    error = error != null ? error : "Input error after record " + recordNumber + ": " + e.getMessage();
+                    endOfInput = true;
+                    break;
+                }
+                if (book == null) {
+                    endOfInput = true;
+                    break;
+                }
+                recordNumber++;
+                if (isBlank(book.getName()) || isBlank(book.getAuthor())) {
+                    rejected++;
+                    error = error != null ? error : "Record " + recordNumber + ": name and author are required";
+                    continue;
+                }
+                chunk.add(book);
+            }
+            if (chunk.isEmpty() && rejected == 0 && error == null) {
+                break;
+            }
+
+            int inserted = 0;
+            boolean committed = false;
+            try {
+                int[] ids = chunk.isEmpty() ? new int[0] : store.insertAll(chunk);
+                committed = true;
+                journal(ids);
+                inserted = chunk.size();
+                for (int i = 0; i < ids.length; i++) {
+                    inserted(ids[i], chunk.get(i).getName(), chunk.get(i).getAuthor());
+                }
+                if (inserted > 0) {
+                    versions.catalogChanged();
+                }
+            } catch (StorageException e) {
+                error = "Chunk rolled back: " + e.getMessage();
+            }
+            report.add(new ImportChunkResult(report.getChunks() + 1, firstRecord, recordNumber,
+                    inserted, rejected, committed, error));
+        }
+        Metrics.recordQuery("importBooks", start, report.getInserted());
+        System.out.println("Bulk import finished: " + recordNumber + " records in " + report.getChunks() + " chunks");
+
+        return report;
+    }
+
+    // Queue the write for the next group commit and wait until that commit has succeeded
+    private int commit(BookWrite write) throws StorageException {
+        try {
+            return groupCommitter.submit(write).get();
+        } catch (InterruptedException e) {
+            // The write may still commit; the caller only stops waiting for it
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for the commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof StorageException ? (StorageException) cause : new StorageException(cause);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
     // View all books
     public List<Book> viewAllBooks() {
-        List<Book> books = new ArrayList<>();
-        String query = "SELECT * FROM books";
-
-        try (Connection con = DBConnection.getConnection();
-             Statement stmt = con.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String author = rs.getString("author");
-                books.add(new Book(id, name, author));
-            }
-        } catch (SQLException e) {
+        long start = System.nanoTime();
+        boolean primary = primaryReadsIfRecent(false);
+        try {
+            ResidentCatalog catalog = residentCatalog;
+            List<Book> books = catalog != null ? catalog.all() : store.findAll();
+            Metrics.recordQuery("viewAllBooks", start, books.size());
+            return books;
+        } catch (StorageException e) {
+            Metrics.recordQueryError("viewAllBooks", start);
+            readFailed();
             e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            DBConnection.endPrimaryReads(primary);
         }
+    }
 
-        return books;
+    // View one page of books with ids greater than afterId, in id order
+    public List<Book> viewBooksPage(int afterId, int limit) {
+        long start = System.nanoTime();
+        boolean primary = primaryReadsIfRecent(false);
+        try {
+            ResidentCatalog catalog = residentCatalog;
+            List<Book> books = catalog != null
+                    ? catalog.page(afterId, clampPageSize(limit))
+                    : store.findPage(afterId, clampPageSize(limit));
+            Metrics.recordQuery("viewBooksPage", start, books.size());
+            return books;
+        } catch (StorageException e) {
+            Metrics.recordQueryError("viewBooksPage", start);
+            readFailed();
+            e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            DBConnection.endPrimaryReads(primary);
+        }
+    }
+
+    // Stream books with ids greater than afterId to the handler as the rows arrive.
+    // A limit of 0 or less streams every remaining row. Returns the number of rows handled.
+    // Rows may already be on the wire, so a storage error is rethrown rather than reported as
+    // an empty or short result: the caller aborts the response instead of ending it cleanly.
+    public int streamBooks(int afterId, int limit, BookRowHandler handler) throws IOException {
+        long start = System.nanoTime();
+        boolean primary = primaryReadsIfRecent(false);
+        try {
+            ResidentCatalog catalog = residentCatalog;
+            int count = catalog != null ? catalog.scan(afterId, limit, handler) : store.scan(afterId, limit, handler);
+            Metrics.recordQuery("streamBooks", start, count);
+            return count;
+        } catch (StorageException e) {
+            Metrics.recordQueryError("streamBooks", start);
+            readFailed();
+            e.printStackTrace();
+            throw new IOException("Stream failed: " + e.getMessage(), e);
+        } finally {
+            DBConnection.endPrimaryReads(primary);
+        }
+    }
+
+    // Stream the whole table for an export; like streamBooks, a storage error is rethrown
+    // so the caller can abort the response instead of sending a silently truncated file.
+    public int exportBooks(BookRowHandler handler) throws IOException {
+        long start = System.nanoTime();
+        try {
+            ResidentCatalog catalog = residentCatalog;
+            int count = catalog != null ? catalog.scan(0, 0, handler) : store.scan(0, 0, handler);
+            Metrics.recordQuery("exportBooks", start, count);
+            return count;
+        } catch (StorageException e) {
+            Metrics.recordQueryError("exportBooks", start);
+            e.printStackTrace();
+            throw new IOException("Export failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static int clampPageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
     }
 
     // Update book
     public void updateBook(int id, String newName, String newAuthor) {
-        String query = "UPDATE books SET name = ?, author = ? WHERE id = ?";
+        long start = System.nanoTime();
         
-        try (Connection con = DBConnection.getConnection();
-             PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setString(1, newName);
-            stmt.setString(2, newAuthor);
-            stmt.setInt(3, id);
-            stmt.executeUpdate();
+        try {
+            int updated;
+            synchronized (writeLock(id)) {
+                journal(id);
+                updated = groupCommitter != null
+                        ? commit(BookWrite.update(id, newName, newAuthor))
+                        : store.update(id, newName, newAuthor);
+                if (updated > 0) {
+                    indexPut(id, newName, newAuthor);
+                    SuggestIndex suggest = suggestIndex;
+                    if (suggest != null) {
+                        suggest.put(id, newName, newAuthor);
+                    }
+                    residentPut(id, newName, newAuthor);
+                }
+                invalidateCachedBook(id);
+                if (updated > 0) {
+                    events.append(BookEvent.Type.UPDATED, id, newName, newAuthor);
+                    versions.bookChanged(id);
+                }
+            }
+            Metrics.recordQuery("updateBook", start, updated);
             System.out.println("Book updated successfully!");
-        } catch (SQLException e) {
+        } catch (StorageException e) {
+            Metrics.recordQueryError("updateBook", start);
             e.printStackTrace();
         }
     }
 
     // Delete book
     public void deleteBook(int id) {
-        String query = "DELETE FROM books WHERE id = ?";
+        long start = System.nanoTime();
         
-        try (Connection con = DBConnection.getConnection();
-             PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
+        try {
+            int deleted;
+            synchronized (writeLock(id)) {
+                journal(id);
+                deleted = groupCommitter != null ? commit(BookWrite.delete(id)) : store.delete(id);
+                indexRemove(id);
+                SuggestIndex suggest = suggestIndex;
+                if (suggest != null) {
+                    suggest.remove(id);
+                }
+                ResidentCatalog catalog = residentCatalog;
+                if (catalog != null) {
+                    catalog.remove(id);
+                }
+                invalidateCachedBook(id);
+                if (deleted > 0) {
+                    events.append(BookEvent.Type.DELETED, id, null, null);
+                    versions.bookChanged(id);
+                }
+            }
+            Metrics.recordQuery("deleteBook", start, deleted);
             System.out.println("Book deleted successfully!");
-        } catch (SQLException e) {
+        } catch (StorageException e) {
+            Metrics.recordQueryError("deleteBook", start);
             e.printStackTrace();
         }
     }
 
     // Search book by name or author
     public List<Book> searchBook(String searchQuery) {
-        List<Book> books = new ArrayList<>();
-        String query = "SELECT * FROM books WHERE name LIKE ? OR author LIKE ?";
-
-        try (Connection con = DBConnection.getConnection();
-             PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setString(1, "%" + searchQuery + "%");
-            stmt.setString(2, "%" + searchQuery + "%");
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String name = rs.getString("name");
-                String author = rs.getString("author");
-                books.add(new Book(id, name, author));
+        long start = System.nanoTime();
+        TrigramIndex index = searchIndex;
+        if (index != null) {
+            List<Book> indexed = index.search(searchQuery);
+            if (indexed != null) {
+                Metrics.recordQuery("searchBook", start, indexed.size());
+                return indexed;
+            }
+        }
+        ResidentCatalog catalog = residentCatalog;
+        if (catalog != null) {
+            List<Book> resident = catalog.search(searchQuery);
+            if (resident != null) {
+                Metrics.recordQuery("searchBook", start, resident.size());
+                return resident;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
-        return books;
+        boolean primary = primaryReadsIfRecent(false);
+        try {
+            List<Book> books = store.search(searchQuery);
+            Metrics.recordQuery("searchBook", start, books.size());
+            return books;
+        } catch (StorageException e) {
+            Metrics.recordQueryError("searchBook", start);
+            readFailed();
+            e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            DBConnection.endPrimaryReads(primary);
+        }
     }
     
-    // Get book by ID
+    // Up to k names and authors starting with the prefix, ignoring case and accents,
+    // those carried by the most books first
+    public List<Suggestion> suggest(String prefix, int k) {
+        long start = System.nanoTime();
+        int limit = Math.max(1, Math.min(k, MAX_SUGGESTIONS));
+        SuggestIndex index = suggestIndex;
+        if (index == null) {
+            // Without the index, rank the prefix matches among the search results
+            index = new SuggestIndex();
+            for (Book book : searchBook(prefix)) {
+                index.put(book.getId(), book.getName(), book.getAuthor());
+            }
+        }
+        List<Suggestion> suggestions = index.suggest(prefix, limit);
+        Metrics.recordQuery("suggest", start, suggestions.size());
+        return suggestions;
+    }
+
+    // Get book by ID, from the resident catalog or else the cache when enabled
     public Book getBookById(int id) {
-        String query = "SELECT * FROM books WHERE id = ?";
-        
-        try (Connection con = DBConnection.getConnection();
-             PreparedStatement stmt = con.prepareStatement(query)) {
-            stmt.setInt(1, id);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                String name = rs.getString("name");
-                String author = rs.getString("author");
-                return new Book(id, name, author);
+        long start = System.nanoTime();
+        ResidentCatalog catalog = residentCatalog;
+        Book book;
+        if (catalog != null) {
+            book = catalog.get(id);
+        } else {
+            book = bookCache != null ? bookCache.get(id, this::loadBookById) : loadBookById(id);
+        }
+        Metrics.recordQuery("getBookById", start, book != null ? 1 : 0);
+        return book;
+    }
+
+    // The books with these ids in the order asked for, each once; ids that do not exist are left out
+    public List<Book> getBooksByIds(int[] ids) {
+        long start = System.nanoTime();
+        ResidentCatalog catalog = residentCatalog;
+        Map<Integer, Book> found = new HashMap<>();
+        if (catalog != null) {
+            for (int id : ids) {
+                Book book = catalog.get(id);
+                if (book != null) {
+                    found.put(id, book);
+                }
+            }
+        } else {
+            boolean primary = primaryReadsIfRecent(false);
+            try {
+                // One WHERE id IN (...) query instead of one query per id
+                for (Book book : store.findByIds(ids)) {
+                    found.put(book.getId(), book);
+                }
+            } catch (StorageException e) {
+                Metrics.recordQueryError("getBooksByIds", start);
+                readFailed();
+                e.printStackTrace();
+                return new ArrayList<>();
+            } finally {
+                DBConnection.endPrimaryReads(primary);
+            }
+        }
+
+        List<Book> books = new ArrayList<>(found.size());
+        for (int id : ids) {
+            Book book = found.remove(id);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        Metrics.recordQuery("getBooksByIds", start, books.size());
+        return books;
+    }
+
+    // Current version of the whole catalog; take it before reading the books it describes
+    public VersionStamp getCatalogVersion() {
+        return versions.catalog();
+    }
+
+    // Current version of one book; answering from it needs no database access
+    public VersionStamp getBookVersion(int id) {
+        return versions.book(id);
+    }
+
+    // Up to max change events after the given sequence number, oldest first, or null when
+    // they are no longer all buffered and the reader has to start over from a full list
+    public List<BookEvent> getEventsSince(long afterSequence, int max) {
+        return events.since(afterSequence, max);
+    }
+
+    // Sequence number of the newest change event, 0 before the first change
+    public long getLatestEventSequence() {
+        return events.latest();
+    }
+
+    // Differs between runs of the server; event sequence numbers are only comparable within one run
+    public String getEventEpoch() {
+        return events.epoch();
+    }
+
+    // Run listener on the writing thread after each committed add, update, delete or import chunk
+    public void addChangeListener(Runnable listener) {
+        versions.addListener(listener);
+    }
+
+    // Hit, miss and eviction counters of the book cache, or null when it is disabled
+    public CacheStats getCacheStats() {
+        return bookCache != null ? bookCache.getStats() : null;
+    }
+
+    // Size and footprint of the resident catalog, or null when it is not loaded
+    public CatalogStats getResidentCatalogStats() {
+        ResidentCatalog catalog = residentCatalog;
+        return catalog != null ? new CatalogStats(catalog.size(), catalog.heapBytes()) : null;
+    }
+
+    // A failed read returns an empty list, but the caller may already have taken the catalog
+    // version to tag it with; bump the version so that tag never validates the empty result
+    private void readFailed() {
+        versions.invalidate();
+    }
+
+    // Every book in the store, for index builds without a snapshot
+    private int scanStore(BookRowHandler handler) throws StorageException, IOException {
+        return store.scan(0, 0, handler);
+    }
+
+    // What a snapshot is taken from: the resident catalog when loaded, saving a table scan
+    private int scanForSnapshot(BookRowHandler handler) throws StorageException, IOException {
+        ResidentCatalog catalog = residentCatalog;
+        return catalog != null ? catalog.scan(0, 0, handler) : store.scan(0, 0, handler);
+    }
+
+    // Tell the snapshot which books change: before an update or delete, after an insert
+    private void journal(int... ids) {
+        if (snapshot != null) {
+            snapshot.changed(ids);
+        }
+    }
+
+    private Object writeLock(int id) {
+        return writeLocks[(id ^ (id >>> 16)) & (WRITE_LOCK_STRIPES - 1)];
+    }
+
+    // Add a newly inserted book to the indexes and the change feed. The id was unknown until the
+    // insert returned, so an update or delete of it may already have been applied; it is newer
+    private void inserted(int id, String name, String author) {
+        synchronized (writeLock(id)) {
+            if (versions.book(id).getVersion() != 0) {
+                return;
             }
-        } catch (SQLException e) {
+            indexPut(id, name, author);
+            SuggestIndex suggest = suggestIndex;
+            if (suggest != null) {
+                suggest.put(id, name, author);
+            }
+            residentPut(id, name, author);
+            events.append(BookEvent.Type.CREATED, id, name, author);
+        }
+    }
+
+    // Caller holds the book's write lock. A rebuild is read first: once it is gone, searchIndex is the new index
+    private void indexPut(int id, String name, String author) {
+        IndexBuild build = indexBuild;
+        if (build != null) {
+            build.written.add(id);
+            build.index.add(id, name, author);
+        }
+        TrigramIndex index = searchIndex;
+        if (index != null) {
+            index.add(id, name, author);
+        }
+    }
+
+    private void indexRemove(int id) {
+        IndexBuild build = indexBuild;
+        if (build != null) {
+            build.written.add(id);
+            build.index.remove(id);
+        }
+        TrigramIndex index = searchIndex;
+        if (index != null) {
+            index.remove(id);
+        }
+    }
+
+    // A search index being filled from a scan, and the books written since the scan started
+    private static final class IndexBuild {
+        final TrigramIndex index = new TrigramIndex();
+        final Set<Integer> written = ConcurrentHashMap.newKeySet();
+    }
+
+    // A book the catalog cannot hold would leave it incomplete, so stop serving from it
+    private void residentPut(int id, String name, String author) {
+        ResidentCatalog catalog = residentCatalog;
+        if (catalog == null) {
+            return;
+        }
+        try {
+            catalog.put(id, name, author);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            residentCatalog = null;
+            System.out.println("Resident catalog dropped, reading from the store: " + e.getMessage());
+        }
+    }
+
+    private void invalidateCachedBook(int id) {
+        if (bookCache != null) {
+            bookCache.invalidate(id);
+        }
+    }
+
+    // Storage lookup behind getBookById; recorded separately so cache misses are visible.
+    // A cached row is served to every client for the whole TTL, so it never comes from a replica.
+    private Book loadBookById(int id) {
+        long start = System.nanoTime();
+        boolean primary = primaryReadsIfRecent(bookCache != null);
+        try {
+            Book book = bookLoader != null ? loadCoalesced(id) : store.findById(id);
+            Metrics.recordQuery("loadBookById", start, book != null ? 1 : 0);
+            return book;
+        } catch (StorageException e) {
+            Metrics.recordQueryError("loadBookById", start);
             e.printStackTrace();
+            return null;
+        } finally {
+            DBConnection.endPrimaryReads(primary);
         }
-        
-        return null;
+    }
+
+    // Callers take the version before reading, so rows from a replica still missing that
+    // version's change would go out under its new ETag, and later conditional GETs would get
+    // 304 on them. Reads go to the primary while the latest change may not have reached the
+    // replicas, or always. Returns what to pass to DBConnection.endPrimaryReads.
+    private boolean primaryReadsIfRecent(boolean always) {
+        return DBConnection.beginPrimaryReads(always
+                || !DBConnection.replicasCaughtUp(versions.catalog().getLastModifiedMillis()));
+    }
+
+    // Wait for the batched query that includes this id
+    private Book loadCoalesced(int id) throws StorageException {
+        try {
+            return bookLoader.load(id).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for the lookup", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof StorageException ? (StorageException) cause : new StorageException(cause);
+        }
+    }
+
+    // Take a last snapshot and release the store, e.g. flush the embedded log's index;
+    // call once from a shutdown hook
+    public void close() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+        if (bookLoader != null) {
+            bookLoader.close();
+        }
+        if (snapshot != null) {
+            snapshot.close(this::scanForSnapshot);
+        }
+        store.close();
     }
 }
@@ -0,0 +1,53 @@
+package dao;
+
+/**
+ * One committed change to the catalog, as pushed to change-feed
+ * subscribers. Sequence numbers start at 1 for each run of the server and
+ * increase by one per event.
+ */
+public class BookEvent {
+
+    public enum Type { CREATED, UPDATED, DELETED }
+
+    private final long sequence;
+    private final Type type;
+    private final int bookId;
+    private final String name;
+    private final String author;
+
+    public BookEvent(long sequence, Type type, int bookId, String name, String author) {
+        this.sequence = sequence;
+        this.type = type;
+        this.bookId = bookId;
+        this.name = name;
+        this.author = author;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    // Null for DELETED
+    public String getName() {
+        return name;
+    }
+
+    // Null for DELETED
+    public String getAuthor() {
+        return author;
+    }
+
+    @Override
+    public String toString() {
+        return "BookEvent [sequence=" + sequence + ", type=" + type + ", bookId=" + bookId
+                + ", name=" + name + ", author=" + author + "]";
+    }
+}
@@ -0,0 +1,55 @@
+package dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent BookEvents in a fixed-size ring, so change-feed clients
+ * that reconnect can be sent what they missed.
+ *
+ * Like CatalogVersions, events are appended after the change has committed
+ * and only changes made through the owning BookDAO are seen. BookDAO appends
+ * under the book's write lock, so one book's events are in commit order.
+ */
+final class BookEventLog {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final BookEvent[] ring;
+    private long latest;
+
+    BookEventLog(int capacity) {
+        ring = new BookEvent[Math.max(1, capacity)];
+    }
+
+    static BookEventLog fromSystemProperties() {
+        return new BookEventLog(Integer.getInteger("library.events.bufferSize", 4096));
+    }
+
+    // Identifies this run of the server, so sequence numbers from an earlier run are not mistaken for ours
+    String epoch() {
+        return epoch;
+    }
+
+    synchronized void append(BookEvent.Type type, int bookId, String name, String author) {
+        latest++;
+        ring[(int) (latest % ring.length)] = new BookEvent(latest, type, bookId, name, author);
+    }
+
+    synchronized long latest() {
+        return latest;
+    }
+
+    // Up to max events after the given sequence number, oldest first, or null when
+    // some of them have already been overwritten (or the number is from the future)
+    synchronized List<BookEvent> since(long afterSequence, int max) {
+        if (afterSequence > latest || latest - afterSequence > ring.length) {
+            return null;
+        }
+        int count = (int) Math.min(latest - afterSequence, Math.max(0, max));
+        List<BookEvent> events = new ArrayList<>(count);
+        for (long sequence = afterSequence + 1; events.size() < count; sequence++) {
+            events.add(ring[(int) (sequence % ring.length)]);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,77 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import db.ConnectionPool;
+
+/**
+ * Hands out book ids that are unique across all shards.
+ *
+ * The next free id lives in the single-row book_id_sequence table (see
+ * db_setup.sql) in the first shard. A server reserves a block of ids at a
+ * time by advancing it in one short transaction, then hands the block out
+ * from memory, so most inserts cost no extra round trip. Several servers
+ * can share the shards; each takes its own blocks. Ids left in a block
+ * when the server stops are never used, so ids have gaps and are only
+ * roughly in insertion order.
+ */
+class BookIdAllocator {
+
+    private final ConnectionPool pool;
+    private final int blockSize;
+    private int next;
+    private int end;
+
+    BookIdAllocator(ConnectionPool pool, int blockSize) {
+        this.pool = pool;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    int allocate() throws StorageException {
+        return allocate(1)[0];
+    }
+
+    // count fresh ids, reserving more from the database when the block runs out
+    synchronized int[] allocate(int count) throws StorageException {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (next >= end) {
+                int size = Math.max(blockSize, count - i);
+                next = reserve(size);
+                end = next + size;
+            }
+            ids[i] = next++;
+        }
+        return ids;
+    }
+
+    // Advance the sequence by size and return the first id of the reserved block
+    int reserve(int size) throws StorageException {
+        try (Connection con = pool.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement select = con.prepareStatement("SELECT next_id FROM book_id_sequence FOR UPDATE");
+                 PreparedStatement update = con.prepareStatement("UPDATE book_id_sequence SET next_id = ?")) {
+                int first;
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("book_id_sequence is empty; create it as in db_setup.sql");
+                    }
+                    first = rs.getInt(1);
+                }
+                update.setInt(1, first + size);
+                update.executeUpdate();
+                con.commit();
+                return first;
+            } catch (SQLException e) {
+                // The pool restores auto-commit when the connection is returned
+                con.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package dao;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import metrics.Metrics;
+import model.Book;
+
+/**
+ * Coalesces single-book lookups into batched queries, in the manner of
+ * a DataLoader.
+ *
+ * Callers queue an id and get a future. A BatchingQueue gathers the ids
+ * that arrive within the window (up to maxBatch) and the loader thread
+ * fetches them all with one BookStore.findByIds, i.e. one WHERE id IN (...)
+ * query on one connection.
+ *
+ * The loader thread serves no client, so its queries go to the primary
+ * rather than a replica and always see the latest writes.
+ */
+final class BookLoader {
+
+    private final BookStore store;
+    private final BatchingQueue<Integer, Book> queue;
+
+    BookLoader(BookStore store, int maxBatch, long windowMicros) {
+        this.store = store;
+        this.queue = new BatchingQueue<>("book-loader", maxBatch, windowMicros, "Reads are shut down", this::fetch);
+    }
+
+    static BookLoader fromSystemProperties(BookStore store) {
+        int maxBatch = Integer.getInteger("library.reads.coalesce.maxBatch", 256);
+        long windowMicros = Long.getLong("library.reads.coalesce.windowMicros", 200L);
+        return new BookLoader(store, maxBatch, windowMicros);
+    }
+
+    // Completes with the book, or null when the id does not exist, once its batch has been fetched
+    CompletableFuture<Book> load(int id) {
+        return queue.submit(id);
+    }
+
+    // Answer what is already queued, then stop; call before closing the store
+    void close() {
+        queue.close();
+    }
+
+    private void fetch(List<BatchingQueue.Request<Integer, Book>> batch) {
+        long start = System.nanoTime();
+        int[] ids = new int[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = batch.get(i).item;
+        }
+        try {
+            Map<Integer, Book> found = new HashMap<>();
+            for (Book book : store.findByIds(ids)) {
+                found.put(book.getId(), book);
+            }
+            Metrics.recordQuery("coalescedLookup", start, batch.size());
+            for (BatchingQueue.Request<Integer, Book> pending : batch) {
+                Book book = found.get(pending.item);
+                // Book is mutable, so callers that asked for the same id each get their own copy
+                pending.future.complete(book == null ? null : new Book(book.getId(), book.getName(), book.getAuthor()));
+            }
+        } catch (StorageException | RuntimeException e) {
+            Metrics.recordQueryError("coalescedLookup", start);
+            for (BatchingQueue.Request<Integer, Book> pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package dao;
+
+import java.io.IOException;
+
+/**
+ * Receives book rows one at a time while a query's ResultSet is being read,
+ * so callers can write them out without building a List first.
+ */
+@FunctionalInterface
+public interface BookRowHandler {
+    void handle(int id, String name, String author) throws IOException;
+}
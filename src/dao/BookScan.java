@@ -0,0 +1,13 @@
+package dao;
+
+import java.io.IOException;
+
+/**
+ * One pass over a whole set of books in id order, handing each to the
+ * handler: the store, the resident catalog or a catalog snapshot. Returns
+ * the number of books handled.
+ */
+@FunctionalInterface
+interface BookScan {
+    int scan(BookRowHandler handler) throws StorageException, IOException;
+}
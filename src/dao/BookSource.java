@@ -0,0 +1,18 @@
+package dao;
+
+import java.io.IOException;
+
+import model.Book;
+
+/**
+ * A pull-based stream of books to import, parsed lazily from some input.
+ */
+public interface BookSource {
+
+    /**
+     * Returns the next book, or null at the end of the input. A record that
+     * cannot be parsed throws IllegalArgumentException and the source moves
+     * on to the following record.
+     */
+    Book next() throws IOException;
+}
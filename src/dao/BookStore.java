@@ -0,0 +1,70 @@
+package dao;
+
+import java.io.IOException;
+import java.util.List;
+
+import model.Book;
+
+/**
+ * Where BookDAO keeps its rows. BookDAO layers the cache, search index,
+ * versions and metrics on top; a store only saves and fetches books.
+ *
+ * Implementations (-Dlibrary.storage):
+ *   jdbc - MySQL through DBConnection's pool (default)
+ *   log  - embedded append-only record log in library.storage.log.dir,
+ *          for sites without a database server
+ *   sharded - MySQL spread over the databases in library.shards.urls
+ */
+public interface BookStore extends AutoCloseable {
+
+    // Insert one book and return its new id
+    int insert(String name, String author) throws StorageException;
+
+    // Insert all books atomically: either every one is stored or none is. Returns the new ids in order.
+    int[] insertAll(List<Book> books) throws StorageException;
+
+    // Apply the writes in order, atomically. Returns one result per write: the new id of an
+    // insert, or the number of books an update or delete changed.
+    int[] applyAll(List<BookWrite> writes) throws StorageException;
+
+    // Returns the number of books changed, 0 when the id does not exist
+    int update(int id, String name, String author) throws StorageException;
+
+    // Returns the number of books removed, 0 when the id does not exist
+    int delete(int id) throws StorageException;
+
+    // The book with this id, or null
+    Book findById(int id) throws StorageException;
+
+    // The books with these ids, in id order; ids that do not exist are left out
+    List<Book> findByIds(int[] ids) throws StorageException;
+
+    List<Book> findAll() throws StorageException;
+
+    // Up to limit books with ids greater than afterId, in id order
+    List<Book> findPage(int afterId, int limit) throws StorageException;
+
+    // Hand books with ids greater than afterId to the handler in id order without
+    // collecting them; a limit of 0 or less means all of them. Returns the number handled.
+    int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException;
+
+    // Books whose name or author contains the query, ignoring case and accents
+    List<Book> search(String query) throws StorageException;
+
+    @Override
+    void close();
+
+    static BookStore fromSystemProperties() {
+        String type = System.getProperty("library.storage", "jdbc");
+        switch (type) {
+            case "jdbc":
+                return new JdbcBookStore();
+            case "log":
+                return LogBookStore.fromSystemProperties();
+            case "sharded":
+                return ShardedBookStore.fromSystemProperties();
+            default:
+                throw new IllegalArgumentException("Unknown library.storage type: " + type);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package dao;
+
+/**
+ * One add, update or delete, for BookStore.applyAll. An insert usually has
+ * no id yet and the store assigns one; a delete has no name or author.
+ */
+public final class BookWrite {
+
+    public enum Type { INSERT, UPDATE, DELETE }
+
+    private final Type type;
+    private final int id;
+    private final String name;
+    private final String author;
+
+    private BookWrite(Type type, int id, String name, String author) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.author = author;
+    }
+
+    public static BookWrite insert(String name, String author) {
+        return new BookWrite(Type.INSERT, 0, name, author);
+    }
+
+    // An insert under an id allocated by the caller, as ShardedBookStore does
+    static BookWrite insert(int id, String name, String author) {
+        return new BookWrite(Type.INSERT, id, name, author);
+    }
+
+    public static BookWrite update(int id, String name, String author) {
+        return new BookWrite(Type.UPDATE, id, name, author);
+    }
+
+    public static BookWrite delete(int id) {
+        return new BookWrite(Type.DELETE, id, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    @Override
+    public String toString() {
+        return "BookWrite [" + type + ", ID=" + id + ", Name=" + name + ", Author=" + author + "]";
+    }
+}
@@ -0,0 +1,68 @@
+package dao;
+
+/**
+ * Point-in-time view of a BookCache's counters.
+ */
+public class CacheStats {
+    private final int size;
+    private final int maxSize;
+    private final long hits;
+    private final long misses;
+    private final long coalesced;
+    private final long evictions;
+    private final long expirations;
+
+    public CacheStats(int size, int maxSize, long hits, long misses, long coalesced, long evictions, long expirations) {
+        this.size = size;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.coalesced = coalesced;
+        this.evictions = evictions;
+        this.expirations = expirations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    // Lookups that had to go to the database (coalesced waiters included)
+    public long getMisses() {
+        return misses;
+    }
+
+    // Misses that joined a query already in flight for the same id
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    // Entries dropped to stay within maxSize
+    public long getEvictions() {
+        return evictions;
+    }
+
+    // Entries dropped because their TTL ran out
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : hits / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats [size=" + size + ", max=" + maxSize + ", hits=" + hits + ", misses=" + misses
+                + ", coalesced=" + coalesced + ", evictions=" + evictions + ", expirations=" + expirations
+                + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+}
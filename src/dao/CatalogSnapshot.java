@@ -0,0 +1,499 @@
+package dao;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import metrics.Metrics;
+import model.Book;
+
+/**
+ * A binary copy of the whole catalog on disk, so that after a restart the
+ * search indexes and the resident catalog are filled from a local file
+ * instead of a full table scan.
+ *
+ * catalog.snap holds a header (magic, format version, generation, time
+ * written, book count, largest id, payload length and its CRC32) followed
+ * by one record per book in id order: the id, then the name and the author
+ * as a length and UTF-8 bytes. It is written to a temporary file, forced
+ * to disk and renamed over the old one, so a crash leaves the previous
+ * snapshot intact. At startup it is memory-mapped and checked; a snapshot
+ * of another format version or with a bad checksum is ignored.
+ *
+ * Books changed after the snapshot are found through ids. The id of every
+ * update and delete is appended to a change journal before the store is
+ * written, and the id of every insert after it. At startup the journaled
+ * ids are fetched again (those no longer found were deleted) and books
+ * above the snapshot's largest id are read with one delta query. A new
+ * journal generation starts whenever a snapshot is taken, and a journal is
+ * deleted once a newer snapshot no longer needs it.
+ *
+ * Like the indexes it feeds, the journal only sees writes made through the
+ * owning BookDAO. Books updated or deleted by anyone else after the
+ * snapshot are not noticed, and the journal is not forced to disk, so it
+ * survives the process dying but not the machine losing power.
+ */
+final class CatalogSnapshot {
+
+    private static final String FILE = "catalog.snap";
+    private static final String JOURNAL_PREFIX = "catalog.changes.";
+
+    private static final int MAGIC = 0x41544853; // "ATHS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    // Header fields
+    private static final int VERSION = 4;
+    private static final int GENERATION = 8;
+    private static final int WRITTEN_AT = 16;
+    private static final int COUNT = 24;
+    private static final int MAX_ID = 28;
+    private static final int PAYLOAD_BYTES = 32;
+    private static final int CRC = 40;
+
+    private static final int WRITE_BUFFER = 1 << 20;
+    // Ids per query when fetching journaled books again
+    private static final int REFETCH_BATCH = 1000;
+
+    private final Path dir;
+    private final Path path;
+    private final long intervalSeconds;
+    private final Object writeLock = new Object();
+    private ScheduledExecutorService writer;
+
+    // Journal of the current generation; guarded by this
+    private FileChannel journal;
+    private long generation;
+
+    CatalogSnapshot(Path dir, long intervalSeconds) {
+        this.dir = dir;
+        this.path = dir.resolve(FILE);
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    // Null when -Dlibrary.snapshot is not set
+    static CatalogSnapshot fromSystemProperties() {
+        if (!Boolean.getBoolean("library.snapshot")) {
+            return null;
+        }
+        Path dir = Paths.get(System.getProperty("library.snapshot.dir", "data"));
+        long intervalSeconds = Long.getLong("library.snapshot.intervalSeconds", 300L);
+        return new CatalogSnapshot(dir, intervalSeconds);
+    }
+
+    /**
+     * Open the snapshot and reconcile it with the store. Returns a scan of
+     * the current catalog that reads the mapped file plus the changed books,
+     * or null when there is no usable snapshot and callers should scan the
+     * store instead. Also opens the journal for this run; call once, before
+     * any write.
+     */
+    BookScan open(BookStore store) {
+        long start = System.nanoTime();
+        Image image = null;
+        try {
+            Files.createDirectories(dir);
+            image = Image.map(path);
+            generation = Math.max(lastJournalGeneration(), image != null ? image.generation : 0) + 1;
+            journal = openJournal(generation);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+
+        try {
+            // null marks a book that no longer exists
+            TreeMap<Integer, Book> changed = new TreeMap<>();
+            int[] ids = readJournals(image.generation - 1);
+            for (int from = 0; from < ids.length; from += REFETCH_BATCH) {
+                int[] batch = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + REFETCH_BATCH));
+                for (int id : batch) {
+                    changed.put(id, null);
+                }
+                for (Book book : store.findByIds(batch)) {
+                    changed.put(book.getId(), book);
+                }
+            }
+            int added = store.scan(image.maxId, 0,
+                    (id, name, author) -> changed.put(id, new Book(id, name, author)));
+            System.out.println("Catalog snapshot opened: " + image.count + " books written "
+                    + (System.currentTimeMillis() - image.writtenAt) / 1000 + " s ago, " + ids.length
+                    + " changed and " + added + " added since, in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            Image mapped = image;
+            return handler -> mapped.scan(changed, handler);
+        } catch (StorageException | IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Write a snapshot every intervalSeconds while the catalog version keeps changing
+    void start(BookScan source, LongSupplier catalogVersion) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] written = {Long.MIN_VALUE};
+        writer.scheduleWithFixedDelay(() -> {
+            long version = catalogVersion.getAsLong();
+            if (version == written[0]) {
+                return;
+            }
+            try {
+                write(source);
+                written[0] = version;
+            } catch (StorageException | IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Record books about to change, or just inserted
+    synchronized void changed(int... ids) {
+        if (journal == null || ids.length == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 * ids.length);
+        for (int id : ids) {
+            buffer.putInt(id);
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+        } catch (IOException e) {
+            // The snapshot can no longer be reconciled; the next start reads the store instead
+            e.printStackTrace();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    // Take the snapshot from source and replace the file; the journal that was current is kept for it
+    void write(BookScan source) throws StorageException, IOException {
+        synchronized (writeLock) {
+            long start = System.nanoTime();
+            // Changes from here on go to a new journal; those already recorded stay covered by the old one
+            long snapshotGeneration = rotateJournal();
+            Path tmp = dir.resolve(FILE + ".tmp");
+            int count;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                RecordWriter records = new RecordWriter(channel);
+                count = source.scan(records::add);
+                records.finish(snapshotGeneration);
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // A write in flight while the journal rotated was recorded in the one before
+            deleteJournalsBefore(snapshotGeneration - 1);
+            Metrics.recordQuery("writeSnapshot", start, count);
+        }
+    }
+
+    // Stop the periodic writer, take a last snapshot and close the journal; call before closing the store
+    void close(BookScan source) {
+        if (writer != null) {
+            // Not shutdownNow: an interrupt would close the FileChannel mid-write
+            writer.shutdown();
+            try {
+                writer.awaitTermination(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            write(source);
+        } catch (StorageException | IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            try {
+                if (journal != null) {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            journal = null;
+        }
+    }
+
+    private synchronized long rotateJournal() throws IOException {
+        FileChannel next = openJournal(generation + 1);
+        if (journal != null) {
+            journal.close();
+        }
+        journal = next;
+        return ++generation;
+    }
+
+    private FileChannel openJournal(long journalGeneration) throws IOException {
+        return FileChannel.open(dir.resolve(JOURNAL_PREFIX + journalGeneration), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Every id in journals of at least this generation, sorted and without repeats
+    private int[] readJournals(long fromGeneration) throws IOException {
+        int[] ids = new int[0];
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, JOURNAL_PREFIX + "*")) {
+            for (Path file : files) {
+                long journalGeneration = journalGeneration(file);
+                if (journalGeneration < fromGeneration) {
+                    continue;
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+                // A torn last entry is dropped; its write never reached the store
+                ids = Arrays.copyOf(ids, count + bytes.remaining() / 4);
+                while (bytes.remaining() >= 4) {
+                    ids[count++] = bytes.getInt();
+                }
+            }
+        }
+        Arrays.sort(ids, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || ids[i] != ids[unique - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, unique);
+    }
+
+    private long lastJournalGeneration() throws IOException {
+        long last = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, JOURNAL_PREFIX + "*")) {
+            for (Path file : files) {
+                last = Math.max(last, journalGeneration(file));
+            }
+        }
+        return last;
+    }
+
+    private void deleteJournalsBefore(long keepGeneration) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, JOURNAL_PREFIX + "*")) {
+            for (Path file : files) {
+                if (journalGeneration(file) < keepGeneration) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // -1 for a file that only looks like a journal
+    private static long journalGeneration(Path file) {
+        try {
+            return Long.parseLong(file.getFileName().toString().substring(JOURNAL_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // A checked, memory-mapped snapshot file
+    private static final class Image {
+        final MappedByteBuffer map;
+        final long generation;
+        final long writtenAt;
+        final int count;
+        final int maxId;
+
+        private Image(MappedByteBuffer map) {
+            this.map = map;
+            this.generation = map.getLong(GENERATION);
+            this.writtenAt = map.getLong(WRITTEN_AT);
+            this.count = map.getInt(COUNT);
+            this.maxId = map.getInt(MAX_ID);
+        }
+
+        // The snapshot at path, or null when there is none or it cannot be trusted
+        static Image map(Path path) throws IOException {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                    System.out.println("Catalog snapshot ignored: unexpected size " + size);
+                    return null;
+                }
+                // The mapping stays valid after the channel is closed
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (map.getInt(0) != MAGIC || map.getInt(VERSION) != FORMAT_VERSION) {
+                    System.out.println("Catalog snapshot ignored: not format version " + FORMAT_VERSION);
+                    return null;
+                }
+                if (map.getLong(PAYLOAD_BYTES) != size - HEADER_SIZE) {
+                    System.out.println("Catalog snapshot ignored: truncated");
+                    return null;
+                }
+                CRC32 crc = new CRC32();
+                ByteBuffer payload = map.duplicate();
+                payload.position(HEADER_SIZE);
+                crc.update(payload);
+                if (crc.getValue() != map.getLong(CRC)) {
+                    System.out.println("Catalog snapshot ignored: checksum mismatch");
+                    return null;
+                }
+                return new Image(map);
+            }
+        }
+
+        // Merge the records with the changed books, both in id order
+        int scan(TreeMap<Integer, Book> changed, BookRowHandler handler) throws IOException {
+            ByteBuffer records = map.duplicate();
+            records.position(HEADER_SIZE);
+            Iterator<Map.Entry<Integer, Book>> changes = changed.entrySet().iterator();
+            Map.Entry<Integer, Book> change = changes.hasNext() ? changes.next() : null;
+            byte[] scratch = new byte[256];
+            int handled = 0;
+            for (int i = 0; i < count; i++) {
+                int id = records.getInt();
+                while (change != null && change.getKey() < id) {
+                    handled += handle(change.getValue(), handler);
+                    change = changes.hasNext() ? changes.next() : null;
+                }
+                if (change != null && change.getKey() == id) {
+                    skipString(records);
+                    skipString(records);
+                    handled += handle(change.getValue(), handler);
+                    change = changes.hasNext() ? changes.next() : null;
+                    continue;
+                }
+                String name = readString(records, scratch);
+                String author = readString(records, scratch);
+                handler.handle(id, name, author);
+                handled++;
+            }
+            while (change != null) {
+                handled += handle(change.getValue(), handler);
+                change = changes.hasNext() ? changes.next() : null;
+            }
+            return handled;
+        }
+
+        private static int handle(Book book, BookRowHandler handler) throws IOException {
+            if (book == null) {
+                return 0;
+            }
+            handler.handle(book.getId(), book.getName(), book.getAuthor());
+            return 1;
+        }
+
+        private static String readString(ByteBuffer records, byte[] scratch) {
+            int length = records.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+            records.get(bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private static void skipString(ByteBuffer records) {
+            int length = records.getInt();
+            if (length > 0) {
+                records.position(records.position() + length);
+            }
+        }
+    }
+
+    // Streams records into the file after a blank header, which finish() fills in
+    private static final class RecordWriter {
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER);
+        private long payloadBytes;
+        private int count;
+        private int maxId;
+
+        RecordWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(HEADER_SIZE);
+        }
+
+        void add(int id, String name, String author) throws IOException {
+            byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : null;
+            byte[] authorBytes = author != null ? author.getBytes(StandardCharsets.UTF_8) : null;
+            int size = 12 + length(nameBytes) + length(authorBytes);
+            if (buffer.remaining() < size) {
+                flush();
+                if (buffer.capacity() < size) {
+                    buffer = ByteBuffer.allocate(size);
+                }
+            }
+            buffer.putInt(id);
+            putString(nameBytes);
+            putString(authorBytes);
+            count++;
+            maxId = Math.max(maxId, id);
+        }
+
+        void finish(long generation) throws IOException {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(VERSION, FORMAT_VERSION);
+            header.putLong(GENERATION, generation);
+            header.putLong(WRITTEN_AT, System.currentTimeMillis());
+            header.putInt(COUNT, count);
+            header.putInt(MAX_ID, maxId);
+            header.putLong(PAYLOAD_BYTES, payloadBytes);
+            header.putLong(CRC, crc.getValue());
+            // The header sits at the start of the file, so buffer and file positions coincide
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            payloadBytes += buffer.limit();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void putString(byte[] bytes) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private static int length(byte[] bytes) {
+            return bytes != null ? bytes.length : 0;
+        }
+    }
+}
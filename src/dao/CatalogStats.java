@@ -0,0 +1,29 @@
+package dao;
+
+/**
+ * Point-in-time size of the resident catalog.
+ */
+public class CatalogStats {
+    private final int size;
+    private final long heapBytes;
+
+    public CatalogStats(int size, long heapBytes) {
+        this.size = size;
+        this.heapBytes = heapBytes;
+    }
+
+    // Books held
+    public int getSize() {
+        return size;
+    }
+
+    // Approximate heap used by the arrays, the id map and the text arena
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogStats [size=" + size + ", heapBytes=" + heapBytes + "]";
+    }
+}
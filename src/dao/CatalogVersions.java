@@ -0,0 +1,73 @@
+package dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Change counters behind conditional GETs: one version for the catalog as a
+ * whole and one per book that has changed since startup.
+ *
+ * ETags include a per-process epoch, so tags handed out before a restart
+ * never match afterwards. Books untouched since startup share version 0 and
+ * the startup time. Like the cache and search index, only changes made
+ * through the owning BookDAO are seen. Versions are bumped after the change
+ * is committed, and readers take the version before querying, so a stale
+ * tag can go with newer data but never the other way round; with read
+ * replicas that holds because BookDAO reads from the primary until a change
+ * has had time to reach them. Listeners run
+ * after every committed change, but not when a failed read bumps the version.
+ */
+class CatalogVersions {
+
+    private final long startedAt = System.currentTimeMillis();
+    private final String epoch = Long.toString(startedAt, 36);
+    private final AtomicReference<VersionStamp> catalog = new AtomicReference<>();
+    // Only books changed since startup; deleted books keep their entry so old tags stop matching
+    private final ConcurrentHashMap<Integer, VersionStamp> books = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    CatalogVersions() {
+        catalog.set(new VersionStamp(0, startedAt, "\"" + epoch + "-0\""));
+    }
+
+    VersionStamp catalog() {
+        return catalog.get();
+    }
+
+    VersionStamp book(int id) {
+        VersionStamp stamp = books.get(id);
+        return stamp != null ? stamp : new VersionStamp(0, startedAt, "\"" + epoch + "-" + id + "-0\"");
+    }
+
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    // Rows were added or removed without a per-book change worth tracking, e.g. inserts
+    void catalogChanged() {
+        invalidate();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    // Retire the current catalog tag without reporting a change
+    void invalidate() {
+        long now = System.currentTimeMillis();
+        catalog.updateAndGet(current -> {
+            long version = current.getVersion() + 1;
+            return new VersionStamp(version, now, "\"" + epoch + "-" + version + "\"");
+        });
+    }
+
+    // An existing book was updated or deleted
+    void bookChanged(int id) {
+        long now = System.currentTimeMillis();
+        books.compute(id, (key, current) -> {
+            long version = current == null ? 1 : current.getVersion() + 1;
+            return new VersionStamp(version, now, "\"" + epoch + "-" + id + "-" + version + "\"");
+        });
+        catalogChanged();
+    }
+}
@@ -0,0 +1,84 @@
+package dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import metrics.Metrics;
+
+/**
+ * Group commit for BookDAO's writes.
+ *
+ * Callers queue a BookWrite and get a future. A BatchingQueue gathers the
+ * writes that arrive within the window (up to maxBatch) and the committer
+ * thread hands them all to BookStore.applyAll, which commits them together:
+ * one MySQL transaction and redo log flush, or one forced TXN in the
+ * embedded log. A future completes only after its batch has committed, so
+ * a caller never sees a write that could still be lost. If a batch fails,
+ * every write in it fails: a commit that reports an error may still have
+ * been applied, and retrying would then add the same books twice. Only
+ * when the store reports that the batch was rolled back before it was
+ * committed (StorageException.isRolledBack, e.g. one write broke a
+ * constraint) are its writes retried one at a time, so one bad write
+ * cannot fail the writes that happened to share its batch.
+ */
+final class GroupCommitter {
+
+    private final BookStore store;
+    private final BatchingQueue<BookWrite, Integer> queue;
+
+    GroupCommitter(BookStore store, int maxBatch, long windowMicros) {
+        this.store = store;
+        this.queue = new BatchingQueue<>("book-group-commit", maxBatch, windowMicros, "Writes are shut down",
+                this::commit);
+    }
+
+    static GroupCommitter fromSystemProperties(BookStore store) {
+        int maxBatch = Integer.getInteger("library.writes.groupCommit.maxBatch", 256);
+        long windowMicros = Long.getLong("library.writes.groupCommit.windowMicros", 1000L);
+        return new GroupCommitter(store, maxBatch, windowMicros);
+    }
+
+    // Completes with the write's applyAll result once its batch has committed
+    CompletableFuture<Integer> submit(BookWrite write) {
+        return queue.submit(write);
+    }
+
+    // Commit what is already queued, then stop; call before closing the store
+    void close() {
+        queue.close();
+    }
+
+    private void commit(List<BatchingQueue.Request<BookWrite, Integer>> batch) {
+        long start = System.nanoTime();
+        List<BookWrite> writes = new ArrayList<>(batch.size());
+        for (BatchingQueue.Request<BookWrite, Integer> pending : batch) {
+            writes.add(pending.item);
+        }
+        try {
+            int[] results = store.applyAll(writes);
+            Metrics.recordQuery("groupCommit", start, batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results[i]);
+            }
+            return;
+        } catch (StorageException | RuntimeException e) {
+            Metrics.recordQueryError("groupCommit", start);
+            if (batch.size() == 1 || !(e instanceof StorageException) || !((StorageException) e).isRolledBack()) {
+                for (BatchingQueue.Request<BookWrite, Integer> pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+        // None of the batch was written; give each write its own transaction and its own outcome
+        for (BatchingQueue.Request<BookWrite, Integer> pending : batch) {
+            try {
+                pending.future.complete(store.applyAll(Collections.singletonList(pending.item))[0]);
+            } catch (StorageException | RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+}
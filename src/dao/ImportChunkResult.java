@@ -0,0 +1,58 @@
+package dao;
+
+/**
+ * Outcome of one chunk of a bulk import. Each chunk is committed in its own
+ * transaction, so a failed chunk leaves earlier and later chunks in place.
+ */
+public class ImportChunkResult {
+    private final int chunk;
+    private final long firstRecord;
+    private final long lastRecord;
+    private final int inserted;
+    private final int rejected;
+    private final boolean committed;
+    private final String error;
+
+    public ImportChunkResult(int chunk, long firstRecord, long lastRecord, int inserted, int rejected,
+                             boolean committed, String error) {
+        this.chunk = chunk;
+        this.firstRecord = firstRecord;
+        this.lastRecord = lastRecord;
+        this.inserted = inserted;
+        this.rejected = rejected;
+        this.committed = committed;
+        this.error = error;
+    }
+
+    // 1-based chunk number
+    public int getChunk() {
+        return chunk;
+    }
+
+    // 1-based record numbers covered by this chunk
+    public long getFirstRecord() {
+        return firstRecord;
+    }
+
+    public long getLastRecord() {
+        return lastRecord;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    // Records skipped because they could not be parsed or were missing a name or author
+    public int getRejected() {
+        return rejected;
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    // First problem seen in this chunk, or null
+    public String getError() {
+        return error;
+    }
+}
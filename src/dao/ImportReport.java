@@ -0,0 +1,75 @@
+package dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: totals over every chunk, plus the chunks that
+ * had a problem (a rejected record or a rolled-back transaction). Chunks that
+ * went through cleanly are only counted, so the report stays small however
+ * large the upload is, and at most MAX_LISTED problem chunks are kept.
+ */
+public class ImportReport {
+
+    // Problem chunks listed in full; later ones are only counted
+    public static final int MAX_LISTED = 100;
+
+    private long records;
+    private int chunks;
+    private long inserted;
+    private long rejected;
+    private int failedChunks;
+    private int unlistedProblemChunks;
+    private final List<ImportChunkResult> problemChunks = new ArrayList<>();
+
+    void add(ImportChunkResult chunk) {
+        records = chunk.getLastRecord();
+        chunks++;
+        inserted += chunk.getInserted();
+        rejected += chunk.getRejected();
+        if (!chunk.isCommitted()) {
+            failedChunks++;
+        }
+        if (chunk.getError() == null && chunk.isCommitted()) {
+            return;
+        }
+        if (problemChunks.size() < MAX_LISTED) {
+            problemChunks.add(chunk);
+        } else {
+            unlistedProblemChunks++;
+        }
+    }
+
+    // Records read from the upload, including rejected ones
+    public long getRecords() {
+        return records;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    // Chunks whose transaction was rolled back
+    public int getFailedChunks() {
+        return failedChunks;
+    }
+
+    // The first MAX_LISTED chunks with a rejected record or a rollback, in order
+    public List<ImportChunkResult> getProblemChunks() {
+        return Collections.unmodifiableList(problemChunks);
+    }
+
+    // Problem chunks beyond MAX_LISTED, counted but not listed
+    public int getUnlistedProblemChunks() {
+        return unlistedProblemChunks;
+    }
+}
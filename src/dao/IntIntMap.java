@@ -0,0 +1,144 @@
+package dao;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing int to int hash map with linear probing. Avoids the boxed
+ * Integer keys and entry objects of a HashMap. Not thread-safe.
+ */
+class IntIntMap {
+    private static final int FREE = Integer.MIN_VALUE;
+    private static final int REMOVED = Integer.MIN_VALUE + 1;
+
+    private final int missingValue;
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int used; // live entries plus tombstones
+    private int mask;
+
+    IntIntMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    int get(int key) {
+        checkKey(key);
+        int i = slot(key);
+        while (true) {
+            int k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == FREE) {
+                return missingValue;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != missingValue;
+    }
+
+    // Returns the previous value, or the missing value
+    int put(int key, int value) {
+        checkKey(key);
+        int i = slot(key);
+        int tombstone = -1;
+        while (true) {
+            int k = keys[i];
+            if (k == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            if (k == FREE) {
+                break;
+            }
+            if (k == REMOVED && tombstone < 0) {
+                tombstone = i;
+            }
+            i = (i + 1) & mask;
+        }
+        if (tombstone >= 0) {
+            i = tombstone;
+        } else {
+            used++;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if (used * 4 >= keys.length * 3) {
+            rehash(size * 4 >= keys.length * 2 ? keys.length << 1 : keys.length);
+        }
+        return missingValue;
+    }
+
+    // Returns the removed value, or the missing value
+    int remove(int key) {
+        checkKey(key);
+        int i = slot(key);
+        while (true) {
+            int k = keys[i];
+            if (k == key) {
+                int previous = values[i];
+                keys[i] = REMOVED;
+                size--;
+                return previous;
+            }
+            if (k == FREE) {
+                return missingValue;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+        used = 0;
+    }
+
+    private int slot(int key) {
+        // Fibonacci hashing spreads sequential ids across the table
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+        used = size;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k != FREE && k != REMOVED) {
+                int j = slot(k);
+                while (keys[j] != FREE) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = k;
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static void checkKey(int key) {
+        if (key == FREE || key == REMOVED) {
+            throw new IllegalArgumentException("Reserved key: " + key);
+        }
+    }
+}
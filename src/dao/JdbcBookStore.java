@@ -0,0 +1,383 @@
+package dao;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import db.ConnectionPool;
+import db.DBConnection;
+import model.Book;
+
+/**
+ * BookStore over the MySQL books table, borrowing connections from
+ * DBConnection's pool for each call, or from a pool of its own when it is
+ * one shard of a ShardedBookStore.
+ *
+ * Books passed to insertAll and BookWrite inserts with a positive id are
+ * stored under that id; otherwise AUTO_INCREMENT picks one.
+ */
+class JdbcBookStore implements BookStore {
+
+    // Fetch size for streamed scans. MIN_VALUE is MySQL's row-by-row streaming mode;
+    // other drivers (e.g. the embedded database the benchmarks use) want a positive value
+    private static final int STREAM_FETCH_SIZE = Integer.getInteger("library.db.streamFetchSize", Integer.MIN_VALUE);
+
+    // Most ids in one IN list; longer lookups are split into several queries
+    private static final int MAX_IN_LIST = 1024;
+
+    // Null for the main database, reached through DBConnection
+    private final ConnectionPool pool;
+
+    JdbcBookStore() {
+        this(null);
+    }
+
+    // A store on its own pool, e.g. one shard; it closes the pool when it is closed
+    JdbcBookStore(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public int insert(String name, String author) throws StorageException {
+        String query = "INSERT INTO books (name, author) VALUES (?, ?)";
+
+        try (Connection con = connection();
+             PreparedStatement stmt = con.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, name);
+            stmt.setString(2, author);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    // One transaction and one JDBC batch; rewriteBatchedStatements turns it into multi-row INSERTs
+    @Override
+    public int[] insertAll(List<Book> books) throws StorageException {
+        boolean givenIds = !books.isEmpty() && books.get(0).getId() > 0;
+        String query = givenIds
+                ? "INSERT INTO books (id, name, author) VALUES (?, ?, ?)"
+                : "INSERT INTO books (name, author) VALUES (?, ?)";
+
+        try (Connection con = connection();
+             PreparedStatement stmt = con.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+            // A bulk import chunk can keep the connection for minutes; that is not a leak
+            ConnectionPool.setLeakThreshold(con, 0);
+            con.setAutoCommit(false);
+            try {
+                for (Book book : books) {
+                    int column = 1;
+                    if (givenIds) {
+                        stmt.setInt(column++, book.getId());
+                    }
+                    stmt.setString(column++, book.getName());
+                    stmt.setString(column, book.getAuthor());
+                    stmt.addBatch();
+                }
+                int[] ids = new int[0];
+                if (givenIds) {
+                    stmt.executeBatch();
+                    ids = books.stream().mapToInt(Book::getId).toArray();
+                } else if (!books.isEmpty()) {
+                    stmt.executeBatch();
+                    ids = generatedIds(stmt, books.size());
+                }
+                con.commit();
+                return ids;
+            } catch (SQLException e) {
+                // The pool restores auto-commit when the connection is returned
+                con.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static int[] generatedIds(PreparedStatement stmt, int expected) throws SQLException {
+        int[] ids = new int[expected];
+        int count = 0;
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            while (count < expected && keys.next()) {
+                ids[count++] = keys.getInt(1);
+            }
+        }
+        return count == expected ? ids : Arrays.copyOf(ids, count);
+    }
+
+    // One transaction and one commit for the lot, so concurrent writers share a log flush
+    @Override
+    public int[] applyAll(List<BookWrite> writes) throws StorageException {
+        try (Connection con = connection();
+             PreparedStatement insert = con.prepareStatement("INSERT INTO books (name, author) VALUES (?, ?)",
+                     Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement insertWithId = con.prepareStatement("INSERT INTO books (id, name, author) VALUES (?, ?, ?)");
+             PreparedStatement update = con.prepareStatement("UPDATE books SET name = ?, author = ? WHERE id = ?");
+             PreparedStatement delete = con.prepareStatement("DELETE FROM books WHERE id = ?")) {
+            con.setAutoCommit(false);
+            int[] results = new int[writes.size()];
+            try {
+                for (int i = 0; i < results.length; i++) {
+                    BookWrite write = writes.get(i);
+                    switch (write.getType()) {
+                        case INSERT:
+                            if (write.getId() > 0) {
+                                insertWithId.setInt(1, write.getId());
+                                insertWithId.setString(2, write.getName());
+                                insertWithId.setString(3, write.getAuthor());
+                                insertWithId.executeUpdate();
+                                results[i] = write.getId();
+                                break;
+                            }
+                            insert.setString(1, write.getName());
+                            insert.setString(2, write.getAuthor());
+                            insert.executeUpdate();
+                            try (ResultSet keys = insert.getGeneratedKeys()) {
+                                results[i] = keys.next() ? keys.getInt(1) : 0;
+                            }
+                            break;
+                        case UPDATE:
+                            update.setString(1, write.getName());
+                            update.setString(2, write.getAuthor());
+                            update.setInt(3, write.getId());
+                            results[i] = update.executeUpdate();
+                            break;
+                        case DELETE:
+                            delete.setInt(1, write.getId());
+                            results[i] = delete.executeUpdate();
+                            break;
+                    }
+                }
+            } catch (SQLException e) {
+                // No commit was issued, so none of the writes took effect whether or not the
+                // rollback gets through. The pool restores auto-commit when the connection is returned.
+                try {
+                    con.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw new StorageException(e, true);
+            }
+            try {
+                con.commit();
+            } catch (SQLException e) {
+                // A failed commit may still have been applied, so its outcome is unknown
+                con.rollback();
+                throw e;
+            }
+            return results;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public int update(int id, String name, String author) throws StorageException {
+        String query = "UPDATE books SET name = ?, author = ? WHERE id = ?";
+
+        try (Connection con = connection();
+             PreparedStatement stmt = con.prepareStatement(query)) {
+            stmt.setString(1, name);
+            stmt.setString(2, author);
+            stmt.setInt(3, id);
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public int delete(int id) throws StorageException {
+        String query = "DELETE FROM books WHERE id = ?";
+
+        try (Connection con = connection();
+             PreparedStatement stmt = con.prepareStatement(query)) {
+            stmt.setInt(1, id);
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public Book findById(int id) throws StorageException {
+        String query = "SELECT * FROM books WHERE id = ?";
+
+        try (Connection con = readConnection();
+             PreparedStatement stmt = con.prepareStatement(query)) {
+            stmt.setInt(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Book(id, rs.getString("name"), rs.getString("author")) : null;
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public List<Book> findByIds(int[] ids) throws StorageException {
+        int[] sorted = Arrays.stream(ids).sorted().distinct().toArray();
+        List<Book> books = new ArrayList<>(sorted.length);
+
+        try (Connection con = readConnection()) {
+            for (int from = 0; from < sorted.length; from += MAX_IN_LIST) {
+                int count = Math.min(MAX_IN_LIST, sorted.length - from);
+                // Round the list up to a power of two so a handful of statements covers every
+                // lookup size and the pool's statement cache can keep them all prepared
+                int slots = Integer.highestOneBit(count) == count ? count : Integer.highestOneBit(count) << 1;
+                try (PreparedStatement stmt = con.prepareStatement(inListQuery(slots))) {
+                    for (int i = 0; i < slots; i++) {
+                        // Pad by repeating the last id; IN ignores the duplicates
+                        stmt.setInt(i + 1, sorted[from + Math.min(i, count - 1)]);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            books.add(new Book(rs.getInt(1), rs.getString(2), rs.getString(3)));
+                        }
+                    }
+                }
+            }
+            return books;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    private static String inListQuery(int slots) {
+        StringBuilder query = new StringBuilder(64 + slots * 2)
+                .append("SELECT id, name, author FROM books WHERE id IN (?");
+        for (int i = 1; i < slots; i++) {
+            query.append(",?");
+        }
+        return query.append(") ORDER BY id").toString();
+    }
+
+    @Override
+    public List<Book> findAll() throws StorageException {
+        List<Book> books = new ArrayList<>();
+        String query = "SELECT * FROM books";
+
+        try (Connection con = readConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                books.add(new Book(rs.getInt("id"), rs.getString("name"), rs.getString("author")));
+            }
+            return books;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public List<Book> findPage(int afterId, int limit) throws StorageException {
+        List<Book> books = new ArrayList<>();
+        String query = "SELECT id, name, author FROM books WHERE id > ? ORDER BY id LIMIT ?";
+
+        try (Connection con = readConnection();
+             PreparedStatement stmt = con.prepareStatement(query)) {
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    books.add(new Book(rs.getInt("id"), rs.getString("name"), rs.getString("author")));
+                }
+            }
+            return books;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    @Override
+    public int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException {
+        String query = limit > 0
+                ? "SELECT id, name, author FROM books WHERE id > ? ORDER BY id LIMIT ?"
+                : "SELECT id, name, author FROM books WHERE id > ? ORDER BY id";
+        int count = 0;
+
+        // Forward-only, read-only with MIN_VALUE fetch size makes the MySQL driver
+        // hand rows over one by one instead of buffering the whole result
+        try (Connection con = readConnection();
+             PreparedStatement stmt = con.prepareStatement(query,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Held while the handler takes every row, e.g. for as long as an export client reads
+            ConnectionPool.setLeakThreshold(con, 0);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            stmt.setInt(1, afterId);
+            if (limit > 0) {
+                stmt.setInt(2, limit);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(rs.getInt(1), rs.getString(2), rs.getString(3));
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+
+        return count;
+    }
+
+    @Override
+    public List<Book> search(String searchQuery) throws StorageException {
+        List<Book> books = new ArrayList<>();
+        String query = "SELECT * FROM books WHERE name LIKE ? OR author LIKE ?";
+
+        try (Connection con = readConnection();
+             PreparedStatement stmt = con.prepareStatement(query)) {
+            stmt.setString(1, "%" + searchQuery + "%");
+            stmt.setString(2, "%" + searchQuery + "%");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    books.add(new Book(rs.getInt("id"), rs.getString("name"), rs.getString("author")));
+                }
+            }
+            return books;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    // DBConnection's pool is shut down by DBConnection itself
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    // Reads may go to a replica, see DBConnection.getReadConnection
+    private Connection readConnection() throws SQLException {
+        if (pool != null) {
+            return pool.getConnection();
+        }
+        Connection con = DBConnection.getReadConnection();
+        if (con == null) {
+            throw new SQLException("No database connection available");
+        }
+        return con;
+    }
+
+    private Connection connection() throws SQLException {
+        if (pool != null) {
+            return pool.getConnection();
+        }
+        Connection con = DBConnection.getConnection();
+        if (con == null) {
+            throw new SQLException("No database connection available");
+        }
+        return con;
+    }
+}
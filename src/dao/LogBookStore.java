@@ -0,0 +1,869 @@
+package dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import model.Book;
+
+/**
+ * Embedded BookStore: an append-only log of checksummed records in
+ * library.storage.log.dir, plus a MappedIdIndex from each id to its latest
+ * record.
+ *
+ * Log file: 24-byte header (magic, generation, next id), then records of
+ *   int length, int CRC32 of what follows, byte type, body
+ * where the types are
+ *   PUT    id, name, author (int UTF-8 byte count, -1 for null, then bytes)
+ *   DELETE id
+ *   TXN    count, bytes: the next count records, bytes long, commit together
+ *
+ * A write appends its records and forces the log before the index changes,
+ * so a book is visible only once it is durable. After an unclean shutdown
+ * the index is rebuilt by replaying the log; replay stops at the first torn
+ * or corrupt record or incomplete TXN, copies the rest of the file aside
+ * and truncates it. Compaction rewrites the live records in id order into a
+ * new log once garbage passes compactRatio of the file, checked every
+ * compactIntervalMillis on a background thread.
+ */
+final class LogBookStore implements BookStore {
+
+    private static final byte[] MAGIC = { 'A', 'T', 'H', 'N', 'L', 'O', 'G', '1' };
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_HEADER_SIZE = 8; // length and CRC
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte TXN = 3;
+    private static final int TXN_SIZE = RECORD_HEADER_SIZE + 9;
+    private static final String LOG_FILE = "books.log";
+    private static final String INDEX_FILE = "books.idx";
+    private static final String COMPACT_SUFFIX = ".compact";
+    // Ids looked at per read lock hold, so a long scan never blocks writers for long
+    private static final int SCAN_BATCH = 1024;
+
+    private final Path dir;
+    private final Path logPath;
+    private final Path indexPath;
+    private final boolean fsync;
+    private final double compactRatio;
+    private final long compactMinBytes;
+    private final FileChannel lockFile;
+    private final ScheduledExecutorService compactor;
+
+    // Writers and compaction hold writeLock throughout. The channel, index and counters
+    // below change only while also holding swap's write lock, which readers share.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantReadWriteLock swap = new ReentrantReadWriteLock();
+    private FileChannel log;
+    private MappedIdIndex index;
+    private long logEnd;
+    private int nextId;
+    private int liveCount;
+    private long liveBytes;
+    private volatile boolean closed;
+
+    LogBookStore(Path dir, boolean fsync, double compactRatio, long compactMinBytes, long compactIntervalMillis)
+            throws IOException {
+        this.dir = dir;
+        this.logPath = dir.resolve(LOG_FILE);
+        this.indexPath = dir.resolve(INDEX_FILE);
+        this.fsync = fsync;
+        this.compactRatio = compactRatio;
+        this.compactMinBytes = compactMinBytes;
+
+        Files.createDirectories(dir);
+        lockFile = FileChannel.open(dir.resolve("books.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = lockFile.tryLock();
+        if (lock == null) {
+            lockFile.close();
+            throw new IOException(dir.toAbsolutePath() + " is in use by another process");
+        }
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            lockFile.close();
+            throw e;
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "book-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (compactIntervalMillis > 0) {
+            compactor.scheduleWithFixedDelay(this::compactIfNeeded, compactIntervalMillis, compactIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static LogBookStore fromSystemProperties() {
+        Path dir = Paths.get(System.getProperty("library.storage.log.dir", "data"));
+        boolean fsync = Boolean.parseBoolean(System.getProperty("library.storage.log.fsync", "true"));
+        double compactRatio = Double.parseDouble(System.getProperty("library.storage.log.compactRatio", "0.5"));
+        long compactMinBytes = Long.getLong("library.storage.log.compactMinBytes", 1L << 20);
+        long compactInterval = Long.getLong("library.storage.log.compactIntervalMillis", 60_000L);
+        try {
+            return new LogBookStore(dir, fsync, compactRatio, compactMinBytes, compactInterval);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the book log in " + dir.toAbsolutePath(), e);
+        }
+    }
+
+    private void open() throws IOException {
+        // Left over from a compaction that did not finish; the current files are still complete
+        Files.deleteIfExists(dir.resolve(LOG_FILE + COMPACT_SUFFIX));
+        Files.deleteIfExists(dir.resolve(INDEX_FILE + COMPACT_SUFFIX));
+
+        boolean exists = Files.exists(logPath) && Files.size(logPath) > 0;
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long generation;
+        int headerNextId;
+        if (!exists) {
+            generation = ThreadLocalRandom.current().nextLong();
+            headerNextId = 1;
+            writeHeader(log, generation, headerNextId);
+            log.force(true);
+            syncDirectory(dir);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(log, header, 0);
+            byte[] magic = new byte[MAGIC.length];
+            if (header.limit() == HEADER_SIZE) {
+                header.get(magic);
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(logPath + " is not a book log");
+            }
+            generation = header.getLong(8);
+            headerNextId = header.getInt(16);
+        }
+
+        long size = log.size();
+        index = MappedIdIndex.openIfClean(indexPath, generation, size);
+        if (index != null) {
+            logEnd = size;
+            nextId = Math.max(headerNextId, index.nextId());
+            liveCount = index.liveCount();
+            liveBytes = index.liveBytes();
+        } else {
+            long start = System.nanoTime();
+            index = MappedIdIndex.create(indexPath, generation, 0);
+            nextId = headerNextId;
+            replay();
+            if (exists) {
+                System.out.println("Book log recovered: " + liveCount + " books in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+    }
+
+    // Rebuild the index from the whole log, cutting off a damaged tail
+    private void replay() throws IOException {
+        long end = log.size();
+        Window window = new Window(log, 1 << 20);
+        long position = HEADER_SIZE;
+        while (position < end) {
+            ByteBuffer record = window.tryRecord(position, end);
+            if (record == null) {
+                break;
+            }
+            int size = window.size;
+            byte type = record.get();
+            if (type == TXN) {
+                int count = record.getInt();
+                int bytes = record.getInt();
+                // The records themselves are applied by the next iterations once all of them are known to be intact
+                if (!transactionIntact(window, position + size, count, bytes, end)) {
+                    break;
+                }
+            } else if (type == PUT || type == DELETE) {
+                apply(type, record.getInt(), MappedIdIndex.entry(position, size));
+            } else {
+                break;
+            }
+            position += size;
+        }
+
+        if (position < end) {
+            // Keep the discarded bytes for inspection rather than destroy them
+            Path aside = dir.resolve(LOG_FILE + ".damaged-" + System.currentTimeMillis());
+            try (FileChannel out = FileChannel.open(aside, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                log.transferTo(position, end - position, out);
+            }
+            System.out.println("Book log: moved " + (end - position) + " bytes of incomplete or corrupt records to "
+                    + aside);
+            log.truncate(position);
+            log.force(true);
+        }
+        logEnd = position;
+    }
+
+    private static boolean transactionIntact(Window window, long start, int count, int bytes, long end) throws IOException {
+        long txEnd = start + bytes;
+        if (count < 0 || bytes < 0 || txEnd > end) {
+            return false;
+        }
+        long position = start;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer record = window.tryRecord(position, txEnd);
+            if (record == null) {
+                return false;
+            }
+            byte type = record.get();
+            if (type != PUT && type != DELETE) {
+                return false;
+            }
+            position += window.size;
+        }
+        return position == txEnd;
+    }
+
+    @Override
+    public int insert(String name, String author) throws StorageException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            int id = nextId;
+            Batch batch = new Batch();
+            batch.put(id, name, author);
+            append(batch);
+            return id;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int[] insertAll(List<Book> books) throws StorageException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            int[] ids = new int[books.size()];
+            Batch batch = new Batch();
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = nextId + i;
+                batch.put(ids[i], books.get(i).getName(), books.get(i).getAuthor());
+            }
+            if (ids.length > 0) {
+                append(batch);
+            }
+            return ids;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // One TXN record and one force for the lot; ids the batch itself inserts or deletes count as it goes
+    @Override
+    public int[] applyAll(List<BookWrite> writes) throws StorageException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            int[] results = new int[writes.size()];
+            Map<Integer, Boolean> exists = new HashMap<>();
+            int id = nextId;
+            Batch batch = new Batch();
+            for (int i = 0; i < results.length; i++) {
+                BookWrite write = writes.get(i);
+                if (write.getType() == BookWrite.Type.INSERT) {
+                    results[i] = id;
+                    exists.put(id, true);
+                    batch.put(id++, write.getName(), write.getAuthor());
+                    continue;
+                }
+                Boolean known = exists.get(write.getId());
+                if (known != null ? !known : index.get(write.getId()) == 0) {
+                    continue;
+                }
+                results[i] = 1;
+                if (write.getType() == BookWrite.Type.UPDATE) {
+                    batch.put(write.getId(), write.getName(), write.getAuthor());
+                } else {
+                    exists.put(write.getId(), false);
+                    batch.delete(write.getId());
+                }
+            }
+            if (batch.count > 0) {
+                append(batch);
+            }
+            return results;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int update(int id, String name, String author) throws StorageException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            if (index.get(id) == 0) {
+                return 0;
+            }
+            Batch batch = new Batch();
+            batch.put(id, name, author);
+            append(batch);
+            return 1;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int delete(int id) throws StorageException {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            if (index.get(id) == 0) {
+                return 0;
+            }
+            Batch batch = new Batch();
+            batch.delete(id);
+            append(batch);
+            return 1;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Append the batch's records, force them, then publish them in the index. Caller holds writeLock.
+    private void append(Batch batch) throws IOException {
+        int from = batch.prepare();
+        ByteBuffer bytes = ByteBuffer.wrap(batch.buf, from, batch.size - from);
+        try {
+            long position = logEnd;
+            while (bytes.hasRemaining()) {
+                position += log.write(bytes, position);
+            }
+            if (fsync) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            // Cut off whatever part made it to the file so a later replay cannot pick it up
+            try {
+                log.truncate(logEnd);
+            } catch (IOException ignored) {
+                // The checksums still reject a torn record
+            }
+            throw e;
+        }
+
+        swap.writeLock().lock();
+        try {
+            for (int i = 0; i < batch.count; i++) {
+                long position = logEnd + batch.starts[i] - from;
+                apply(batch.types[i], batch.ids[i], MappedIdIndex.entry(position, batch.sizes[i]));
+            }
+            logEnd += batch.size - from;
+        } finally {
+            swap.writeLock().unlock();
+        }
+    }
+
+    // Point the index at a PUT, or drop the id for a DELETE, keeping the live counters in step
+    private void apply(byte type, int id, long entry) throws IOException {
+        long old = index.get(id);
+        if (old != 0) {
+            liveCount--;
+            liveBytes -= MappedIdIndex.size(old);
+        }
+        if (type == PUT) {
+            index.put(id, entry);
+            liveCount++;
+            liveBytes += MappedIdIndex.size(entry);
+        } else if (old != 0) {
+            index.put(id, 0);
+        }
+        if (id >= nextId) {
+            nextId = id + 1;
+        }
+    }
+
+    @Override
+    public Book findById(int id) throws StorageException {
+        swap.readLock().lock();
+        try {
+            ensureOpen();
+            long entry = index.get(id);
+            if (entry == 0) {
+                return null;
+            }
+            ByteBuffer record = new Window(log, MappedIdIndex.size(entry)).record(entry);
+            return readBook(record);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findByIds(int[] ids) throws StorageException {
+        int[] sorted = Arrays.stream(ids).sorted().distinct().toArray();
+        List<Book> books = new ArrayList<>(sorted.length);
+        swap.readLock().lock();
+        try {
+            ensureOpen();
+            for (int id : sorted) {
+                long entry = index.get(id);
+                if (entry != 0) {
+                    books.add(readBook(new Window(log, MappedIdIndex.size(entry)).record(entry)));
+                }
+            }
+            return books;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> findAll() throws StorageException {
+        return collect(0, Integer.MAX_VALUE, null);
+    }
+
+    @Override
+    public List<Book> findPage(int afterId, int limit) throws StorageException {
+        return collect(afterId, limit, null);
+    }
+
+    @Override
+    public List<Book> search(String query) throws StorageException {
+        return collect(0, Integer.MAX_VALUE, TrigramIndex.normalize(query));
+    }
+
+    @Override
+    public int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException {
+        int count = 0;
+        // Ids start at 1, and a negative cursor means the end was reached
+        int cursor = Math.max(afterId, 0);
+        List<Book> batch = new ArrayList<>();
+        while (cursor >= 0 && (limit <= 0 || count < limit)) {
+            batch.clear();
+            cursor = readBatch(cursor, limit > 0 ? limit - count : Integer.MAX_VALUE, null, batch);
+            // Rows are handed over outside the lock, so a slow consumer does not hold up writers
+            for (Book book : batch) {
+                handler.handle(book.getId(), book.getName(), book.getAuthor());
+            }
+            count += batch.size();
+        }
+        return count;
+    }
+
+    private List<Book> collect(int afterId, int limit, String needle) throws StorageException {
+        List<Book> books = new ArrayList<>();
+        // Ids start at 1, and a negative cursor means the end was reached
+        int cursor = Math.max(afterId, 0);
+        while (cursor >= 0 && books.size() < limit) {
+            cursor = readBatch(cursor, limit - books.size(), needle, books);
+        }
+        return books;
+    }
+
+    // Add up to maxBooks books after afterId, optionally only those matching needle, looking
+    // at no more than SCAN_BATCH ids. Returns the last id looked at, or -1 at the end.
+    private int readBatch(int afterId, int maxBooks, String needle, List<Book> out) throws StorageException {
+        swap.readLock().lock();
+        try {
+            ensureOpen();
+            Window window = new Window(log, 64 * 1024);
+            int added = 0;
+            // In long so that afterId + 1 cannot wrap round to the first id
+            int last = (int) Math.min((long) afterId + SCAN_BATCH, nextId - 1L);
+            for (long next = afterId + 1L; next <= last; next++) {
+                int id = (int) next;
+                long entry = index.get(id);
+                if (entry == 0) {
+                    continue;
+                }
+                Book book = readBook(window.record(entry));
+                if (needle == null || TrigramIndex.normalize(book.getName()).contains(needle)
+                        || TrigramIndex.normalize(book.getAuthor()).contains(needle)) {
+                    out.add(book);
+                    if (++added == maxBooks) {
+                        return id;
+                    }
+                }
+            }
+            return last < nextId - 1 ? last : -1;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    private static Book readBook(ByteBuffer record) {
+        record.get(); // type, always PUT for an indexed record
+        int id = record.getInt();
+        String name = readString(record);
+        String author = readString(record);
+        return new Book(id, name, author);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(record.array(), record.arrayOffset() + record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    private void compactIfNeeded() {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long used = logEnd - HEADER_SIZE;
+            if (logEnd >= compactMinBytes && used - liveBytes > compactRatio * used) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Copy the live records in id order into a new log and index, then switch to them.
+    // Runs under writeLock, so writers wait but readers keep using the old files until the switch.
+    void compact() throws IOException {
+        long start = System.nanoTime();
+        long before = logEnd;
+        Path logTmp = dir.resolve(LOG_FILE + COMPACT_SUFFIX);
+        Path indexTmp = dir.resolve(INDEX_FILE + COMPACT_SUFFIX);
+        long generation = ThreadLocalRandom.current().nextLong();
+
+        FileChannel out = FileChannel.open(logTmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedIdIndex newIndex = null;
+        long position = HEADER_SIZE;
+        try {
+            newIndex = MappedIdIndex.create(indexTmp, generation, nextId);
+            writeHeader(out, generation, nextId);
+            Window window = new Window(log, 1 << 20);
+            ByteBuffer pending = ByteBuffer.allocate(1 << 20);
+            long flushed = HEADER_SIZE;
+            for (int id = 1; id < nextId; id++) {
+                long entry = index.get(id);
+                if (entry == 0) {
+                    continue;
+                }
+                int size = MappedIdIndex.size(entry);
+                ByteBuffer record = window.record(entry);
+                record.position(record.position() - RECORD_HEADER_SIZE);
+                if (pending.remaining() < size) {
+                    pending.flip();
+                    flushed = writeAll(out, pending, flushed);
+                    pending.clear();
+                }
+                if (size > pending.capacity()) {
+                    flushed = writeAll(out, record, flushed);
+                } else {
+                    pending.put(record);
+                }
+                newIndex.put(id, MappedIdIndex.entry(position, size));
+                position += size;
+            }
+            pending.flip();
+            writeAll(out, pending, flushed);
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            if (newIndex != null) {
+                newIndex.close();
+            }
+            Files.deleteIfExists(logTmp);
+            Files.deleteIfExists(indexTmp);
+            throw e;
+        }
+
+        // The log is renamed first: a crash before the index follows leaves a generation
+        // mismatch, and the index is rebuilt from the new log at the next start
+        Files.move(logTmp, logPath, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTmp, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+
+        FileChannel oldLog;
+        MappedIdIndex oldIndex;
+        swap.writeLock().lock();
+        try {
+            oldLog = log;
+            oldIndex = index;
+            log = out;
+            index = newIndex;
+            logEnd = position;
+            liveBytes = position - HEADER_SIZE;
+        } finally {
+            swap.writeLock().unlock();
+        }
+        oldLog.close();
+        oldIndex.close();
+        System.out.println("Book log compacted: " + before + " -> " + position + " bytes in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // Flush the index and mark it clean, so the next start skips the replay
+    @Override
+    public void close() {
+        compactor.shutdown();
+        writeLock.lock();
+        swap.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            log.force(true);
+            index.closeClean(logEnd, nextId, liveCount, liveBytes);
+            log.close();
+            lockFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            swap.writeLock().unlock();
+            writeLock.unlock();
+        }
+    }
+
+    private void ensureOpen() throws StorageException {
+        if (closed) {
+            throw new StorageException("The book log is closed");
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long generation, int nextId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC).putLong(generation).putInt(nextId).putInt(0).flip();
+        writeAll(channel, header, 0);
+    }
+
+    // Write the buffer's remaining bytes at position; returns the position after them
+    private static long writeAll(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+
+    // Make renames and newly created files durable; not every platform can sync a directory
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The renames are still atomic, only their durability is up to the OS
+        }
+    }
+
+    /**
+     * Encodes the records of one write, leaving room for a TXN record in
+     * front that is filled in when there is more than one.
+     */
+    private static final class Batch {
+        byte[] buf = new byte[256];
+        int size = TXN_SIZE;
+        int count;
+        int[] ids = new int[1];
+        int[] starts = new int[1];
+        int[] sizes = new int[1];
+        byte[] types = new byte[1];
+
+        void put(int id, String name, String author) throws IOException {
+            int start = begin(PUT, id);
+            writeString(name);
+            writeString(author);
+            end(start);
+        }
+
+        void delete(int id) throws IOException {
+            end(begin(DELETE, id));
+        }
+
+        // Offset of the first byte to append
+        int prepare() {
+            if (count == 1) {
+                return TXN_SIZE;
+            }
+            ByteBuffer txn = ByteBuffer.wrap(buf, 0, TXN_SIZE);
+            txn.putInt(TXN_SIZE - RECORD_HEADER_SIZE).putInt(0).put(TXN).putInt(count).putInt(size - TXN_SIZE);
+            ByteBuffer.wrap(buf).putInt(4, crc(buf, RECORD_HEADER_SIZE, TXN_SIZE - RECORD_HEADER_SIZE));
+            return 0;
+        }
+
+        private int begin(byte type, int id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                sizes = Arrays.copyOf(sizes, count * 2);
+                types = Arrays.copyOf(types, count * 2);
+            }
+            ids[count] = id;
+            types[count] = type;
+            starts[count] = size;
+            ensure(RECORD_HEADER_SIZE + 5);
+            int start = size;
+            size += RECORD_HEADER_SIZE;
+            buf[size++] = type;
+            putInt(id);
+            return start;
+        }
+
+        private void end(int start) throws IOException {
+            int recordSize = size - start;
+            if (recordSize > MappedIdIndex.MAX_RECORD_SIZE) {
+                throw new IOException("Book record of " + recordSize + " bytes is too large");
+            }
+            ByteBuffer header = ByteBuffer.wrap(buf);
+            header.putInt(start, recordSize - RECORD_HEADER_SIZE);
+            header.putInt(start + 4, crc(buf, start + RECORD_HEADER_SIZE, recordSize - RECORD_HEADER_SIZE));
+            sizes[count++] = recordSize;
+        }
+
+        private void writeString(String value) {
+            if (value == null) {
+                ensure(4);
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(4 + bytes.length);
+            putInt(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void putInt(int value) {
+            buf[size++] = (byte) (value >>> 24);
+            buf[size++] = (byte) (value >>> 16);
+            buf[size++] = (byte) (value >>> 8);
+            buf[size++] = (byte) value;
+        }
+
+        private void ensure(int bytes) {
+            if (size + bytes > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + bytes));
+            }
+        }
+    }
+
+    /**
+     * A read-ahead buffer over the log. Records read in roughly ascending
+     * position order, as scans in id order mostly are, cost one read per
+     * buffer's worth instead of one per record.
+     */
+    private static final class Window {
+        private final FileChannel channel;
+        private ByteBuffer buf;
+        private long start = -1;
+        int size; // of the record returned last
+
+        Window(FileChannel channel, int capacity) {
+            this.channel = channel;
+            this.buf = ByteBuffer.allocate(capacity);
+        }
+
+        // The indexed record, positioned at its type byte; valid until the next call
+        ByteBuffer record(long entry) throws IOException {
+            long position = MappedIdIndex.position(entry);
+            int recordSize = MappedIdIndex.size(entry);
+            ByteBuffer record = fill(position, recordSize) ? intact(position, recordSize) : null;
+            if (record == null) {
+                throw new IOException("Corrupt or missing book record at log position " + position);
+            }
+            return record;
+        }
+
+        // For replay: the record at position if it is complete and intact before end, else null
+        ByteBuffer tryRecord(long position, long end) throws IOException {
+            if (end - position < RECORD_HEADER_SIZE + 1 || !fill(position, RECORD_HEADER_SIZE)) {
+                return null;
+            }
+            int length = buf.getInt((int) (position - start));
+            if (length < 1 || length > MappedIdIndex.MAX_RECORD_SIZE - RECORD_HEADER_SIZE
+                    || end - position < RECORD_HEADER_SIZE + (long) length
+                    || !fill(position, RECORD_HEADER_SIZE + length)) {
+                return null;
+            }
+            return intact(position, RECORD_HEADER_SIZE + length);
+        }
+
+        // Make [position, position + bytes) available in buf; false if the file ends first
+        private boolean fill(long position, int bytes) throws IOException {
+            if (start >= 0 && position >= start && position + bytes <= start + buf.limit()) {
+                return true;
+            }
+            if (bytes > buf.capacity()) {
+                buf = ByteBuffer.allocate(bytes);
+            }
+            buf.clear();
+            readFully(channel, buf, position);
+            start = position;
+            return buf.limit() >= bytes;
+        }
+
+        private ByteBuffer intact(long position, int recordSize) {
+            int offset = (int) (position - start);
+            int length = buf.getInt(offset);
+            if (length != recordSize - RECORD_HEADER_SIZE
+                    || crc(buf.array(), offset + RECORD_HEADER_SIZE, length) != buf.getInt(offset + 4)) {
+                return null;
+            }
+            size = recordSize;
+            ByteBuffer record = buf.duplicate();
+            record.limit(offset + recordSize);
+            record.position(offset + RECORD_HEADER_SIZE);
+            return record;
+        }
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,148 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped id index of a LogBookStore: slot id holds the position and
+ * size of the book's latest record in the log, or 0 when there is none.
+ * Ids are dense, so the slot is found by arithmetic rather than hashing,
+ * and the table lives in the page cache instead of the heap.
+ *
+ * Entries are only trusted after a clean close. The header carries the
+ * log's generation and a clean flag that is cleared while the store is
+ * open, so after a crash the index is rebuilt by replaying the log.
+ *
+ * Not thread-safe; LogBookStore guards it with its locks.
+ */
+final class MappedIdIndex implements Closeable {
+
+    private static final int MAGIC = 0x42494458; // "BIDX"
+    private static final int HEADER_SIZE = 64;
+    private static final int MIN_CAPACITY = 1024;
+    // Entry layout: record size in the top 24 bits, log position in the low 40
+    private static final int POSITION_BITS = 40;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+    static final int MAX_RECORD_SIZE = (1 << (64 - POSITION_BITS)) - 1;
+    static final long MAX_POSITION = POSITION_MASK;
+
+    // Header fields
+    private static final int CLEAN = 4;
+    private static final int GENERATION = 8;
+    private static final int LOG_SIZE = 16;
+    private static final int NEXT_ID = 24;
+    private static final int LIVE_COUNT = 28;
+    private static final int LIVE_BYTES = 32;
+
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int capacity; // ids 0 .. capacity - 1
+
+    private MappedIdIndex(FileChannel channel, int capacity) throws IOException {
+        this.channel = channel;
+        remap(capacity);
+    }
+
+    // A new, empty index for a log of the given generation, replacing any file at path
+    static MappedIdIndex create(Path path, long generation, int capacityHint) throws IOException {
+        Files.deleteIfExists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedIdIndex index = new MappedIdIndex(channel, Math.max(MIN_CAPACITY, capacityHint));
+        index.map.putInt(0, MAGIC);
+        index.map.putLong(GENERATION, generation);
+        return index;
+    }
+
+    // The index at path if it was closed cleanly for exactly this log, otherwise null
+    static MappedIdIndex openIfClean(Path path, long generation, long logSize) throws IOException {
+        if (!Files.exists(path) || Files.size(path) < HEADER_SIZE + 8L * MIN_CAPACITY) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedIdIndex index = new MappedIdIndex(channel, (int) ((channel.size() - HEADER_SIZE) / 8));
+        MappedByteBuffer map = index.map;
+        if (map.getInt(0) != MAGIC || map.getInt(CLEAN) != 1
+                || map.getLong(GENERATION) != generation || map.getLong(LOG_SIZE) != logSize) {
+            index.channel.close();
+            return null;
+        }
+        // In use from here on: a crash before the next clean close must not trust these entries
+        map.putInt(CLEAN, 0);
+        map.force();
+        return index;
+    }
+
+    static long entry(long position, int size) {
+        return ((long) size << POSITION_BITS) | position;
+    }
+
+    static long position(long entry) {
+        return entry & POSITION_MASK;
+    }
+
+    static int size(long entry) {
+        return (int) (entry >>> POSITION_BITS);
+    }
+
+    long get(int id) {
+        return id > 0 && id < capacity ? map.getLong(HEADER_SIZE + 8 * id) : 0;
+    }
+
+    void put(int id, long entry) throws IOException {
+        if (id >= capacity) {
+            long wanted = Math.max((long) capacity * 2, (long) id + 1);
+            if (HEADER_SIZE + 8 * wanted > Integer.MAX_VALUE) {
+                throw new IOException("Book id " + id + " is beyond the index's range");
+            }
+            remap((int) wanted);
+        }
+        map.putLong(HEADER_SIZE + 8 * id, entry);
+    }
+
+    // Exclusive upper bound of the ids that can have entries
+    int capacity() {
+        return capacity;
+    }
+
+    int nextId() {
+        return map.getInt(NEXT_ID);
+    }
+
+    int liveCount() {
+        return map.getInt(LIVE_COUNT);
+    }
+
+    long liveBytes() {
+        return map.getLong(LIVE_BYTES);
+    }
+
+    // Flush the entries, then record the state they describe and mark the file clean
+    void closeClean(long logSize, int nextId, int liveCount, long liveBytes) throws IOException {
+        map.force();
+        map.putLong(LOG_SIZE, logSize);
+        map.putInt(NEXT_ID, nextId);
+        map.putInt(LIVE_COUNT, liveCount);
+        map.putLong(LIVE_BYTES, liveBytes);
+        map.putInt(CLEAN, 1);
+        map.force();
+        channel.close();
+    }
+
+    // Close without marking the file clean, e.g. an index replaced by compaction
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void remap(int newCapacity) throws IOException {
+        // Mapping past the end grows the file; the new slots read as zero
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 8L * newCapacity);
+        capacity = newCapacity;
+    }
+}
@@ -0,0 +1,542 @@
+package dao;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import model.Book;
+
+/**
+ * Every book held in memory in primitive form, so reads can be served
+ * without the store and without keeping a model.Book per row.
+ *
+ * Rows live in parallel arrays sorted by id: the id, and a reference to the
+ * name and to the author. The referenced UTF-8 bytes sit in a shared arena
+ * of 1 MB byte[] pages. An IntIntMap finds the slot of an id and a binary
+ * search over the ids finds where a page starts. Book objects are only
+ * created for the rows a request returns, and streamed rows are handed to
+ * the handler as strings without creating a Book at all.
+ *
+ * A new book whose id is below the newest one does not shift the newer rows
+ * on every insert. Such late rows wait in a small sorted buffer that reads
+ * merge on the fly, and the buffer is merged into the arrays in one pass
+ * from the back once it fills. With BookIdAllocator blocks several servers
+ * insert into overlapping id ranges, so this is the normal path there.
+ *
+ * A row costs about 20 bytes plus its UTF-8 text and a map entry, against
+ * roughly 120 bytes plus two String copies of the text as a model.Book.
+ *
+ * Updated and deleted rows leave garbage behind; the arrays and the arena
+ * are rewritten once it outweighs the live data. Like TrigramIndex, the
+ * catalog only sees writes made through the BookDAO that owns it.
+ */
+final class ResidentCatalog {
+
+    private static final int NO_SLOT = -1;
+    private static final int MIN_SLOTS = 1024;
+
+    // Rows copied out per read-lock hold by scan; the handler runs without the lock
+    private static final int SCAN_BATCH = 512;
+
+    // Late rows held aside before they are merged into the sorted arrays
+    private static final int MAX_LATE = 4096;
+
+    // Arena layout: 1 MB pages, a longer string gets a page of its own
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << 18;
+
+    // Reference layout: non-ASCII flag, 24-bit length, 18-bit page, 20-bit offset.
+    // A negative reference is a null string; a deleted row has a DELETED name.
+    private static final long NULL_REF = -1L;
+    private static final long DELETED = -2L;
+    private static final long NON_ASCII = 1L << 62;
+    private static final int LENGTH_SHIFT = 38;
+    static final int MAX_STRING_BYTES = (1 << 24) - 1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final IntIntMap slotsById = new IntIntMap(MIN_SLOTS, NO_SLOT);
+    private int[] ids = new int[MIN_SLOTS];
+    private long[] names = new long[MIN_SLOTS];
+    private long[] authors = new long[MIN_SLOTS];
+    private int slotCount; // used slots, including deleted ones
+
+    // Live rows with ids below the newest slot, sorted by id and not in slotsById
+    private final int[] lateIds = new int[MAX_LATE];
+    private final long[] lateNames = new long[MAX_LATE];
+    private final long[] lateAuthors = new long[MAX_LATE];
+    private int lateCount;
+
+    private byte[][] pages = new byte[16][];
+    private int pageCount;
+    private int pageFill = PAGE_SIZE; // bytes used in the last page; full until one is allocated
+    private long liveBytes;
+    private long garbageBytes;
+
+    // Copy every book the scan yields, in id order
+    static ResidentCatalog load(BookScan books) throws StorageException, IOException {
+        ResidentCatalog catalog = new ResidentCatalog();
+        books.scan(catalog::put);
+        return catalog;
+    }
+
+    // Add a book, or replace the name and author of an existing one
+    void put(int id, String name, String author) {
+        byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] authorBytes = author != null ? author.getBytes(StandardCharsets.UTF_8) : null;
+        if (length(nameBytes) > MAX_STRING_BYTES || length(authorBytes) > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Book " + id + " is too long to keep resident");
+        }
+
+        lock.writeLock().lock();
+        try {
+            int slot = slotsById.get(id);
+            int late = slot == NO_SLOT ? lateIndex(id) : NO_SLOT;
+            if (slot != NO_SLOT) {
+                release(names[slot]);
+                release(authors[slot]);
+                names[slot] = store(nameBytes);
+                authors[slot] = store(authorBytes);
+            } else if (late >= 0) {
+                release(lateNames[late]);
+                release(lateAuthors[late]);
+                lateNames[late] = store(nameBytes);
+                lateAuthors[late] = store(authorBytes);
+            } else if (slotCount == 0 || id > ids[slotCount - 1]) {
+                slot = appendSlot(id);
+                names[slot] = store(nameBytes);
+                authors[slot] = store(authorBytes);
+            } else {
+                insertLate(-late - 1, id, store(nameBytes), store(authorBytes));
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotsById.remove(id);
+            if (slot != NO_SLOT) {
+                release(names[slot]);
+                release(authors[slot]);
+                names[slot] = DELETED;
+                authors[slot] = NULL_REF;
+            } else {
+                int late = lateIndex(id);
+                if (late < 0) {
+                    return;
+                }
+                release(lateNames[late]);
+                release(lateAuthors[late]);
+                removeLate(late);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    Book get(int id) {
+        lock.readLock().lock();
+        try {
+            int slot = slotsById.get(id);
+            if (slot != NO_SLOT) {
+                return book(ids[slot], names[slot], authors[slot]);
+            }
+            int late = lateIndex(id);
+            return late < 0 ? null : book(id, lateNames[late], lateAuthors[late]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit books with ids greater than afterId, in id order
+    List<Book> page(int afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Book> books = new ArrayList<>(Math.max(0, Math.min(limit, slotsById.size() + lateCount)));
+            visitRows(afterId, limit, (row, id, name, author) -> books.add(book(id, name, author)));
+            return books;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Every book, in id order
+    List<Book> all() {
+        return page(0, Integer.MAX_VALUE);
+    }
+
+    // Same contract as BookStore.scan. Rows are copied out a batch at a time, so a
+    // slow handler (a client reading a stream) never holds up writers.
+    int scan(int afterId, int limit, BookRowHandler handler) throws IOException {
+        int[] batchIds = new int[SCAN_BATCH];
+        String[] batchNames = new String[SCAN_BATCH];
+        String[] batchAuthors = new String[SCAN_BATCH];
+        int remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+        int count = 0;
+        int lastId = afterId;
+
+        while (remaining > 0) {
+            int batch;
+            lock.readLock().lock();
+            try {
+                batch = visitRows(lastId, Math.min(SCAN_BATCH, remaining), (row, id, name, author) -> {
+                    batchIds[row] = id;
+                    batchNames[row] = string(name);
+                    batchAuthors[row] = string(author);
+                    return true;
+                });
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (batch == 0) {
+                break;
+            }
+            for (int i = 0; i < batch; i++) {
+                handler.handle(batchIds[i], batchNames[i], batchAuthors[i]);
+            }
+            count += batch;
+            remaining -= batch;
+            lastId = batchIds[batch - 1];
+        }
+        return count;
+    }
+
+    /**
+     * Books whose name or author contains the query, ignoring case and
+     * accents, in id order. ASCII rows are matched on their bytes; only
+     * rows with other characters are decoded and normalized. Returns null
+     * for LIKE wildcards, as TrigramIndex does.
+     */
+    List<Book> search(String query) {
+        if (query == null || query.indexOf('%') >= 0 || query.indexOf('_') >= 0 || query.indexOf('\\') >= 0) {
+            return null;
+        }
+        String needle = TrigramIndex.normalize(query);
+        byte[] asciiNeedle = isAscii(needle) ? needle.getBytes(StandardCharsets.US_ASCII) : null;
+
+        lock.readLock().lock();
+        try {
+            List<Book> books = new ArrayList<>();
+            visitRows(Integer.MIN_VALUE, Integer.MAX_VALUE, (row, id, name, author) ->
+                    (matches(name, needle, asciiNeedle) || matches(author, needle, asciiNeedle))
+                            && books.add(book(id, name, author)));
+            return books;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return slotsById.size() + lateCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Approximate heap held by the arrays, the id map and the arena
+    long heapBytes() {
+        lock.readLock().lock();
+        try {
+            long arena = 0;
+            for (int i = 0; i < pageCount; i++) {
+                arena += pages[i].length;
+            }
+            // The map keeps two int arrays of at most four entries per three books
+            long map = 8L * Math.max(MIN_SLOTS, slotsById.size() * 4L / 3);
+            return 20L * (ids.length + MAX_LATE) + map + arena;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowVisitor {
+        // row is the number of rows accepted so far; returns whether this one is accepted
+        boolean visit(int row, int id, long name, long author);
+    }
+
+    // Offer live rows with ids greater than afterId to the visitor in id order, merging
+    // the late rows in, until it has accepted limit of them. Returns how many it accepted.
+    private int visitRows(int afterId, int limit, RowVisitor visitor) {
+        int accepted = 0;
+        int slot = firstAfter(ids, slotCount, afterId);
+        int late = firstAfter(lateIds, lateCount, afterId);
+        while (accepted < limit) {
+            if (late < lateCount && (slot == slotCount || lateIds[late] < ids[slot])) {
+                if (visitor.visit(accepted, lateIds[late], lateNames[late], lateAuthors[late])) {
+                    accepted++;
+                }
+                late++;
+            } else if (slot < slotCount) {
+                if (names[slot] != DELETED && visitor.visit(accepted, ids[slot], names[slot], authors[slot])) {
+                    accepted++;
+                }
+                slot++;
+            } else {
+                break;
+            }
+        }
+        return accepted;
+    }
+
+    private Book book(int id, long name, long author) {
+        return new Book(id, string(name), string(author));
+    }
+
+    private String string(long ref) {
+        if (ref < 0) {
+            return null;
+        }
+        return new String(pages[page(ref)], offset(ref), length(ref), StandardCharsets.UTF_8);
+    }
+
+    private boolean matches(long ref, String needle, byte[] asciiNeedle) {
+        if (ref < 0) {
+            return needle.isEmpty();
+        }
+        if ((ref & NON_ASCII) != 0) {
+            return TrigramIndex.normalize(string(ref)).contains(needle);
+        }
+        // An ASCII row normalizes to itself in lower case, so it cannot contain other characters
+        return asciiNeedle != null && containsIgnoreCase(pages[page(ref)], offset(ref), length(ref), asciiNeedle);
+    }
+
+    // needle is already lower case
+    private static boolean containsIgnoreCase(byte[] page, int offset, int length, byte[] needle) {
+        int last = offset + length - needle.length;
+        for (int start = offset; start <= last; start++) {
+            int i = 0;
+            while (i < needle.length && lower(page[start + i]) == needle[i]) {
+                i++;
+            }
+            if (i == needle.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // First index whose id is greater than afterId, in ids sorted up to count
+    private static int firstAfter(int[] ids, int count, int afterId) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] <= afterId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int appendSlot(int id) {
+        ensureSlots(slotCount + 1);
+        ids[slotCount] = id;
+        slotsById.put(id, slotCount);
+        return slotCount++;
+    }
+
+    private void ensureSlots(int count) {
+        if (count > ids.length) {
+            int capacity = Math.max(ids.length * 2, Integer.highestOneBit(count - 1) * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            authors = Arrays.copyOf(authors, capacity);
+        }
+    }
+
+    // Index of id among the late rows, or -(insertion point) - 1 as in Arrays.binarySearch
+    private int lateIndex(int id) {
+        return Arrays.binarySearch(lateIds, 0, lateCount, id);
+    }
+
+    private void insertLate(int at, int id, long name, long author) {
+        System.arraycopy(lateIds, at, lateIds, at + 1, lateCount - at);
+        System.arraycopy(lateNames, at, lateNames, at + 1, lateCount - at);
+        System.arraycopy(lateAuthors, at, lateAuthors, at + 1, lateCount - at);
+        lateIds[at] = id;
+        lateNames[at] = name;
+        lateAuthors[at] = author;
+        lateCount++;
+    }
+
+    private void removeLate(int at) {
+        System.arraycopy(lateIds, at + 1, lateIds, at, lateCount - at - 1);
+        System.arraycopy(lateNames, at + 1, lateNames, at, lateCount - at - 1);
+        System.arraycopy(lateAuthors, at + 1, lateAuthors, at, lateCount - at - 1);
+        lateCount--;
+    }
+
+    // Merge the late rows into the sorted arrays from the back, so only the
+    // rows above the smallest late id move, once per buffer rather than per insert
+    private void mergeLate() {
+        if (lateCount == 0) {
+            return;
+        }
+        ensureSlots(slotCount + lateCount);
+        int slot = slotCount - 1;
+        int late = lateCount - 1;
+        for (int to = slotCount + lateCount - 1; late >= 0; to--) {
+            if (slot >= 0 && ids[slot] > lateIds[late]) {
+                ids[to] = ids[slot];
+                names[to] = names[slot];
+                authors[to] = authors[slot];
+                slot--;
+            } else {
+                ids[to] = lateIds[late];
+                names[to] = lateNames[late];
+                authors[to] = lateAuthors[late];
+                late--;
+            }
+            if (names[to] != DELETED) {
+                slotsById.put(ids[to], to);
+            }
+        }
+        slotCount += lateCount;
+        lateCount = 0;
+    }
+
+    private long store(byte[] bytes) {
+        if (bytes == null) {
+            return NULL_REF;
+        }
+        int page;
+        int offset;
+        if (bytes.length > PAGE_SIZE) {
+            page = addPage(bytes.length);
+            offset = 0;
+            pageFill = PAGE_SIZE; // Nothing else goes in an oversized page
+        } else {
+            if (pageFill + bytes.length > PAGE_SIZE) {
+                addPage(PAGE_SIZE);
+                pageFill = 0;
+            }
+            page = pageCount - 1;
+            offset = pageFill;
+            pageFill += bytes.length;
+        }
+        System.arraycopy(bytes, 0, pages[page], offset, bytes.length);
+        liveBytes += bytes.length;
+        long ref = ((long) bytes.length << LENGTH_SHIFT) | ((long) page << PAGE_BITS) | offset;
+        return isAscii(bytes) ? ref : ref | NON_ASCII;
+    }
+
+    private int addPage(int size) {
+        if (pageCount == MAX_PAGES) {
+            throw new IllegalStateException("Resident catalog arena is full");
+        }
+        if (pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pageCount * 2);
+        }
+        pages[pageCount] = new byte[size];
+        return pageCount++;
+    }
+
+    private void release(long ref) {
+        if (ref >= 0) {
+            liveBytes -= length(ref);
+            garbageBytes += length(ref);
+        }
+    }
+
+    // Rewrite the arrays and the arena once deleted slots or stale text outweigh the live data
+    private void compactIfNeeded() {
+        if (lateCount == MAX_LATE) {
+            mergeLate();
+        }
+        int deletedSlots = slotCount - slotsById.size();
+        boolean slotsWasted = deletedSlots > MIN_SLOTS && deletedSlots > slotCount / 2;
+        boolean arenaWasted = garbageBytes > PAGE_SIZE && garbageBytes > liveBytes;
+        if (!slotsWasted && !arenaWasted) {
+            return;
+        }
+        // The rewrite below walks the sorted arrays only
+        mergeLate();
+
+        byte[][] oldPages = pages;
+        int oldCount = slotCount;
+        int[] oldIds = ids;
+        long[] oldNames = names;
+        long[] oldAuthors = authors;
+        int capacity = Math.max(MIN_SLOTS, Integer.highestOneBit(Math.max(1, slotsById.size())) * 2);
+        ids = new int[capacity];
+        names = new long[capacity];
+        authors = new long[capacity];
+        pages = new byte[16][];
+        pageCount = 0;
+        pageFill = PAGE_SIZE;
+        liveBytes = 0;
+        garbageBytes = 0;
+        slotCount = 0;
+
+        for (int slot = 0; slot < oldCount; slot++) {
+            if (oldNames[slot] == DELETED) {
+                continue;
+            }
+            ids[slotCount] = oldIds[slot];
+            names[slotCount] = store(copy(oldPages, oldNames[slot]));
+            authors[slotCount] = store(copy(oldPages, oldAuthors[slot]));
+            slotsById.put(oldIds[slot], slotCount);
+            slotCount++;
+        }
+    }
+
+    private static byte[] copy(byte[][] pages, long ref) {
+        if (ref < 0) {
+            return null;
+        }
+        int offset = offset(ref);
+        return Arrays.copyOfRange(pages[page(ref)], offset, offset + length(ref));
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+
+    private static int length(long ref) {
+        return (int) ((ref & ~NON_ASCII) >>> LENGTH_SHIFT);
+    }
+
+    private static int page(long ref) {
+        return (int) (ref >>> PAGE_BITS) & (MAX_PAGES - 1);
+    }
+
+    private static int offset(long ref) {
+        return (int) ref & (PAGE_SIZE - 1);
+    }
+}
@@ -0,0 +1,425 @@
+package dao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import db.ConnectionPool;
+import db.DBConnection;
+import model.Book;
+
+/**
+ * BookStore spread over several MySQL databases (shards), each holding its
+ * own books table.
+ *
+ * A book's id decides its shard: by hash (id modulo the shard count, which
+ * spreads consecutive ids evenly) or by range (ids 1 to rangeSize on the
+ * first shard, the next rangeSize on the second, everything past the last
+ * boundary on the last). Ids come from BookIdAllocator, so they are unique
+ * across shards, and inserts store them explicitly.
+ *
+ * Operations on one id go to its shard only. Lists, pages, scans and
+ * searches ask every shard at once and merge the answers in id order; the
+ * calling thread queries the first shard itself while pool threads query
+ * the rest. Writes that span shards commit one transaction per shard. If
+ * one shard fails, inserts already committed on the others are deleted
+ * again before the error is reported, so a retry does not store them
+ * twice; updates and deletes there stay applied, and repeating them is
+ * harmless.
+ */
+class ShardedBookStore implements BookStore {
+
+    enum Placement { HASH, RANGE }
+
+    // Rows fetched per shard at a time while merging a scan
+    private static final int SCAN_PAGE = 1000;
+
+    private final List<JdbcBookStore> shards;
+    private final Placement placement;
+    private final long rangeSize;
+    private final BookIdAllocator ids;
+    private final ExecutorService fanOut;
+
+    ShardedBookStore(List<JdbcBookStore> shards, Placement placement, long rangeSize, BookIdAllocator ids,
+                     int threads) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.placement = placement;
+        this.rangeSize = Math.max(1, rangeSize);
+        this.ids = ids;
+        AtomicInteger counter = new AtomicInteger();
+        this.fanOut = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "book-shard-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static ShardedBookStore fromSystemProperties() {
+        List<String> urls = new ArrayList<>();
+        for (String url : System.getProperty("library.shards.urls", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("library.storage=sharded needs library.shards.urls");
+        }
+        String placement = System.getProperty("library.shards.placement", "hash");
+        if (!placement.equals("hash") && !placement.equals("range")) {
+            throw new IllegalArgumentException("Unknown library.shards.placement: " + placement);
+        }
+        long rangeSize = Long.getLong("library.shards.rangeSize", 1_000_000L);
+        int blockSize = Integer.getInteger("library.shards.idBlockSize", 100);
+
+        List<JdbcBookStore> shards = new ArrayList<>();
+        ConnectionPool first = null;
+        int connections = 0;
+        for (String url : urls) {
+            ConnectionPool pool = DBConnection.createPool(url);
+            first = first != null ? first : pool;
+            connections += pool.getStats().getMaxSize();
+            shards.add(new JdbcBookStore(pool));
+        }
+        System.out.println("Books sharded over " + urls.size() + " databases by " + placement);
+        // One thread per shard connection: more could only wait for a connection
+        return new ShardedBookStore(shards, placement.equals("range") ? Placement.RANGE : Placement.HASH,
+                rangeSize, new BookIdAllocator(first, blockSize), connections);
+    }
+
+    int shardOf(int id) {
+        if (placement == Placement.RANGE) {
+            return (int) Math.min((Math.max(id, 1) - 1L) / rangeSize, shards.size() - 1);
+        }
+        return Math.floorMod(id, shards.size());
+    }
+
+    @Override
+    public int insert(String name, String author) throws StorageException {
+        int id = ids.allocate();
+        return shards.get(shardOf(id)).applyAll(Collections.singletonList(BookWrite.insert(id, name, author)))[0];
+    }
+
+    // One transaction per shard the chunk touches
+    @Override
+    public int[] insertAll(List<Book> books) throws StorageException {
+        int[] newIds = ids.allocate(books.size());
+        List<List<Book>> perShard = emptyLists();
+        for (int i = 0; i < books.size(); i++) {
+            perShard.get(shardOf(newIds[i])).add(new Book(newIds[i], books.get(i).getName(), books.get(i).getAuthor()));
+        }
+        List<Future<int[]>> futures = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Book> part = perShard.get(shard);
+            JdbcBookStore store = shards.get(shard);
+            futures.add(part.isEmpty() ? null : fanOut.submit(() -> store.insertAll(part)));
+        }
+        StorageException failure = awaitAll(futures);
+        if (failure != null) {
+            List<List<Integer>> inserted = emptyLists();
+            for (int shard = 0; shard < shards.size(); shard++) {
+                if (futures.get(shard) != null && succeeded(futures.get(shard))) {
+                    for (Book book : perShard.get(shard)) {
+                        inserted.get(shard).add(book.getId());
+                    }
+                }
+            }
+            undoInserts(inserted);
+            throw failure;
+        }
+        return newIds;
+    }
+
+    @Override
+    public int[] applyAll(List<BookWrite> writes) throws StorageException {
+        // Give every insert its id first, so it can be placed
+        int inserts = 0;
+        for (BookWrite write : writes) {
+            if (write.getType() == BookWrite.Type.INSERT) {
+                inserts++;
+            }
+        }
+        int[] newIds = ids.allocate(inserts);
+        List<List<BookWrite>> perShard = emptyLists();
+        List<List<Integer>> positions = emptyLists();
+        int nextId = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            BookWrite write = writes.get(i);
+            if (write.getType() == BookWrite.Type.INSERT) {
+                write = BookWrite.insert(newIds[nextId++], write.getName(), write.getAuthor());
+            }
+            int shard = shardOf(write.getId());
+            perShard.get(shard).add(write);
+            positions.get(shard).add(i);
+        }
+
+        List<Future<int[]>> futures = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<BookWrite> part = perShard.get(shard);
+            JdbcBookStore store = shards.get(shard);
+            futures.add(part.isEmpty() ? null : fanOut.submit(() -> store.applyAll(part)));
+        }
+        StorageException failure = awaitAll(futures);
+        if (failure != null) {
+            List<List<Integer>> inserted = emptyLists();
+            for (int shard = 0; shard < shards.size(); shard++) {
+                if (futures.get(shard) != null && succeeded(futures.get(shard))) {
+                    for (BookWrite write : perShard.get(shard)) {
+                        if (write.getType() == BookWrite.Type.INSERT) {
+                            inserted.get(shard).add(write.getId());
+                        }
+                    }
+                }
+            }
+            undoInserts(inserted);
+            throw failure;
+        }
+
+        int[] results = new int[writes.size()];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (futures.get(shard) == null) {
+                continue;
+            }
+            int[] shardResults = result(futures.get(shard));
+            for (int j = 0; j < shardResults.length; j++) {
+                results[positions.get(shard).get(j)] = shardResults[j];
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public int update(int id, String name, String author) throws StorageException {
+        return shards.get(shardOf(id)).update(id, name, author);
+    }
+
+    @Override
+    public int delete(int id) throws StorageException {
+        return shards.get(shardOf(id)).delete(id);
+    }
+
+    @Override
+    public Book findById(int id) throws StorageException {
+        return shards.get(shardOf(id)).findById(id);
+    }
+
+    // One IN (...) query on each shard that holds any of the ids
+    @Override
+    public List<Book> findByIds(int[] wanted) throws StorageException {
+        List<List<Integer>> perShard = emptyLists();
+        for (int id : wanted) {
+            perShard.get(shardOf(id)).add(id);
+        }
+        List<List<Book>> parts = onShards(shard -> {
+            List<Integer> part = perShard.get(shard);
+            return part.isEmpty()
+                    ? Collections.<Book>emptyList()
+                    : shards.get(shard).findByIds(part.stream().mapToInt(Integer::intValue).toArray());
+        });
+        return mergeById(parts, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Book> findAll() throws StorageException {
+        return mergeById(onShards(shard -> shards.get(shard).findAll()), Integer.MAX_VALUE);
+    }
+
+    // Each shard's first limit books after afterId include the merged page's
+    @Override
+    public List<Book> findPage(int afterId, int limit) throws StorageException {
+        return mergeById(onShards(shard -> shards.get(shard).findPage(afterId, limit)), limit);
+    }
+
+    // Merge the shards' id-ordered pages, fetching the next page of a shard once its current one
+    // is used up, so memory stays at one page per shard whatever the catalog size
+    @Override
+    public int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException {
+        List<List<Book>> firstPages = onShards(shard -> shards.get(shard).findPage(afterId, SCAN_PAGE));
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Comparator.comparingInt(Cursor::id));
+        for (int shard = 0; shard < shards.size(); shard++) {
+            Cursor cursor = new Cursor(shard, firstPages.get(shard));
+            if (cursor.hasCurrent()) {
+                heads.add(cursor);
+            }
+        }
+        int count = 0;
+        while (!heads.isEmpty() && (limit <= 0 || count < limit)) {
+            Cursor cursor = heads.poll();
+            Book book = cursor.current();
+            handler.handle(book.getId(), book.getName(), book.getAuthor());
+            count++;
+            cursor.position++;
+            if (!cursor.hasCurrent() && cursor.page.size() == SCAN_PAGE) {
+                cursor.page = shards.get(cursor.shard).findPage(book.getId(), SCAN_PAGE);
+                cursor.position = 0;
+            }
+            if (cursor.hasCurrent()) {
+                heads.add(cursor);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<Book> search(String query) throws StorageException {
+        return mergeById(onShards(shard -> shards.get(shard).search(query)), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() {
+        fanOut.shutdown();
+        for (JdbcBookStore shard : shards) {
+            shard.close();
+        }
+    }
+
+    private interface ShardCall<T> {
+        T call(int shard) throws StorageException;
+    }
+
+    // Run call on every shard in parallel and return the answers in shard order
+    private <T> List<T> onShards(ShardCall<T> call) throws StorageException {
+        List<Future<T>> futures = new ArrayList<>();
+        futures.add(null);
+        for (int shard = 1; shard < shards.size(); shard++) {
+            int index = shard;
+            futures.add(fanOut.submit(() -> call.call(index)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        StorageException failure = null;
+        try {
+            results.add(call.call(0));
+        } catch (StorageException e) {
+            failure = e;
+            results.add(null);
+        }
+        StorageException other = awaitAll(futures);
+        if (failure != null || other != null) {
+            throw failure != null ? failure : other;
+        }
+        for (int shard = 1; shard < shards.size(); shard++) {
+            results.add(result(futures.get(shard)));
+        }
+        return results;
+    }
+
+    // Wait for every future (null entries are skipped) and return the first failure, if any,
+    // only after all have finished so no shard is still writing when the caller reacts
+    private static <T> StorageException awaitAll(List<Future<T>> futures) {
+        StorageException failure = null;
+        for (Future<T> future : futures) {
+            if (future == null) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure != null ? failure : new StorageException("Interrupted while waiting for a shard", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failure = failure != null ? failure
+                        : cause instanceof StorageException ? (StorageException) cause : new StorageException(cause);
+            }
+        }
+        return failure;
+    }
+
+    private static boolean succeeded(Future<?> future) {
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    // Only called once awaitAll has seen the future succeed
+    private static <T> T result(Future<T> future) throws StorageException {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new StorageException(e);
+        }
+    }
+
+    // Best effort: a shard that fails here keeps the rows and the error is logged
+    private void undoInserts(List<List<Integer>> inserted) {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<BookWrite> deletes = new ArrayList<>();
+            for (int id : inserted.get(shard)) {
+                deletes.add(BookWrite.delete(id));
+            }
+            if (deletes.isEmpty()) {
+                continue;
+            }
+            try {
+                shards.get(shard).applyAll(deletes);
+            } catch (StorageException e) {
+                System.out.println("Could not undo " + deletes.size() + " inserts on shard " + shard
+                        + " after a failed write: " + e.getMessage());
+            }
+        }
+    }
+
+    private <T> List<List<T>> emptyLists() {
+        List<List<T>> lists = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            lists.add(new ArrayList<>());
+        }
+        return lists;
+    }
+
+    // All books of all parts in id order, at most limit of them
+    private static List<Book> mergeById(List<List<Book>> parts, int limit) {
+        int total = 0;
+        for (List<Book> part : parts) {
+            total += part.size();
+        }
+        Book[] merged = new Book[total];
+        int at = 0;
+        for (List<Book> part : parts) {
+            for (Book book : part) {
+                merged[at++] = book;
+            }
+        }
+        // Not every shard query orders its rows, so sort rather than merge
+        Arrays.sort(merged, Comparator.comparingInt(Book::getId));
+        List<Book> books = Arrays.asList(merged);
+        return new ArrayList<>(total > limit ? books.subList(0, limit) : books);
+    }
+
+    private static final class Cursor {
+        final int shard;
+        List<Book> page;
+        int position;
+
+        Cursor(int shard, List<Book> page) {
+            this.shard = shard;
+            this.page = page;
+        }
+
+        boolean hasCurrent() {
+            return position < page.size();
+        }
+
+        Book current() {
+            return page.get(position);
+        }
+
+        int id() {
+            return current().getId();
+        }
+    }
+}
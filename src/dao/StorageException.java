@@ -0,0 +1,42 @@
+package dao;
+
+/**
+ * A BookStore could not complete an operation, e.g. a SQLException from
+ * MySQL or an I/O error in the embedded log. The message is the cause's,
+ * so it reads the same in import reports whichever store is in use.
+ *
+ * Usually the outcome of a failed write is unknown: a commit that fails,
+ * say on a dropped connection, may still have been applied. isRolledBack()
+ * is true only when the store knows none of the operation took effect.
+ */
+public class StorageException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean rolledBack;
+
+    public StorageException(String message) {
+        super(message);
+        this.rolledBack = false;
+    }
+
+    public StorageException(Throwable cause) {
+        this(cause, false);
+    }
+
+    // rolledBack: the operation failed before anything was committed and had no effect
+    public StorageException(Throwable cause, boolean rolledBack) {
+        super(cause.getMessage(), cause);
+        this.rolledBack = rolledBack;
+    }
+
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+        this.rolledBack = false;
+    }
+
+    // True when nothing was written, so retrying the same writes cannot apply any of them twice
+    public boolean isRolledBack() {
+        return rolledBack;
+    }
+}
@@ -0,0 +1,469 @@
+package dao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory prefix index for typeahead over book names and authors.
+ *
+ * Each field keeps its distinct normalized values in a sorted array with
+ * the number of books carrying each, so the values starting with a prefix
+ * form one contiguous range found by binary search. A max segment tree over
+ * the counts hands out that range's values most-books-first, so the top k
+ * cost O(k log n) however many values share the prefix.
+ *
+ * Changes go to a small sorted delta of count changes that queries merge in.
+ * Once it grows past 1/256 of the array, a background thread folds it into
+ * a new array while queries carry on against the old one.
+ * Like TrigramIndex, the index only sees writes made through the BookDAO
+ * that owns it.
+ */
+final class SuggestIndex {
+
+    static final String NAME = "name";
+    static final String AUTHOR = "author";
+
+    private static final int NO_SLOT = -1;
+    private static final int MIN_DELTA = 1024;
+    private static final NavigableMap<String, Pending> EMPTY = new TreeMap<>();
+
+    // Merges deltas into new arrays off the lock, shared by every index; tests hold folds back on it
+    static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "suggest-index-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Most books first, then alphabetical
+    private static final Comparator<Candidate> RANK = Comparator.<Candidate>comparingInt(c -> -c.count)
+            .thenComparing(c -> c.key)
+            .thenComparing(c -> c.field);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Terms names = new Terms(NAME);
+    private final Terms authors = new Terms(AUTHOR);
+
+    // Book id -> slot holding the normalized name and author it counts towards, to undo on update or delete
+    private final IntIntMap slotsById = new IntIntMap(1024, NO_SLOT);
+    private String[] bookNames = new String[1024];
+    private String[] bookAuthors = new String[1024];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private boolean loading;
+
+    // Index every book the scan yields, folding them into the arrays once at the end
+    static SuggestIndex load(BookScan books) throws StorageException, IOException {
+        SuggestIndex index = new SuggestIndex();
+        index.loading = true;
+        books.scan(index::put);
+        index.lock.writeLock().lock();
+        try {
+            index.loading = false;
+            index.names.rebuild();
+            index.authors.rebuild();
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+        return index;
+    }
+
+    // Add a book, or replace the name and author an existing one counted towards
+    void put(int id, String name, String author) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                if (slotCount == bookNames.length) {
+                    bookNames = Arrays.copyOf(bookNames, slotCount * 2);
+                    bookAuthors = Arrays.copyOf(bookAuthors, slotCount * 2);
+                }
+                slot = slotCount++;
+            }
+            bookNames[slot] = names.add(name);
+            bookAuthors[slot] = authors.add(author);
+            slotsById.put(id, slot);
+            if (!loading) {
+                names.rebuildIfNeeded();
+                authors.rebuildIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            names.rebuildIfNeeded();
+            authors.rebuildIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Up to k names and authors starting with the prefix, ignoring case and accents, best first
+    List<Suggestion> suggest(String prefix, int k) {
+        String needle = TrigramIndex.normalize(prefix);
+        List<Candidate> candidates = new ArrayList<>(2 * k);
+        lock.readLock().lock();
+        try {
+            candidates.addAll(names.top(needle, k));
+            candidates.addAll(authors.top(needle, k));
+        } finally {
+            lock.readLock().unlock();
+        }
+        candidates.sort(RANK);
+
+        List<Suggestion> suggestions = new ArrayList<>(k);
+        for (int i = 0; i < candidates.size() && i < k; i++) {
+            Candidate c = candidates.get(i);
+            suggestions.add(new Suggestion(c.text, c.field, c.count));
+        }
+        return suggestions;
+    }
+
+    // Whether changes are being folded into new arrays while queries merge them in
+    boolean isFolding() {
+        lock.readLock().lock();
+        try {
+            return names.folding != null || authors.folding != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(int id) {
+        int slot = slotsById.remove(id);
+        if (slot == NO_SLOT) {
+            return;
+        }
+        names.remove(bookNames[slot]);
+        authors.remove(bookAuthors[slot]);
+        bookNames[slot] = null;
+        bookAuthors[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    // The distinct values of one field
+    private final class Terms {
+        final String field;
+        // Immutable snapshot of the values; replaced under the write lock
+        Base base = new Base(new String[0], new String[0], new int[0]);
+        // Changes being merged into a new base in the background, or null
+        TreeMap<String, Pending> folding;
+        // Changes since then, by normalized value
+        TreeMap<String, Pending> delta = new TreeMap<>();
+        // Counts gathered while loading, sorted once at the end rather than kept in a tree
+        Map<String, Pending> staged = new HashMap<>();
+
+        Terms(String field) {
+            this.field = field;
+        }
+
+        // Count one more book for the value; returns its normalized form, or null if there is none
+        String add(String text) {
+            String key = text != null ? TrigramIndex.normalize(text) : "";
+            if (key.isEmpty()) {
+                return null;
+            }
+            Map<String, Pending> changes = loading ? staged : delta;
+            Pending pending = changes.get(key);
+            if (pending == null) {
+                // Share the string when the text is already in normalized form
+                pending = new Pending(text.equals(key) ? key : text);
+                changes.put(key, pending);
+            }
+            pending.adjust++;
+            if (pending.adjust == 0) {
+                changes.remove(key);
+            }
+            return key;
+        }
+
+        void remove(String key) {
+            if (key == null) {
+                return;
+            }
+            // A pending removal has no text: its value is in the base or folding
+            Map<String, Pending> changes = loading ? staged : delta;
+            Pending pending = changes.get(key);
+            if (pending == null) {
+                pending = new Pending(null);
+                changes.put(key, pending);
+            }
+            pending.adjust--;
+            if (pending.adjust == 0) {
+                changes.remove(key);
+            }
+        }
+
+        // Fold the delta into a new base in the background once queries would spend long merging it.
+        // Caller holds the write lock.
+        void rebuildIfNeeded() {
+            if (folding == null && delta.size() > Math.max(MIN_DELTA, base.size / 256)) {
+                folding = delta;
+                delta = new TreeMap<>();
+                Base from = base;
+                TreeMap<String, Pending> changes = folding;
+                REBUILDER.execute(() -> {
+                    Base merged = from.merge(changes.keySet().toArray(new String[0]), changes);
+                    lock.writeLock().lock();
+                    try {
+                        base = merged;
+                        folding = null;
+                        rebuildIfNeeded();
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                });
+            }
+        }
+
+        // Fold the counts staged by a load in on the calling thread. Caller holds the write lock.
+        void rebuild() {
+            String[] sorted = staged.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            base = base.merge(sorted, staged);
+            staged = new HashMap<>();
+        }
+
+        // The k best values starting with prefix, in rank order. Caller holds the read lock.
+        List<Candidate> top(String prefix, int k) {
+            List<Candidate> best = new ArrayList<>(k + 1);
+            Base b = base;
+            int lo = b.lowerBound(prefix);
+            int hi = b.prefixEnd(lo, prefix);
+
+            // Values with pending changes are ranked by their adjusted counts
+            String end = prefix + Character.MAX_VALUE;
+            NavigableMap<String, Pending> folded = folding != null
+                    ? folding.subMap(prefix, true, end, false) : EMPTY;
+            NavigableMap<String, Pending> changed = delta.subMap(prefix, true, end, false);
+            for (Map.Entry<String, Pending> entry : folded.entrySet()) {
+                evaluate(best, k, b, lo, hi, entry.getKey(), entry.getValue(), changed.get(entry.getKey()));
+            }
+            for (Map.Entry<String, Pending> entry : changed.entrySet()) {
+                if (!folded.containsKey(entry.getKey())) {
+                    evaluate(best, k, b, lo, hi, entry.getKey(), null, entry.getValue());
+                }
+            }
+
+            // The rest come out of the tree best first, so stop once they cannot make the cut
+            PriorityQueue<int[]> ranges = new PriorityQueue<>((x, y) -> b.better(x[0], y[0]) == x[0] ? -1 : 1);
+            b.push(ranges, lo, hi);
+            while (!ranges.isEmpty()) {
+                int[] range = ranges.poll();
+                int index = range[0];
+                if (best.size() >= k
+                        && RANK.compare(new Candidate(b.keys[index], null, field, b.counts[index]), best.get(k - 1)) > 0) {
+                    break;
+                }
+                if (!folded.containsKey(b.keys[index]) && !changed.containsKey(b.keys[index])) {
+                    offer(best, k, new Candidate(b.keys[index], b.texts[index], field, b.counts[index]));
+                }
+                b.push(ranges, range[1], index);
+                b.push(ranges, index + 1, range[2]);
+            }
+            return best;
+        }
+
+        private void evaluate(List<Candidate> best, int k, Base b, int lo, int hi, String key,
+                              Pending folded, Pending changed) {
+            int index = Arrays.binarySearch(b.keys, lo, hi, key);
+            int count = index >= 0 ? b.counts[index] : 0;
+            String text = index >= 0 ? b.texts[index] : null;
+            if (folded != null) {
+                count += folded.adjust;
+                text = text != null ? text : folded.text;
+            }
+            if (changed != null) {
+                count += changed.adjust;
+                text = text != null ? text : changed.text;
+            }
+            if (count > 0) {
+                offer(best, k, new Candidate(key, text, field, count));
+            }
+        }
+    }
+
+    // Sorted normalized values of one field, their original text and book counts
+    private static final class Base {
+        final String[] keys;
+        final String[] texts;
+        final int[] counts;
+        final int size;
+        // tree[1] is the index of the highest count; leaves start at tree[size]
+        final int[] tree;
+
+        Base(String[] keys, String[] texts, int[] counts) {
+            this.keys = keys;
+            this.texts = texts;
+            this.counts = counts;
+            this.size = keys.length;
+            tree = new int[2 * size];
+            for (int leaf = 0; leaf < size; leaf++) {
+                tree[size + leaf] = leaf;
+            }
+            for (int node = size - 1; node > 0; node--) {
+                tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        // A new base with the changes to the sorted changedKeys applied, dropping values no book carries any more
+        Base merge(String[] changedKeys, Map<String, Pending> changes) {
+            int capacity = size + changedKeys.length;
+            String[] newKeys = new String[capacity];
+            String[] newTexts = new String[capacity];
+            int[] newCounts = new int[capacity];
+            int n = 0;
+            int i = 0;
+            int c = 0;
+            while (i < size || c < changedKeys.length) {
+                int cmp = c == changedKeys.length ? -1 : i == size ? 1 : keys[i].compareTo(changedKeys[c]);
+                String key;
+                String text;
+                int count;
+                if (cmp < 0) {
+                    key = keys[i];
+                    text = texts[i];
+                    count = counts[i++];
+                } else {
+                    key = changedKeys[c++];
+                    Pending pending = changes.get(key);
+                    if (cmp == 0) {
+                        text = texts[i];
+                        count = counts[i++] + pending.adjust;
+                    } else {
+                        text = pending.text;
+                        count = pending.adjust;
+                    }
+                }
+                if (count > 0) {
+                    newKeys[n] = key;
+                    newTexts[n] = text;
+                    newCounts[n] = count;
+                    n++;
+                }
+            }
+            return new Base(Arrays.copyOf(newKeys, n), Arrays.copyOf(newTexts, n), Arrays.copyOf(newCounts, n));
+        }
+
+        void push(PriorityQueue<int[]> ranges, int from, int to) {
+            if (from < to) {
+                ranges.add(new int[] { argmax(from, to), from, to });
+            }
+        }
+
+        // Index of the best count in [from, to)
+        int argmax(int from, int to) {
+            int best = -1;
+            for (int l = from + size, r = to + size; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    best = better(best, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    best = better(best, tree[--r]);
+                }
+            }
+            return best;
+        }
+
+        // Higher count wins; on a tie the earlier, alphabetically first value
+        int better(int a, int b) {
+            if (a < 0) {
+                return b;
+            }
+            if (b < 0) {
+                return a;
+            }
+            if (counts[a] != counts[b]) {
+                return counts[a] > counts[b] ? a : b;
+            }
+            return Math.min(a, b);
+        }
+
+        int lowerBound(String prefix) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // End of the run of values starting at from that begin with prefix
+        int prefixEnd(int from, String prefix) {
+            int low = from;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].startsWith(prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static void offer(List<Candidate> best, int k, Candidate candidate) {
+        int at = best.size();
+        while (at > 0 && RANK.compare(candidate, best.get(at - 1)) < 0) {
+            at--;
+        }
+        if (at < k) {
+            best.add(at, candidate);
+            if (best.size() > k) {
+                best.remove(k);
+            }
+        }
+    }
+
+    private static final class Pending {
+        final String text;
+        int adjust;
+
+        Pending(String text) {
+            this.text = text;
+        }
+    }
+
+    private static final class Candidate {
+        final String key;
+        final String text;
+        final String field;
+        final int count;
+
+        Candidate(String key, String text, String field, int count) {
+            this.key = key;
+            this.text = text;
+            this.field = field;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package dao;
+
+/**
+ * One typeahead completion: a book name or author starting with the typed
+ * prefix, and how many books carry it.
+ */
+public class Suggestion {
+    private final String text;
+    private final String field;
+    private final int books;
+
+    public Suggestion(String text, String field, int books) {
+        this.text = text;
+        this.field = field;
+        this.books = books;
+    }
+
+    // The name or author as first stored, with its original case and accents
+    public String getText() {
+        return text;
+    }
+
+    // "name" or "author"
+    public String getField() {
+        return field;
+    }
+
+    public int getBooks() {
+        return books;
+    }
+
+    @Override
+    public String toString() {
+        return "Suggestion [text=" + text + ", field=" + field + ", books=" + books + "]";
+    }
+}
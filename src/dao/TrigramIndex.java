@@ -0,0 +1,336 @@
+package dao;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import model.Book;
+
+/**
+ * In-memory trigram inverted index over book names and authors.
+ *
+ * Every three-character window of a normalized name or author maps to a
+ * sorted int[] posting list of book ids. A substring query intersects the
+ * posting lists of its own trigrams and then checks the few remaining
+ * candidates directly, which gives the same rows as
+ * name LIKE '%q%' OR author LIKE '%q%' under MySQL's default
+ * case- and accent-insensitive collation.
+ *
+ * The index only sees writes made through the BookDAO that owns it.
+ */
+public class TrigramIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final int NO_SLOT = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Document store: book id -> slot in the parallel arrays below
+    private final IntIntMap slotsById = new IntIntMap(1024, NO_SLOT);
+    private int[] ids = new int[1024];
+    private String[] names = new String[1024];
+    private String[] authors = new String[1024];
+    private String[] normalizedNames = new String[1024];
+    private String[] normalizedAuthors = new String[1024];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    // Posting lists: open-addressing table from packed trigram to a sorted int[] of book ids
+    private long[] gramKeys = new long[4096];
+    private int[][] postings = new int[4096][];
+    private int[] postingSizes = new int[4096];
+    private int gramCount;
+
+    public void add(int id, String name, String author) {
+        lock.writeLock().lock();
+        try {
+            if (slotsById.containsKey(id)) {
+                removeLocked(id);
+            }
+            int slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+            String normalizedName = normalize(name);
+            String normalizedAuthor = normalize(author);
+            ids[slot] = id;
+            names[slot] = name;
+            authors[slot] = author;
+            normalizedNames[slot] = normalizedName;
+            normalizedAuthors[slot] = normalizedAuthor;
+            slotsById.put(id, slot);
+
+            for (long gram : trigrams(normalizedName, normalizedAuthor)) {
+                addPosting(gram, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void update(int id, String name, String author) {
+        add(id, name, author);
+    }
+
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Books whose name or author contains the query, in id order.
+     * Returns null when the query uses LIKE wildcards the index cannot
+     * reproduce, so the caller should fall back to SQL.
+     */
+    public List<Book> search(String query) {
+        if (query == null || query.indexOf('%') >= 0 || query.indexOf('_') >= 0 || query.indexOf('\\') >= 0) {
+            return null;
+        }
+        String needle = normalize(query);
+
+        lock.readLock().lock();
+        try {
+            int[] candidates;
+            int candidateCount;
+            if (needle.length() < 3) {
+                // Too short to have a trigram: check every document
+                candidates = new int[slotsById.size()];
+                candidateCount = 0;
+                for (int slot = 0; slot < slotCount; slot++) {
+                    if (normalizedNames[slot] != null) {
+                        candidates[candidateCount++] = ids[slot];
+                    }
+                }
+                Arrays.sort(candidates, 0, candidateCount);
+            } else {
+                long[] grams = trigrams(needle, "");
+                int[] order = new int[grams.length];
+                for (int i = 0; i < grams.length; i++) {
+                    order[i] = findGram(grams[i]);
+                    if (order[i] < 0 || postingSizes[order[i]] == 0) {
+                        return new ArrayList<>();
+                    }
+                }
+                // Intersect starting from the shortest posting list
+                sortBySize(order);
+                candidates = Arrays.copyOf(postings[order[0]], postingSizes[order[0]]);
+                candidateCount = candidates.length;
+                for (int i = 1; i < order.length && candidateCount > 0; i++) {
+                    candidateCount = intersect(candidates, candidateCount, postings[order[i]], postingSizes[order[i]]);
+                }
+            }
+
+            List<Book> results = new ArrayList<>();
+            for (int i = 0; i < candidateCount; i++) {
+                int slot = slotsById.get(candidates[i]);
+                if (normalizedNames[slot].contains(needle) || normalizedAuthors[slot].contains(needle)) {
+                    results.add(new Book(ids[slot], names[slot], authors[slot]));
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Lower-case and strip accents so "Émile" matches "emile" like the MySQL collation does
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            if (lower.charAt(i) >= 0x80) {
+                return COMBINING_MARKS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+            }
+        }
+        return lower;
+    }
+
+    private void removeLocked(int id) {
+        int slot = slotsById.remove(id);
+        if (slot == NO_SLOT) {
+            return;
+        }
+        for (long gram : trigrams(normalizedNames[slot], normalizedAuthors[slot])) {
+            removePosting(gram, id);
+        }
+        names[slot] = null;
+        authors[slot] = null;
+        normalizedNames[slot] = null;
+        normalizedAuthors[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private int nextSlot() {
+        if (slotCount == ids.length) {
+            int capacity = slotCount + (slotCount >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            authors = Arrays.copyOf(authors, capacity);
+            normalizedNames = Arrays.copyOf(normalizedNames, capacity);
+            normalizedAuthors = Arrays.copyOf(normalizedAuthors, capacity);
+        }
+        return slotCount++;
+    }
+
+    // Distinct trigrams of both fields; windows never span the two fields
+    private static long[] trigrams(String first, String second) {
+        int max = Math.max(0, first.length() - 2) + Math.max(0, second.length() - 2);
+        long[] grams = new long[max];
+        int count = collect(first, grams, 0);
+        count = collect(second, grams, count);
+        Arrays.sort(grams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return distinct == grams.length ? grams : Arrays.copyOf(grams, distinct);
+    }
+
+    private static int collect(String text, long[] grams, int count) {
+        for (int i = 0; i + 2 < text.length(); i++) {
+            grams[count++] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        return count;
+    }
+
+    private int gramSlot(long gram) {
+        long h = gram * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (gramKeys.length - 1);
+    }
+
+    // Any long is a valid trigram, so a slot is in use when its posting array is non-null
+    private int findGram(long gram) {
+        int mask = gramKeys.length - 1;
+        int i = gramSlot(gram);
+        while (postings[i] != null) {
+            if (gramKeys[i] == gram) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void addPosting(long gram, int id) {
+        int i = findGram(gram);
+        if (i < 0) {
+            if ((gramCount + 1) * 4 >= gramKeys.length * 3) {
+                growGrams();
+            }
+            int mask = gramKeys.length - 1;
+            i = gramSlot(gram);
+            while (postings[i] != null) {
+                i = (i + 1) & mask;
+            }
+            gramKeys[i] = gram;
+            postings[i] = new int[2];
+            gramCount++;
+        }
+
+        int[] list = postings[i];
+        int size = postingSizes[i];
+        if (size == list.length) {
+            list = Arrays.copyOf(list, size + (size >> 1) + 1);
+            postings[i] = list;
+        }
+        if (size == 0 || list[size - 1] < id) {
+            // Ids from AUTO_INCREMENT almost always arrive in order
+            list[size] = id;
+        } else {
+            int pos = Arrays.binarySearch(list, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            System.arraycopy(list, pos, list, pos + 1, size - pos);
+            list[pos] = id;
+        }
+        postingSizes[i] = size + 1;
+    }
+
+    private void removePosting(long gram, int id) {
+        int i = findGram(gram);
+        if (i < 0) {
+            return;
+        }
+        int[] list = postings[i];
+        int size = postingSizes[i];
+        int pos = Arrays.binarySearch(list, 0, size, id);
+        if (pos >= 0) {
+            System.arraycopy(list, pos + 1, list, pos, size - pos - 1);
+            postingSizes[i] = size - 1;
+        }
+    }
+
+    private void growGrams() {
+        long[] oldKeys = gramKeys;
+        int[][] oldPostings = postings;
+        int[] oldSizes = postingSizes;
+        gramKeys = new long[oldKeys.length * 2];
+        postings = new int[oldKeys.length * 2][];
+        postingSizes = new int[oldKeys.length * 2];
+        int mask = gramKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldPostings[j] != null) {
+                int i = gramSlot(oldKeys[j]);
+                while (postings[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                gramKeys[i] = oldKeys[j];
+                postings[i] = oldPostings[j];
+                postingSizes[i] = oldSizes[j];
+            }
+        }
+    }
+
+    private void sortBySize(int[] order) {
+        // Insertion sort, queries only have a handful of trigrams
+        for (int i = 1; i < order.length; i++) {
+            int current = order[i];
+            int j = i - 1;
+            while (j >= 0 && postingSizes[order[j]] > postingSizes[current]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+    }
+
+    // Keep the entries of target[0..targetSize) that also occur in list[0..listSize); returns the new size
+    private static int intersect(int[] target, int targetSize, int[] list, int listSize) {
+        int kept = 0;
+        int from = 0;
+        for (int i = 0; i < targetSize && from < listSize; i++) {
+            int pos = Arrays.binarySearch(list, from, listSize, target[i]);
+            if (pos >= 0) {
+                target[kept++] = target[i];
+                from = pos + 1;
+            } else {
+                from = -pos - 1;
+            }
+        }
+        return kept;
+    }
+}
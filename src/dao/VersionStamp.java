@@ -0,0 +1,35 @@
+package dao;
+
+/**
+ * Version of the catalog or of one book, as handed to HTTP caches:
+ * a strong ETag and the time of the change that produced it.
+ */
+public class VersionStamp {
+    private final long version;
+    private final long lastModifiedMillis;
+    private final String etag;
+
+    public VersionStamp(long version, long lastModifiedMillis, String etag) {
+        this.version = version;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.etag = etag;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    // Quoted, ready for the ETag header
+    public String getETag() {
+        return etag;
+    }
+
+    @Override
+    public String toString() {
+        return "VersionStamp [version=" + version + ", lastModifiedMillis=" + lastModifiedMillis + ", etag=" + etag + "]";
+    }
+}
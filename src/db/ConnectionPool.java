@@ -0,0 +1,469 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import metrics.Metrics;
+
+/**
+ * A small bounded JDBC connection pool.
+ *
+ * Callers get a proxy from getConnection(); closing the proxy hands the
+ * physical connection back to the pool instead of closing it. Each physical
+ * connection keeps its own LRU cache of prepared statements keyed by SQL text.
+ *
+ * A connection held longer than the leak threshold is reported once, with
+ * where it was borrowed. Borrowers that hold a connection for long on
+ * purpose, such as a streamed export, change the threshold for their
+ * borrow with setLeakThreshold.
+ */
+public class ConnectionPool {
+
+    // Skip the validation round trip for connections returned this recently
+    private static final long VALIDATION_BYPASS_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 5_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutNanos;
+    private final long leakThresholdNanos;
+    private final int statementCacheSize;
+
+    // Idle connections, most recently returned first so hot connections stay hot
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                          long maxWaitMillis, long idleTimeoutMillis, long leakThresholdMillis,
+                          int statementCacheSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep,
+                HOUSEKEEPING_PERIOD_MILLIS, HOUSEKEEPING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        fillToMinimum();
+    }
+
+    // Borrow a connection, waiting up to maxWaitMillis when the pool is exhausted
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        waiters.incrementAndGet();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            timeouts.increment();
+            Metrics.recordConnectionAcquire(waited, false);
+            throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a connection ("
+                    + getStats() + ")");
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(openPhysical());
+            }
+            pooled.borrowedAt = System.nanoTime();
+            pooled.leakThresholdNanos = leakThresholdNanos;
+            pooled.borrowStack = leakThresholdNanos > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowed.add(pooled);
+            borrows.increment();
+            // Includes validating or opening the connection, not just waiting for a permit
+            Metrics.recordConnectionAcquire(System.nanoTime() - start, true);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            Metrics.recordConnectionAcquire(System.nanoTime() - start, false);
+            throw e;
+        }
+    }
+
+    // Report connection (from any pool) as leaked only after leakThresholdMillis instead of the
+    // pool's threshold, or never for 0. Lasts until it is returned; other connections are ignored.
+    public static void setLeakThreshold(Connection connection, long leakThresholdMillis) {
+        if (connection == null || !Proxy.isProxyClass(connection.getClass())) {
+            return;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(connection);
+        if (handler instanceof ConnectionHandle && !((ConnectionHandle) handler).closed) {
+            ((ConnectionHandle) handler).pooled.leakThresholdNanos =
+                    TimeUnit.MILLISECONDS.toNanos(Math.max(0, leakThresholdMillis));
+        }
+    }
+
+    public PoolStats getStats() {
+        return new PoolStats(borrowed.size(), idle.size(), waiters.get(), maxSize,
+                borrows.sum(), timeouts.sum(), totalWaitNanos.sum(), maxWaitNanos.get());
+    }
+
+    // Close idle connections and stop housekeeping; borrowed connections are closed on return
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closePhysical();
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.nanoTime() - pooled.lastReturned < VALIDATION_BYPASS_NANOS || isValid(pooled.physical)) {
+                return pooled;
+            }
+            pooled.closePhysical();
+        }
+        return null;
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection openPhysical() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    // Called when a caller closes its handle
+    private void release(PooledConnection pooled) {
+        borrowed.remove(pooled);
+        pooled.borrowStack = null;
+        try {
+            if (pooled.broken || closed || pooled.physical.isClosed()) {
+                pooled.closePhysical();
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                // Never hand out a connection with a half-finished transaction
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.lastReturned = System.nanoTime();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            pooled.closePhysical();
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Runs every HOUSEKEEPING_PERIOD_MILLIS; tests call it directly
+    void housekeep() {
+        try {
+            long now = System.nanoTime();
+
+            // Evict connections idle for too long, oldest first, but keep minSize open
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() + borrowed.size() > minSize) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.lastReturned > idleTimeoutNanos && idle.remove(pooled)) {
+                    pooled.closePhysical();
+                }
+            }
+
+            for (PooledConnection pooled : borrowed) {
+                Throwable stack = pooled.borrowStack;
+                long threshold = pooled.leakThresholdNanos;
+                if (!pooled.leakReported && stack != null && threshold > 0 && now - pooled.borrowedAt > threshold) {
+                    pooled.leakReported = true;
+                    System.out.println("Possible connection leak: connection held for "
+                            + TimeUnit.NANOSECONDS.toMillis(now - pooled.borrowedAt) + " ms, borrowed at "
+                            + borrowSite(stack));
+                }
+            }
+
+            fillToMinimum();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fillToMinimum() {
+        while (!closed && idle.size() + borrowed.size() < minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = new PooledConnection(openPhysical());
+                pooled.lastReturned = System.nanoTime();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    // The first few frames of the borrow outside this class, innermost first
+    private static String borrowSite(Throwable stack) {
+        StringBuilder site = new StringBuilder();
+        int frames = 0;
+        for (StackTraceElement frame : stack.getStackTrace()) {
+            String className = frame.getClassName();
+            if (className.equals(ConnectionPool.class.getName())
+                    || className.startsWith(ConnectionPool.class.getName() + "$")) {
+                continue;
+            }
+            if (frames > 0) {
+                site.append(" <- ");
+            }
+            site.append(frame);
+            if (++frames == 5) {
+                break;
+            }
+        }
+        return site.toString();
+    }
+
+    private static boolean isConnectionError(Throwable t) {
+        if (t instanceof SQLException) {
+            String state = ((SQLException) t).getSQLState();
+            return state != null && state.startsWith("08");
+        }
+        return false;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A physical connection plus its statement cache and borrow bookkeeping.
+     */
+    private final class PooledConnection {
+        final Connection physical;
+        final Map<String, PreparedStatement> statements;
+        volatile long borrowedAt;
+        volatile long leakThresholdNanos;
+        volatile long lastReturned;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+        volatile boolean broken;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new ConnectionHandle(this));
+        }
+
+        PreparedStatement prepare(String sql, Connection handle) throws SQLException {
+            if (statementCacheSize <= 0) {
+                return physical.prepareStatement(sql);
+            }
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null || stmt.isClosed()) {
+                stmt = physical.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new CachedStatementHandle(stmt, handle, this));
+        }
+
+        void closePhysical() {
+            for (PreparedStatement stmt : statements.values()) {
+                closeQuietly(stmt);
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // Already gone
+            }
+        }
+
+        private void closeQuietly(PreparedStatement stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // Ignore, the statement is being discarded
+            }
+        }
+    }
+
+    /**
+     * The Connection a caller sees for one borrow.
+     */
+    private final class ConnectionHandle implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean closed;
+
+        ConnectionHandle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (name.equals("prepareStatement") && args != null && args.length == 1) {
+                return pooled.prepare((String) args[0], (Connection) proxy);
+            }
+            try {
+                return ConnectionPool.invoke(pooled.physical, method, args);
+            } catch (Throwable t) {
+                if (isConnectionError(t)) {
+                    pooled.broken = true;
+                }
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * A cached PreparedStatement whose close() only resets it for the next borrower.
+     */
+    private static final class CachedStatementHandle implements InvocationHandler {
+        private final PreparedStatement stmt;
+        private final Connection handle;
+        private final PooledConnection pooled;
+        private boolean closed;
+
+        CachedStatementHandle(PreparedStatement stmt, Connection handle, PooledConnection pooled) {
+            this.stmt = stmt;
+            this.handle = handle;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        ResultSet rs = stmt.getResultSet();
+                        if (rs != null) {
+                            rs.close();
+                        }
+                        stmt.clearParameters();
+                        stmt.clearBatch();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return handle;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            try {
+                return ConnectionPool.invoke(stmt, method, args);
+            } catch (Throwable t) {
+                if (isConnectionError(t)) {
+                    pooled.broken = true;
+                }
+                throw t;
+            }
+        }
+    }
+}
@@ -1,18 +1,189 @@
 package db;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DBConnection {
+    // rewriteBatchedStatements lets the driver send a JDBC batch as multi-row INSERTs
+    private static final String URL = System.getProperty("library.db.url",
+            "jdbc:mysql://localhost:3306/library_db?rewriteBatchedStatements=true");
+    private static final String USER = System.getProperty("library.db.user", "charan");
+    private static final String PASSWORD = System.getProperty("library.db.password", "root");
+
+    // Pool settings, overridable with -Dlibrary.db.pool.* system properties
+    private static final int POOL_MIN_SIZE = Integer.getInteger("library.db.pool.minSize", 2);
+    private static final int POOL_MAX_SIZE = Integer.getInteger("library.db.pool.maxSize", 10);
+    private static final long POOL_MAX_WAIT_MS = Long.getLong("library.db.pool.maxWaitMillis", 5_000L);
+    private static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("library.db.pool.idleTimeoutMillis", 600_000L);
+    private static final long POOL_LEAK_THRESHOLD_MS = Long.getLong("library.db.pool.leakDetectionMillis", 60_000L);
+    private static final int POOL_STATEMENT_CACHE = Integer.getInteger("library.db.pool.statementCacheSize", 32);
+
+    // Read replicas: comma-separated JDBC URLs with the same user and password, none by default
+    private static final String REPLICA_URLS = System.getProperty("library.db.replicas", "");
+    private static final String REPLICA_SELECTION = System.getProperty("library.db.replicas.selection", "leastLoaded");
+    private static final long REPLICA_HEALTH_CHECK_MS = Long.getLong("library.db.replicas.healthCheckMillis", 5_000L);
+    private static final long READ_YOUR_WRITES_MS = Long.getLong("library.db.replicas.readYourWritesMillis", 2_000L);
+
+    private static volatile ConnectionPool pool;
+    private static volatile ReadRouter router;
+    private static volatile boolean routerStarted;
+
+    // The client of the request this thread is serving, set by the servers
+    private static final ThreadLocal<String> CLIENT = new ThreadLocal<>();
+
+    // Set while this thread's reads must see every committed write, see beginPrimaryReads
+    private static final ThreadLocal<Boolean> PRIMARY_READS = new ThreadLocal<>();
+
+    // Borrow a pooled connection; closing it returns it to the pool
     public static Connection getConnection() {
         try {
-            // Load the JDBC driver
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            // Return the connection object
-            return DriverManager.getConnection("jdbc:mysql://localhost:3306/library_db", "charan", "root");
+            return getPool().getConnection();
         } catch (ClassNotFoundException | SQLException e) {
             e.printStackTrace();
             return null;
         }
     }
+
+    // Borrow a connection for a read: a replica when one is configured and healthy, unless the
+    // thread serves no client (background work), its client wrote within the read-your-writes
+    // window or the thread is between beginPrimaryReads and endPrimaryReads
+    public static Connection getReadConnection() {
+        String client = CLIENT.get();
+        ReadRouter current = client != null && PRIMARY_READS.get() == null ? getRouter() : null;
+        if (current != null && !current.isPinned(client)) {
+            Connection con = current.borrow();
+            if (con != null) {
+                return con;
+            }
+        }
+        return getConnection();
+    }
+
+    // Mark the start of a request from client (e.g. its address) on this thread
+    public static void beginRequest(String client) {
+        CLIENT.set(client);
+    }
+
+    // Mark the end of the thread's request; after a write its client reads from the primary for a while
+    public static void endRequest(boolean wrote) {
+        String client = CLIENT.get();
+        CLIENT.remove();
+        ReadRouter current = wrote && client != null ? getRouter() : null;
+        if (current != null) {
+            current.recordWrite(client);
+        }
+    }
+
+    // When needed, send this thread's reads to the primary until endPrimaryReads, e.g. for a
+    // lookup that fills a shared cache. Returns whether this call set it; pass that to endPrimaryReads.
+    public static boolean beginPrimaryReads(boolean needed) {
+        if (!needed || PRIMARY_READS.get() != null) {
+            return false;
+        }
+        PRIMARY_READS.set(Boolean.TRUE);
+        return true;
+    }
+
+    public static void endPrimaryReads(boolean set) {
+        if (set) {
+            PRIMARY_READS.remove();
+        }
+    }
+
+    // Whether a change committed at changedAtMillis can be assumed to be on every replica.
+    // Replicas are trusted to lag by less than the read-your-writes window, as for pinning.
+    public static boolean replicasCaughtUp(long changedAtMillis) {
+        return System.currentTimeMillis() - changedAtMillis >= READ_YOUR_WRITES_MS;
+    }
+
+    // Replicas configured and currently passing their health checks
+    public static int getHealthyReplicas() {
+        ReadRouter current = router;
+        return current != null ? current.getHealthyCount() : 0;
+    }
+
+    public static PoolStats getPoolStats() {
+        ConnectionPool current = pool;
+        return current == null
+                ? new PoolStats(0, 0, 0, POOL_MAX_SIZE, 0, 0, 0, 0)
+                : current.getStats();
+    }
+
+    // A new pool for another database with the primary's user, password and pool settings,
+    // e.g. one shard; the caller closes it
+    public static ConnectionPool createPool(String url) {
+        return new ConnectionPool(url, USER, PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                POOL_MAX_WAIT_MS, POOL_IDLE_TIMEOUT_MS, POOL_LEAK_THRESHOLD_MS, POOL_STATEMENT_CACHE);
+    }
+
+    // Close all pooled connections, e.g. from a shutdown hook
+    public static synchronized void shutdown() {
+        if (router != null) {
+            router.close();
+            router = null;
+        }
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    private static ConnectionPool getPool() throws ClassNotFoundException {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DBConnection.class) {
+                current = pool;
+                if (current == null) {
+                    // Load the JDBC driver once, not on every borrow
+                    Class.forName("com.mysql.cj.jdbc.Driver");
+                    current = new ConnectionPool(URL, USER, PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                            POOL_MAX_WAIT_MS, POOL_IDLE_TIMEOUT_MS, POOL_LEAK_THRESHOLD_MS, POOL_STATEMENT_CACHE);
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Null when no replicas are configured
+    private static ReadRouter getRouter() {
+        if (routerStarted) {
+            return router;
+        }
+        synchronized (DBConnection.class) {
+            if (!routerStarted) {
+                router = createRouter();
+                routerStarted = true;
+            }
+        }
+        return router;
+    }
+
+    private static ReadRouter createRouter() {
+        List<String> urls = new ArrayList<>();
+        for (String url : REPLICA_URLS.split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        if (urls.isEmpty()) {
+            return null;
+        }
+        try {
+            getPool(); // loads the driver
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+        ReadRouter.Selection selection = REPLICA_SELECTION.equalsIgnoreCase("roundRobin")
+                ? ReadRouter.Selection.ROUND_ROBIN : ReadRouter.Selection.LEAST_LOADED;
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (String url : urls) {
+            pools.add(new ConnectionPool(url, USER, PASSWORD, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                    POOL_MAX_WAIT_MS, POOL_IDLE_TIMEOUT_MS, POOL_LEAK_THRESHOLD_MS, POOL_STATEMENT_CACHE));
+        }
+        System.out.println("Routing reads to " + urls.size() + " replica(s), " + selection);
+        return new ReadRouter(pools, urls, selection, REPLICA_HEALTH_CHECK_MS, READ_YOUR_WRITES_MS);
+    }
 }
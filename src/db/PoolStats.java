@@ -0,0 +1,74 @@
+package db;
+
+/**
+ * Point-in-time view of a ConnectionPool's counters.
+ */
+public class PoolStats {
+    private final int active;
+    private final int idle;
+    private final int waiters;
+    private final int maxSize;
+    private final long borrows;
+    private final long timeouts;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    public PoolStats(int active, int idle, int waiters, int maxSize,
+                     long borrows, long timeouts, long totalWaitNanos, long maxWaitNanos) {
+        this.active = active;
+        this.idle = idle;
+        this.waiters = waiters;
+        this.maxSize = maxSize;
+        this.borrows = borrows;
+        this.timeouts = timeouts;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    // Connections currently handed out to callers
+    public int getActive() {
+        return active;
+    }
+
+    // Open connections sitting in the pool
+    public int getIdle() {
+        return idle;
+    }
+
+    // Threads blocked waiting for a connection
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBorrows() {
+        return borrows;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public double getAverageWaitMillis() {
+        return borrows == 0 ? 0.0 : totalWaitNanos / (double) borrows / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats [active=" + active + ", idle=" + idle + ", waiters=" + waiters
+                + ", max=" + maxSize + ", borrows=" + borrows + ", timeouts=" + timeouts
+                + ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis())
+                + ", maxWaitMs=" + String.format("%.3f", maxWaitNanos / 1_000_000.0) + "]";
+    }
+}
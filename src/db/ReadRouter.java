@@ -0,0 +1,181 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the read replica for DBConnection.getReadConnection().
+ *
+ * Each replica has its own ConnectionPool. A replica that fails a borrow
+ * is marked down and skipped until the health check, which borrows and
+ * validates a connection from every replica each healthCheckMillis, finds
+ * it answering again. Selection among the healthy replicas is round-robin
+ * or least-loaded (fewest borrowed connections, round-robin among ties).
+ *
+ * The router also remembers when each client last wrote. For
+ * readYourWritesMillis afterwards that client's reads go to the primary,
+ * so a replica that has not caught up yet cannot hide its own write.
+ */
+final class ReadRouter {
+
+    enum Selection { ROUND_ROBIN, LEAST_LOADED }
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final List<Replica> replicas;
+    private final Selection selection;
+    private final long readYourWritesNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService healthChecker;
+
+    ReadRouter(List<ConnectionPool> pools, List<String> urls, Selection selection,
+               long healthCheckMillis, long readYourWritesMillis) {
+        List<Replica> list = new ArrayList<>();
+        for (int i = 0; i < pools.size(); i++) {
+            list.add(new Replica(urls.get(i), pools.get(i)));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.selection = selection;
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-replica-health");
+            t.setDaemon(true);
+            return t;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckMillis, healthCheckMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // A connection to a healthy replica, or null when the read should go to the primary
+    Connection borrow() {
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            Replica replica = choose();
+            if (replica == null) {
+                return null;
+            }
+            try {
+                return replica.pool.getConnection();
+            } catch (SQLException e) {
+                markDown(replica, e);
+            }
+        }
+        return null;
+    }
+
+    void recordWrite(String client) {
+        lastWrites.put(client, System.nanoTime());
+    }
+
+    // True while the client is inside its read-your-writes window
+    boolean isPinned(String client) {
+        Long wroteAt = lastWrites.get(client);
+        if (wroteAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - wroteAt < readYourWritesNanos) {
+            return true;
+        }
+        lastWrites.remove(client, wroteAt);
+        return false;
+    }
+
+    int getHealthyCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    int getReplicaCount() {
+        return replicas.size();
+    }
+
+    void close() {
+        healthChecker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    private Replica choose() {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        Replica best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (!replica.healthy) {
+                continue;
+            }
+            if (selection == Selection.ROUND_ROBIN) {
+                return replica;
+            }
+            int load = replica.pool.getStats().getActive();
+            if (load < bestLoad) {
+                best = replica;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            PoolStats stats = replica.pool.getStats();
+            if (replica.healthy && stats.getActive() >= stats.getMaxSize()) {
+                // Every connection is busy serving reads, which is proof enough
+                continue;
+            }
+            boolean healthy;
+            try (Connection con = replica.pool.getConnection()) {
+                healthy = con.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                healthy = false;
+            }
+            if (healthy && !replica.healthy) {
+                System.out.println("Replica " + replica.url + " is back, routing reads to it");
+            } else if (!healthy && replica.healthy) {
+                System.out.println("Replica " + replica.url + " failed its health check, reads go elsewhere");
+            }
+            replica.healthy = healthy;
+        }
+        // Forget clients whose window has passed
+        long now = System.nanoTime();
+        lastWrites.values().removeIf(wroteAt -> now - wroteAt >= readYourWritesNanos);
+    }
+
+    private static void markDown(Replica replica, SQLException e) {
+        PoolStats stats = replica.pool.getStats();
+        if (stats.getActive() >= stats.getMaxSize()) {
+            // Timed out behind other readers: busy, not down
+            return;
+        }
+        if (replica.healthy) {
+            replica.healthy = false;
+            System.out.println("Replica " + replica.url + " is down, reads go elsewhere: " + e.getMessage());
+        }
+    }
+
+    private static final class Replica {
+        final String url;
+        final ConnectionPool pool;
+        volatile boolean healthy = true;
+
+        Replica(String url, ConnectionPool pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket histogram in the shape Prometheus expects. Each observation
+ * bumps one LongAdder, so recording never blocks and stays cheap under
+ * contention; buckets are only made cumulative when scraped.
+ */
+final class Histogram {
+
+    // Bucket upper bounds in seconds, for request and query durations
+    static final double[] LATENCY_SECONDS = {
+        0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    // Finer bounds for connection acquisition, which is usually microseconds
+    static final double[] ACQUIRE_SECONDS = {
+        0.00001, 0.00005, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5
+    };
+    static final double[] ROW_COUNTS = { 0, 1, 10, 100, 1_000, 10_000, 100_000, 1_000_000 };
+
+    private final double[] bounds;
+    private final long[] rawBounds;
+    private final double unit;
+    private final LongAdder[] buckets;
+    private final LongAdder rawSum = new LongAdder();
+
+    // unit converts a raw observation into the exported unit, e.g. 1e-9 for nanoseconds to seconds
+    Histogram(double[] bounds, double unit) {
+        this.bounds = bounds;
+        this.unit = unit;
+        this.rawBounds = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            rawBounds[i] = (long) Math.ceil(bounds[i] / unit);
+        }
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void observe(long raw) {
+        int i = 0;
+        while (i < rawBounds.length && raw > rawBounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        rawSum.add(raw);
+    }
+
+    void write(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket").append(prefix).append("le=\"")
+               .append(Metrics.formatDouble(bounds[i])).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String plain = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(plain).append(' ').append(Metrics.formatDouble(rawSum.sum() * unit)).append('\n');
+        out.append(name).append("_count").append(plain).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,235 @@
+package metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics registry rendered in the Prometheus text format.
+ *
+ * Recorders are static and lock-free: a series is looked up in a
+ * ConcurrentHashMap or an AtomicReferenceArray and created on first use,
+ * after which every observation is a LongAdder increment. Gauges are
+ * suppliers that are only called when the endpoint is scraped.
+ */
+public final class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String[] METHODS = { "GET", "POST", "PUT", "DELETE", "OPTIONS", "HEAD", "PATCH", "OTHER" };
+    private static final int MIN_STATUS = 100;
+    private static final int STATUS_SLOTS = 500;
+
+    private static final ConcurrentHashMap<String, AtomicReferenceArray<Histogram>> requests = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, DaoSeries> daoMethods = new ConcurrentHashMap<>();
+    private static final Histogram connectionAcquire = new Histogram(Histogram.ACQUIRE_SECONDS, 1e-9);
+    private static final LongAdder connectionAcquireFailures = new LongAdder();
+    private static final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+    }
+
+    private static final class DaoSeries {
+        final Histogram duration = new Histogram(Histogram.LATENCY_SECONDS, 1e-9);
+        final Histogram rows = new Histogram(Histogram.ROW_COUNTS, 1);
+        final LongAdder errors = new LongAdder();
+    }
+
+    private static final class Gauge {
+        final String name;
+        final String help;
+        final String type;
+        final DoubleSupplier value;
+
+        Gauge(String name, String help, String type, DoubleSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    // One finished HTTP request; route must be a template such as /api/books/{id}, never a raw path
+    public static void recordRequest(String route, String method, int status, long nanos) {
+        AtomicReferenceArray<Histogram> series = requests.get(route);
+        if (series == null) {
+            series = requests.computeIfAbsent(route, r -> new AtomicReferenceArray<>(METHODS.length * STATUS_SLOTS));
+        }
+        int slot = methodIndex(method) * STATUS_SLOTS + Math.min(Math.max(status, MIN_STATUS), 599) - MIN_STATUS;
+        Histogram histogram = series.get(slot);
+        if (histogram == null) {
+            series.compareAndSet(slot, null, new Histogram(Histogram.LATENCY_SECONDS, 1e-9));
+            histogram = series.get(slot);
+        }
+        histogram.observe(nanos);
+    }
+
+    // One BookDAO call: its duration since startNanos and the rows it read or wrote
+    public static void recordQuery(String method, long startNanos, long rows) {
+        DaoSeries series = daoSeries(method);
+        series.duration.observe(System.nanoTime() - startNanos);
+        series.rows.observe(rows);
+    }
+
+    public static void recordQueryError(String method, long startNanos) {
+        DaoSeries series = daoSeries(method);
+        series.duration.observe(System.nanoTime() - startNanos);
+        series.errors.increment();
+    }
+
+    public static void recordConnectionAcquire(long nanos, boolean acquired) {
+        connectionAcquire.observe(nanos);
+        if (!acquired) {
+            connectionAcquireFailures.increment();
+        }
+    }
+
+    // A value read at scrape time, e.g. pool size; registering a name again replaces it
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        register(new Gauge(name, help, "gauge", value));
+    }
+
+    // A monotonically increasing total kept elsewhere, e.g. cache hits
+    public static void counter(String name, String help, DoubleSupplier value) {
+        register(new Gauge(name, help, "counter", value));
+    }
+
+    private static void register(Gauge gauge) {
+        gauges.removeIf(g -> g.name.equals(gauge.name));
+        gauges.add(gauge);
+    }
+
+    private static DaoSeries daoSeries(String method) {
+        DaoSeries series = daoMethods.get(method);
+        return series != null ? series : daoMethods.computeIfAbsent(method, m -> new DaoSeries());
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length - 1;
+    }
+
+    // The whole registry plus JVM gauges in Prometheus text exposition format
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+
+        header(out, "library_http_request_duration_seconds", "HTTP request latency by route, method and status", "histogram");
+        for (Map.Entry<String, AtomicReferenceArray<Histogram>> entry : new TreeMap<>(requests).entrySet()) {
+            AtomicReferenceArray<Histogram> series = entry.getValue();
+            for (int slot = 0; slot < series.length(); slot++) {
+                Histogram histogram = series.get(slot);
+                if (histogram != null) {
+                    String labels = "route=\"" + escape(entry.getKey()) + "\",method=\"" + METHODS[slot / STATUS_SLOTS]
+                            + "\",status=\"" + (slot % STATUS_SLOTS + MIN_STATUS) + "\"";
+                    histogram.write(out, "library_http_request_duration_seconds", labels);
+                }
+            }
+        }
+
+        Map<String, DaoSeries> dao = new TreeMap<>(daoMethods);
+        header(out, "library_dao_query_duration_seconds", "BookDAO call duration by method", "histogram");
+        for (Map.Entry<String, DaoSeries> entry : dao.entrySet()) {
+            entry.getValue().duration.write(out, "library_dao_query_duration_seconds", "method=\"" + entry.getKey() + "\"");
+        }
+        header(out, "library_dao_rows", "Rows read or written per BookDAO call", "histogram");
+        for (Map.Entry<String, DaoSeries> entry : dao.entrySet()) {
+            entry.getValue().rows.write(out, "library_dao_rows", "method=\"" + entry.getKey() + "\"");
+        }
+        header(out, "library_dao_errors_total", "BookDAO calls that failed with a database error", "counter");
+        for (Map.Entry<String, DaoSeries> entry : dao.entrySet()) {
+            out.append("library_dao_errors_total{method=\"").append(entry.getKey()).append("\"} ")
+               .append(entry.getValue().errors.sum()).append('\n');
+        }
+
+        header(out, "library_db_connection_acquire_seconds", "Time to borrow a pooled connection, including waiting", "histogram");
+        connectionAcquire.write(out, "library_db_connection_acquire_seconds", "");
+        header(out, "library_db_connection_acquire_failures_total", "Borrows that timed out or failed", "counter");
+        out.append("library_db_connection_acquire_failures_total ").append(connectionAcquireFailures.sum()).append('\n');
+
+        for (Gauge gauge : gauges) {
+            double value;
+            try {
+                value = gauge.value.getAsDouble();
+            } catch (RuntimeException e) {
+                continue;
+            }
+            header(out, gauge.name, gauge.help, gauge.type);
+            out.append(gauge.name).append(' ').append(formatDouble(value)).append('\n');
+        }
+
+        writeJvm(out);
+        return out.toString();
+    }
+
+    private static void writeJvm(StringBuilder out) {
+        List<GarbageCollectorMXBean> collectors = new ArrayList<>(ManagementFactory.getGarbageCollectorMXBeans());
+        header(out, "jvm_gc_collections_total", "Garbage collections by collector", "counter");
+        for (GarbageCollectorMXBean gc : collectors) {
+            out.append("jvm_gc_collections_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+               .append(Math.max(0, gc.getCollectionCount())).append('\n');
+        }
+        header(out, "jvm_gc_collection_seconds_total", "Time spent in garbage collection by collector", "counter");
+        for (GarbageCollectorMXBean gc : collectors) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+               .append(formatDouble(Math.max(0, gc.getCollectionTime()) / 1000.0)).append('\n');
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        header(out, "jvm_memory_bytes_used", "Used memory by area", "gauge");
+        out.append("jvm_memory_bytes_used{area=\"heap\"} ").append(heap.getUsed()).append('\n');
+        out.append("jvm_memory_bytes_used{area=\"nonheap\"} ").append(nonHeap.getUsed()).append('\n');
+        header(out, "jvm_memory_bytes_committed", "Committed memory by area", "gauge");
+        out.append("jvm_memory_bytes_committed{area=\"heap\"} ").append(heap.getCommitted()).append('\n');
+        out.append("jvm_memory_bytes_committed{area=\"nonheap\"} ").append(nonHeap.getCommitted()).append('\n');
+        header(out, "jvm_memory_bytes_max", "Maximum memory by area, -1 when unbounded", "gauge");
+        out.append("jvm_memory_bytes_max{area=\"heap\"} ").append(heap.getMax()).append('\n');
+        out.append("jvm_memory_bytes_max{area=\"nonheap\"} ").append(nonHeap.getMax()).append('\n');
+
+        header(out, "jvm_memory_pool_bytes_used", "Used heap memory by pool", "gauge");
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                out.append("jvm_memory_pool_bytes_used{pool=\"").append(escape(pool.getName())).append("\"} ")
+                   .append(pool.getUsage().getUsed()).append('\n');
+            }
+        }
+
+        header(out, "jvm_threads_current", "Live threads", "gauge");
+        out.append("jvm_threads_current ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append('\n');
+        header(out, "process_uptime_seconds", "Time since the JVM started", "gauge");
+        out.append("process_uptime_seconds ").append(formatDouble(ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0)).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String formatDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
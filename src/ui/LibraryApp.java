@@ -181,6 +181,7 @@ public class LibraryApp {
                     System.out.println(GREEN + BOLD + "Thank you for using Library Management System!" + RESET);
                     System.out.println(YELLOW + "Exiting program..." + RESET);
                     scanner.close();
+                    bookDAO.close();
                     return;
                 default:
                     System.out.println(RED + "Invalid choice, please try again." + RESET);
@@ -0,0 +1,161 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+import model.Book;
+
+/**
+ * BookJsonWriter must write the same bytes as what each server used before
+ * it: SimpleApiServer's String.format with escapeJson for SIMPLE, and
+ * new Gson().toJson for GSON, both encoded as UTF-8.
+ */
+class BookJsonWriterTest {
+
+    private static final Gson GSON = new Gson();
+
+    // Characters either format escapes or encodes specially, plus plain text around them
+    private static final String[] PIECES = {
+        "a", "Z", " ", "9", "é", "ß", "日本", "\"", "\\", "/", "\n", "\r", "\t", "\b", "\f", "\u0000", "\u0001",
+        "\u001f", "\u007f", "<", ">", "&", "=", "'", "\u2028", "\u2029", "\u00a0", "\ufeff", "😀", "\ud83d",
+        "\ude00", "\uffff"
+    };
+
+    @Test
+    void specialCharactersMatchTheOldFormats() throws IOException {
+        List<Book> books = Arrays.asList(
+                new Book(1, "Say \"hi\" \\ bye", "Tab\there\nand\rthere"),
+                new Book(2, "\b\f\u0000\u0001\u001f\u007f", "<b>Tom & Jerry</b> = 'cat'"),
+                new Book(3, "line\u2028para\u2029end", "Emoji 😀 and 日本語"),
+                new Book(4, "unpaired \ud83d high", "unpaired \ude00 low"),
+                new Book(5, "ends with high \ud83d", "\ude00 starts with low"),
+                new Book(6, null, "No title"),
+                new Book(7, "No author", null),
+                new Book(8, null, null),
+                new Book(0, "", ""),
+                new Book(-1, "negative", "id"),
+                new Book(Integer.MIN_VALUE, "smallest", "id"),
+                new Book(Integer.MAX_VALUE, "largest", "id"));
+
+        for (Book book : books) {
+            assertBookMatches(book);
+        }
+        assertListMatches(books);
+        assertListMatches(new ArrayList<>());
+    }
+
+    @Test
+    void randomStringsMatchTheOldFormats() throws IOException {
+        Random random = new Random(8);
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Book book = new Book(random.nextInt(), randomText(random), randomText(random));
+            assertBookMatches(book);
+            books.add(book);
+        }
+        assertListMatches(books);
+    }
+
+    @Test
+    void streamingWriterMatchesAcrossBufferBoundaries() throws IOException {
+        // Long enough that every few strings the buffer fills mid-character or mid-escape
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(80);
+        while (text.length() < 40_000) {
+            text.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            books.add(new Book(i, text.substring(i * 7), text.substring(0, 9_000 + i * 11)));
+        }
+
+        for (BookJsonWriter.Style style : BookJsonWriter.Style.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BookJsonWriter writer = BookJsonWriter.streaming(style, out);
+            writer.writeBooks(books);
+            writer.flush();
+            assertEquals(utf8(expectedList(style, books)), utf8(out.toByteArray()), style.name());
+        }
+    }
+
+    private static void assertBookMatches(Book book) throws IOException {
+        for (BookJsonWriter.Style style : BookJsonWriter.Style.values()) {
+            String expected = style == BookJsonWriter.Style.SIMPLE ? simpleJson(book) : GSON.toJson(book);
+            byte[] written = BookJsonWriter.forThread(style).writeBook(book).toByteArray();
+            // Compared as bytes decoded one to one, so a difference in the UTF-8 encoding shows up too
+            assertEquals(utf8(expected.getBytes(StandardCharsets.UTF_8)), utf8(written), style + " " + expected);
+        }
+    }
+
+    private static void assertListMatches(List<Book> books) throws IOException {
+        for (BookJsonWriter.Style style : BookJsonWriter.Style.values()) {
+            byte[] written = BookJsonWriter.forThread(style).writeBooks(books).toByteArray();
+            assertEquals(utf8(expectedList(style, books)), utf8(written), style.name());
+        }
+    }
+
+    private static byte[] expectedList(BookJsonWriter.Style style, List<Book> books) {
+        String json;
+        if (style == BookJsonWriter.Style.GSON) {
+            json = GSON.toJson(books);
+        } else {
+            StringBuilder list = new StringBuilder("[");
+            for (int i = 0; i < books.size(); i++) {
+                if (i > 0) {
+                    list.append(",");
+                }
+                list.append(simpleJson(books.get(i)));
+            }
+            json = list.append("]").toString();
+        }
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // SimpleApiServer's convertBookToJson and escapeJson before BookJsonWriter replaced them
+    private static String simpleJson(Book book) {
+        return String.format(
+            "{\"id\":%d,\"name\":\"%s\",\"author\":\"%s\"}",
+            book.getId(),
+            escapeJson(book.getName()),
+            escapeJson(book.getAuthor())
+        );
+    }
+
+    private static String escapeJson(String input) {
+        if (input == null) {
+            return "";
+        }
+        return input.replace("\\", "\\\\")
+                    .replace("\"", "\\\"")
+                    .replace("\n", "\\n")
+                    .replace("\r", "\\r")
+                    .replace("\t", "\\t");
+    }
+
+    private static String randomText(Random random) {
+        if (random.nextInt(20) == 0) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(12); i > 0; i--) {
+            text.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return text.toString();
+    }
+
+    // Bytes as a string of one char each, for readable assertion failures
+    private static String utf8(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,137 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import dao.BookDAO;
+import dao.BookRowHandler;
+import dao.MemoryBookStore;
+import dao.StorageException;
+
+/**
+ * An export that fails part way through must not reach the client as a
+ * complete file: the body is left unfinished and the connection dropped.
+ */
+class CatalogExportTest {
+
+    private HttpServer server;
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void failureLeavesTheBodyOpen() {
+        for (String format : new String[] {"csv", "ndjson"}) {
+            ClosingStream body = new ClosingStream();
+            assertThrows(IOException.class, () -> CatalogExport.write(failingDao(5000), format, body));
+            assertFalse(body.closed, format);
+        }
+    }
+
+    @Test
+    void completeExportIsClosed() throws Exception {
+        ClosingStream body = new ClosingStream();
+        assertEquals(3, CatalogExport.write(dao(3), "csv", body));
+        assertTrue(body.closed);
+        assertEquals("id,name,author\n1,Book 1,Author\n2,Book 2,Author\n3,Book 3,Author\n",
+                body.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void clientSeesAFailedTransfer() throws Exception {
+        URL url = serve(failingDao(20_000), false);
+        assertThrows(IOException.class, () -> readAll(url, false));
+    }
+
+    @Test
+    void gzipClientSeesAFailedTransfer() throws Exception {
+        URL url = serve(failingDao(20_000), true);
+        assertThrows(IOException.class, () -> readAll(url, true));
+    }
+
+    @Test
+    void clientReadsACompleteExport() throws Exception {
+        URL url = serve(dao(20_000), true);
+        String csv = readAll(url, true);
+        assertEquals(20_001, csv.split("\n").length);
+    }
+
+    // An HttpServer answering like SimpleApiServer's GET /api/books/export
+    private URL serve(BookDAO bookDAO, boolean gzip) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/export", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", CatalogExport.contentType("csv"));
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream body = exchange.getResponseBody();
+            CatalogExport.write(bookDAO, "csv", gzip ? ResponseCompression.gzipStream(body) : body);
+        });
+        server.start();
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/export");
+    }
+
+    private static String readAll(URL url, boolean gzip) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        assertEquals(200, con.getResponseCode());
+        try (InputStream in = gzip ? new GZIPInputStream(con.getInputStream()) : con.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static BookDAO dao(int books) {
+        MemoryBookStore store = new MemoryBookStore();
+        for (int i = 1; i <= books; i++) {
+            try {
+                store.insert("Book " + i, "Author");
+            } catch (StorageException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return new BookDAO(store);
+    }
+
+    // A store that hands over some rows and then fails, like a dropped database connection
+    private static BookDAO failingDao(int rowsBeforeFailure) {
+        return new BookDAO(new MemoryBookStore() {
+            @Override
+            public int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException {
+                for (int id = 1; id <= rowsBeforeFailure; id++) {
+                    handler.handle(id, "Book " + id, "Author");
+                }
+                throw new StorageException("Connection reset");
+            }
+        });
+    }
+
+    private static final class ClosingStream extends ByteArrayOutputStream {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dao.BookDAO;
+import dao.MemoryBookStore;
+
+/**
+ * A change feed subscriber that stops reading blocks the write to it; it is
+ * dropped after the write timeout instead of holding the only writer thread
+ * while the other subscribers wait.
+ */
+class EventStreamTest {
+
+    private BookDAO dao;
+    private EventStream stream;
+
+    @BeforeAll
+    static void configure() {
+        System.setProperty("library.events.writerThreads", "1");
+        System.setProperty("library.events.writeTimeoutMillis", "300");
+    }
+
+    @BeforeEach
+    void start() {
+        dao = new BookDAO(new MemoryBookStore());
+        stream = EventStream.start(dao, BookJsonWriter.Style.SIMPLE);
+    }
+
+    @AfterEach
+    void stop() {
+        stream.close();
+    }
+
+    @Test
+    void blockedWriteDoesNotStallOtherSubscribers() throws Exception {
+        BlockedStream blocked = new BlockedStream();
+        CountDownLatch blockedClosed = new CountDownLatch(1);
+        stream.subscribe(blocked, blockedClosed::countDown, null, null);
+        assertTrue(blocked.writing.await(5, TimeUnit.SECONDS));
+
+        Received healthy = new Received();
+        stream.subscribe(healthy, () -> { }, null, null);
+        dao.addBook("Dune", "Frank Herbert");
+
+        assertTrue(healthy.await("event: created", 5000), healthy.toString());
+        assertEquals(1, stream.getSubscriberCount());
+
+        // Without an abort the response is closed once the blocked write returns
+        assertEquals(1, blockedClosed.getCount());
+        blocked.release.countDown();
+        assertTrue(blockedClosed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void abortFailsTheBlockedWrite() throws Exception {
+        BlockedStream blocked = new BlockedStream();
+        CountDownLatch blockedClosed = new CountDownLatch(1);
+        stream.subscribe(blocked, blockedClosed::countDown, blocked::abort, null);
+        assertTrue(blocked.writing.await(5, TimeUnit.SECONDS));
+
+        assertTrue(blockedClosed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, stream.getSubscriberCount());
+
+        Received healthy = new Received();
+        stream.subscribe(healthy, () -> { }, null, null);
+        dao.addBook("Dune", "Frank Herbert");
+        assertTrue(healthy.await("event: created", 5000), healthy.toString());
+    }
+
+    // A client that never reads: every write blocks until released, or fails once aborted
+    private static final class BlockedStream extends OutputStream {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean aborted;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writing.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (aborted) {
+                throw new IOException("Connection aborted");
+            }
+        }
+
+        void abort() {
+            aborted = true;
+            release.countDown();
+        }
+    }
+
+    private static final class Received extends OutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            bytes.write(b);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            bytes.write(b, off, len);
+            notifyAll();
+        }
+
+        synchronized boolean await(String text, long millis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + millis;
+            while (!toString().contains(text)) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class JsonBodyReaderTest {
+
+    @Test
+    void readsStringMembers() throws IOException {
+        Map<String, String> book = JsonBodyReader.readObject(
+                body("{\"name\": \"Caf\\u00e9 \\\"Noir\\\"\", \"author\": \"A\", \"year\": 1999, \"tags\": [1, {\"x\": null}]}"),
+                null, 1024);
+        assertEquals("Café \"Noir\"", book.get("name"));
+        assertEquals("A", book.get("author"));
+        assertFalse(book.containsKey("year"));
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        assertThrows(IllegalArgumentException.class, () -> JsonBodyReader.readObject(body("{\"name\": }"), null, 1024));
+        assertThrows(IllegalArgumentException.class, () -> JsonBodyReader.readObject(body("{} x"), null, 1024));
+    }
+
+    @Test
+    void invalidContentLengthNamesTheBody() {
+        for (String header : new String[] {"abc", "-5", "12abc", ""}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> JsonBodyReader.readObject(body("{}"), header, 1024), header);
+            assertFalse(e instanceof NumberFormatException, header);
+            assertTrue(e.getMessage().contains("request body"), e.getMessage());
+        }
+    }
+
+    @Test
+    void declaredTooLargeIsRefusedUnread() {
+        InputStream unread = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("body was read");
+            }
+        };
+        assertThrows(JsonBodyReader.BodyTooLargeException.class,
+                () -> JsonBodyReader.readObject(unread, "2048", 1024));
+    }
+
+    @Test
+    void actualSizeIsCheckedWhateverTheHeaderSays() {
+        StringBuilder json = new StringBuilder("{\"name\": \"");
+        for (int i = 0; i < 2000; i++) {
+            json.append('x');
+        }
+        json.append("\"}");
+        assertThrows(JsonBodyReader.BodyTooLargeException.class,
+                () -> JsonBodyReader.readObject(body(json.toString()), " 10 ", 1024));
+    }
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
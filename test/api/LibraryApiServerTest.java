@@ -0,0 +1,140 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import client.BookBinaryReader;
+import dao.BookDAO;
+import dao.MemoryBookStore;
+import model.Book;
+import spark.Spark;
+
+/**
+ * Routes of the Spark server on a free port over an in-memory store; Spark
+ * holds one server per JVM, so the whole class shares it.
+ */
+class LibraryApiServerTest {
+
+    private static String base;
+
+    @BeforeAll
+    static void start() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        BookDAO dao = new BookDAO(new MemoryBookStore());
+        dao.addBook("Dune", "Frank Herbert");
+        dao.addBook("Emma", "Jane Austen");
+        dao.addBook("Dune Messiah", "Frank Herbert");
+        LibraryApiServer.start(dao, port);
+        Spark.awaitInitialization();
+        base = "http://127.0.0.1:" + port + "/api";
+    }
+
+    @AfterAll
+    static void stop() {
+        Spark.stop();
+        Spark.awaitStop();
+    }
+
+    @Test
+    void searchIsNotTakenForABookId() throws IOException {
+        HttpURLConnection con = open("/books/search?query=dune");
+
+        assertEquals(200, con.getResponseCode());
+        String body = read(con);
+        assertTrue(body.contains("\"name\":\"Dune\""), body);
+        assertTrue(body.contains("\"name\":\"Dune Messiah\""), body);
+        assertFalse(body.contains("Emma"), body);
+    }
+
+    @Test
+    void searchAnswersNotModifiedForItsETag() throws IOException {
+        HttpURLConnection first = open("/books/search?query=emma");
+        assertEquals(200, first.getResponseCode());
+        String etag = first.getHeaderField("ETag");
+        assertNotNull(etag);
+        read(first);
+
+        HttpURLConnection again = open("/books/search?query=emma");
+        again.setRequestProperty("If-None-Match", etag);
+        assertEquals(304, again.getResponseCode());
+    }
+
+    @Test
+    void searchIsServedInBinaryWhenAsked() throws IOException {
+        HttpURLConnection con = open("/books/search?query=herbert");
+        con.setRequestProperty("Accept", BookBinaryWriter.CONTENT_TYPE);
+
+        assertEquals(200, con.getResponseCode());
+        assertEquals(BookBinaryWriter.CONTENT_TYPE, con.getContentType());
+        String etag = con.getHeaderField("ETag");
+        assertTrue(etag.endsWith("-bin\""), etag);
+        List<Book> books = BookBinaryReader.readAll(new ByteArrayInputStream(readBytes(con)));
+        assertEquals(2, books.size());
+        assertEquals("Dune", books.get(0).getName());
+        assertEquals("Dune Messiah", books.get(1).getName());
+
+        // The JSON tag does not validate the binary representation
+        HttpURLConnection json = open("/books/search?query=herbert");
+        String jsonTag = json.getHeaderField("ETag");
+        HttpURLConnection again = open("/books/search?query=herbert");
+        again.setRequestProperty("Accept", BookBinaryWriter.CONTENT_TYPE);
+        again.setRequestProperty("If-None-Match", jsonTag);
+        assertEquals(200, again.getResponseCode());
+        readBytes(again);
+    }
+
+    @Test
+    void searchWithoutAQueryIsABadRequest() throws IOException {
+        HttpURLConnection con = open("/books/search");
+
+        assertEquals(400, con.getResponseCode());
+        assertTrue(read(con).contains("Search query is required"));
+    }
+
+    @Test
+    void booksAreStillFoundById() throws IOException {
+        HttpURLConnection con = open("/books/2");
+
+        assertEquals(200, con.getResponseCode());
+        assertTrue(read(con).contains("\"name\":\"Emma\""));
+        assertEquals(400, open("/books/nope").getResponseCode());
+    }
+
+    static HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL(base + path).openConnection();
+    }
+
+    static String read(HttpURLConnection con) throws IOException {
+        return new String(readBytes(con), StandardCharsets.UTF_8);
+    }
+
+    static byte[] readBytes(HttpURLConnection con) throws IOException {
+        InputStream in = con.getResponseCode() < 400 ? con.getInputStream() : con.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            bytes.write(buf, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,114 @@
+package api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Requests over the in-flight limit are answered with 503 as soon as they
+ * arrive rather than after waiting behind the queued ones.
+ */
+class RequestExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private HttpServer server;
+    private RequestExecutor executor;
+    private ExecutorService clients;
+
+    @BeforeEach
+    void start() throws IOException {
+        // One worker, and one more request allowed to queue behind it
+        System.setProperty("library.server.threads", "1");
+        System.setProperty("library.server.maxInFlight", "2");
+        executor = RequestExecutor.fromSystemProperties();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/slow", executor.admit(exchange -> {
+            started.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ok().handle(exchange);
+        }));
+        server.createContext("/metrics", ok());
+        server.start();
+        clients = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdown();
+        clients.shutdownNow();
+    }
+
+    @Test
+    void shedsAtTheLimitWithoutQueueing() throws Exception {
+        Future<Integer> running = clients.submit(() -> status("/slow"));
+        started.await(10, TimeUnit.SECONDS);
+        Future<Integer> queued = clients.submit(() -> status("/slow"));
+        waitForInFlight(2);
+
+        // Answered while the worker is still blocked, so it cannot have queued
+        assertEquals(503, status("/slow"));
+        assertEquals(1, executor.getRejected());
+        // Handlers outside admit() still run
+        assertEquals(200, status("/metrics"));
+
+        release.countDown();
+        assertEquals(200, running.get(10, TimeUnit.SECONDS));
+        assertEquals(200, queued.get(10, TimeUnit.SECONDS));
+        assertEquals(200, status("/slow"));
+    }
+
+    private void waitForInFlight(int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && executor.getInFlight() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, executor.getInFlight());
+    }
+
+    private int status(String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setReadTimeout(5_000);
+        int code = con.getResponseCode();
+        try (InputStream in = code < 400 ? con.getInputStream() : con.getErrorStream()) {
+            if (in != null) {
+                in.readAllBytes();
+            }
+        }
+        return code;
+    }
+
+    private static HttpHandler ok() {
+        return exchange -> {
+            byte[] body = "{}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import api.BookBinaryWriter;
+import api.BookJsonWriter;
+import model.Book;
+
+/**
+ * Books written by api.BookBinaryWriter and read back by BookBinaryReader
+ * must come out as the same JSON as the originals, whichever JSON style is
+ * used. Also covers the framing rules readers depend on: unknown trailing
+ * fields are skipped and a body cut off inside a frame is an EOFException.
+ */
+class BookBinaryReaderTest {
+
+    private static final List<Book> BOOKS = Arrays.asList(
+            new Book(1, "Dune", "Frank Herbert"),
+            new Book(2, null, "Anonymous"),
+            new Book(3, "Untitled", null),
+            new Book(4, null, null),
+            new Book(5, "", ""),
+            new Book(6, "Cien años de soledad", "Gabriel García Márquez"),
+            new Book(7, "Straße", "Ödön von Horváth"),
+            new Book(8, "吾輩は猫である", "夏目漱石"),
+            new Book(9, "Emoji 📚🐉 and 👩‍💻", "Flag 🇫🇷"),
+            new Book(10, "Lone \ud800 surrogate", "Separators \u2028 and \u2029"),
+            new Book(200, "Quotes \" and \\ and \n newline", "Tab\tcontrol\u0001"),
+            new Book(Integer.MAX_VALUE, "x".repeat(20_000), "é".repeat(70)));
+
+    @Test
+    void roundTripMatchesTheJsonOfTheOriginals() throws IOException {
+        byte[] body = BookBinaryWriter.forThread().writeBooks(BOOKS).toByteArray();
+
+        List<Book> decoded = BookBinaryReader.readAll(new ByteArrayInputStream(body));
+
+        assertEquals(BOOKS.size(), decoded.size());
+        for (BookJsonWriter.Style style : BookJsonWriter.Style.values()) {
+            assertEquals(json(style, BOOKS), json(style, decoded), style.name());
+        }
+    }
+
+    @Test
+    void streamingWriterProducesTheSameBytes() throws IOException {
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        BookBinaryWriter writer = BookBinaryWriter.streaming(streamed);
+        writer.writeBooks(BOOKS).flush();
+
+        assertArrayEquals(BookBinaryWriter.forThread().writeBooks(BOOKS).toByteArray(), streamed.toByteArray());
+    }
+
+    @Test
+    void emptyBodyHasNoBooks() throws IOException {
+        assertEquals(0, BookBinaryReader.readAll(new ByteArrayInputStream(new byte[0])).size());
+    }
+
+    @Test
+    void unknownTrailingFieldsAreSkipped() throws IOException {
+        byte[] frame = BookBinaryWriter.forThread().writeBook(new Book(42, "Emma", "Jane Austen")).toByteArray();
+        // Fields a newer server might add after the author: a varint and a string
+        byte[] extra = {(byte) 0x96, 0x01, 4, 'n', 'e', 'w'};
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int fields = frame.length - 1; // the frame length of this small book is one byte
+        body.write(fields + extra.length);
+        body.write(frame, 1, fields);
+        body.write(extra);
+        body.write(BookBinaryWriter.forThread().writeBook(new Book(43, "Persuasion", "Jane Austen")).toByteArray());
+
+        List<Book> books = BookBinaryReader.readAll(new ByteArrayInputStream(body.toByteArray()));
+
+        assertEquals(Arrays.asList("42|Emma|Jane Austen", "43|Persuasion|Jane Austen"),
+                Arrays.asList(text(books.get(0)), text(books.get(1))));
+        assertEquals(2, books.size());
+    }
+
+    @Test
+    void bodyCutInsideAFrameIsAnEofException() throws IOException {
+        byte[] body = BookBinaryWriter.forThread().writeBooks(BOOKS.subList(0, 3)).toByteArray();
+        byte[] cut = Arrays.copyOf(body, body.length - 3);
+
+        BookBinaryReader reader = new BookBinaryReader(new ByteArrayInputStream(cut));
+        assertEquals("Dune", reader.next().getName());
+        assertEquals("Anonymous", reader.next().getAuthor());
+        assertThrows(EOFException.class, reader::next);
+    }
+
+    @Test
+    void bodyCutInsideAFrameLengthIsAnEofException() throws IOException {
+        // A frame over 127 bytes has a two-byte length; keep only the first
+        byte[] body = BookBinaryWriter.forThread().writeBook(new Book(1, "x".repeat(200), "y")).toByteArray();
+
+        assertThrows(EOFException.class,
+                () -> BookBinaryReader.readAll(new ByteArrayInputStream(Arrays.copyOf(body, 1))));
+    }
+
+    private static String json(BookJsonWriter.Style style, List<Book> books) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BookJsonWriter.streaming(style, out).writeBooks(books).flush();
+        return out.toString("UTF-8");
+    }
+
+    private static String text(Book book) {
+        return book.getId() + "|" + book.getName() + "|" + book.getAuthor();
+    }
+}
@@ -0,0 +1,189 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * BookCache's eviction order, expiry, shared loads, and the invalidation
+ * generation that keeps a load which overlapped a write out of the cache.
+ */
+class BookCacheTest {
+
+    // The "database": current title per id, and how often each id was loaded
+    private final ConcurrentHashMap<Integer, String> titles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AtomicInteger> loads = new ConcurrentHashMap<>();
+
+    @Test
+    void leastRecentlyUsedBookIsEvicted() {
+        BookCache cache = new BookCache(3, 0);
+        for (int id = 1; id <= 3; id++) {
+            get(cache, id);
+        }
+        // 1 is now the most recently used, so 2 is the eldest
+        get(cache, 1);
+        get(cache, 4);
+
+        get(cache, 1);
+        get(cache, 3);
+        get(cache, 4);
+        assertEquals(1, loads(1));
+        assertEquals(1, loads(3));
+        assertEquals(1, loads(4));
+        get(cache, 2);
+        assertEquals(2, loads(2));
+        assertEquals(2, cache.getStats().getEvictions());
+        assertEquals(3, cache.getStats().getSize());
+    }
+
+    @Test
+    void expiredBookIsLoadedAgain() throws Exception {
+        BookCache cache = new BookCache(10, 50);
+        get(cache, 1);
+        get(cache, 1);
+        assertEquals(1, loads(1));
+
+        Thread.sleep(100);
+        get(cache, 1);
+
+        assertEquals(2, loads(1));
+        assertEquals(1, cache.getStats().getExpirations());
+    }
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        BookCache cache = new BookCache(10, 0);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        titles.put(1, "Dune");
+
+        List<CompletableFuture<Book>> readers = new ArrayList<>();
+        readers.add(CompletableFuture.supplyAsync(() -> cache.get(1, id -> {
+            loading.countDown();
+            await(release);
+            return load(id);
+        })));
+        loading.await();
+        for (int i = 0; i < 3; i++) {
+            readers.add(CompletableFuture.supplyAsync(() -> cache.get(1, this::load)));
+        }
+        while (cache.getStats().getCoalesced() < 3) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        List<Book> books = new ArrayList<>();
+        for (CompletableFuture<Book> reader : readers) {
+            books.add(reader.get(5, TimeUnit.SECONDS));
+            assertEquals("Dune", books.get(books.size() - 1).getName());
+        }
+        assertEquals(1, loads(1));
+        // Each caller gets its own copy of the mutable Book
+        assertNotSame(books.get(0), books.get(1));
+        books.get(0).setName("Changed by a caller");
+        assertEquals("Dune", cache.get(1, this::load).getName());
+    }
+
+    @Test
+    void failedLoadReachesEveryWaiterAndIsNotCached() throws Exception {
+        BookCache cache = new BookCache(10, 0);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Book> first = CompletableFuture.supplyAsync(() -> cache.get(1, id -> {
+            loading.countDown();
+            await(release);
+            throw new IllegalStateException("Database down");
+        }));
+        loading.await();
+        CompletableFuture<Book> second = CompletableFuture.supplyAsync(() -> cache.get(1, this::load));
+        while (cache.getStats().getCoalesced() < 1) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertThrows(Exception.class, () -> second.get(5, TimeUnit.SECONDS));
+        titles.put(1, "Dune");
+        assertEquals("Dune", cache.get(1, this::load).getName());
+    }
+
+    @Test
+    void loadOverlappingAWriteIsNotStored() throws Exception {
+        BookCache cache = new BookCache(10, 0);
+        titles.put(1, "Dune");
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Reads the row, then stalls before handing it back, as a slow query would
+        CompletableFuture<Book> slow = CompletableFuture.supplyAsync(() -> cache.get(1, id -> {
+            Book row = load(id);
+            read.countDown();
+            await(release);
+            return row;
+        }));
+        read.await();
+        // A write commits and invalidates while the load is still running
+        titles.put(1, "Dune Messiah");
+        cache.invalidate(1);
+
+        // A reader after the write does not join the stale load
+        assertEquals("Dune Messiah", cache.get(1, this::load).getName());
+        release.countDown();
+        assertEquals("Dune", slow.get(5, TimeUnit.SECONDS).getName());
+
+        // The stale row did not replace the newer one
+        assertEquals("Dune Messiah", cache.get(1, this::load).getName());
+        cache.invalidate(1);
+        titles.put(1, "Children of Dune");
+        assertEquals("Children of Dune", cache.get(1, this::load).getName());
+    }
+
+    @Test
+    void missingBookIsNotCached() {
+        BookCache cache = new BookCache(10, 0);
+
+        assertNull(cache.get(7, this::load));
+        assertNull(cache.get(7, this::load));
+
+        assertEquals(2, loads(7));
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    private Book get(BookCache cache, int id) {
+        titles.putIfAbsent(id, "Book " + id);
+        return cache.get(id, this::load);
+    }
+
+    private Book load(int id) {
+        loads.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+        String title = titles.get(id);
+        return title == null ? null : new Book(id, title, "Author");
+    }
+
+    private int loads(int id) {
+        AtomicInteger count = loads.get(id);
+        return count == null ? 0 : count.get();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * importBooks keeps totals for every chunk but lists only the chunks that had
+ * a problem, at most ImportReport.MAX_LISTED of them.
+ */
+class BookDAOImportTest {
+
+    @Test
+    void cleanChunksAreOnlyCounted() {
+        BookDAO dao = new BookDAO(new MemoryBookStore());
+
+        ImportReport report = dao.importBooks(books(2500, 0), 1000);
+
+        assertEquals(2500, report.getRecords());
+        assertEquals(2500, report.getInserted());
+        assertEquals(3, report.getChunks());
+        assertEquals(0, report.getProblemChunks().size());
+        assertEquals(2500, dao.viewAllBooks().size());
+    }
+
+    @Test
+    void problemChunksAreListedUpToTheLimit() {
+        BookDAO dao = new BookDAO(new MemoryBookStore());
+        int chunks = ImportReport.MAX_LISTED + 30;
+
+        // One record in 11 has no author, so each chunk of 10 books has one rejected record
+        ImportReport report = dao.importBooks(books(chunks * 11, 11), 10);
+
+        assertEquals(chunks * 11, report.getRecords());
+        assertEquals(chunks, report.getChunks());
+        assertEquals(chunks, report.getRejected());
+        assertEquals(chunks * 10, report.getInserted());
+        assertEquals(ImportReport.MAX_LISTED, report.getProblemChunks().size());
+        assertEquals(30, report.getUnlistedProblemChunks());
+        assertEquals(1, report.getProblemChunks().get(0).getRejected());
+    }
+
+    @Test
+    void rolledBackChunksAreCountedAsFailed() {
+        BookDAO dao = new BookDAO(new MemoryBookStore() {
+            private int calls;
+
+            @Override
+            public synchronized int[] insertAll(List<Book> batch) throws StorageException {
+                if (++calls == 2) {
+                    throw new StorageException("disk full");
+                }
+                return super.insertAll(batch);
+            }
+        });
+
+        ImportReport report = dao.importBooks(books(300, 0), 100);
+
+        assertEquals(200, report.getInserted());
+        assertEquals(1, report.getFailedChunks());
+        ImportChunkResult failed = report.getProblemChunks().get(0);
+        assertEquals(2, failed.getChunk());
+        assertEquals(101, failed.getFirstRecord());
+        assertFalse(failed.isCommitted());
+    }
+
+    // count books; with every > 0, records 1, every + 1, 2 * every + 1, ... have no author
+    private static BookSource books(int count, int every) {
+        int[] n = {0};
+        return () -> {
+            if (n[0] == count) {
+                return null;
+            }
+            n[0]++;
+            return new Book(0, "Book " + n[0], every > 0 && n[0] % every == 1 ? "" : "Author");
+        };
+    }
+}
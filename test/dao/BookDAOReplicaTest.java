@@ -0,0 +1,111 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import db.DBConnection;
+import model.Book;
+
+/**
+ * BookDAO on a primary and one read replica, two H2 databases set up as
+ * library.db.url and library.db.replicas before DBConnection first loads.
+ * The stand-in replica never replicates: each database starts with its own
+ * copy of every book, so a read's result shows which one answered.
+ */
+class BookDAOReplicaTest {
+
+    private static final long READ_YOUR_WRITES_MILLIS = 300;
+
+    @BeforeAll
+    static void startDatabases() throws Exception {
+        String primary = EmbeddedDatabase.create();
+        String replica = EmbeddedDatabase.create();
+        seed(primary, "Primary copy");
+        seed(replica, "Replica copy");
+        System.setProperty("library.db.url", primary);
+        System.setProperty("library.db.user", "sa");
+        System.setProperty("library.db.password", "");
+        System.setProperty("library.db.replicas", replica);
+        System.setProperty("library.db.replicas.readYourWritesMillis", Long.toString(READ_YOUR_WRITES_MILLIS));
+    }
+
+    @AfterAll
+    static void stopDatabases() {
+        DBConnection.shutdown();
+    }
+
+    @Test
+    void cacheMissesAreLoadedFromThePrimary() throws Exception {
+        BookDAO dao = quietDAO();
+
+        DBConnection.beginRequest("10.0.0.2");
+        try {
+            // Uncached reads of a catalog that has not changed lately use the replica...
+            assertEquals("Replica copy 1", name(dao.viewAllBooks(), 1));
+            // ...but a row that goes into the cache is served to everyone for its TTL
+            assertEquals("Primary copy 1", dao.getBookById(1).getName());
+            assertEquals("Primary copy 1", dao.getBookById(1).getName());
+        } finally {
+            DBConnection.endRequest(false);
+        }
+    }
+
+    @Test
+    void readsAfterAChangeAreFromThePrimaryUntilReplicasCatchUp() throws Exception {
+        BookDAO dao = quietDAO();
+
+        DBConnection.beginRequest("10.0.0.1");
+        dao.updateBook(2, "Updated", "Author 2");
+        DBConnection.endRequest(true);
+
+        // Another client takes the new version and must not get the replica's old rows under it
+        DBConnection.beginRequest("10.0.0.2");
+        try {
+            assertEquals("Updated", name(dao.viewAllBooks(), 2));
+            assertEquals("Updated", name(dao.viewBooksPage(1, 10), 2));
+            assertEquals("Updated", name(dao.getBooksByIds(new int[] {2}), 2));
+            assertEquals(1, dao.searchBook("Updated").size());
+            assertEquals("Updated", dao.getBookById(2).getName());
+
+            Thread.sleep(READ_YOUR_WRITES_MILLIS + 100);
+            assertEquals("Replica copy 2", name(dao.viewAllBooks(), 2));
+        } finally {
+            DBConnection.endRequest(false);
+        }
+    }
+
+    // A BookDAO whose startup is longer ago than the replicas are allowed to lag
+    private static BookDAO quietDAO() throws InterruptedException {
+        BookDAO dao = new BookDAO(new JdbcBookStore());
+        Thread.sleep(READ_YOUR_WRITES_MILLIS + 100);
+        return dao;
+    }
+
+    private static void seed(String url, String name) throws Exception {
+        try (Connection con = DriverManager.getConnection(url, "sa", "");
+             PreparedStatement stmt = con.prepareStatement("INSERT INTO books (name, author) VALUES (?, ?)")) {
+            for (int i = 1; i <= 3; i++) {
+                stmt.setString(1, name + " " + i);
+                stmt.setString(2, "Author " + i);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private static String name(List<Book> books, int id) {
+        for (Book book : books) {
+            if (book.getId() == id) {
+                return book.getName();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,156 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * The search index and change feed must end up agreeing with the store when
+ * writes to one book race, and a rebuild of the index must keep the writes
+ * made while it scans.
+ */
+class BookDAOWriteOrderTest {
+
+    @Test
+    void deleteRacingTheInsertWins() throws Exception {
+        BookDAO[] dao = new BookDAO[1];
+        MemoryBookStore store = new MemoryBookStore() {
+            @Override
+            public int insert(String name, String author) throws StorageException {
+                int id = super.insert(name, author);
+                // Another client deletes the new id before the inserting thread has updated the indexes
+                runOnOtherThread(() -> dao[0].deleteBook(id));
+                return id;
+            }
+        };
+        dao[0] = newDao(store);
+
+        dao[0].addBook("Racing Book", "Someone");
+
+        assertEquals(0, dao[0].searchBook("racing").size());
+        assertEquals(BookEvent.Type.DELETED, lastEvent(dao[0], 1).getType());
+    }
+
+    @Test
+    void updateRacingTheInsertWins() throws Exception {
+        BookDAO[] dao = new BookDAO[1];
+        MemoryBookStore store = new MemoryBookStore() {
+            @Override
+            public int insert(String name, String author) throws StorageException {
+                int id = super.insert(name, author);
+                runOnOtherThread(() -> dao[0].updateBook(id, "Renamed Book", "Someone"));
+                return id;
+            }
+        };
+        dao[0] = newDao(store);
+
+        dao[0].addBook("Original Book", "Someone");
+
+        assertEquals(0, dao[0].searchBook("original").size());
+        assertEquals(1, dao[0].searchBook("renamed").size());
+        assertEquals("Renamed Book", lastEvent(dao[0], 1).getName());
+    }
+
+    @Test
+    void concurrentUpdatesLeaveIndexMatchingStore() throws Exception {
+        MemoryBookStore store = new MemoryBookStore();
+        BookDAO dao = newDao(store);
+        for (int i = 0; i < 4; i++) {
+            dao.addBook("start" + i, "author");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            writers.add(pool.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    int id = 1 + ThreadLocalRandom.current().nextInt(4);
+                    dao.updateBook(id, "title" + thread + "x" + i + "z", "author");
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        for (Book book : store.contents().values()) {
+            List<Book> found = dao.searchBook(book.getName());
+            assertEquals(1, found.size(), book.getName());
+            assertEquals(book.getId(), found.get(0).getId());
+            assertEquals(book.getName(), lastEvent(dao, book.getId()).getName());
+        }
+    }
+
+    @Test
+    void rebuildKeepsWritesMadeDuringTheScan() throws Exception {
+        BookDAO[] dao = new BookDAO[1];
+        boolean[] writing = {false};
+        MemoryBookStore store = new MemoryBookStore() {
+            @Override
+            public int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException {
+                // The rows are read before the writes below, so the scan hands over their old values
+                return super.scan(afterId, limit, (id, name, author) -> {
+                    handler.handle(id, name, author);
+                    if (writing[0] && id == 1) {
+                        dao[0].updateBook(2, "Second Edition", "Author");
+                        dao[0].deleteBook(3);
+                        dao[0].addBook("Fourth", "Author");
+                    }
+                });
+            }
+        };
+        dao[0] = newDao(store);
+        dao[0].addBook("First", "Author");
+        dao[0].addBook("Second", "Author");
+        dao[0].addBook("Third", "Author");
+
+        writing[0] = true;
+        dao[0].buildSearchIndex();
+
+        assertEquals(1, dao[0].searchBook("second edition").size());
+        assertEquals(0, dao[0].searchBook("third").size());
+        assertEquals(1, dao[0].searchBook("fourth").size());
+        assertEquals(3, dao[0].searchBook("author").size());
+    }
+
+    private static BookDAO newDao(BookStore store) {
+        BookDAO dao = new BookDAO(store);
+        dao.buildSearchIndex();
+        return dao;
+    }
+
+    private static BookEvent lastEvent(BookDAO dao, int bookId) {
+        BookEvent last = null;
+        for (BookEvent event : dao.getEventsSince(0, Integer.MAX_VALUE)) {
+            if (event.getBookId() == bookId) {
+                last = event;
+            }
+        }
+        assertTrue(last != null, "no event for book " + bookId);
+        return last;
+    }
+
+    private static void runOnOtherThread(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * Concurrent lookups are answered by one findByIds, and every caller gets
+ * a Book of its own.
+ */
+class BookLoaderTest {
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private MemoryBookStore store;
+    private BookLoader loader;
+
+    @BeforeEach
+    void open() throws Exception {
+        store = new MemoryBookStore() {
+            @Override
+            public synchronized List<Book> findByIds(int[] ids) throws StorageException {
+                queries.incrementAndGet();
+                return super.findByIds(ids);
+            }
+        };
+        store.insert("Dune", "Frank Herbert");
+        store.insert("Emma", "Jane Austen");
+    }
+
+    @AfterEach
+    void close() {
+        loader.close();
+    }
+
+    @Test
+    void concurrentLoadsShareOneQuery() throws Exception {
+        int[] ids = {1, 2, 1, 1, 99, 2};
+        // The batch fills up long before the window ends, so it is handled as soon as the last id arrives
+        loader = new BookLoader(store, ids.length, 10_000_000);
+
+        List<CompletableFuture<Book>> futures = loadConcurrently(ids);
+
+        List<Book> books = new ArrayList<>();
+        for (CompletableFuture<Book> future : futures) {
+            books.add(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, queries.get());
+        assertEquals("Dune|Frank Herbert", BookStoreContract.text(books.get(0)));
+        assertEquals("Emma|Jane Austen", BookStoreContract.text(books.get(1)));
+        assertEquals("Dune|Frank Herbert", BookStoreContract.text(books.get(2)));
+        assertNull(books.get(4));
+        assertEquals("Emma|Jane Austen", BookStoreContract.text(books.get(5)));
+    }
+
+    @Test
+    void duplicateIdsGetTheirOwnCopy() throws Exception {
+        loader = new BookLoader(store, 3, 10_000_000);
+
+        List<CompletableFuture<Book>> futures = loadConcurrently(new int[] {1, 1, 1});
+        Book first = futures.get(0).get(10, TimeUnit.SECONDS);
+        Book second = futures.get(1).get(10, TimeUnit.SECONDS);
+        Book third = futures.get(2).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, queries.get());
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertNotSame(first, third);
+        assertNotSame(store.findById(1), first);
+        first.setName("Changed by one caller");
+        assertEquals("Dune", second.getName());
+        assertEquals("Dune", store.findById(1).getName());
+    }
+
+    @Test
+    void loadsAfterCloseFail() throws Exception {
+        loader = new BookLoader(store, 8, 0);
+        assertEquals("Dune|Frank Herbert", BookStoreContract.text(loader.load(1).get(10, TimeUnit.SECONDS)));
+
+        loader.close();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> loader.load(1).get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof StorageException);
+    }
+
+    // Call load() for each id from its own thread, all at once
+    private List<CompletableFuture<Book>> loadConcurrently(int[] ids) throws InterruptedException {
+        List<CompletableFuture<Book>> futures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < ids.length; i++) {
+            futures.add(null);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                futures.set(index, loader.load(ids[index]));
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return futures;
+    }
+}
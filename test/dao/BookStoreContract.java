@@ -0,0 +1,178 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * What BookDAO relies on from every BookStore. Each implementation's test
+ * extends this and opens an empty store; BookStore's comments are the spec.
+ */
+abstract class BookStoreContract {
+
+    protected BookStore store;
+
+    // A new store with no books in it
+    protected abstract BookStore openStore() throws Exception;
+
+    @BeforeEach
+    void open() throws Exception {
+        store = openStore();
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void insertedBooksCanBeReadBack() throws Exception {
+        int first = store.insert("Dune", "Frank Herbert");
+        int second = store.insert("Emma", "Jane Austen");
+
+        assertNotEquals(first, second);
+        assertEquals("Dune|Frank Herbert", text(store.findById(first)));
+        assertEquals("Emma|Jane Austen", text(store.findById(second)));
+        assertNull(store.findById(second + 1000));
+    }
+
+    @Test
+    void updateAndDeleteReportWhetherTheBookExisted() throws Exception {
+        int id = store.insert("Dune", "Frank Herbert");
+
+        assertEquals(1, store.update(id, "Dune Messiah", "Frank Herbert"));
+        assertEquals("Dune Messiah|Frank Herbert", text(store.findById(id)));
+        assertEquals(1, store.delete(id));
+        assertNull(store.findById(id));
+        assertEquals(0, store.update(id, "Children of Dune", "Frank Herbert"));
+        assertEquals(0, store.delete(id));
+        assertNull(store.findById(id));
+    }
+
+    @Test
+    void insertAllReturnsTheNewIdsInOrder() throws Exception {
+        int[] ids = store.insertAll(books(5));
+
+        assertEquals(5, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Book " + (i + 1) + "|Author " + (i + 1), text(store.findById(ids[i])));
+        }
+        assertEquals(0, store.insertAll(new ArrayList<>()).length);
+    }
+
+    @Test
+    void applyAllReportsEachWrite() throws Exception {
+        int kept = store.insert("Dune", "Frank Herbert");
+        int removed = store.insert("Emma", "Jane Austen");
+
+        int[] results = store.applyAll(Arrays.asList(
+                BookWrite.insert("Ulysses", "James Joyce"),
+                BookWrite.update(kept, "Dune Messiah", "Frank Herbert"),
+                BookWrite.delete(removed),
+                BookWrite.delete(removed),
+                BookWrite.update(removed, "Persuasion", "Jane Austen")));
+
+        assertEquals("Ulysses|James Joyce", text(store.findById(results[0])));
+        assertArrayEquals(new int[] {1, 1, 0, 0}, Arrays.copyOfRange(results, 1, 5));
+        assertEquals("Dune Messiah|Frank Herbert", text(store.findById(kept)));
+        assertNull(store.findById(removed));
+    }
+
+    @Test
+    void findByIdsSkipsMissingIdsAndSortsById() throws Exception {
+        int[] ids = store.insertAll(books(4));
+        store.delete(ids[1]);
+
+        List<Book> found = store.findByIds(new int[] {ids[3], ids[1], ids[0], ids[3] + 1000});
+
+        assertEquals(Arrays.asList(ids[0], ids[3]), ids(found));
+    }
+
+    @Test
+    void pagesWalkTheCatalogInIdOrder() throws Exception {
+        int[] ids = store.insertAll(books(25));
+        store.delete(ids[10]);
+
+        List<Integer> walked = new ArrayList<>();
+        int after = 0;
+        for (List<Book> page = store.findPage(after, 7); !page.isEmpty(); page = store.findPage(after, 7)) {
+            walked.addAll(ids(page));
+            after = page.get(page.size() - 1).getId();
+        }
+
+        List<Integer> expected = Arrays.stream(ids).boxed().filter(id -> id != ids[10]).collect(Collectors.toList());
+        assertEquals(expected, walked);
+        assertEquals(expected, ids(store.findAll()));
+    }
+
+    @Test
+    void scanHandsOverRowsAfterTheCursor() throws Exception {
+        int[] ids = store.insertAll(books(10));
+
+        List<String> rows = new ArrayList<>();
+        int handled = store.scan(ids[3], 4, (id, name, author) -> rows.add(id + "|" + name));
+        assertEquals(4, handled);
+        assertEquals(Arrays.asList(ids[4] + "|Book 5", ids[5] + "|Book 6", ids[6] + "|Book 7", ids[7] + "|Book 8"), rows);
+
+        rows.clear();
+        assertEquals(10, store.scan(0, 0, (id, name, author) -> rows.add(name)));
+        assertEquals(10, rows.size());
+    }
+
+    @Test
+    void nothingComesAfterTheLargestId() throws Exception {
+        store.insertAll(books(3));
+
+        assertEquals(0, store.findPage(Integer.MAX_VALUE, 10).size());
+        assertEquals(0, store.scan(Integer.MAX_VALUE, 0, (id, name, author) -> { }));
+        assertEquals(3, store.findPage(Integer.MIN_VALUE, 10).size());
+    }
+
+    @Test
+    void searchIgnoresCaseAndAccents() throws Exception {
+        int camus = store.insert("L'Étranger", "Albert Camus");
+        int garcia = store.insert("Cien años de soledad", "Gabriel García Márquez");
+        int dune = store.insert("Dune", "Frank Herbert");
+
+        assertEquals(Arrays.asList(camus), sorted(store.search("etrang")));
+        assertEquals(Arrays.asList(garcia), sorted(store.search("GARCIA")));
+        assertEquals(Arrays.asList(garcia), sorted(store.search("anos de")));
+        assertEquals(Arrays.asList(camus, garcia, dune), sorted(store.search("AN")));
+        assertEquals(0, store.search("tolstoy").size());
+    }
+
+    static List<Book> books(int count) {
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            books.add(new Book(0, "Book " + i, "Author " + i));
+        }
+        return books;
+    }
+
+    static String text(Book book) {
+        return book == null ? null : book.getName() + "|" + book.getAuthor();
+    }
+
+    static List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::getId).collect(Collectors.toList());
+    }
+
+    // Search results in id order; the SQL search has no ORDER BY
+    private static List<Integer> sorted(List<Book> books) {
+        return books.stream().sorted(Comparator.comparingInt(Book::getId)).map(Book::getId)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,182 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * A snapshot reopened after later writes reads the same books as the
+ * store: journaled updates and deletes, inserts above the largest id, and
+ * writes in flight while a snapshot rotates the journal. A damaged file is
+ * ignored. Snapshots are left unclosed where a test stands in for a
+ * process that died before its last snapshot.
+ */
+class CatalogSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private MemoryBookStore store;
+    private BookScan storeScan;
+
+    @BeforeEach
+    void fill() throws Exception {
+        store = new MemoryBookStore();
+        store.insert("Dune", "Frank Herbert");
+        store.insert("L'Étranger", "Albert Camus");
+        store.insert("Cien años de soledad", "Gabriel García Márquez");
+        store.insert("神曲 📚", null);
+        store.insert("Emma", "Jane Austen");
+        storeScan = handler -> store.scan(0, 0, handler);
+    }
+
+    @Test
+    void reopenedSnapshotMatchesTheStore() throws Exception {
+        CatalogSnapshot snapshot = new CatalogSnapshot(dir, 0);
+        assertNull(snapshot.open(store));
+        snapshot.write(storeScan);
+
+        // Writes as BookDAO makes them: journaled before an update or delete, after an insert
+        snapshot.changed(2);
+        store.update(2, "The Stranger", "Albert Camus");
+        snapshot.changed(4);
+        store.delete(4);
+        snapshot.changed(store.insert("Persuasion", "Jane Austen"));
+        // Not journaled, but above the snapshot's largest id
+        store.insert("Ulysses", "James Joyce");
+        snapshot.changed(5);
+        store.delete(5);
+
+        BookScan reopened = new CatalogSnapshot(dir, 0).open(store);
+
+        assertNotNull(reopened);
+        assertEquals(rows(storeScan), rows(reopened));
+    }
+
+    @Test
+    void writeInFlightDuringRotationIsReconciled() throws Exception {
+        CatalogSnapshot snapshot = new CatalogSnapshot(dir, 0);
+        snapshot.open(store);
+        snapshot.write(storeScan);
+
+        // Journaled before write() rotates the journal, applied only after the snapshot has read the book
+        snapshot.changed(3);
+        snapshot.write(handler -> {
+            int count = storeScan.scan(handler);
+            store.update(3, "One Hundred Years of Solitude", "Gabriel García Márquez");
+            return count;
+        });
+        snapshot.write(storeScan);
+        snapshot.changed(1);
+        snapshot.write(handler -> {
+            int count = storeScan.scan(handler);
+            store.update(1, "Dune Messiah", "Frank Herbert");
+            return count;
+        });
+
+        BookScan reopened = new CatalogSnapshot(dir, 0).open(store);
+
+        assertEquals(rows(storeScan), rows(reopened));
+        // Journals the newest snapshot no longer needs are gone
+        assertEquals(3, journals().size());
+    }
+
+    @Test
+    void tornJournalEntryIsDropped() throws Exception {
+        CatalogSnapshot snapshot = new CatalogSnapshot(dir, 0);
+        snapshot.open(store);
+        snapshot.write(storeScan);
+        snapshot.changed(2);
+        store.update(2, "The Stranger", "Albert Camus");
+        Path journal = journals().get(journals().size() - 1);
+        // Half of the next id, as if the process died while appending it
+        Files.write(journal, new byte[] {0, 0}, StandardOpenOption.APPEND);
+
+        BookScan reopened = new CatalogSnapshot(dir, 0).open(store);
+
+        assertNotNull(reopened);
+        assertEquals(rows(storeScan), rows(reopened));
+    }
+
+    @Test
+    void corruptedSnapshotIsIgnored() throws Exception {
+        writeAndClose();
+        Path file = dir.resolve("catalog.snap");
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 3] ^= 1;
+        Files.write(file, bytes);
+
+        assertNull(new CatalogSnapshot(dir, 0).open(store));
+    }
+
+    @Test
+    void truncatedSnapshotIsIgnored() throws Exception {
+        writeAndClose();
+        try (FileChannel channel = FileChannel.open(dir.resolve("catalog.snap"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        assertNull(new CatalogSnapshot(dir, 0).open(store));
+    }
+
+    @Test
+    void snapshotOfAnotherFormatIsIgnored() throws Exception {
+        writeAndClose();
+        try (FileChannel channel = FileChannel.open(dir.resolve("catalog.snap"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 2), 4);
+        }
+
+        assertNull(new CatalogSnapshot(dir, 0).open(store));
+    }
+
+    @Test
+    void intactSnapshotIsUsed() throws Exception {
+        writeAndClose();
+
+        BookScan reopened = new CatalogSnapshot(dir, 0).open(store);
+
+        assertNotNull(reopened);
+        assertEquals(rows(storeScan), rows(reopened));
+    }
+
+    // Open, take the last snapshot at close, as a clean shutdown does
+    private void writeAndClose() {
+        CatalogSnapshot snapshot = new CatalogSnapshot(dir, 0);
+        snapshot.open(store);
+        snapshot.close(storeScan);
+    }
+
+    private static List<String> rows(BookScan scan) throws Exception {
+        List<String> rows = new ArrayList<>();
+        scan.scan((id, name, author) -> rows.add(id + "|" + name + "|" + author));
+        return rows;
+    }
+
+    // Journal files in generation order
+    private List<Path> journals() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("catalog.changes."))
+                    .sorted((a, b) -> Long.compare(generation(a), generation(b)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long generation(Path journal) {
+        return Long.parseLong(journal.getFileName().toString().substring("catalog.changes.".length()));
+    }
+}
@@ -0,0 +1,49 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import db.ConnectionPool;
+
+/**
+ * In-memory H2 databases in MySQL mode standing in for library_db in the
+ * tests, as in the benchmarks. The collation compares at primary strength,
+ * so LIKE ignores case and accents the way MySQL's default collation does.
+ *
+ * JdbcBookStore reads library.db.streamFetchSize once; the pom sets it for
+ * the test JVMs because H2 rejects MySQL's MIN_VALUE streaming hint.
+ */
+final class EmbeddedDatabase {
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private EmbeddedDatabase() {
+    }
+
+    // URL of a new, empty database with the books table from db_setup.sql
+    static String create() throws SQLException {
+        String url = "jdbc:h2:mem:library_test_" + COUNTER.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        try (Connection con = DriverManager.getConnection(url, "sa", "");
+             Statement stmt = con.createStatement()) {
+            // Must come before any table exists
+            stmt.execute("SET COLLATION ENGLISH STRENGTH PRIMARY");
+            stmt.execute("CREATE TABLE books ("
+                    + "id INT AUTO_INCREMENT PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL, "
+                    + "author VARCHAR(255) NOT NULL)");
+        }
+        return url;
+    }
+
+    static ConnectionPool pool(String url) {
+        return new ConnectionPool(url, "sa", "", 1, 4, 5_000, 600_000, 60_000, 32);
+    }
+
+    // A JdbcBookStore on a new database; closing the store closes its pool
+    static JdbcBookStore newStore() throws SQLException {
+        return new JdbcBookStore(pool(create()));
+    }
+}
@@ -0,0 +1,92 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * A failed group commit fails every write in it, because the commit may
+ * have gone through; only a batch the store rolled back before committing
+ * is split and retried.
+ */
+class GroupCommitterTest {
+
+    private GroupCommitter committer;
+
+    @AfterEach
+    void close() {
+        committer.close();
+    }
+
+    @Test
+    void failedCommitFailsTheBatchWithoutRetrying() throws Exception {
+        MemoryBookStore store = new MemoryBookStore() {
+            @Override
+            public synchronized int[] applyAll(List<BookWrite> writes) throws StorageException {
+                super.applyAll(writes);
+                // Committed, but the acknowledgement was lost with the connection
+                throw new StorageException("Communications link failure");
+            }
+        };
+        committer = new GroupCommitter(store, 3, 5_000_000);
+
+        List<CompletableFuture<Integer>> futures = submitInserts("Dune", "Emma", "Ulysses");
+
+        for (CompletableFuture<Integer> future : futures) {
+            assertTrue(failed(future));
+        }
+        assertEquals(3, store.contents().size());
+    }
+
+    @Test
+    void rolledBackBatchIsRetriedWriteByWrite() throws Exception {
+        MemoryBookStore store = new MemoryBookStore() {
+            @Override
+            public synchronized int[] applyAll(List<BookWrite> writes) throws StorageException {
+                for (BookWrite write : writes) {
+                    if (write.getAuthor() == null) {
+                        throw new StorageException(new IllegalArgumentException("author is null"), true);
+                    }
+                }
+                return super.applyAll(writes);
+            }
+        };
+        committer = new GroupCommitter(store, 3, 5_000_000);
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        futures.add(committer.submit(BookWrite.insert("Dune", "Frank Herbert")));
+        futures.add(committer.submit(BookWrite.insert("No author", null)));
+        futures.add(committer.submit(BookWrite.insert("Emma", "Jane Austen")));
+
+        assertFalse(failed(futures.get(0)));
+        assertTrue(failed(futures.get(1)));
+        assertFalse(failed(futures.get(2)));
+        assertEquals(2, store.contents().size());
+    }
+
+    private List<CompletableFuture<Integer>> submitInserts(String... names) {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (String name : names) {
+            futures.add(committer.submit(BookWrite.insert(name, "Author")));
+        }
+        return futures;
+    }
+
+    private static boolean failed(CompletableFuture<Integer> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The BookStore contract against JdbcBookStore on an in-memory H2 database.
+ */
+class JdbcBookStoreTest extends BookStoreContract {
+
+    @Override
+    protected BookStore openStore() throws Exception {
+        return EmbeddedDatabase.newStore();
+    }
+
+    @Test
+    void failedStatementReportsTheBatchRolledBack() throws Exception {
+        store.insert("Dune", "Frank Herbert");
+
+        // author is NOT NULL, so the second statement fails before the commit
+        StorageException e = assertThrows(StorageException.class, () -> store.applyAll(Arrays.asList(
+                BookWrite.insert("Emma", "Jane Austen"),
+                BookWrite.insert("No author", null))));
+
+        assertTrue(e.isRolledBack());
+        assertEquals(1, store.findAll().size());
+    }
+}
@@ -0,0 +1,144 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import model.Book;
+
+/**
+ * The BookStore contract against LogBookStore, plus what only the log does:
+ * reopening, cutting off a torn tail after a crash, and compaction.
+ * Background compaction is off; the tests call compact() themselves.
+ */
+class LogBookStoreTest extends BookStoreContract {
+
+    @TempDir
+    Path dir;
+
+    @Override
+    protected BookStore openStore() throws Exception {
+        return open(dir);
+    }
+
+    private static LogBookStore open(Path dir) throws Exception {
+        return new LogBookStore(dir, true, 0.5, 0, 0);
+    }
+
+    @Test
+    void booksSurviveAReopen() throws Exception {
+        int[] ids = store.insertAll(books(3));
+        store.update(ids[0], "Renamed", "Someone");
+        store.delete(ids[1]);
+        store.close();
+
+        store = open(dir);
+
+        assertEquals("Renamed|Someone", text(store.findById(ids[0])));
+        assertNull(store.findById(ids[1]));
+        assertEquals("Book 3|Author 3", text(store.findById(ids[2])));
+        // Ids are never reused, even for a deleted last book
+        store.delete(ids[2]);
+        store.close();
+        store = open(dir);
+        assertTrue(store.insert("New", "Book") > ids[2]);
+    }
+
+    @Test
+    void tornTailIsCutOffAndKeptAside() throws Exception {
+        int first = store.insert("Dune", "Frank Herbert");
+        int[] batch = store.insertAll(books(3));
+        store.close();
+
+        // A crash part way through writing the batch leaves its transaction incomplete
+        Path log = dir.resolve("books.log");
+        long size = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 5);
+        }
+
+        store = open(dir);
+
+        assertEquals("Dune|Frank Herbert", text(store.findById(first)));
+        for (int id : batch) {
+            assertNull(store.findById(id));
+        }
+        assertEquals(1, store.findAll().size());
+        assertEquals(1, damagedFiles().size());
+        assertTrue(Files.size(log) < size - 5);
+
+        // The log takes writes again where the intact part ends
+        int next = store.insert("Emma", "Jane Austen");
+        store.close();
+        store = open(dir);
+        assertEquals("Emma|Jane Austen", text(store.findById(next)));
+        assertEquals(2, store.findAll().size());
+    }
+
+    @Test
+    void garbageAfterTheLastRecordIsCutOff() throws Exception {
+        int id = store.insert("Dune", "Frank Herbert");
+        store.close();
+
+        Path log = dir.resolve("books.log");
+        long size = Files.size(log);
+        Files.write(log, new byte[] {0, 0, 1, 0, 42, 42, 42}, StandardOpenOption.APPEND);
+
+        store = open(dir);
+
+        assertEquals("Dune|Frank Herbert", text(store.findById(id)));
+        assertEquals(size, Files.size(log));
+        assertEquals(1, damagedFiles().size());
+    }
+
+    @Test
+    void compactionDropsGarbageAndKeepsLiveBooks() throws Exception {
+        int[] ids = store.insertAll(books(200));
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 4 != 0) {
+                store.delete(ids[i]);
+            } else {
+                store.update(ids[i], "Kept " + i, "Author " + i);
+            }
+        }
+        List<Book> before = store.findAll();
+        Path log = dir.resolve("books.log");
+        long size = Files.size(log);
+
+        ((LogBookStore) store).compact();
+
+        assertTrue(Files.size(log) < size / 4, Files.size(log) + " of " + size + " bytes left");
+        assertEquals(texts(before), texts(store.findAll()));
+        assertEquals(4, store.search("kept 12").size()); // 12, 120, 124 and 128
+
+        // Writes go to the new log and everything is there after a reopen
+        int added = store.insert("After", "Compaction");
+        store.close();
+        store = open(dir);
+        assertEquals(51, store.findAll().size());
+        assertEquals("After|Compaction", text(store.findById(added)));
+        assertTrue(added > ids[ids.length - 1]);
+    }
+
+    private List<Path> damagedFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("books.log.damaged-"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> texts(List<Book> books) {
+        return books.stream().map(b -> b.getId() + "|" + text(b)).collect(Collectors.toList());
+    }
+}
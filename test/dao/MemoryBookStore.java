@@ -0,0 +1,141 @@
+package dao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import model.Book;
+
+/**
+ * BookStore over a TreeMap for tests of BookDAO and the servers.
+ * Subclasses override the methods they need to slow down or fail.
+ */
+public class MemoryBookStore implements BookStore {
+
+    private final TreeMap<Integer, Book> books = new TreeMap<>();
+    private int nextId = 1;
+
+    @Override
+    public synchronized int insert(String name, String author) throws StorageException {
+        int id = nextId++;
+        books.put(id, new Book(id, name, author));
+        return id;
+    }
+
+    @Override
+    public synchronized int[] insertAll(List<Book> batch) throws StorageException {
+        int[] ids = new int[batch.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = insert(batch.get(i).getName(), batch.get(i).getAuthor());
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized int[] applyAll(List<BookWrite> writes) throws StorageException {
+        int[] results = new int[writes.size()];
+        for (int i = 0; i < results.length; i++) {
+            BookWrite write = writes.get(i);
+            switch (write.getType()) {
+                case INSERT:
+                    results[i] = insert(write.getName(), write.getAuthor());
+                    break;
+                case UPDATE:
+                    results[i] = update(write.getId(), write.getName(), write.getAuthor());
+                    break;
+                default:
+                    results[i] = delete(write.getId());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized int update(int id, String name, String author) throws StorageException {
+        if (!books.containsKey(id)) {
+            return 0;
+        }
+        books.put(id, new Book(id, name, author));
+        return 1;
+    }
+
+    @Override
+    public synchronized int delete(int id) throws StorageException {
+        return books.remove(id) != null ? 1 : 0;
+    }
+
+    @Override
+    public synchronized Book findById(int id) throws StorageException {
+        return books.get(id);
+    }
+
+    @Override
+    public synchronized List<Book> findByIds(int[] ids) throws StorageException {
+        List<Book> found = new ArrayList<>();
+        for (int id : ids) {
+            if (books.containsKey(id)) {
+                found.add(books.get(id));
+            }
+        }
+        found.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        return found;
+    }
+
+    @Override
+    public synchronized List<Book> findAll() throws StorageException {
+        return new ArrayList<>(books.values());
+    }
+
+    @Override
+    public synchronized List<Book> findPage(int afterId, int limit) throws StorageException {
+        List<Book> page = new ArrayList<>();
+        for (Book book : books.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(book);
+        }
+        return page;
+    }
+
+    // Rows are handed over outside the lock, like a streamed ResultSet that other writers do not wait for
+    @Override
+    public int scan(int afterId, int limit, BookRowHandler handler) throws StorageException, IOException {
+        List<Book> rows;
+        synchronized (this) {
+            rows = new ArrayList<>(books.tailMap(afterId, false).values());
+        }
+        int count = 0;
+        for (Book book : rows) {
+            if (limit > 0 && count == limit) {
+                break;
+            }
+            handler.handle(book.getId(), book.getName(), book.getAuthor());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized List<Book> search(String query) throws StorageException {
+        String needle = TrigramIndex.normalize(query);
+        List<Book> found = new ArrayList<>();
+        for (Book book : books.values()) {
+            if (TrigramIndex.normalize(book.getName()).contains(needle)
+                    || TrigramIndex.normalize(book.getAuthor()).contains(needle)) {
+                found.add(book);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    synchronized Map<Integer, Book> contents() {
+        return new TreeMap<>(books);
+    }
+}
@@ -0,0 +1,254 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * ResidentCatalog must answer page, scan, search and get exactly as the
+ * store does, while ids arrive out of order the way BookIdAllocator blocks
+ * of several servers hand them out, and across compactions of its arrays
+ * and its text arena. Text is stored as UTF-8 and must come back unchanged.
+ */
+class ResidentCatalogTest {
+
+    // Each plain letter with variants that fold to it, as in TrigramIndexTest
+    private static final String[] LETTERS = {
+        "aAáÁàâ", "eEéÉèê", "iIíÎ", "oOöÖô", "uUüÜú", "nNñÑ", "cCçÇ", "sS", "tT", "rR", " ", "1",
+    };
+
+    private static final int SERVERS = 3;
+    private static final int BLOCK = 50;
+
+    private final Random random = new Random(20240805);
+    private JdbcBookStore store;
+    private ResidentCatalog catalog;
+
+    @BeforeEach
+    void open() throws Exception {
+        store = EmbeddedDatabase.newStore();
+        catalog = new ResidentCatalog();
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void readsMatchTheStoreWhileIdsArriveOutOfOrder() throws Exception {
+        // Server s owns blocks s, s + SERVERS, ...; whichever server inserts next uses its own next id,
+        // so most inserts land below the newest id and go through the late buffer
+        int[] nextId = new int[SERVERS];
+        for (int server = 0; server < SERVERS; server++) {
+            nextId[server] = server * BLOCK + 1;
+        }
+        List<Integer> live = new ArrayList<>();
+        for (int round = 1; round <= 5; round++) {
+            for (int batch = 0; batch < 25; batch++) {
+                List<BookWrite> writes = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    int pick = random.nextInt(10);
+                    if (pick < 8 || live.isEmpty()) {
+                        int server = random.nextInt(SERVERS);
+                        int id = nextId[server]++;
+                        if (id % BLOCK == 0) {
+                            nextId[server] += (SERVERS - 1) * BLOCK;
+                        }
+                        writes.add(BookWrite.insert(id, word(3, 30), word(2, 20)));
+                        live.add(id);
+                    } else if (pick == 8) {
+                        writes.add(BookWrite.update(live.get(random.nextInt(live.size())), word(3, 30), word(2, 20)));
+                    } else {
+                        writes.add(BookWrite.delete(live.remove(random.nextInt(live.size()))));
+                    }
+                }
+                apply(writes);
+            }
+            assertSameAsStore(Arrays.stream(nextId).max().getAsInt());
+        }
+    }
+
+    @Test
+    void compactionKeepsEveryRow() throws Exception {
+        Map<Integer, Book> expected = new TreeMap<>();
+        for (int id = 1001; id <= 3000; id++) {
+            put(expected, id, word(400, 800), word(10, 40));
+        }
+        // Still in the late buffer when the first rewrite starts
+        for (int id = 1; id <= 500; id++) {
+            put(expected, id, word(400, 800), null);
+        }
+        long before = catalog.heapBytes();
+
+        // Without compaction the arena would end up holding six versions of every row
+        for (int round = 0; round < 5; round++) {
+            for (int id : new ArrayList<>(expected.keySet())) {
+                put(expected, id, word(400, 800), random.nextBoolean() ? word(10, 40) : null);
+            }
+        }
+        long after = catalog.heapBytes();
+        assertTrue(after < 3 * before, "heap " + after + " after rewrites, " + before + " before");
+        assertSameAs(expected);
+
+        // Deleting most rows compacts the slot arrays
+        for (int id : new ArrayList<>(expected.keySet())) {
+            if (random.nextInt(5) > 0) {
+                catalog.remove(id);
+                expected.remove(id);
+            }
+        }
+        assertSameAs(expected);
+        for (int id = 3001; id <= 3100; id++) {
+            put(expected, id, word(3, 30), word(2, 20));
+        }
+        assertSameAs(expected);
+    }
+
+    @Test
+    void nonAsciiTextRoundTrips() throws Exception {
+        Map<Integer, Book> expected = new TreeMap<>();
+        String[][] rows = {
+            {"L'Étranger", "Albert Camus"},
+            {"Война и мир", "Лев Толстой"},
+            {"百年孤独", "加西亚·马尔克斯"},
+            {"𝔘𝔫𝔦 😀", "Emoji📚"},
+            {"Cafe\u0301 au lait", null},
+            {"", "�\u0000 "},
+            {"Ω≈ç√∫ ß ﬁ", "Ñandú"},
+            {"é".repeat(600_000), "Oversized"},
+        };
+        for (int i = 0; i < rows.length; i++) {
+            put(expected, (rows.length - i) * 10, rows[i][0], rows[i][1]);
+        }
+        assertSameAs(expected);
+
+        assertEquals(Arrays.asList(80), ids(catalog.search("etranger")));
+        assertEquals(Arrays.asList(70), ids(catalog.search("ВОЙНА")));
+        assertEquals(Arrays.asList(60), ids(catalog.search("孤独")));
+        assertEquals(Arrays.asList(50), ids(catalog.search("😀")));
+        assertEquals(Arrays.asList(20), ids(catalog.search("nandu")));
+        assertEquals(Arrays.asList(10), ids(catalog.search("éé")));
+        assertEquals(0, catalog.search("tolkien").size());
+    }
+
+    // Writes to the store, then to the catalog for the writes that took effect, as BookDAO does
+    private void apply(List<BookWrite> writes) throws Exception {
+        int[] results = store.applyAll(writes);
+        for (int i = 0; i < results.length; i++) {
+            BookWrite write = writes.get(i);
+            switch (write.getType()) {
+                case INSERT:
+                    catalog.put(results[i], write.getName(), write.getAuthor());
+                    break;
+                case UPDATE:
+                    if (results[i] > 0) {
+                        catalog.put(write.getId(), write.getName(), write.getAuthor());
+                    }
+                    break;
+                default:
+                    if (results[i] > 0) {
+                        catalog.remove(write.getId());
+                    }
+            }
+        }
+    }
+
+    private void assertSameAsStore(int maxId) throws Exception {
+        List<Book> all = store.findAll();
+        assertEquals(all.size(), catalog.size());
+        assertEquals(rows(all), rows(catalog.all()));
+
+        int limit = 1 + random.nextInt(200);
+        int after = 0;
+        for (List<Book> page = store.findPage(after, limit); !page.isEmpty(); page = store.findPage(after, limit)) {
+            assertEquals(rows(page), rows(catalog.page(after, limit)), "page after " + after);
+            after = page.get(page.size() - 1).getId();
+        }
+        assertEquals(0, catalog.page(after, limit).size());
+
+        for (int i = 0; i < 10; i++) {
+            int cursor = random.nextInt(maxId);
+            int count = random.nextInt(4) == 0 ? 0 : random.nextInt(1500);
+            List<String> expected = new ArrayList<>();
+            List<String> actual = new ArrayList<>();
+            assertEquals(store.scan(cursor, count, (id, name, author) -> expected.add(id + "|" + name + "|" + author)),
+                    catalog.scan(cursor, count, (id, name, author) -> actual.add(id + "|" + name + "|" + author)));
+            assertEquals(expected, actual, "scan after " + cursor + " limit " + count);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            String query = word(1, 5);
+            assertEquals(ids(store.search(query)), ids(catalog.search(query)), "query \"" + query + "\"");
+        }
+
+        for (int i = 0; i < 200; i++) {
+            int id = 1 + random.nextInt(maxId);
+            assertEquals(BookStoreContract.text(store.findById(id)), BookStoreContract.text(catalog.get(id)), "id " + id);
+        }
+    }
+
+    private void assertSameAs(Map<Integer, Book> expected) throws Exception {
+        List<Book> books = new ArrayList<>(expected.values());
+        assertEquals(books.size(), catalog.size());
+        assertEquals(rows(books), rows(catalog.all()));
+        assertEquals(rows(books.subList(0, Math.min(7, books.size()))), rows(catalog.page(Integer.MIN_VALUE, 7)));
+
+        List<Book> scanned = new ArrayList<>();
+        assertEquals(books.size(), catalog.scan(0, 0, (id, name, author) -> scanned.add(new Book(id, name, author))));
+        assertEquals(rows(books), rows(scanned));
+
+        for (Book book : books) {
+            assertEquals(row(book), row(catalog.get(book.getId())));
+        }
+        assertNull(catalog.get(Integer.MAX_VALUE));
+    }
+
+    private void put(Map<Integer, Book> expected, int id, String name, String author) {
+        catalog.put(id, name, author);
+        expected.put(id, new Book(id, name, author));
+    }
+
+    // Random text over LETTERS, picking a random variant of each letter
+    private String word(int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            String variants = LETTERS[random.nextInt(LETTERS.length)];
+            sb.append(variants.charAt(random.nextInt(variants.length())));
+        }
+        return sb.toString();
+    }
+
+    private static String row(Book book) {
+        return book.getId() + "|" + book.getName() + "|" + book.getAuthor();
+    }
+
+    private static List<String> rows(List<Book> books) {
+        List<String> rows = new ArrayList<>();
+        for (Book book : books) {
+            rows.add(row(book));
+        }
+        return rows;
+    }
+
+    // Sorted, since the SQL search has no ORDER BY
+    private static List<Integer> ids(List<Book> books) {
+        List<Integer> ids = BookStoreContract.ids(books);
+        ids.sort(null);
+        return ids;
+    }
+}
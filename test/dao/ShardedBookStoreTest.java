@@ -0,0 +1,155 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * The BookStore contract against ShardedBookStore over three H2 databases,
+ * placed by hash and by range, plus the undo of inserts when one shard
+ * fails and the scan merge across SCAN_PAGE boundaries.
+ */
+class ShardedBookStoreTest {
+
+    private static final int SHARDS = 3;
+
+    abstract class ShardedContract extends BookStoreContract {
+
+        // Shard 1 rejects writes while this is set
+        volatile boolean failShard;
+
+        abstract ShardedBookStore.Placement placement();
+
+        @Override
+        protected BookStore openStore() throws Exception {
+            List<JdbcBookStore> shards = new ArrayList<>();
+            for (int shard = 0; shard < SHARDS; shard++) {
+                JdbcBookStore store = shard == 1 ? new FailingShard(this) : EmbeddedDatabase.newStore();
+                shards.add(store);
+            }
+            String first = EmbeddedDatabase.create();
+            try (Connection con = DriverManager.getConnection(first, "sa", "");
+                 Statement stmt = con.createStatement()) {
+                stmt.execute("CREATE TABLE book_id_sequence (next_id INT NOT NULL)");
+                stmt.execute("INSERT INTO book_id_sequence (next_id) VALUES (1)");
+            }
+            // Small blocks and ranges, so a few dozen books already reach every shard
+            return new ShardedBookStore(shards, placement(), 10,
+                    new BookIdAllocator(EmbeddedDatabase.pool(first), 7), SHARDS);
+        }
+
+        @Test
+        void everyShardHoldsBooks() throws Exception {
+            int[] ids = store.insertAll(books(40));
+
+            ShardedBookStore sharded = (ShardedBookStore) store;
+            for (int shard = 0; shard < SHARDS; shard++) {
+                int index = shard;
+                assertTrue(Arrays.stream(ids).anyMatch(id -> sharded.shardOf(id) == index));
+            }
+        }
+
+        @Test
+        void failedInsertAllUndoesTheOtherShards() throws Exception {
+            int kept = store.insert("Dune", "Frank Herbert");
+            failShard = true;
+
+            assertThrows(StorageException.class, () -> store.insertAll(books(40)));
+
+            failShard = false;
+            assertEquals(Arrays.asList(kept), ids(store.findAll()));
+        }
+
+        @Test
+        void failedApplyAllUndoesInsertsButKeepsUpdates() throws Exception {
+            int kept = store.insert("Dune", "Frank Herbert");
+            List<BookWrite> writes = new ArrayList<>();
+            writes.add(BookWrite.update(kept, "Dune Messiah", "Frank Herbert"));
+            for (Book book : books(40)) {
+                writes.add(BookWrite.insert(book.getName(), book.getAuthor()));
+            }
+            failShard = true;
+
+            assertThrows(StorageException.class, () -> store.applyAll(writes));
+
+            failShard = false;
+            assertEquals(Arrays.asList(kept), ids(store.findAll()));
+            // Unless kept lives on the failed shard, its update was committed and stays
+            String expected = ((ShardedBookStore) store).shardOf(kept) == 1 ? "Dune" : "Dune Messiah";
+            assertEquals(expected + "|Frank Herbert", text(store.findById(kept)));
+        }
+
+        @Test
+        void scanMergesShardsAcrossPageBoundaries() throws Exception {
+            // More than SCAN_PAGE books on at least one shard, so cursors fetch further pages
+            int[] ids = store.insertAll(books(3500));
+            store.delete(ids[999]);
+            List<Integer> expected = Arrays.stream(ids).boxed().filter(id -> id != ids[999]).sorted()
+                    .collect(Collectors.toList());
+
+            List<Integer> scanned = new ArrayList<>();
+            assertEquals(expected.size(), store.scan(0, 0, (id, name, author) -> scanned.add(id)));
+            assertEquals(expected, scanned);
+
+            scanned.clear();
+            int after = expected.get(1200);
+            assertEquals(1500, store.scan(after, 1500, (id, name, author) -> scanned.add(id)));
+            assertEquals(expected.subList(1201, 2701), scanned);
+        }
+    }
+
+    @Nested
+    class HashPlacement extends ShardedContract {
+        @Override
+        ShardedBookStore.Placement placement() {
+            return ShardedBookStore.Placement.HASH;
+        }
+    }
+
+    @Nested
+    class RangePlacement extends ShardedContract {
+        @Override
+        ShardedBookStore.Placement placement() {
+            return ShardedBookStore.Placement.RANGE;
+        }
+    }
+
+    // A shard that rejects writes, before touching its database, while its test says so
+    private static final class FailingShard extends JdbcBookStore {
+        private final ShardedContract test;
+
+        FailingShard(ShardedContract test) throws Exception {
+            super(EmbeddedDatabase.pool(EmbeddedDatabase.create()));
+            this.test = test;
+        }
+
+        @Override
+        public int[] insertAll(List<Book> books) throws StorageException {
+            if (test.failShard) {
+                throw new StorageException("Shard 1 is down");
+            }
+            return super.insertAll(books);
+        }
+
+        @Override
+        public int[] applyAll(List<BookWrite> writes) throws StorageException {
+            if (test.failShard) {
+                throw new StorageException("Shard 1 is down");
+            }
+            return super.applyAll(writes);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * SuggestIndex must rank the same completions as counting the books by
+ * brute force, after random puts and removes, with changes waiting in the
+ * delta, while a fold of the delta is under way, and after it.
+ */
+class SuggestIndexTest {
+
+    // Each plain letter with variants that fold to it, so one value is stored under several spellings
+    private static final String[] LETTERS = { "aAáÀ", "eEéÊ", "oOö", "nNñ", "cCç", "tT", "rR", "sS" };
+
+    private final Random random = new Random(20241019);
+    // What the index should hold: book id -> name and author
+    private final Map<Integer, Book> books = new HashMap<>();
+
+    @Test
+    void loadedIndexMatchesBruteForce() throws Exception {
+        SuggestIndex index = loadRandom(2000);
+
+        assertMatches(index, 300);
+    }
+
+    @Test
+    void putsAndRemovesMatchBruteForceThroughAFold() throws Exception {
+        SuggestIndex index = loadRandom(500);
+        assertMatches(index, 50);
+
+        // Hold the fold back so that queries have to merge the folding and the new delta
+        CountDownLatch release = new CountDownLatch(1);
+        SuggestIndex.REBUILDER.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        boolean folded = false;
+        try {
+            for (int op = 0; op < 6000; op++) {
+                change(index, 3000);
+                if (op % 100 == 0) {
+                    assertMatches(index, 20);
+                }
+                folded |= index.isFolding();
+            }
+            assertTrue(folded, "more than MIN_DELTA values changed but no fold started");
+            assertMatches(index, 200);
+        } finally {
+            release.countDown();
+        }
+
+        awaitFolds(index);
+        assertMatches(index, 200);
+        for (int op = 0; op < 1000; op++) {
+            change(index, 3000);
+        }
+        awaitFolds(index);
+        assertMatches(index, 200);
+    }
+
+    @Test
+    void removingEveryBookLeavesNoSuggestions() throws Exception {
+        SuggestIndex index = loadRandom(300);
+        for (int id : new ArrayList<>(books.keySet())) {
+            index.remove(id);
+            books.remove(id);
+        }
+
+        assertMatches(index, 50);
+        assertEquals(0, index.suggest("", 10).size());
+    }
+
+    private SuggestIndex loadRandom(int count) throws Exception {
+        for (int id = 1; id <= count; id++) {
+            books.put(id, new Book(id, name(), author()));
+        }
+        return SuggestIndex.load(handler -> {
+            for (Book book : new TreeMap<>(books).values()) {
+                handler.handle(book.getId(), book.getName(), book.getAuthor());
+            }
+            return books.size();
+        });
+    }
+
+    // Put or remove a random book among the first maxId ids
+    private void change(SuggestIndex index, int maxId) {
+        int id = 1 + random.nextInt(maxId);
+        if (random.nextInt(4) == 0) {
+            index.remove(id);
+            books.remove(id);
+        } else {
+            Book book = new Book(id, name(), author());
+            index.put(id, book.getName(), book.getAuthor());
+            books.put(id, book);
+        }
+    }
+
+    private void assertMatches(SuggestIndex index, int queries) {
+        for (int i = 0; i < queries; i++) {
+            String prefix = word(0, 3);
+            int k = 1 + random.nextInt(10);
+            assertEquals(bruteForce(prefix, k), actual(index, prefix, k), "prefix \"" + prefix + "\", k=" + k);
+        }
+    }
+
+    // Every book's normalized name and author counted, ranked most books first, then by value and field
+    private List<String> bruteForce(String prefix, int k) {
+        String needle = TrigramIndex.normalize(prefix);
+        Map<String, Integer> counts = new HashMap<>();
+        for (Book book : books.values()) {
+            count(counts, SuggestIndex.NAME, book.getName(), needle);
+            count(counts, SuggestIndex.AUTHOR, book.getAuthor(), needle);
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(counts.entrySet());
+        ranked.sort(Comparator.<Map.Entry<String, Integer>>comparingInt(e -> -e.getValue())
+                .thenComparing(e -> e.getKey().substring(e.getKey().indexOf('|') + 1))
+                .thenComparing(e -> e.getKey().substring(0, e.getKey().indexOf('|'))));
+        List<String> top = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && i < k; i++) {
+            top.add(ranked.get(i).getKey() + "|" + ranked.get(i).getValue());
+        }
+        return top;
+    }
+
+    private static void count(Map<String, Integer> counts, String field, String text, String needle) {
+        String key = text != null ? TrigramIndex.normalize(text) : "";
+        if (!key.isEmpty() && key.startsWith(needle)) {
+            counts.merge(field + "|" + key, 1, Integer::sum);
+        }
+    }
+
+    // The suggestions as field|normalized text|books, so any stored spelling of a value matches
+    private static List<String> actual(SuggestIndex index, String prefix, int k) {
+        List<String> top = new ArrayList<>();
+        for (Suggestion suggestion : index.suggest(prefix, k)) {
+            top.add(suggestion.getField() + "|" + TrigramIndex.normalize(suggestion.getText()) + "|"
+                    + suggestion.getBooks());
+        }
+        return top;
+    }
+
+    // Wait until no fold is queued or running; a finished fold may start the next one
+    private static void awaitFolds(SuggestIndex index) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (index.isFolding()) {
+            assertTrue(System.nanoTime() < deadline, "fold did not finish");
+            Thread.sleep(5);
+        }
+        assertFalse(index.isFolding());
+    }
+
+    // Names spread over many values, so the changes outgrow MIN_DELTA; authors over few, so counts tie and grow
+    private String name() {
+        return word(1, 4) + " " + random.nextInt(400);
+    }
+
+    private String author() {
+        return random.nextInt(30) == 0 ? null : word(1, 2);
+    }
+
+    private String word(int minLength, int maxLength) {
+        StringBuilder word = new StringBuilder();
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        for (int i = 0; i < length; i++) {
+            String variants = LETTERS[random.nextInt(LETTERS.length)];
+            word.append(variants.charAt(random.nextInt(variants.length())));
+        }
+        return word.toString();
+    }
+}
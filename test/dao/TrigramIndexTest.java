@@ -0,0 +1,117 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Book;
+
+/**
+ * TrigramIndex must return the same rows as the SQL LIKE search it stands in
+ * for. Both are filled with the same random catalog, heavy on accented and
+ * upper-case letters, and asked the same random queries.
+ */
+class TrigramIndexTest {
+
+    // Each plain letter with variants that fold to it under the case- and accent-insensitive collation
+    private static final String[] LETTERS = {
+        "aAáÁàâ", "eEéÉèê", "iIíÎ", "oOöÖô", "uUüÜú", "nNñÑ", "cCçÇ", "sS", "tT", "rR", " ", "1",
+    };
+
+    private final Random random = new Random(20240611);
+    private JdbcBookStore store;
+    private TrigramIndex index;
+
+    @BeforeEach
+    void fill() throws Exception {
+        store = EmbeddedDatabase.newStore();
+        index = new TrigramIndex();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            books.add(new Book(0, word(3, 20), word(2, 12)));
+        }
+        int[] ids = store.insertAll(books);
+        for (int i = 0; i < ids.length; i++) {
+            index.add(ids[i], books.get(i).getName(), books.get(i).getAuthor());
+        }
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void randomQueriesMatchSqlLike() throws Exception {
+        for (int i = 0; i < 400; i++) {
+            String query = word(1, 6);
+            assertEquals(ids(store.search(query)), ids(index.search(query)), "query \"" + query + "\"");
+        }
+    }
+
+    @Test
+    void matchesAfterUpdatesAndDeletes() throws Exception {
+        List<Book> all = store.findAll();
+        for (int i = 0; i < 300; i++) {
+            Book book = all.get(random.nextInt(all.size()));
+            // Applied to the index only when the row changed, as BookDAO does
+            if (random.nextBoolean()) {
+                String name = word(3, 20);
+                if (store.update(book.getId(), name, book.getAuthor()) > 0) {
+                    index.update(book.getId(), name, book.getAuthor());
+                }
+            } else if (store.delete(book.getId()) > 0) {
+                index.remove(book.getId());
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            String query = word(2, 5);
+            assertEquals(ids(store.search(query)), ids(index.search(query)), "query \"" + query + "\"");
+        }
+    }
+
+    @Test
+    void foldsCaseAndAccents() throws Exception {
+        int id = store.insert("Les Misérables", "Émile Zola");
+        index.add(id, "Les Misérables", "Émile Zola");
+        for (String query : new String[] {"MISERABLES", "misérables", "EMILE", "émile zo", "s Mis"}) {
+            List<Integer> expected = ids(store.search(query));
+            assertEquals(expected, ids(index.search(query)), "query \"" + query + "\"");
+            assertEquals(true, expected.contains(id), "query \"" + query + "\"");
+        }
+    }
+
+    @Test
+    void leavesWildcardQueriesToSql() {
+        assertNull(index.search("a%b"));
+        assertNull(index.search("a_b"));
+        assertNull(index.search("a\\b"));
+    }
+
+    // Random text over LETTERS, picking a random variant of each letter
+    private String word(int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            String variants = LETTERS[random.nextInt(LETTERS.length)];
+            sb.append(variants.charAt(random.nextInt(variants.length())));
+        }
+        return sb.toString();
+    }
+
+    private static List<Integer> ids(List<Book> books) {
+        List<Integer> ids = new ArrayList<>();
+        for (Book book : books) {
+            ids.add(book.getId());
+        }
+        ids.sort(null);
+        return ids;
+    }
+}
@@ -0,0 +1,244 @@
+package db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * ConnectionPool against in-memory H2 databases: the size limit and wait
+ * timeout, validation on borrow, idle eviction, resetting cached statements
+ * and transactions on return, the stats counters and leak reports.
+ */
+class ConnectionPoolTest {
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private ConnectionPool pool;
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    @Test
+    void exhaustedPoolWaitsThenTimesOut() throws Exception {
+        pool = newPool(0, 2, 200, 600_000, 0);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+
+        long start = System.nanoTime();
+        SQLException e = assertThrows(SQLException.class, pool::getConnection);
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(e.getMessage().startsWith("Timed out after 200 ms"), e.getMessage());
+        assertTrue(waitedMillis >= 150, "waited " + waitedMillis + " ms");
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void waiterGetsTheNextReturnedConnection() throws Exception {
+        pool = newPool(0, 2, 10_000, 600_000, 0);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        CompletableFuture<Connection> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.getConnection();
+            } catch (SQLException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        while (pool.getStats().getWaiters() == 0) {
+            Thread.sleep(5);
+        }
+        first.close();
+        Connection third = waiter.get(5, TimeUnit.SECONDS);
+        assertFalse(third.isClosed());
+        third.close();
+        second.close();
+    }
+
+    @Test
+    void brokenIdleConnectionIsReplacedOnBorrow() throws Exception {
+        pool = newPool(0, 1, 1_000, 600_000, 0);
+        Connection handle = pool.getConnection();
+        Connection physical = handle.unwrap(Connection.class);
+        handle.close();
+        // Dies while idle, e.g. closed by the server
+        physical.close();
+        // Past the window in which recently returned connections skip validation
+        Thread.sleep(700);
+
+        try (Connection con = pool.getConnection()) {
+            assertNotSame(physical, con.unwrap(Connection.class));
+            assertEquals(1, selectOne(con));
+        }
+    }
+
+    @Test
+    void idleConnectionsAboveMinimumAreEvicted() throws Exception {
+        pool = newPool(1, 4, 1_000, 100, 0);
+        Connection a = pool.getConnection();
+        Connection b = pool.getConnection();
+        Connection c = pool.getConnection();
+        a.close();
+        b.close();
+        c.close();
+        assertEquals(3, pool.getStats().getIdle());
+
+        Thread.sleep(200);
+        pool.housekeep();
+
+        assertEquals(1, pool.getStats().getIdle());
+        assertEquals(0, pool.getStats().getActive());
+    }
+
+    @Test
+    void closedStatementIsResetForTheNextBorrower() throws Exception {
+        pool = newPool(0, 1, 1_000, 600_000, 0);
+        PreparedStatement cached;
+        ResultSet open;
+        try (Connection con = pool.getConnection()) {
+            PreparedStatement stmt = con.prepareStatement("SELECT id FROM books WHERE id > ? ORDER BY id");
+            cached = stmt.unwrap(PreparedStatement.class);
+            stmt.setInt(1, 0);
+            open = stmt.executeQuery();
+            assertTrue(open.next());
+            stmt.close();
+
+            assertTrue(open.isClosed());
+            assertThrows(SQLException.class, stmt::executeQuery);
+        }
+
+        try (Connection con = pool.getConnection()) {
+            PreparedStatement stmt = con.prepareStatement("SELECT id FROM books WHERE id > ? ORDER BY id");
+            assertSame(cached, stmt.unwrap(PreparedStatement.class));
+            // The previous borrower's parameter is gone
+            assertThrows(SQLException.class, stmt::executeQuery);
+            stmt.close();
+
+            PreparedStatement insert = con.prepareStatement("INSERT INTO books (name, author) VALUES (?, ?)");
+            insert.setString(1, "Batched");
+            insert.setString(2, "Never run");
+            insert.addBatch();
+            insert.close();
+            insert = con.prepareStatement("INSERT INTO books (name, author) VALUES (?, ?)");
+            assertEquals(0, insert.executeBatch().length);
+            insert.close();
+        }
+    }
+
+    @Test
+    void unfinishedTransactionIsRolledBackOnReturn() throws Exception {
+        pool = newPool(0, 1, 1_000, 600_000, 0);
+        try (Connection con = pool.getConnection();
+             Statement stmt = con.createStatement()) {
+            con.setAutoCommit(false);
+            stmt.executeUpdate("INSERT INTO books (name, author) VALUES ('Uncommitted', 'Nobody')");
+        }
+
+        try (Connection con = pool.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM books WHERE name = 'Uncommitted'")) {
+            assertTrue(con.getAutoCommit());
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    @Test
+    void statsCountBorrowsWaitsAndTimeouts() throws Exception {
+        pool = newPool(0, 1, 100, 600_000, 0);
+        Connection con = pool.getConnection();
+        assertThrows(SQLException.class, pool::getConnection);
+
+        PoolStats held = pool.getStats();
+        assertEquals(1, held.getActive());
+        assertEquals(0, held.getIdle());
+        assertEquals(1, held.getBorrows());
+        assertEquals(1, held.getTimeouts());
+        assertEquals(1, held.getMaxSize());
+        assertTrue(held.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(80), held.toString());
+
+        con.close();
+        pool.getConnection().close();
+        PoolStats returned = pool.getStats();
+        assertEquals(0, returned.getActive());
+        assertEquals(1, returned.getIdle());
+        assertEquals(2, returned.getBorrows());
+        assertEquals(1, returned.getTimeouts());
+    }
+
+    @Test
+    void leaksAreReportedOnceUnlessTheBorrowerOptsOut() throws Exception {
+        pool = newPool(0, 3, 1_000, 600_000, 1);
+        Connection leaked = pool.getConnection();
+        Connection streaming = pool.getConnection();
+        ConnectionPool.setLeakThreshold(streaming, 0);
+        Connection slow = pool.getConnection();
+        ConnectionPool.setLeakThreshold(slow, 60_000);
+        Thread.sleep(20);
+
+        String first = housekeepOutput();
+        String second = housekeepOutput();
+
+        assertEquals(1, first.split("Possible connection leak", -1).length - 1, first);
+        assertTrue(first.contains(ConnectionPoolTest.class.getName()), first);
+        assertEquals("", second);
+        leaked.close();
+        streaming.close();
+        slow.close();
+    }
+
+    private String housekeepOutput() {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            pool.housekeep();
+        } finally {
+            System.setOut(out);
+        }
+        return new String(captured.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // A pool on a new database with a books table
+    private static ConnectionPool newPool(int minSize, int maxSize, long maxWaitMillis, long idleTimeoutMillis,
+                                          long leakThresholdMillis) throws SQLException {
+        String url = "jdbc:h2:mem:pool_test_" + COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+        try (Connection con = DriverManager.getConnection(url, "sa", "");
+             Statement stmt = con.createStatement()) {
+            stmt.execute("CREATE TABLE books (id INT AUTO_INCREMENT PRIMARY KEY, "
+                    + "name VARCHAR(255) NOT NULL, author VARCHAR(255) NOT NULL)");
+            stmt.execute("INSERT INTO books (name, author) VALUES ('Dune', 'Frank Herbert')");
+        }
+        return new ConnectionPool(url, "sa", "", minSize, maxSize, maxWaitMillis, idleTimeoutMillis,
+                leakThresholdMillis, 8);
+    }
+
+    private static int selectOne(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}